@@ -0,0 +1,144 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+/**
+ * Benchmarks for {@link BinarySearcher}. The needle never occurs in the haystack, so every search
+ * has to go all the way to the other end of it, which is what the user waits for when there is
+ * no match.
+ *
+ * @author trejkaz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BinarySearcherBenchmark {
+
+    /**
+     * Size of the block which is repeated to make up the haystack.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @Param({ "1048576", "67108864", "4294967296" })
+    public long haystackSize;
+
+    @Param({ "4", "16", "64", "256" })
+    public int needleLength;
+
+    @Param
+    public NeedleKind needleKind;
+
+    @Param
+    public Direction direction;
+
+    private Binary haystack;
+    private Searcher searcher;
+    private SearchParams params;
+    private long startPosition;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] needle = new byte[needleLength];
+        switch (needleKind) {
+            case RANDOM:
+                // Random bytes everywhere, except that the needle ends in a byte the haystack never contains.
+                // Everything but the last byte of the needle still lines up with the haystack as often as
+                // random data would.
+                for (int i = 0; i < block.length; i++) {
+                    block[i] = (byte) random.nextInt(255);
+                }
+                for (int i = 0; i < needle.length - 1; i++) {
+                    needle[i] = (byte) random.nextInt(255);
+                }
+                needle[needle.length - 1] = (byte) 0xFF;
+                break;
+            case WORST_CASE:
+                // AAAA...B in a haystack of nothing but A, so the needle almost matches everywhere.
+                Arrays.fill(block, (byte) 'A');
+                Arrays.fill(needle, (byte) 'A');
+                needle[needle.length - 1] = (byte) 'B';
+                break;
+            case WORST_CASE_REVERSED:
+                // BAAA...A in a haystack of nothing but A, the mirror image of the above for the other direction.
+                Arrays.fill(block, (byte) 'A');
+                Arrays.fill(needle, (byte) 'A');
+                needle[0] = (byte) 'B';
+                break;
+        }
+
+        haystack = new RepeatingBinary(block, haystackSize);
+        searcher = new BinarySearcher(BinaryFactory.wrap(needle));
+        params = new SearchParams(false, direction == Direction.BACKWARDS);
+        startPosition = direction == Direction.BACKWARDS ? haystackSize : 0;
+    }
+
+    /**
+     * Runs one search. Returns whether something was found, so that the search can't be optimised away,
+     * without exposing the package-private match type to the generated benchmark code.
+     *
+     * @return {@code true} if the needle was found.
+     */
+    @Benchmark
+    public boolean find() {
+        return searcher.find(haystack, startPosition, params) != null;
+    }
+
+    /**
+     * The kinds of needle to search for. The needle is compared from its last byte when searching forwards
+     * and from its first byte when searching backwards, so each of the two worst cases is only the worst
+     * for one direction.
+     */
+    public enum NeedleKind {
+        RANDOM,
+        WORST_CASE,
+        WORST_CASE_REVERSED
+    }
+
+    /**
+     * The directions to search in.
+     */
+    public enum Direction {
+        FORWARDS,
+        BACKWARDS
+    }
+}
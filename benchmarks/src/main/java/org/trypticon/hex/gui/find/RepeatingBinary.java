@@ -0,0 +1,79 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * A binary made of one block of bytes repeated up to a given length. Lets the benchmarks search
+ * haystacks far bigger than would fit in memory, without having to write them out to disk first.
+ *
+ * @author trejkaz
+ */
+class RepeatingBinary implements Binary {
+    private final byte[] block;
+    private final long length;
+
+    /**
+     * Constructs the binary.
+     *
+     * @param block the block to repeat.
+     * @param length the length of the binary.
+     */
+    RepeatingBinary(byte[] block, long length) {
+        if (block.length == 0) {
+            throw new IllegalArgumentException("Block cannot be empty");
+        }
+        this.block = block.clone();
+        this.length = length;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public byte read(long position) {
+        if (position < 0 || position >= length) {
+            throw new IndexOutOfBoundsException("Position " + position + " is outside 0.." + length);
+        }
+        return block[(int) (position % block.length)];
+    }
+
+    @Override
+    public void read(long position, ByteBuffer buffer) {
+        if (position < 0 || position + buffer.remaining() > length) {
+            throw new IndexOutOfBoundsException("Range " + position + "+" + buffer.remaining() +
+                                                " is outside 0.." + length);
+        }
+        int offset = (int) (position % block.length);
+        while (buffer.hasRemaining()) {
+            int count = Math.min(block.length - offset, buffer.remaining());
+            buffer.put(block, offset, count);
+            offset = 0;
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
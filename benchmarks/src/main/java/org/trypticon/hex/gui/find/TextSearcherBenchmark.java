@@ -0,0 +1,136 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Benchmarks for {@link TextSearcher}. As with {@link BinarySearcherBenchmark}, the needle never occurs
+ * in the haystack, so every search covers all of it.
+ *
+ * @author trejkaz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TextSearcherBenchmark {
+
+    /**
+     * Number of characters in the block of text which is repeated to make up the haystack.
+     */
+    private static final int BLOCK_CHARS = 32 * 1024;
+
+    @Param({ "1048576", "67108864", "4294967296" })
+    public long haystackSize;
+
+    @Param({ "4", "16", "64" })
+    public int needleLength;
+
+    @Param({ "UTF-8", "UTF-16LE", "windows-1252" })
+    public String charsetName;
+
+    @Param
+    public NeedleKind needleKind;
+
+    @Param
+    public BinarySearcherBenchmark.Direction direction;
+
+    private Binary haystack;
+    private Searcher searcher;
+    private SearchParams params;
+    private long startPosition;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        StringBuilder text = new StringBuilder(BLOCK_CHARS);
+        StringBuilder needle = new StringBuilder(needleLength);
+        switch (needleKind) {
+            case RANDOM:
+                // Words made of a to y, and a needle which ends in a z, so that it never matches but still
+                // starts with the same characters as plenty of places in the haystack.
+                while (text.length() < BLOCK_CHARS) {
+                    int wordLength = 1 + random.nextInt(10);
+                    for (int i = 0; i < wordLength && text.length() < BLOCK_CHARS - 1; i++) {
+                        text.append((char) ('a' + random.nextInt(25)));
+                    }
+                    text.append(' ');
+                }
+                for (int i = 0; i < needleLength - 1; i++) {
+                    needle.append((char) ('a' + random.nextInt(25)));
+                }
+                needle.append('z');
+                break;
+            case WORST_CASE:
+                // aaaa...b in a haystack of nothing but a, so that every position gets past the filter
+                // on the first character and has to be decoded.
+                for (int i = 0; i < BLOCK_CHARS; i++) {
+                    text.append('a');
+                }
+                for (int i = 0; i < needleLength - 1; i++) {
+                    needle.append('a');
+                }
+                needle.append('b');
+                break;
+        }
+
+        Charset charset = Charset.forName(charsetName);
+        haystack = new RepeatingBinary(text.toString().getBytes(charset), haystackSize);
+        searcher = new TextSearcher(needle.toString(), charset);
+        params = new SearchParams(false, direction == BinarySearcherBenchmark.Direction.BACKWARDS);
+        startPosition = direction == BinarySearcherBenchmark.Direction.BACKWARDS ? haystackSize : 0;
+    }
+
+    /**
+     * Runs one search.
+     *
+     * @return {@code true} if the needle was found.
+     */
+    @Benchmark
+    public boolean find() {
+        return searcher.find(haystack, startPosition, params) != null;
+    }
+
+    /**
+     * The kinds of needle to search for.
+     */
+    public enum NeedleKind {
+        RANDOM,
+        WORST_CASE
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats;
+
+import org.trypticon.hex.anno.Annotation;
+
+/**
+ * Receives progress information from a structure being dropped and tells it when to stop.
+ * Drops usually run on a background thread, so implementations must be thread-safe.
+ *
+ * @author trejkaz
+ */
+public interface DropMonitor {
+
+    /**
+     * A monitor which ignores progress and never cancels.
+     */
+    DropMonitor NONE = new DropMonitor() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void advanced(long position) {
+        }
+
+        @Override
+        public void dropped(Annotation annotation, int depth) {
+        }
+
+        @Override
+        public void droppedPartially(Annotation annotation) {
+        }
+    };
+
+    /**
+     * Tests whether the drop should stop.
+     * Drops which find this to be {@code true} throw {@link java.util.concurrent.CancellationException}.
+     *
+     * @return {@code true} if the drop should stop, {@code false} otherwise.
+     */
+    boolean isCancelled();
+
+    /**
+     * Called periodically as the drop moves through the binary.
+     *
+     * @param position the position the drop has reached.
+     */
+    void advanced(long position);
+
+    /**
+     * Called as each field is finished, at any depth in the structure, including each element of an array
+     * which isn't created all at once. A field is finished after the fields inside it, so the fields reported
+     * since the last one at the same depth or shallower are the ones inside it.
+     *
+     * @param annotation the annotation for the field, which is the same one which ends up inside the annotation
+     *        for the whole structure.
+     * @param depth the depth of the field, which is {@code 1} for the fields of the structure itself, {@code 2}
+     *        for the fields inside those, and so on.
+     */
+    void dropped(Annotation annotation, int depth);
+
+    /**
+     * Called when the drop fails or is cancelled, before the exception is thrown, if any of the structure was
+     * finished. The annotation is grouped the way the whole structure would have been. Fields which were only
+     * partly dropped are groups of the fields inside them which were finished.
+     *
+     * @param annotation the annotation for the part of the structure which was finished.
+     */
+    void droppedPartially(Annotation annotation);
+}
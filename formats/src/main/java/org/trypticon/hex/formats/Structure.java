@@ -34,6 +34,16 @@ public interface Structure {
      */
     String getName();
 
+    /**
+     * Gets the length of the structure, if it's always the same.
+     * The default implementation doesn't know the length until the structure has been dropped.
+     *
+     * @return the length, or {@code -1} if it depends on the binary.
+     */
+    default long getFixedLength() {
+        return -1;
+    }
+
     /**
      * Creates an annotation representing the structure.  May be a group annotation containing further annotations.
      *
@@ -42,4 +52,22 @@ public interface Structure {
      * @return the created annotation.
      */
     Annotation drop(Binary binary, long position);
+
+    /**
+     * Creates an annotation representing the structure, reporting progress as it goes.
+     * The default implementation reports nothing until the whole structure has been dropped.
+     *
+     * @param binary the binary to annotate.
+     * @param position the position to start from.
+     * @param monitor the monitor to report progress to.
+     * @return the created annotation.
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the drop.
+     */
+    default Annotation drop(Binary binary, long position, DropMonitor monitor) {
+        Annotation annotation = drop(binary, position);
+        if (annotation != null) {
+            monitor.advanced(annotation.getPosition() + annotation.getLength());
+        }
+        return annotation;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches the structures loaded from script files, so that a script doesn't have to be run again
+ * until it, or one of the files it requires, has been modified.
+ *
+ * @author trejkaz
+ */
+public class StructureCache {
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the structure for a script file, if it's in the cache and still up to date.
+     *
+     * @param scriptFile the script file.
+     * @return the structure, or {@code null} if it isn't cached or the script has been modified since.
+     */
+    @Nullable
+    public Structure get(Path scriptFile) {
+        Entry entry = entries.get(scriptFile);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isUpToDate()) {
+            entries.remove(scriptFile, entry);
+            return null;
+        }
+        return entry.structure;
+    }
+
+    /**
+     * Puts the structure for a script file into the cache.
+     *
+     * @param scriptFile the script file.
+     * @param structure the structure.
+     * @param modificationTimes the modification times of the script file and each file it required,
+     *        as they were before the script was run.
+     */
+    public void put(Path scriptFile, Structure structure, Map<Path, FileTime> modificationTimes) {
+        entries.put(scriptFile, new Entry(structure, modificationTimes));
+    }
+
+    /**
+     * Gets the modification time of a file.
+     *
+     * @param file the file.
+     * @return the modification time, or {@code null} if it couldn't be determined.
+     */
+    @Nullable
+    public static FileTime getModificationTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static class Entry {
+        private final Structure structure;
+        private final Map<Path, FileTime> modificationTimes;
+
+        private Entry(Structure structure, Map<Path, FileTime> modificationTimes) {
+            this.structure = structure;
+            this.modificationTimes = modificationTimes;
+        }
+
+        private boolean isUpToDate() {
+            for (Map.Entry<Path, FileTime> entry : modificationTimes.entrySet()) {
+                if (!entry.getValue().equals(getModificationTime(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
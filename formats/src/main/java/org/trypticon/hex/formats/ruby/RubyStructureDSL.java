@@ -21,16 +21,21 @@ package org.trypticon.hex.formats.ruby;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
-import org.jruby.embed.LocalContextScope;
-import org.jruby.embed.LocalVariableBehavior;
 import org.jruby.embed.ScriptingContainer;
 
 import org.trypticon.hex.formats.Structure;
-import org.trypticon.hex.interpreters.MasterInterpreterStorage;
+import org.trypticon.hex.formats.StructureCache;
 
 /**
  * Java entry point to a Ruby DSL for creating structures.
@@ -38,58 +43,160 @@ import org.trypticon.hex.interpreters.MasterInterpreterStorage;
  * @author trejkaz
  */
 public class RubyStructureDSL {
+    private static final RuntimePool runtimePool = new RuntimePool(2);
+    private static final StructureCache structureCache = new StructureCache();
+
+    private final RuntimePool pool;
     private final String scriptlet;
     private final Path scriptFile;
 
-    private RubyStructureDSL(@NonNls String scriptlet) {
+    private RubyStructureDSL(RuntimePool pool, @NonNls String scriptlet) {
+        this.pool = pool;
         this.scriptlet = scriptlet;
         this.scriptFile = null;
     }
 
-    private RubyStructureDSL(Path scriptFile) {
+    private RubyStructureDSL(RuntimePool pool, Path scriptFile) {
+        this.pool = pool;
         this.scriptlet = null;
         this.scriptFile = scriptFile;
     }
 
     @TestOnly
     public static Structure loadScriptlet(@NonNls String scriptlet) {
-        return new RubyStructureDSL(scriptlet).createStructure();
+        return loadScriptlet(scriptlet, runtimePool);
     }
 
+    @TestOnly
+    static Structure loadScriptlet(@NonNls String scriptlet, RuntimePool pool) {
+        return new RubyStructureDSL(pool, scriptlet).createStructure(null);
+    }
+
+    /**
+     * Loads the structure defined by a script file. The structure is cached, so loading the same file again
+     * doesn't run the script again unless the file, or one of the files it requires, has been modified.
+     *
+     * @param file the script file.
+     * @return the structure.
+     */
     public static Structure loadFromFile(@NonNls Path file) {
-        return new RubyStructureDSL(file).createStructure();
+        return loadFromFile(file, runtimePool);
     }
 
-    private Structure createStructure() {
-        // Default behaviour of ScriptingContainer seems broken, but we can improve it.
-        ScriptingContainer container = new ScriptingContainer(LocalContextScope.THREADSAFE,
-                                                              LocalVariableBehavior.PERSISTENT);
+    /**
+     * Loads the structure defined by a script file, taking the runtime to run it in from the given pool.
+     *
+     * @param file the script file.
+     * @param pool the pool of runtimes.
+     * @return the structure.
+     */
+    static Structure loadFromFile(@NonNls Path file, RuntimePool pool) {
+        Structure structure = structureCache.get(file);
+        if (structure == null) {
+            Map<Path, FileTime> modificationTimes = new HashMap<>();
+            structure = new RubyStructureDSL(pool, file).createStructure(modificationTimes);
+            if (modificationTimes.containsKey(file)) {
+                structureCache.put(file, structure, modificationTimes);
+            }
+        }
+        return structure;
+    }
+
+    /**
+     * Starts a Ruby runtime with the DSL loaded, if there isn't one waiting already, so that the
+     * first script to be loaded doesn't have to wait for it.
+     */
+    public static void warmUp() {
         try {
-            container.put("$interpreter_storage", new MasterInterpreterStorage());
+            runtimePool.prestart();
+        } catch (IOException e) {
+            throw new RuntimeException("Error loading the structure DSL", e);
+        }
+    }
 
-            // Set up the library scripts will have by default.
-            @NonNls
-            String fileName = RubyStructureDSL.class.getPackage().getName().replace('.', '/') + "/structure_dsl.rb";
-            try (InputStream resource = getClass().getResourceAsStream("structure_dsl.rb")) {
-                container.runScriptlet(resource, "classpath:" + fileName);
-            }
+    /**
+     * Runs the script to create the structure.
+     *
+     * @param modificationTimes if not {@code null}, the modification times of the script file and each file
+     *        it requires are put into it. Files which can't be found on the file system are left out.
+     * @return the structure.
+     */
+    private Structure createStructure(@Nullable Map<Path, FileTime> modificationTimes) {
+        ScriptingContainer container = null;
+        boolean succeeded = false;
+        try {
+            container = pool.acquire();
 
             // Run the script itself, which should return a Structure instance.
             Object instance;
             if (scriptFile != null) {
+                // Taken before the script runs, so that changes made while it's running make the cache stale.
+                FileTime modificationTime = StructureCache.getModificationTime(scriptFile);
                 try (InputStream resource = Files.newInputStream(scriptFile)) {
                     instance = container.runScriptlet(resource, pathToJRubyPath(scriptFile));
                 }
+                if (modificationTimes != null && modificationTime != null) {
+                    modificationTimes.put(scriptFile, modificationTime);
+                    addRequiredFiles(container, modificationTimes);
+                }
             } else {
                 instance = container.runScriptlet(scriptlet);
             }
 
-            return container.getInstance(instance, Structure.class);
+            // Structures defined with the DSL are already Java objects, but a script could still implement
+            // the interface in Ruby.
+            Structure structure;
+            boolean rubyCallbacks;
+            if (instance instanceof Structure) {
+                structure = (Structure) instance;
+                rubyCallbacks = Boolean.TRUE.equals(container.runScriptlet("structure_dsl_ruby_callbacks?"));
+            } else {
+                structure = container.getInstance(instance, Structure.class);
+                rubyCallbacks = true;
+            }
+
+            // A structure which calls back into Ruby needs the runtime for as long as it lives, so the runtime
+            // can't go back to the pool.
+            if (rubyCallbacks) {
+                structure = pool.bind(structure, container);
+                container = null;
+            }
+            succeeded = true;
+            return structure;
         } catch (IOException | RuntimeException e) {
             String source = scriptFile != null ? scriptFile.toString() : scriptlet;
             throw new RuntimeException("Error loading script: \n" + source, e);
         } finally {
-            container.terminate();
+            if (container != null) {
+                if (succeeded) {
+                    pool.release(container);
+                } else {
+                    pool.discard(container);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the modification times of the files the script required.
+     *
+     * @param container the runtime the script ran in.
+     * @param modificationTimes the map to add the modification times to.
+     */
+    private static void addRequiredFiles(ScriptingContainer container, Map<Path, FileTime> modificationTimes) {
+        List<?> requiredFiles = (List<?>) container.runScriptlet("structure_dsl_required_files");
+        for (Object requiredFile : requiredFiles) {
+            Path path;
+            try {
+                path = Paths.get(String.valueOf(requiredFile));
+            } catch (InvalidPathException e) {
+                // Not a file on the file system, e.g. something from a jar.
+                continue;
+            }
+            FileTime modificationTime = StructureCache.getModificationTime(path);
+            if (modificationTime != null) {
+                modificationTimes.put(path, modificationTime);
+            }
         }
     }
 
@@ -0,0 +1,66 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.ruby;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.formats.DropMonitor;
+import org.trypticon.hex.formats.Structure;
+
+/**
+ * A structure which calls back into the Ruby runtime its script ran in, such as a switch with a block.
+ * The runtime belongs to the structure alone instead of going back to the pool, where it could be reset
+ * for another script or terminated. The pool terminates it once this structure can no longer be reached.
+ *
+ * @see RuntimePool#bind
+ *
+ * @author trejkaz
+ */
+class RuntimeBoundStructure implements Structure {
+    private final Structure delegate;
+
+    /**
+     * Constructs the structure.
+     *
+     * @param delegate the structure defined by the script.
+     */
+    RuntimeBoundStructure(Structure delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public long getFixedLength() {
+        return delegate.getFixedLength();
+    }
+
+    @Override
+    public Annotation drop(Binary binary, long position) {
+        return delegate.drop(binary, position);
+    }
+
+    @Override
+    public Annotation drop(Binary binary, long position, DropMonitor monitor) {
+        return delegate.drop(binary, position, monitor);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.ruby;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.TestOnly;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.LocalVariableBehavior;
+import org.jruby.embed.ScriptingContainer;
+
+import org.trypticon.hex.formats.Structure;
+import org.trypticon.hex.interpreters.MasterInterpreterStorage;
+
+/**
+ * A pool of Ruby runtimes which already have the structure DSL loaded. Starting a runtime and loading
+ * the DSL takes far longer than running a typical structure script, so runtimes are reused from one
+ * script to the next instead of being thrown away.
+ * Runtimes which structures still call back into are kept out of the pool until the structures are gone.
+ *
+ * @author trejkaz
+ */
+class RuntimePool {
+    private final int maxIdle;
+    private final Deque<ScriptingContainer> idle = new ArrayDeque<>();
+
+    // The references have to be reachable themselves, or they would never be enqueued.
+    private final Set<BoundRuntime> bound = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Structure> unreachable = new ReferenceQueue<>();
+    private Thread reaper;
+
+    /**
+     * Constructs the pool.
+     *
+     * @param maxIdle the maximum number of runtimes to keep around while they aren't in use.
+     */
+    RuntimePool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Takes a runtime from the pool, starting a new one if there are none left. The runtime is ready for
+     * a script to be run in it, with no structures left over from any script run in it before.
+     * Unless the caller keeps the runtime for good, it should be passed to {@link #release} or
+     * {@link #discard} afterwards.
+     *
+     * @return the runtime.
+     * @throws IOException if an error occurs loading the structure DSL into a new runtime.
+     */
+    ScriptingContainer acquire() throws IOException {
+        ScriptingContainer container;
+        synchronized (idle) {
+            container = idle.pollFirst();
+        }
+        if (container == null) {
+            container = create();
+        }
+        container.runScriptlet("reset_structure_dsl");
+        return container;
+    }
+
+    /**
+     * Returns a runtime to the pool, after a script has run in it successfully. A runtime where a script
+     * failed might have been left in any state, so it should be passed to {@link #discard} instead.
+     *
+     * @param container the runtime.
+     */
+    void release(ScriptingContainer container) {
+        synchronized (idle) {
+            if (idle.size() < maxIdle) {
+                idle.addFirst(container);
+                return;
+            }
+        }
+        container.terminate();
+    }
+
+    /**
+     * Throws away a runtime instead of returning it to the pool.
+     *
+     * @param container the runtime.
+     */
+    void discard(ScriptingContainer container) {
+        container.terminate();
+    }
+
+    /**
+     * Hands a runtime over to a structure which calls back into it, instead of returning it to the pool.
+     * The runtime is terminated once the structure returned can no longer be reached, which for a cached
+     * structure means it has been evicted from the cache and nothing else is using it.
+     *
+     * @param structure the structure created by the script.
+     * @param container the runtime the script ran in.
+     * @return the structure to use in place of the one created by the script.
+     */
+    Structure bind(Structure structure, ScriptingContainer container) {
+        Structure boundStructure = new RuntimeBoundStructure(structure);
+        bound.add(new BoundRuntime(boundStructure, container, unreachable));
+        synchronized (bound) {
+            if (reaper == null) {
+                reaper = new Thread(this::terminateUnreachable, "Ruby runtime reaper"); //NON-NLS
+                reaper.setDaemon(true);
+                reaper.start();
+            }
+        }
+        return boundStructure;
+    }
+
+    /**
+     * Gets the number of runtimes which structures still hold on to.
+     *
+     * @return the number of runtimes.
+     */
+    @TestOnly
+    int getBoundCount() {
+        return bound.size();
+    }
+
+    /**
+     * Terminates the runtimes of structures as they become unreachable. Runs for as long as the application.
+     */
+    private void terminateUnreachable() {
+        while (true) {
+            BoundRuntime runtime;
+            try {
+                runtime = (BoundRuntime) unreachable.remove();
+            } catch (InterruptedException e) {
+                return;
+            }
+            runtime.container.terminate();
+            bound.remove(runtime);
+        }
+    }
+
+    /**
+     * Starts a runtime for the pool ahead of time, if the pool has none, so that the first script
+     * doesn't have to wait for it.
+     *
+     * @throws IOException if an error occurs loading the structure DSL into the runtime.
+     */
+    void prestart() throws IOException {
+        synchronized (idle) {
+            if (!idle.isEmpty()) {
+                return;
+            }
+        }
+        release(create());
+    }
+
+    private ScriptingContainer create() throws IOException {
+        // A single runtime for every thread, because the runtime is started on one thread and scripts run in it
+        // on others. Other scopes keep a runtime per thread, which would leave the DSL behind on the first one.
+        // The pool already makes sure only one caller uses a runtime at a time.
+        ScriptingContainer container = new ScriptingContainer(LocalContextScope.SINGLETHREAD,
+                                                              LocalVariableBehavior.PERSISTENT);
+        boolean succeeded = false;
+        try {
+            container.put("$interpreter_storage", new MasterInterpreterStorage());
+
+            // Set up the library scripts will have by default.
+            @NonNls
+            String fileName = RuntimePool.class.getPackage().getName().replace('.', '/') + "/structure_dsl.rb";
+            try (InputStream resource = RuntimePool.class.getResourceAsStream("structure_dsl.rb")) {
+                container.runScriptlet(resource, "classpath:" + fileName);
+            }
+            succeeded = true;
+            return container;
+        } finally {
+            if (!succeeded) {
+                container.terminate();
+            }
+        }
+    }
+
+    /**
+     * Keeps a runtime alive for a structure, and leads back to the runtime once the structure is unreachable.
+     */
+    private static class BoundRuntime extends PhantomReference<Structure> {
+        private final ScriptingContainer container;
+
+        private BoundRuntime(Structure structure, ScriptingContainer container,
+                             ReferenceQueue<? super Structure> queue) {
+            super(structure, queue);
+            this.container = container;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.trypticon.hex.formats.tree;
+
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * <p>Parses arithmetic on integers, as used for the lengths and sizes in structure definitions.
+ *    Expressions are parsed once, when the structure is defined, into a tree of expressions which
+ *    can be evaluated each time the structure is dropped without looking at the source again.</p>
+ *
+ * <p>The source can contain decimal and hexadecimal ({@code 0x}) literals, references to fields
+ *    written as {@code :name}, parentheses, unary minus and the binary operators
+ *    {@code ** * / % + - << >> & ^ |}, which have the same precedence as in Ruby. Division rounds towards
+ *    negative infinity, also as in Ruby, so that definitions mean the same thing as they did when they were
+ *    evaluated as Ruby code.</p>
+ *
+ * @author trejkaz
+ */
+class ArithmeticParser {
+    private final String source;
+    private final Function<String, Expression> fields;
+    private int position;
+
+    /**
+     * Constructs the parser.
+     *
+     * @param source the source of the expression.
+     * @param fields creates the expression for a reference to a field, from the name of the field.
+     */
+    ArithmeticParser(String source, Function<String, Expression> fields) {
+        this.source = source;
+        this.fields = fields;
+    }
+
+    /**
+     * Parses the expression.
+     *
+     * @return the expression.
+     * @throws IllegalArgumentException if the expression can't be parsed.
+     */
+    Expression parse() {
+        position = 0;
+        Expression expression = parseOr();
+        skipWhitespace();
+        if (position < source.length()) {
+            throw error("Unexpected character");
+        }
+        return expression;
+    }
+
+    private Expression parseOr() {
+        Expression expression = parseAnd();
+        while (true) {
+            if (accept("|")) {
+                expression = combine(expression, parseAnd(), (a, b) -> a | b);
+            } else if (accept("^")) {
+                expression = combine(expression, parseAnd(), (a, b) -> a ^ b);
+            } else {
+                return expression;
+            }
+        }
+    }
+
+    private Expression parseAnd() {
+        Expression expression = parseShift();
+        while (accept("&")) {
+            expression = combine(expression, parseShift(), (a, b) -> a & b);
+        }
+        return expression;
+    }
+
+    private Expression parseShift() {
+        Expression expression = parseAdditive();
+        while (true) {
+            if (accept("<<")) {
+                expression = combine(expression, parseAdditive(), (a, b) -> a << b);
+            } else if (accept(">>")) {
+                expression = combine(expression, parseAdditive(), (a, b) -> a >> b);
+            } else {
+                return expression;
+            }
+        }
+    }
+
+    private Expression parseAdditive() {
+        Expression expression = parseMultiplicative();
+        while (true) {
+            if (accept("+")) {
+                expression = combine(expression, parseMultiplicative(), (a, b) -> a + b);
+            } else if (accept("-")) {
+                expression = combine(expression, parseMultiplicative(), (a, b) -> a - b);
+            } else {
+                return expression;
+            }
+        }
+    }
+
+    private Expression parseMultiplicative() {
+        Expression expression = parseUnary();
+        while (true) {
+            if (accept("*")) {
+                expression = combine(expression, parseUnary(), (a, b) -> a * b);
+            } else if (accept("/")) {
+                expression = combine(expression, parseUnary(), (a, b) -> Math.floorDiv(a, nonZero(b)));
+            } else if (accept("%")) {
+                expression = combine(expression, parseUnary(), (a, b) -> Math.floorMod(a, nonZero(b)));
+            } else {
+                return expression;
+            }
+        }
+    }
+
+    private Expression parseUnary() {
+        if (accept("-")) {
+            Expression operand = parseUnary();
+            if (operand instanceof Expressions.Constant) {
+                return Expressions.constant(-((Expressions.Constant) operand).getValue());
+            }
+            return (context, binary, description) -> -operand.evaluate(context, binary, description);
+        }
+        return parsePower();
+    }
+
+    private Expression parsePower() {
+        Expression base = parsePrimary();
+        if (!accept("**")) {
+            return base;
+        }
+        // Right associative, and binds tighter than unary minus on the left but not on the right, as in Ruby.
+        return combine(base, parseUnary(), this::power);
+    }
+
+    private Expression parsePrimary() {
+        skipWhitespace();
+        if (accept("(")) {
+            Expression expression = parseOr();
+            if (!accept(")")) {
+                throw error("Expected )");
+            }
+            return expression;
+        }
+        if (position < source.length() && source.charAt(position) == ':') {
+            int start = ++position;
+            while (position < source.length() && isNameChar(source.charAt(position))) {
+                position++;
+            }
+            if (position == start) {
+                throw error("Expected a field name");
+            }
+            return fields.apply(source.substring(start, position));
+        }
+        int radix = 10;
+        if (source.startsWith("0x", position) || source.startsWith("0X", position)) {
+            radix = 16;
+            position += 2;
+        }
+        int start = position;
+        while (position < source.length() &&
+               (Character.digit(source.charAt(position), radix) >= 0 || source.charAt(position) == '_')) {
+            position++;
+        }
+        if (position == start) {
+            throw error("Expected a number");
+        }
+        return Expressions.constant(Long.parseLong(source.substring(start, position).replace("_", ""), radix));
+    }
+
+    /**
+     * Combines two expressions with an operator. If both are constants, so is the result, which saves
+     * evaluating the same thing over again every time the structure is dropped.
+     *
+     * @param left the left operand.
+     * @param right the right operand.
+     * @param operator the operator.
+     * @return the combined expression.
+     */
+    private static Expression combine(Expression left, Expression right, LongBinaryOperator operator) {
+        if (left instanceof Expressions.Constant && right instanceof Expressions.Constant) {
+            return Expressions.constant(operator.applyAsLong(((Expressions.Constant) left).getValue(),
+                                                             ((Expressions.Constant) right).getValue()));
+        }
+        return (context, binary, description) ->
+            operator.applyAsLong(left.evaluate(context, binary, description),
+                                 right.evaluate(context, binary, description));
+    }
+
+    private long power(long base, long exponent) {
+        if (exponent < 0) {
+            throw new ArithmeticException("Negative exponent in expression: " + source);
+        }
+        long value = 1;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                value *= base;
+            }
+            base *= base;
+            exponent >>= 1;
+        }
+        return value;
+    }
+
+    private long nonZero(long divisor) {
+        if (divisor == 0) {
+            throw new ArithmeticException("Division by zero in expression: " + source);
+        }
+        return divisor;
+    }
+
+    /**
+     * Skips past the given operator if it comes next.
+     *
+     * @param operator the operator.
+     * @return {@code true} if the operator was next.
+     */
+    private boolean accept(String operator) {
+        skipWhitespace();
+        if (!source.startsWith(operator, position)) {
+            return false;
+        }
+        position += operator.length();
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isNameChar(char ch) {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '_';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at index " + position + " in expression: " + source);
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.CommonAttributes;
+import org.trypticon.hex.anno.SimpleAnnotation;
+import org.trypticon.hex.anno.SimpleGroupAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.interpreters.Interpreter;
+import org.trypticon.hex.util.LoggerUtils;
+
+/**
+ * An array structure will create a sequence of the same structure.
+ *
+ * @author trejkaz
+ */
+public class ArrayStructure implements StructureNode {
+    /**
+     * The number of elements at which creating the elements of a fixed length array is split across threads.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * The number of elements of a fixed length array created between checks for the drop being cancelled.
+     */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private final String name;
+    private final long startIndex;
+    private final SizeType sizeType;
+    @Nullable
+    private final Expression size;
+    private final StructureNode elementStructure;
+    @Nullable
+    private final Interpreter<?> fixedLengthInterpreter;
+    private final long elementLength;
+
+    private ArrayStructure(String name, long startIndex, SizeType sizeType, @Nullable Expression size,
+                           StructureNode elementStructure) {
+        this.name = name;
+        this.startIndex = startIndex;
+        this.sizeType = sizeType;
+        this.size = size;
+        this.elementStructure = elementStructure;
+
+        // Arrays of simple fixed length values, which are most of the large ones, have every element
+        // at a position which can be worked out without dropping the elements before it.
+        long fixedLength = elementStructure instanceof SimpleStructure
+                           ? ((SimpleStructure) elementStructure).getFixedLength() : -1;
+        if (fixedLength > 0) {
+            this.fixedLengthInterpreter = ((SimpleStructure) elementStructure).getInterpreter();
+            this.elementLength = fixedLength;
+        } else {
+            this.fixedLengthInterpreter = null;
+            this.elementLength = -1;
+        }
+    }
+
+    /**
+     * Creates an array with a number of elements.
+     *
+     * @param name the name of the array. The elements are named after it.
+     * @param startIndex the index of the first element, for naming the elements.
+     * @param elementCount the number of elements.
+     * @param elementStructure the structure of each element.
+     * @return the array structure.
+     */
+    public static ArrayStructure withElementCount(String name, long startIndex, Expression elementCount,
+                                                  StructureNode elementStructure) {
+        return new ArrayStructure(name, startIndex, SizeType.ELEMENT_COUNT, elementCount, elementStructure);
+    }
+
+    /**
+     * Creates an array which has as many elements as it takes to fill a number of bytes.
+     *
+     * @param name the name of the array. The elements are named after it.
+     * @param startIndex the index of the first element, for naming the elements.
+     * @param byteSize the number of bytes.
+     * @param elementStructure the structure of each element.
+     * @return the array structure.
+     */
+    public static ArrayStructure withByteSize(String name, long startIndex, Expression byteSize,
+                                              StructureNode elementStructure) {
+        return new ArrayStructure(name, startIndex, SizeType.BYTE_SIZE, byteSize, elementStructure);
+    }
+
+    /**
+     * Creates an array which carries on until an element fails to drop, e.g. because it runs off the end
+     * of the binary or it contains a value with no mapping in a switch.
+     *
+     * @param name the name of the array. The elements are named after it.
+     * @param startIndex the index of the first element, for naming the elements.
+     * @param elementStructure the structure of each element.
+     * @return the array structure.
+     */
+    public static ArrayStructure untilException(String name, long startIndex, StructureNode elementStructure) {
+        return new ArrayStructure(name, startIndex, SizeType.UNTIL_EXCEPTION, null, elementStructure);
+    }
+
+    @Nullable
+    @Override
+    public Annotation drop(DropContext context, Binary binary, long position) {
+        if (fixedLengthInterpreter != null) {
+            return dropFixedLengthElements(context, binary, position);
+        }
+
+        DropContext childContext = context.newChildContext();
+        long pos;
+        try {
+            pos = dropElements(context, childContext, binary, position);
+        } catch (RuntimeException e) {
+            // What was finished is passed up, so that it can be kept if the whole drop fails.
+            Annotation partial = childContext.createPartialGroup(position, name);
+            if (partial != null) {
+                context.partiallyDropped(partial);
+            }
+            throw e;
+        }
+
+        long length = pos - position;
+        if (length <= 0) {
+            return null;
+        }
+
+        Annotation group = new SimpleGroupAnnotation(position, length, childContext.getAnnotations());
+        group.set(CommonAttributes.NOTE, name);
+        return group;
+    }
+
+    /**
+     * Drops the elements of the array.
+     *
+     * @param parentContext the context the array is being dropped in, for evaluating its size.
+     * @param context the context to add the elements to.
+     * @param binary the binary.
+     * @param position the position of the start of the array.
+     * @return the position after the last element.
+     */
+    private long dropElements(DropContext parentContext, DropContext context, Binary binary, long position) {
+        long pos = position;
+        switch (sizeType) {
+            case ELEMENT_COUNT: {
+                long count = evaluateSize(parentContext, binary);
+                for (long i = startIndex; i < startIndex + count; i++) {
+                    Annotation element = dropElement(context, binary, pos, i);
+                    context.add(element);
+                    context.fieldDropped(element);
+                    pos += element.getLength();
+                    context.advance(pos);
+                }
+                break;
+            }
+            case BYTE_SIZE: {
+                long byteSize = evaluateSize(parentContext, binary);
+                // There is always at least one element, even if the size is 0.
+                for (long i = startIndex; ; i++) {
+                    Annotation element = dropElement(context, binary, pos, i);
+                    context.add(element);
+                    context.fieldDropped(element);
+                    pos += element.getLength();
+                    context.advance(pos);
+                    if (pos - position >= byteSize) {
+                        break;
+                    }
+                    if (element.getLength() == 0) {
+                        throw new IllegalStateException("Element " + i + " of " + name + " is empty, so the array " +
+                                                        "would never reach its size of " + byteSize + " bytes");
+                    }
+                }
+                break;
+            }
+            case UNTIL_EXCEPTION: {
+                // Elements which don't read the binary while dropping won't fail at the end of it by themselves,
+                // so the end of the binary also ends the array.
+                long binaryLength = binary.length();
+                for (long i = startIndex; pos < binaryLength; i++) {
+                    Annotation element;
+                    try {
+                        element = dropElement(context, binary, pos, i);
+                    } catch (CancellationException e) {
+                        // Cancelling the drop isn't the end of the array.
+                        throw e;
+                    } catch (RuntimeException e) {
+                        LoggerUtils.get().log(Level.FINE, "Array " + name + " ended at element " + i, e);
+                        break;
+                    }
+                    if (element.getLength() == 0 || element.getLength() > binaryLength - pos) {
+                        break;
+                    }
+                    context.add(element);
+                    context.fieldDropped(element);
+                    pos += element.getLength();
+                    context.advance(pos);
+                }
+                break;
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * Drops an array whose elements all have the same length. The position of each element is worked out
+     * from its index, so the elements are created without dropping them one at a time.
+     *
+     * @param context the context the array is being dropped in.
+     * @param binary the binary to annotate.
+     * @param position the position of the start of the array.
+     * @return the array, or {@code null} if it has no elements.
+     */
+    @Nullable
+    private Annotation dropFixedLengthElements(DropContext context, Binary binary, long position) {
+        long count;
+        switch (sizeType) {
+            case ELEMENT_COUNT:
+                count = evaluateSize(context, binary);
+                break;
+            case BYTE_SIZE:
+                // Enough elements to reach the size, even if the last one goes past it, and always at least one.
+                count = Math.max(1, (evaluateSize(context, binary) + elementLength - 1) / elementLength);
+                break;
+            case UNTIL_EXCEPTION:
+                // As many whole elements as fit before the end of the binary.
+                count = (binary.length() - position) / elementLength;
+                break;
+            default:
+                throw new IllegalStateException("Unknown size type: " + sizeType);
+        }
+        if (count <= 0) {
+            return null;
+        }
+        // Checked before creating anything, so that a corrupt size can't make the array take up all the memory.
+        long remaining = binary.length() - position;
+        if (count > remaining / elementLength) {
+            throw new IllegalStateException("Array " + name + " has " + count + " elements of " + elementLength +
+                                            " bytes, but only " + remaining + " bytes remain in the binary");
+        }
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Array " + name + " has too many elements: " + count);
+        }
+
+        long length = count * elementLength;
+        Annotation group = new SimpleGroupAnnotation(position, length,
+                                                     createFixedLengthElements(context, position, (int) count));
+        group.set(CommonAttributes.NOTE, name);
+        return group;
+    }
+
+    /**
+     * Creates the elements of an array whose elements all have the same length. Large arrays are
+     * created in parallel, since no element depends on any other. They are created in chunks,
+     * reporting progress and checking whether the drop was cancelled after each one.
+     *
+     * @param context the context the array is being dropped in.
+     * @param position the position of the start of the array.
+     * @param count the number of elements.
+     * @return the elements.
+     */
+    private List<Annotation> createFixedLengthElements(DropContext context, long position, int count) {
+        assert fixedLengthInterpreter != null;
+        Annotation[] elements = new Annotation[count];
+        IntConsumer createElement = i -> {
+            Annotation element = new SimpleAnnotation(position + i * elementLength, elementLength,
+                                                      fixedLengthInterpreter);
+            element.set(CommonAttributes.NOTE, name + "[" + (startIndex + i) + "]");
+            elements[i] = element;
+        };
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            int end = (int) Math.min(count, (long) start + CHUNK_SIZE);
+            IntStream chunk = IntStream.range(start, end);
+            if (count >= PARALLEL_THRESHOLD) {
+                chunk = chunk.parallel();
+            }
+            chunk.forEach(createElement);
+            context.advance(position + end * elementLength);
+        }
+        return new ArrayList<>(Arrays.asList(elements));
+    }
+
+    private long evaluateSize(DropContext context, Binary binary) {
+        assert size != null;
+        return size.evaluate(context, binary, "size");
+    }
+
+    /**
+     * Drops a single element and names it.
+     *
+     * @param context the context for the elements.
+     * @param binary the binary to annotate.
+     * @param position the position of the element.
+     * @param index the index of the element.
+     * @return the element.
+     */
+    private Annotation dropElement(DropContext context, Binary binary, long position, long index) {
+        Annotation annotation;
+        try {
+            annotation = elementStructure.drop(context, binary, position);
+        } catch (RuntimeException e) {
+            // Whatever was finished of the element is named the same as it would have been.
+            Annotation partial = context.getPartialAnnotation();
+            if (partial != null) {
+                partial.set(CommonAttributes.NOTE, name + "[" + index + "]");
+            }
+            throw e;
+        }
+        if (annotation == null) {
+            throw new IllegalStateException("Element " + index + " of " + name + " is absent");
+        }
+        annotation.set(CommonAttributes.NOTE, name + "[" + index + "]");
+        return annotation;
+    }
+
+    /**
+     * The ways the size of an array can be given.
+     */
+    private enum SizeType {
+        ELEMENT_COUNT,
+        BYTE_SIZE,
+        UNTIL_EXCEPTION
+    }
+}
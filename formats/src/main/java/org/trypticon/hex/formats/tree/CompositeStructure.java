@@ -0,0 +1,144 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.CommonAttributes;
+import org.trypticon.hex.anno.SimpleGroupAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.formats.DropMonitor;
+import org.trypticon.hex.formats.Structure;
+
+/**
+ * A structure made up of a sequence of fields, which drops as a group annotation containing the
+ * annotations for the fields.
+ *
+ * @author trejkaz
+ */
+public class CompositeStructure implements Structure, StructureNode {
+    private final String name;
+    private final List<StructureNode> fields = new ArrayList<>();
+
+    /**
+     * Whether a switch replaces the structure. Its fields before the switch are only there to work out
+     * what it's replaced with, so they aren't reported as they're finished.
+     */
+    private boolean replaceable;
+
+    /**
+     * Constructs the structure, initially with no fields.
+     *
+     * @param name the name of the structure.
+     */
+    public CompositeStructure(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Adds a field to the end of the structure.
+     *
+     * @param field the field.
+     */
+    public void addField(StructureNode field) {
+        fields.add(field);
+        if (field instanceof SwitchStructure && ((SwitchStructure) field).isReplacingParent()) {
+            replaceable = true;
+        }
+    }
+
+    @Override
+    public long getFixedLength() {
+        long length = 0;
+        for (StructureNode field : fields) {
+            long fieldLength = field.getFixedLength();
+            if (fieldLength < 0) {
+                return -1;
+            }
+            length += fieldLength;
+        }
+        return length;
+    }
+
+    @Override
+    public Annotation drop(Binary binary, long position) {
+        return drop(binary, position, DropMonitor.NONE);
+    }
+
+    @Override
+    public Annotation drop(Binary binary, long position, DropMonitor monitor) {
+        return drop(new DropContext(monitor), binary, position);
+    }
+
+    @Nullable
+    @Override
+    public Annotation drop(DropContext context, Binary binary, long position) {
+        DropContext childContext = context.newChildContext();
+
+        long pos = position;
+        boolean replaced = false;
+        try {
+            for (StructureNode field : fields) {
+                // Special case, if the current structure had a switch definition in it which is supposed to
+                // replace our entire structure, then we have to pass it the position of the start of this
+                // structure, and then return only *its* annotation instead of our own.
+                if (field instanceof SwitchStructure && ((SwitchStructure) field).isReplacingParent()) {
+                    replaced = true;
+                    return field.drop(childContext, binary, position);
+                }
+
+                Annotation annotation = field.drop(childContext, binary, pos);
+                if (annotation != null) {
+                    childContext.add(annotation);
+                    pos += annotation.getLength();
+                    if (!replaceable) {
+                        childContext.fieldDropped(annotation);
+                    }
+                }
+                childContext.advance(pos);
+            }
+        } catch (RuntimeException e) {
+            // What was finished is passed up, so that it can be kept if the whole drop fails.
+            Annotation partial = replaced ? childContext.getPartialAnnotation()
+                                          : childContext.createPartialGroup(position, name);
+            if (partial != null) {
+                context.partiallyDropped(partial);
+            }
+            throw e;
+        }
+
+        Annotation group = new SimpleGroupAnnotation(position, pos - position, childContext.getAnnotations());
+        group.set(CommonAttributes.NOTE, name);
+        return group;
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeStructure(" + name + ")";
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.CommonAttributes;
+import org.trypticon.hex.anno.SimpleGroupAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.formats.DropMonitor;
+
+/**
+ * Holds information for a single sequence of annotations being dropped into place.
+ * Each context indexes its annotations by name as they are added, so that looking up a field by name
+ * doesn't have to search through every annotation dropped so far.
+ *
+ * @author trejkaz
+ */
+public class DropContext {
+    private final List<Annotation> annotations;
+    private final Map<String, Annotation> annotationsByName = new HashMap<>();
+
+    @Nullable
+    private final DropContext parent;
+    private final DropMonitor monitor;
+    private final int depth;
+
+    /**
+     * What was finished of the last thing which failed partway through dropping into this context.
+     */
+    @Nullable
+    private Annotation partialAnnotation;
+
+    /**
+     * Constructs a context for dropping a top-level structure which nobody is monitoring.
+     */
+    public DropContext() {
+        this(DropMonitor.NONE);
+    }
+
+    /**
+     * Constructs a context for dropping a top-level structure.
+     *
+     * @param monitor the monitor to report progress to.
+     */
+    public DropContext(DropMonitor monitor) {
+        this(null, monitor);
+    }
+
+    private DropContext(@Nullable DropContext parent, DropMonitor monitor) {
+        this.annotations = new ArrayList<>();
+        this.parent = parent;
+        this.monitor = monitor;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * Creates a new child context, reporting to the same monitor as this one.
+     *
+     * @return the child context.
+     */
+    public DropContext newChildContext() {
+        return new DropContext(this, monitor);
+    }
+
+    /**
+     * Reports to the monitor that the drop has reached a position, first checking whether it should stop.
+     *
+     * @param position the position the drop has reached.
+     * @throws CancellationException if the monitor cancelled the drop.
+     */
+    public void advance(long position) {
+        if (monitor.isCancelled()) {
+            throw new CancellationException("Drop cancelled");
+        }
+        monitor.advanced(position);
+    }
+
+    /**
+     * Reports a finished field in this context to the monitor.
+     *
+     * @param annotation the annotation for the field.
+     */
+    public void fieldDropped(Annotation annotation) {
+        monitor.dropped(annotation, depth);
+    }
+
+    /**
+     * Records what was finished of something which failed partway through dropping into this context,
+     * so that whatever is dropping this context can keep it when it fails in turn. At the top level,
+     * it is passed on to the monitor.
+     *
+     * @param annotation the annotation for the part which was finished.
+     */
+    public void partiallyDropped(Annotation annotation) {
+        partialAnnotation = annotation;
+        if (parent == null) {
+            monitor.droppedPartially(annotation);
+        }
+    }
+
+    /**
+     * Gets what was finished of the last thing which failed partway through dropping into this context.
+     *
+     * @return the annotation for the part which was finished, or {@code null} if nothing has failed partway.
+     */
+    @Nullable
+    public Annotation getPartialAnnotation() {
+        return partialAnnotation;
+    }
+
+    /**
+     * Creates a group for what was finished in this context, for when dropping into it has failed.
+     * Whatever failed partway goes at the end, as that is where it was being dropped.
+     *
+     * @param position the position of the start of the group.
+     * @param note the note for the group.
+     * @return the group, or {@code null} if nothing was finished.
+     */
+    @Nullable
+    public Annotation createPartialGroup(long position, String note) {
+        List<Annotation> finished = new ArrayList<>(annotations);
+        if (partialAnnotation != null) {
+            finished.add(partialAnnotation);
+        }
+        if (finished.isEmpty()) {
+            return null;
+        }
+
+        Annotation last = finished.get(finished.size() - 1);
+        Annotation group = new SimpleGroupAnnotation(position, last.getPosition() + last.getLength() - position,
+                                                     finished);
+        group.set(CommonAttributes.NOTE, note);
+        return group;
+    }
+
+    /**
+     * Adds an annotation to the context. The annotation must already have its name, if it has one.
+     * If there is already an annotation with the same name in this context, the earlier one stays the one
+     * found when looking the name up.
+     *
+     * @param annotation the annotation.
+     */
+    public void add(Annotation annotation) {
+        annotations.add(annotation);
+        String name = annotation.get(CommonAttributes.NOTE);
+        if (name != null) {
+            annotationsByName.putIfAbsent(name, annotation);
+        }
+    }
+
+    /**
+     * Gets the annotations added to this context, in the order they were added.
+     *
+     * @return the annotations.
+     */
+    public List<Annotation> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * Gets the value of a previously dropped annotation as a number.
+     *
+     * @param name the name of the annotation.
+     * @param description what the value is going to be used for, for error messages.
+     * @param binary the binary to read the value from.
+     * @return the value.
+     * @throws IllegalStateException if there is no annotation with that name, or if its value isn't a number.
+     */
+    public long getValue(String name, String description, Binary binary) {
+        Annotation annotation = findAnnotation(name);
+        if (annotation == null) {
+            throw new IllegalStateException("No annotation called " + name + " to get the " + description + " from");
+        }
+        Object value = annotation.interpret(binary);
+        if (!(value instanceof Number)) {
+            throw new IllegalStateException("Annotation called " + name + " doesn't have a number for the " +
+                                            description + ": " + value);
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * Finds an annotation with the given name. If it doesn't exist in the current context, walks up
+     * until it finds a context where it does exist.
+     *
+     * @param name the name of the annotation.
+     * @return the annotation, or {@code null} if there is no annotation with that name.
+     */
+    @Nullable
+    private Annotation findAnnotation(String name) {
+        for (DropContext context = this; context != null; context = context.parent) {
+            Annotation annotation = context.annotationsByName.get(name);
+            if (annotation != null) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * An expression giving a number needed while dropping a structure, such as the length of a field or
+ * the size of an array.
+ *
+ * @author trejkaz
+ */
+@FunctionalInterface
+public interface Expression {
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param context the context holding the annotations dropped so far, to look up the values of fields.
+     * @param binary the binary to read the values of fields from.
+     * @param description what the value is going to be used for, for error messages.
+     * @return the value.
+     * @throws IllegalStateException if the expression refers to a field which doesn't exist.
+     */
+    long evaluate(DropContext context, Binary binary, String description);
+}
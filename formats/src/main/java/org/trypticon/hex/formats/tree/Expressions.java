@@ -0,0 +1,89 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Factory methods for the common kinds of {@link Expression}.
+ *
+ * @author trejkaz
+ */
+public class Expressions {
+    private Expressions() {
+    }
+
+    /**
+     * Creates an expression which is always the same value.
+     *
+     * @param value the value.
+     * @return the expression.
+     */
+    public static Expression constant(long value) {
+        return new Constant(value);
+    }
+
+    /**
+     * Creates an expression which gives the value of a field which has already been dropped.
+     *
+     * @param name the name of the field.
+     * @return the expression.
+     */
+    public static Expression field(String name) {
+        return (context, binary, description) -> context.getValue(name, description, binary);
+    }
+
+    /**
+     * Creates an arithmetic expression from its source, e.g. {@code ":constant_pool_count - 1"}.
+     * See {@link ArithmeticParser} for what the source can contain. The source is parsed straight away,
+     * so evaluating the expression doesn't have to look at it again.
+     *
+     * @param source the source of the expression.
+     * @return the expression.
+     * @throws IllegalArgumentException if the source can't be parsed.
+     */
+    public static Expression arithmetic(String source) {
+        return new ArithmeticParser(source, Expressions::field).parse();
+    }
+
+    /**
+     * An expression which is always the same value.
+     */
+    static class Constant implements Expression {
+        private final long value;
+
+        private Constant(long value) {
+            this.value = value;
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value.
+         */
+        long getValue() {
+            return value;
+        }
+
+        @Override
+        public long evaluate(DropContext context, Binary binary, String description) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.CommonAttributes;
+import org.trypticon.hex.anno.SimpleAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.interpreters.FixedLengthInterpreter;
+import org.trypticon.hex.interpreters.Interpreter;
+
+/**
+ * A simple structure holds an interpreter and its length.
+ *
+ * @author trejkaz
+ */
+public class SimpleStructure implements StructureNode {
+    @Nullable
+    private final String name;
+    private final Interpreter<?> interpreter;
+    @Nullable
+    private final Expression length;
+
+    /**
+     * Constructs the structure.
+     *
+     * @param name the name the annotation will receive, or {@code null} if the parent names it.
+     * @param interpreter the interpreter to use to interpret the binary at the location of the annotation.
+     * @param length the length of the annotation. Ignored for fixed length interpreters, which already know
+     *        their length, and required for any other interpreter.
+     */
+    public SimpleStructure(@Nullable String name, Interpreter<?> interpreter, @Nullable Expression length) {
+        this.name = name;
+        this.interpreter = interpreter;
+        this.length = length;
+    }
+
+    /**
+     * Gets the interpreter.
+     *
+     * @return the interpreter.
+     */
+    public Interpreter<?> getInterpreter() {
+        return interpreter;
+    }
+
+    @Override
+    public long getFixedLength() {
+        if (interpreter instanceof FixedLengthInterpreter) {
+            return ((FixedLengthInterpreter<?>) interpreter).getValueLength();
+        }
+        return -1;
+    }
+
+    @Override
+    public Annotation drop(DropContext context, Binary binary, long position) {
+        long length = getFixedLength();
+        if (length < 0) {
+            if (this.length == null) {
+                throw new IllegalStateException("No way to determine the length of " + name);
+            }
+            length = this.length.evaluate(context, binary, "length");
+            if (length < 0) {
+                throw new IllegalStateException("length is negative (" + length + ")");
+            }
+        }
+
+        Annotation annotation = new SimpleAnnotation(position, length, interpreter);
+        if (name != null) {
+            annotation.set(CommonAttributes.NOTE, name);
+        }
+        return annotation;
+    }
+}
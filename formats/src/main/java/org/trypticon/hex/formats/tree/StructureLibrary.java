@@ -0,0 +1,53 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Holds the structures defined so far, so that they can be referred to by name from other structures.
+ *
+ * @author trejkaz
+ */
+public class StructureLibrary {
+    private final Map<String, CompositeStructure> structures = new HashMap<>();
+
+    /**
+     * Adds a structure to the library, replacing any previous structure with the same name.
+     *
+     * @param structure the structure.
+     */
+    public void define(CompositeStructure structure) {
+        structures.put(structure.getName(), structure);
+    }
+
+    /**
+     * Gets a structure by name.
+     *
+     * @param name the name of the structure.
+     * @return the structure, or {@code null} if no structure has been defined with that name.
+     */
+    @Nullable
+    public CompositeStructure get(String name) {
+        return structures.get(name);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * A node in a structure tree. Structure definitions are built into a tree of these once, when they
+ * are loaded, so that dropping a structure is just a walk over the tree.
+ *
+ * @author trejkaz
+ */
+public interface StructureNode {
+
+    /**
+     * Gets the length of the annotation this node creates, if it's always the same.
+     *
+     * @return the length, or {@code -1} if it depends on the binary or the node might be absent.
+     */
+    default long getFixedLength() {
+        return -1;
+    }
+
+    /**
+     * Creates the annotation for this node.
+     *
+     * @param context the context holding the annotations dropped so far.
+     * @param binary the binary to annotate.
+     * @param position the position to start from.
+     * @return the created annotation, or {@code null} if this node turned out to be absent from the binary.
+     */
+    @Nullable
+    Annotation drop(DropContext context, Binary binary, long position);
+}
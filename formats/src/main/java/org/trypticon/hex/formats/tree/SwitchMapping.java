@@ -0,0 +1,39 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decides which structure a switch drops, from the value it switches on.
+ *
+ * @author trejkaz
+ */
+@FunctionalInterface
+public interface SwitchMapping {
+
+    /**
+     * Maps a value to the name of a structure.
+     *
+     * @param value the value.
+     * @return the name of the structure to drop, or {@code null} to drop nothing.
+     */
+    @Nullable
+    String map(long value);
+}
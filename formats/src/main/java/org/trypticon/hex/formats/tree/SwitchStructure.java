@@ -0,0 +1,78 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * A switch structure will create a different structure based on some value in the structure.
+ *
+ * @author trejkaz
+ */
+public class SwitchStructure implements StructureNode {
+    private final Expression value;
+    private final boolean replacingParent;
+    private final SwitchMapping mapping;
+    private final StructureLibrary library;
+
+    /**
+     * Constructs the structure.
+     *
+     * @param value the value to switch on.
+     * @param replacingParent {@code true} if the switched structure replaces the structure containing the switch,
+     *        {@code false} if it is added as a child of it.
+     * @param mapping maps the value to the name of the structure to drop.
+     * @param library the library to look up the structure in. Structures are looked up when dropping,
+     *        so they can be defined after the switch.
+     */
+    public SwitchStructure(Expression value, boolean replacingParent, SwitchMapping mapping,
+                           StructureLibrary library) {
+        this.value = value;
+        this.replacingParent = replacingParent;
+        this.mapping = mapping;
+        this.library = library;
+    }
+
+    /**
+     * Tests whether the switched structure replaces the structure containing the switch.
+     *
+     * @return {@code true} if it replaces it, {@code false} if it is added as a child of it.
+     */
+    public boolean isReplacingParent() {
+        return replacingParent;
+    }
+
+    @Nullable
+    @Override
+    public Annotation drop(DropContext context, Binary binary, long position) {
+        String structureName = mapping.map(value.evaluate(context, binary, "value"));
+        if (structureName == null) {
+            return null;
+        }
+
+        CompositeStructure structure = library.get(structureName);
+        if (structure == null) {
+            throw new IllegalStateException("Structure '" + structureName + "' has not been defined");
+        }
+        return structure.drop(context, binary, position);
+    }
+}
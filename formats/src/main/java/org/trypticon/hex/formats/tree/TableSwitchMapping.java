@@ -0,0 +1,52 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A switch mapping which looks the value up in a table. Any value which isn't in the table is an error.
+ *
+ * @author trejkaz
+ */
+public class TableSwitchMapping implements SwitchMapping {
+    private final Map<Long, String> cases = new HashMap<>();
+
+    /**
+     * Adds a case to the table.
+     *
+     * @param value the value.
+     * @param structureName the name of the structure to drop for the value, or {@code null} to drop nothing.
+     */
+    public void addCase(long value, @Nullable String structureName) {
+        cases.put(value, structureName);
+    }
+
+    @Nullable
+    @Override
+    public String map(long value) {
+        if (!cases.containsKey(value)) {
+            throw new IllegalStateException("Value has no mapping: " + value + " (0x" + Long.toHexString(value) + ")");
+        }
+        return cases.get(value);
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.yaml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import org.trypticon.hex.formats.Structure;
+import org.trypticon.hex.formats.StructureCache;
+import org.trypticon.hex.formats.tree.ArrayStructure;
+import org.trypticon.hex.formats.tree.CompositeStructure;
+import org.trypticon.hex.formats.tree.Expression;
+import org.trypticon.hex.formats.tree.Expressions;
+import org.trypticon.hex.formats.tree.SimpleStructure;
+import org.trypticon.hex.formats.tree.StructureLibrary;
+import org.trypticon.hex.formats.tree.StructureNode;
+import org.trypticon.hex.formats.tree.SwitchStructure;
+import org.trypticon.hex.formats.tree.TableSwitchMapping;
+import org.trypticon.hex.interpreters.Interpreter;
+import org.trypticon.hex.interpreters.InterpreterStorage;
+import org.trypticon.hex.interpreters.MasterInterpreterStorage;
+
+/**
+ * <p>Loads structures from declarative definitions written in YAML (or JSON, which is read the same way.)
+ *    Loading these doesn't need a Ruby runtime, so they are much quicker to load than Ruby scripts.</p>
+ *
+ * <p>The definitions cover the same things as the Ruby DSL, with the options given the same names:</p>
+ *
+ * <pre>
+ * requires:
+ *   - constantpool/cp_info.yaml
+ * structures:
+ *   class_file:
+ *     - uint16_be: constant_pool_count
+ *     - array: constant_pool
+ *       size: ':constant_pool_count - 1'
+ *       start_index: 1
+ *       element_type: cp_info
+ *     - string: name
+ *       length: 4
+ *       charset: US-ASCII
+ * </pre>
+ *
+ * <p>The first key of each field says what kind of field it is, the same as the method name in the Ruby DSL,
+ *    and its value is the name of the field. Fields can be {@code array}, {@code switch}, {@code unknown},
+ *    or otherwise the name of an interpreter. Numbers are used as they are and strings are arithmetic
+ *    expressions, in which other fields are referred to as {@code :name}. Switches map values through a table
+ *    of {@code cases}, where a structure name of {@code null} means to drop nothing for that value.</p>
+ *
+ * <p>The structure returned is the last one in the file. Files listed in {@code requires} are resolved
+ *    relative to the file requiring them, and are loaded first, so that their structures can be used.</p>
+ *
+ * @author trejkaz
+ */
+public class YamlStructureLoader {
+    private static final StructureCache structureCache = new StructureCache();
+    private static final InterpreterStorage interpreterStorage = new MasterInterpreterStorage();
+
+    private final StructureLibrary library = new StructureLibrary();
+    private final Set<Path> loadedFiles = new HashSet<>();
+    private final Map<Path, FileTime> modificationTimes = new HashMap<>();
+
+    private YamlStructureLoader() {
+    }
+
+    @TestOnly
+    public static Structure loadDocument(@NonNls String document) {
+        return new YamlStructureLoader().load(new StringReader(document), null);
+    }
+
+    /**
+     * Loads the structure defined by a file. The structure is cached, so loading the same file again
+     * doesn't read the file again unless the file, or one of the files it requires, has been modified.
+     *
+     * @param file the file.
+     * @return the structure.
+     */
+    public static Structure loadFromFile(@NonNls Path file) {
+        Structure structure = structureCache.get(file);
+        if (structure == null) {
+            YamlStructureLoader loader = new YamlStructureLoader();
+            structure = loader.loadFile(file);
+            if (loader.modificationTimes.containsKey(file)) {
+                structureCache.put(file, structure, loader.modificationTimes);
+            }
+        }
+        return structure;
+    }
+
+    private CompositeStructure loadFile(Path file) {
+        loadedFiles.add(file);
+
+        // Taken before the file is read, so that changes made while it's being read make the cache stale.
+        FileTime modificationTime = StructureCache.getModificationTime(file);
+        CompositeStructure structure;
+        try (Reader reader = Files.newBufferedReader(file)) {
+            structure = load(reader, file);
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Error loading structure definition: " + file, e);
+        }
+        if (modificationTime != null) {
+            modificationTimes.put(file, modificationTime);
+        }
+        return structure;
+    }
+
+    /**
+     * Loads a document, defining each of its structures in the library.
+     *
+     * @param reader the reader to read the document from.
+     * @param file the file the document was read from, or {@code null} if it didn't come from a file.
+     * @return the last structure defined in the document.
+     */
+    private CompositeStructure load(Reader reader, @Nullable Path file) {
+        Map<String, Object> document = asMap(new Yaml(new SafeConstructor()).load(reader), "document");
+
+        for (Object required : asList(document.get("requires"), "requires")) {
+            if (file == null) {
+                throw new IllegalArgumentException("Only files can require other files");
+            }
+            Path requiredFile = file.resolveSibling(required.toString()).normalize();
+            if (!loadedFiles.contains(requiredFile)) {
+                loadFile(requiredFile);
+            }
+        }
+
+        Map<String, Object> structures = asMap(document.get("structures"), "structures");
+        if (structures.isEmpty()) {
+            throw new IllegalArgumentException("No structures defined");
+        }
+
+        CompositeStructure structure = null;
+        for (Map.Entry<String, Object> entry : structures.entrySet()) {
+            structure = new CompositeStructure(entry.getKey());
+            for (Object field : asList(entry.getValue(), entry.getKey())) {
+                structure.addField(createField(asMap(field, "field of " + entry.getKey())));
+            }
+            library.define(structure);
+        }
+        return structure;
+    }
+
+    private StructureNode createField(Map<String, Object> field) {
+        Map<String, Object> options = new LinkedHashMap<>(field);
+        Iterator<Map.Entry<String, Object>> iterator = options.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            throw new IllegalArgumentException("Empty field");
+        }
+        Map.Entry<String, Object> first = iterator.next();
+        iterator.remove();
+        String kind = first.getKey();
+        String name = first.getValue() == null ? null : first.getValue().toString();
+
+        switch (kind) {
+            case "array":
+                return createArray(name, options);
+            case "switch":
+                return createSwitch(first.getValue(), options);
+            case "unknown":
+                return createSimpleStructure(name, "null", options);
+            default:
+                return createSimpleStructure(name, kind, options);
+        }
+    }
+
+    /**
+     * Creates an array structure.
+     *
+     * @param name the name of the array.
+     * @param options the options. Supported options are {@code size_type} ({@code fixed_element_count} by default,
+     *        {@code fixed_byte_size} or {@code until_exception}), {@code size}, {@code byte_size},
+     *        {@code element_type} and {@code start_index} (0 by default.)
+     * @return the array structure.
+     */
+    private StructureNode createArray(String name, Map<String, Object> options) {
+        String sizeType = options.containsKey("size_type") ? options.get("size_type").toString()
+                                                           : "fixed_element_count";
+        String elementType = require(options, "element_type").toString();
+        long startIndex = options.containsKey("start_index") ? asLong(options.get("start_index"), "start_index") : 0;
+
+        StructureNode elementStructure = library.get(elementType);
+        if (elementStructure == null) {
+            // Name not needed here because ArrayStructure stamps its own name onto the elements.
+            elementStructure = createSimpleStructure(null, elementType, new HashMap<>());
+        }
+
+        switch (sizeType) {
+            case "fixed_element_count":
+                return ArrayStructure.withElementCount(name, startIndex, createExpression(require(options, "size")),
+                                                       elementStructure);
+            case "fixed_byte_size":
+                return ArrayStructure.withByteSize(name, startIndex, createExpression(require(options, "byte_size")),
+                                                   elementStructure);
+            case "until_exception":
+                return ArrayStructure.untilException(name, startIndex, elementStructure);
+            default:
+                throw new IllegalArgumentException("Unknown size_type: " + sizeType);
+        }
+    }
+
+    /**
+     * Creates a switch structure.
+     *
+     * @param value the value to switch on.
+     * @param options the options. Supported options are {@code cases}, mapping each value to the name of
+     *        a structure, and {@code replaces_this_structure} ({@code false} by default.)
+     * @return the switch structure.
+     */
+    private StructureNode createSwitch(Object value, Map<String, Object> options) {
+        boolean replacesThisStructure = Boolean.TRUE.equals(options.get("replaces_this_structure"));
+
+        TableSwitchMapping mapping = new TableSwitchMapping();
+        Object cases = require(options, "cases");
+        if (!(cases instanceof Map)) {
+            throw new IllegalArgumentException("Expected a mapping for cases, got: " + cases);
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) cases).entrySet()) {
+            // Keys in YAML can be numbers, but keys in JSON are always strings.
+            long caseValue = asLong(entry.getKey(), "case");
+            mapping.addCase(caseValue, entry.getValue() == null ? null : entry.getValue().toString());
+        }
+
+        return new SwitchStructure(createExpression(value), replacesThisStructure, mapping, library);
+    }
+
+    /**
+     * Creates a simple structure.
+     *
+     * @param name the name of the field.
+     * @param interpreterName the short name of the interpreter.
+     * @param options the options. The {@code length} option is the length of the field,
+     *        and the rest are options for the interpreter.
+     * @return the simple structure.
+     */
+    private SimpleStructure createSimpleStructure(@Nullable String name, String interpreterName,
+                                                  Map<String, Object> options) {
+        Object length = options.remove("length");
+
+        // The interpreter storage expects the values as strings.
+        Map<String, Object> interpreterMap = new HashMap<>();
+        options.forEach((key, value) -> interpreterMap.put(key, String.valueOf(value)));
+        interpreterMap.put("name", interpreterName);
+
+        Interpreter<?> interpreter = interpreterStorage.fromMap(interpreterMap);
+        if (interpreter == null) {
+            throw new IllegalArgumentException("Interpreter not found: " + interpreterMap);
+        }
+
+        return new SimpleStructure(name, interpreter, length == null ? null : createExpression(length));
+    }
+
+    /**
+     * Converts a value from the document to an expression.
+     *
+     * @param value the value. Numbers are used as they are, and strings are parsed as arithmetic expressions.
+     * @return the expression.
+     */
+    private static Expression createExpression(Object value) {
+        if (value instanceof Number) {
+            return Expressions.constant(((Number) value).longValue());
+        } else if (value instanceof String) {
+            return Expressions.arithmetic((String) value);
+        } else {
+            throw new IllegalArgumentException("No way to determine a value from " + value);
+        }
+    }
+
+    private static Object require(Map<String, Object> options, String key) {
+        Object value = options.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException(key + " option not provided");
+        }
+        return value;
+    }
+
+    private static long asLong(@Nullable Object value, String description) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            // Quoted values, and every value in JSON keys, arrive as strings, which may be in hex.
+            return Long.decode(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number for " + description + ", got: " + value, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(@Nullable Object value, String description) {
+        if (value == null) {
+            return Collections.emptyMap();
+        }
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a mapping for " + description + ", got: " + value);
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static List<?> asList(@Nullable Object value, String description) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected a sequence for " + description + ", got: " + value);
+        }
+        return (List<?>) value;
+    }
+}
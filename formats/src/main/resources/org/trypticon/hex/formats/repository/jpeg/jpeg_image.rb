@@ -26,18 +26,15 @@ require_relative 'jpeg_app0'
 
 structure :jpeg_block do
   uint16_be  :block_id
-  switch  :block_id, :replaces_this_structure => true do |value|
-    case value
-      when 0xFFC0 ; :sof0
-      when 0xFFC4 ; :dht
-      when 0xFFD8 ; :soi
-      when 0xFFD9 ; :eoi
-      when 0xFFDA ; :sos
-      when 0xFFDB ; :dqt
-      when 0xFFE0 ; :app0
-      else raise("Value has no mapping: #{"%04X" % value}")
-    end
-  end
+  switch  :block_id, :replaces_this_structure => true, :cases => {
+    0xFFC0 => :sof0,
+    0xFFC4 => :dht,
+    0xFFD8 => :soi,
+    0xFFD9 => :eoi,
+    0xFFDA => :sos,
+    0xFFDB => :dqt,
+    0xFFE0 => :app0,
+  }
 end
 
 structure :jpeg_image do
@@ -15,24 +15,50 @@
 # You should have received a copy of the GNU General Public License
 # along with this program.  If not, see <http://www.gnu.org/licenses/>.
 #
-
 require 'java'
 
 java_import org.trypticon.hex.anno.CommonAttributes
 java_import org.trypticon.hex.anno.SimpleAnnotation
-java_import org.trypticon.hex.anno.SimpleGroupAnnotation
-java_import org.trypticon.hex.interpreters.FixedLengthInterpreter
 java_import org.trypticon.hex.formats.Structure
-
-require_relative 'drop_context'
-require_relative 'simple_structure'
-require_relative 'array_structure'
-require_relative 'switch_structure'
+java_import org.trypticon.hex.formats.tree.ArrayStructure
+java_import org.trypticon.hex.formats.tree.CompositeStructure
+java_import org.trypticon.hex.formats.tree.Expressions
+java_import org.trypticon.hex.formats.tree.SimpleStructure
+java_import org.trypticon.hex.formats.tree.StructureLibrary
+java_import org.trypticon.hex.formats.tree.SwitchMapping
+java_import org.trypticon.hex.formats.tree.SwitchStructure
+java_import org.trypticon.hex.formats.tree.TableSwitchMapping
 
 
 # $interpreter_storage is defined by the container.  We define a local structure storage here for
 # structures which are defined in the script.
-$local_structure_storage ||= {}
+$local_structure_storage ||= StructureLibrary.new
+
+# The files which were loaded before any script ran.
+$structure_dsl_loaded_features = $LOADED_FEATURES.dup
+
+# Whether the structures the script defined call back into Ruby when they are dropped.
+$structure_dsl_ruby_callbacks = false
+
+# Forgets everything the last script defined, so that the runtime can be reused to run another script.
+# The files the last script required are forgotten too, so that requiring them again defines their
+# structures again.
+def reset_structure_dsl
+  $local_structure_storage = StructureLibrary.new
+  $LOADED_FEATURES.replace($structure_dsl_loaded_features)
+  $structure_dsl_ruby_callbacks = false
+end
+
+# Gets the files which have been required since the runtime was last reset.
+def structure_dsl_required_files
+  $LOADED_FEATURES - $structure_dsl_loaded_features
+end
+
+# Checks whether the structures defined since the runtime was last reset call back into Ruby, in which case
+# the runtime has to stay alive, and unused by other scripts, for as long as the structures are.
+def structure_dsl_ruby_callbacks?
+  $structure_dsl_ruby_callbacks
+end
 
 
 # Extensions for SimpleAnnotation to reduce boilerplate.
@@ -48,16 +74,35 @@ class SimpleAnnotation
 end
 
 
+# Switch mapping which calls a block, for switches too complicated to write as a table of cases.
+class BlockSwitchMapping
+  include SwitchMapping
+
+  def initialize(mapping_block)
+    @mapping_block = mapping_block
+    $structure_dsl_ruby_callbacks = true
+  end
+
+  def map(value)
+    structure_name = @mapping_block.call(value)
+    structure_name && structure_name.to_s
+  end
+end
+
+
 #
-# Main DSL class.
+# Main DSL class.  The DSL only runs while the script is being loaded, to build a tree of structures
+# in Java.  Dropping the structure is then done entirely in Java.
 #
 class StructureDSL
-  attr_reader :name
-  attr_reader :fields
+  attr_reader :structure
 
   def initialize(name)
-    @name = name
-    @fields = []
+    @structure = CompositeStructure.new(name.to_s)
+  end
+
+  def name
+    @structure.name
   end
 
   # Catch-all allows simple interpreter-based fields to be supported without creating methods for them all.
@@ -75,7 +120,7 @@ class StructureDSL
     StructureDSL.send(:define_method, method) do |name, *args1|
       options = args1.shift || {}
       options_with_name = options.merge(:name => method)
-      @fields << SimpleStructure.new(name, options_with_name)
+      @structure.add_field(StructureDSL.simple_structure(name, options_with_name))
     end
 
     send(method, *args)
@@ -84,7 +129,7 @@ class StructureDSL
   # Creates an unknown structure.  Actually this is just a shortcut for specifying the null interpreter.
   def unknown(name, options = {})
     interpreter_map_with_name = options.merge(:name => :null)
-    @fields << SimpleStructure.new(name, interpreter_map_with_name)
+    @structure.add_field(StructureDSL.simple_structure(name, interpreter_map_with_name))
   end
 
   # Creates an array structure.
@@ -92,7 +137,9 @@ class StructureDSL
   #   name     - the name the array structure will receive when dropped into an annotation set.  The elements
   #              will be named after the array structure itself.
   #   options  - a map of options.  Supported options:
-  #     :size          - the size of the array, i.e. the number of elements.
+  #     :size_type     - :fixed_element_count (default), :fixed_byte_size or :until_exception
+  #     :size          - the size of the array, i.e. the number of elements, for :fixed_element_count.
+  #     :byte_size     - the size of the array in bytes, for :fixed_byte_size.
   #     :element_type  - the type of each element in the array
   #     :start_index   - the start index (default: 0)
   #
@@ -101,26 +148,26 @@ class StructureDSL
     element_type = options[:element_type] || raise("element_type option not provided")
     start_index  = options[:start_index]  || 0
 
-    size_type_object = case size_type
+    element_structure = $local_structure_storage.get(element_type.to_s)
+    if !element_structure
+      # Name not needed here because ArrayStructure stamps its own name onto the elements.
+      element_structure = StructureDSL.simple_structure(nil, { :name => element_type })
+    end
+
+    array_structure = case size_type
       when :fixed_element_count
         size       = options[:size]         || raise("size option not provided")
-        ArrayStructure::FixedElementCount.new(size)
+        ArrayStructure.with_element_count(name.to_s, start_index, StructureDSL.expression(size), element_structure)
       when :fixed_byte_size
         byte_size  = options[:byte_size]    || raise("byte_size option not provided")
-        ArrayStructure::FixedByteSize.new(byte_size)
+        ArrayStructure.with_byte_size(name.to_s, start_index, StructureDSL.expression(byte_size), element_structure)
       when :until_exception
-        ArrayStructure::UnlimitedElementsUntilException.new
+        ArrayStructure.until_exception(name.to_s, start_index, element_structure)
       else
         raise "Unknown size_type: #{size_type}"
     end
 
-    element_structure = $local_structure_storage[element_type]
-    if !element_structure
-      # Name not needed here because ArrayStructure stamps its own name onto the elements.
-      element_structure = SimpleStructure.new(nil, { :name => element_type })
-    end
-
-    @fields << ArrayStructure.new(name, start_index, size_type_object, element_structure)
+    @structure.add_field(array_structure)
   end
 
   # Creates a switch structure (similar to a union but the lengths can vary.)
@@ -132,51 +179,89 @@ class StructureDSL
   #                                 If this is used then no other definitions should be included except for the
   #                                 minimum required before the switch.  If false, the structure is added as a
   #                                 child of this structure.
-  #   mapping_block - block is called with the value read, and should return a symbol indicating the structure to use.
+  #     :cases                    - a hash from each value to the symbol for the structure to use.  Any other
+  #                                 value is an error.  Faster than using a block, because it never has to
+  #                                 call back into Ruby.
+  #   mapping_block - if there are no cases, the block is called with the value read, and should return a symbol
+  #                   indicating the structure to use, or nil to use no structure.
   #
   def switch(value_name, options = {}, &mapping_block)
     replaces_this_structure = options[:replaces_this_structure] || false
 
-    @fields << SwitchStructure.new(value_name, replaces_this_structure, mapping_block)
-  end
-
-  # Drops the structure at the given location.
-  def do_drop(drop_context, binary, position)
-
-    annotations = []
-    pos = position
+    cases = options[:cases]
+    if cases
+      mapping = TableSwitchMapping.new
+      cases.each_pair do |value, structure_name|
+        mapping.add_case(value, structure_name.to_s)
+      end
+    elsif mapping_block
+      mapping = BlockSwitchMapping.new(mapping_block)
+    else
+      raise("cases option or mapping block not provided")
+    end
 
-    drop_context = drop_context.new_child_context(annotations)
+    @structure.add_field(SwitchStructure.new(StructureDSL.expression(value_name), replaces_this_structure,
+                                             mapping, $local_structure_storage))
+  end
 
-    @fields.each do |field|
-      # Special case, if the current structure had a switch definition in it which is supposed to
-      # replace our entire structure, then we have to pass it the position of the start of this structure,
-      # and then return only *its* annotation instead of our own.
-      if field.is_a?(SwitchStructure) && field.replaces_this_structure
-        annotation = field.do_drop(drop_context, binary, position)
-        return annotation
-      end
+  def inspect
+    "#{super} name=#{name}"
+  end
 
-      annotation = field.do_drop(drop_context, binary, pos)
-      if annotation
-        annotations << annotation
-        pos += annotation.length
-      end
+  # Creates a simple structure.
+  #
+  # Parameters:
+  #   name             - the name the annotation will receive
+  #   interpreter_map  - specifies the interpreter to use to interpret the binary at the location of the
+  #                      annotation.  Supported interpreter map options:
+  #     :name     - the short name of the interpreter
+  #     :length   - the length of the structure, in any form StructureDSL.expression accepts.
+  #     Plus various options depending on the interpreter used.
+  #
+  def self.simple_structure(name, interpreter_map)
+    interpreter_map = interpreter_map.dup
+    length = interpreter_map.delete(:length)
+
+    # Converts the keys to string in the process.  Symbols look better for hash keys on the Ruby side,
+    # but the Java side expects a map keyed by String.
+    tmp = {}
+    interpreter_map.each_pair do |key, value|
+      tmp[key.to_s] = value.to_s
     end
 
-    length = pos - position
-    SimpleGroupAnnotation.new(position, length, annotations).tap do |a|
-      a.note = self.name.to_s
+    interpreter = $interpreter_storage.from_map(tmp)
+    if !interpreter
+      raise "Interpreter not found: #{interpreter_map.inspect}"
     end
-  end
 
-  # Implements Structure
-  def drop(binary, position)
-    do_drop(DropContext.new([]), binary, position)
+    SimpleStructure.new(name && name.to_s, interpreter, length && expression(length))
   end
 
-  def inspect
-    "#{super} name=#{name}"
+  # call-seq:
+  #   expression(2)                      #=> an expression which is always 2
+  #   expression(:length)                #=> an expression which is the value of the length field
+  #   expression(":length - 1")          #=> an expression which is one less than the value of the length field
+  #
+  # Converts a parameter to an expression to be evaluated when the structure is dropped.
+  #
+  # Parameters:
+  #   param - the parameter provided:
+  #         If it's a number, the number is used after converting to an integer.
+  #         If it's a symbol, the number is taken from the field with that name, which must
+  #           have occurred previous to the current field being processed.
+  #         If it's a string, it is interpreted as an arithmetic expression built up of symbols.  The symbols
+  #           are converted to int values in the usual way, and then the expression as a whole is evaluated.
+  #
+  def self.expression(param)
+    if param.is_a?(Numeric)
+      Expressions.constant(param.to_i)
+    elsif param.is_a?(Symbol)
+      Expressions.field(param.to_s)
+    elsif param.is_a?(String)
+      Expressions.arithmetic(param)
+    else
+      raise "No way to determine a value from #{param.inspect}"
+    end
   end
 end
 
@@ -187,11 +272,12 @@ end
 #   name - the name of the structure.
 #
 def structure(name, &block)
-  structure = StructureDSL.new(name)
+  dsl = StructureDSL.new(name)
 
-  structure.instance_eval(&block)
+  dsl.instance_eval(&block)
 
-  $local_structure_storage[name] = structure
+  structure = dsl.structure
+  $local_structure_storage.define(structure)
 
   structure
 end
@@ -19,10 +19,13 @@
 package org.trypticon.hex.formats;
 
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
 import org.trypticon.hex.formats.ruby.RubyStructureDSL;
+import org.trypticon.hex.formats.yaml.YamlStructureLoader;
 
 import static org.hamcrest.Matchers.hasItemInArray;
 import static org.hamcrest.Matchers.is;
@@ -51,4 +54,21 @@ public class RepositoryTest {
         assertThat(structure, is(notNullValue()));
         //TODO? structure.drop()
     }
+
+    @Test
+    public void testLoadingDeclarativeDefinition() throws Exception {
+        Structure structure = YamlStructureLoader.loadFromFile(Repository.getRoot().resolve("classfile/class_file.yaml"));
+        assertThat(structure.getName(), is("class_file")); //NON-NLS
+    }
+
+    @Test
+    public void testEveryRubyScriptHasDeclarativeDefinition() throws Exception {
+        try (Stream<Path> files = Files.walk(Repository.getRoot())) {
+            files.filter(p -> p.getFileName().toString().endsWith(".rb")).forEach(script -> { //NON-NLS
+                String fileName = script.getFileName().toString();
+                Path definition = script.resolveSibling(fileName.substring(0, fileName.length() - 3) + ".yaml");
+                assertThat(YamlStructureLoader.loadFromFile(definition), is(notNullValue()));
+            });
+        }
+    }
 }
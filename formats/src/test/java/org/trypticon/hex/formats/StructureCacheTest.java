@@ -0,0 +1,109 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.trypticon.hex.formats.tree.CompositeStructure;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link StructureCache}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class StructureCacheTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final StructureCache cache = new StructureCache();
+    private final Structure structure = new CompositeStructure("test");
+
+    @Test
+    public void testNotCached() throws Exception {
+        assertThat(cache.get(temporaryFolder.newFile("script.rb").toPath()), is(nullValue()));
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        Path script = temporaryFolder.newFile("script.rb").toPath();
+        cache.put(script, structure, modificationTimes(script));
+
+        assertThat(cache.get(script), is(sameInstance(structure)));
+    }
+
+    @Test
+    public void testScriptModified() throws Exception {
+        Path script = temporaryFolder.newFile("script.rb").toPath();
+        cache.put(script, structure, modificationTimes(script));
+
+        touch(script);
+
+        assertThat(cache.get(script), is(nullValue()));
+    }
+
+    @Test
+    public void testRequiredFileModified() throws Exception {
+        Path script = temporaryFolder.newFile("script.rb").toPath();
+        Path required = temporaryFolder.newFile("required.rb").toPath();
+        cache.put(script, structure, modificationTimes(script, required));
+
+        touch(required);
+
+        assertThat(cache.get(script), is(nullValue()));
+    }
+
+    @Test
+    public void testRequiredFileDeleted() throws Exception {
+        Path script = temporaryFolder.newFile("script.rb").toPath();
+        Path required = temporaryFolder.newFile("required.rb").toPath();
+        cache.put(script, structure, modificationTimes(script, required));
+
+        Files.delete(required);
+
+        assertThat(cache.get(script), is(nullValue()));
+    }
+
+    private static Map<Path, FileTime> modificationTimes(Path... files) throws Exception {
+        Map<Path, FileTime> modificationTimes = new HashMap<>();
+        for (Path file : files) {
+            modificationTimes.put(file, Files.getLastModifiedTime(file));
+        }
+        return modificationTimes;
+    }
+
+    private static void touch(Path file) throws Exception {
+        FileTime time = Files.getLastModifiedTime(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(time.toMillis() + 2000));
+    }
+}
@@ -18,11 +18,17 @@
 
 package org.trypticon.hex.formats.ruby;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.List;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import org.trypticon.hex.anno.Annotation;
 import org.trypticon.hex.anno.CommonAttributes;
@@ -39,6 +45,7 @@ import org.trypticon.hex.interpreters.primitives.unsigned.UShortInterpreterBE;
 import org.trypticon.hex.interpreters.strings.StringInterpreter;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.trypticon.hex.formats.ruby.AnnotationTestUtils.sameAnnotation;
 
@@ -49,6 +56,32 @@ import static org.trypticon.hex.formats.ruby.AnnotationTestUtils.sameAnnotation;
  */
 public class RubyStructureDSLTest {
 
+    // The same switch as gif_header, which calls back into Ruby to decide.
+    private static final String BLOCK_SWITCH_SCRIPT =
+        "structure :rgb do\n" +
+        "  uint8 :r\n" +
+        "  uint8 :g\n" +
+        "  uint8 :b\n" +
+        "end\n" +
+        " \n" +
+        "structure :color_table do\n" +
+        "  array :color, :size => '2 ** ((:color_bits & 0x7) + 1)', :element_type => :rgb\n" +
+        "end\n" +
+        " \n" +
+        "structure :gif_header do\n" +
+        "  uint8 :color_bits\n" +
+        "  switch :color_bits do |value|\n" +
+        "    if value & 0x80 != 0\n" +
+        "      :color_table\n" +
+        "    else\n" +
+        "      nil\n" +
+        "    end\n" +
+        "  end\n" +
+        "end\n";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void testLengthUsage() {
         Structure structure = RubyStructureDSL.loadScriptlet(
@@ -236,6 +269,70 @@ public class RubyStructureDSLTest {
         assertThat(group, is(sameAnnotation(expected)));
     }
 
+    @Test
+    public void testSwitchUsageWithCases() {
+        Structure structure = RubyStructureDSL.loadScriptlet(
+            "structure :option1 do\n" +
+            "  uint8      :tag\n" +
+            "  uint16_be  :value\n" +
+            "end\n" +
+            " \n" +
+            "structure :option2 do\n" +
+            "  uint8      :tag\n" +
+            "  uint32_be  :value\n" +
+            "end\n" +
+            " \n" +
+            "structure :one_or_the_other do\n" +
+            "  uint8  :tag\n" +
+            "  switch :tag, :replaces_this_structure => true, :cases => { 1 => :option1, 2 => :option2 }\n" +
+            "end\n"
+        );
+
+        Binary binary = BinaryFactory.wrap(new byte[] {
+            2,           // tag = 2
+            0, 0, 0, 2,  // value = 2
+        });
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(binary, 0);
+
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "tag"),
+            createAnnotation(1, 4, new UIntInterpreterBE(), "value"),
+        };
+
+        GroupAnnotation expected = createGroupAnnotation(0, 5, "option2", Arrays.asList(children));
+        assertThat(group, is(sameAnnotation(expected)));
+    }
+
+    @Test
+    public void testArrayUsageWithSizeExpression() {
+        Structure structure = RubyStructureDSL.loadScriptlet(
+            "structure :array_with_count do\n" +
+            "  uint8     :count \n" +
+            "  array     :elements, :element_type => :uint16_be, :start_index => 1, :size => ':count - 1' \n" +
+            "end"
+        );
+
+        Binary binary = BinaryFactory.wrap(new byte[] {
+            3,                  // count = 3
+            0, 1, 0, 2,         // elements = [1, 2]
+        });
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(binary, 0);
+
+        Annotation[] arrayElements = {
+            createAnnotation(1, 2, new UShortInterpreterBE(), "elements[1]"),
+            createAnnotation(3, 2, new UShortInterpreterBE(), "elements[2]"),
+        };
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "count"),
+            createGroupAnnotation(1, 4, "elements", Arrays.asList(arrayElements)),
+        };
+
+        GroupAnnotation expected = createGroupAnnotation(0, 5, "array_with_count", Arrays.asList(children));
+        assertThat(group, is(sameAnnotation(expected)));
+    }
+
     @Test
     public void testSwitchUsageForOptionalStructure() {
         Structure structure = RubyStructureDSL.loadScriptlet(
@@ -269,6 +366,96 @@ public class RubyStructureDSLTest {
         assertThat(group, is(sameAnnotation(expected)));
     }
 
+    @Test
+    public void testLoadFromFileIsCached() throws Exception {
+        Path script = temporaryFolder.newFile("cached.rb").toPath();
+        Files.write(script, "structure :cached do\n  uint8 :value\nend\n".getBytes(StandardCharsets.UTF_8));
+
+        Structure structure = RubyStructureDSL.loadFromFile(script);
+        assertThat(RubyStructureDSL.loadFromFile(script), is(sameInstance(structure)));
+
+        Files.write(script, "structure :modified do\n  uint8 :value\nend\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(script, FileTime.fromMillis(Files.getLastModifiedTime(script).toMillis() + 2000));
+
+        assertThat(RubyStructureDSL.loadFromFile(script).getName(), is("modified"));
+    }
+
+    @Test
+    public void testStructureWithBlockOutlivesPooledRuntimes() throws Exception {
+        Path script = temporaryFolder.newFile("gif_header.rb").toPath();
+        Files.write(script, BLOCK_SWITCH_SCRIPT.getBytes(StandardCharsets.UTF_8));
+        Path other = temporaryFolder.newFile("other.rb").toPath();
+        Files.write(other, "structure :other do\n  uint8 :value\nend\n".getBytes(StandardCharsets.UTF_8));
+
+        // Nothing is kept idle, so every runtime which goes back to the pool is terminated.
+        RuntimePool pool = new RuntimePool(0);
+        Structure structure = RubyStructureDSL.loadFromFile(script, pool);
+        RubyStructureDSL.loadFromFile(other, pool);
+        assertThat(RubyStructureDSL.loadFromFile(script, pool), is(sameInstance(structure)));
+
+        Binary binary = BinaryFactory.wrap(new byte[] {
+            (byte) 0x80,      // color_bits = 0x80 (2 colours)
+            1, 2, 3, 4, 5, 6, // color = [(1, 2, 3), (4, 5, 6)]
+        });
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(binary, 0);
+
+        assertThat(group.getLength(), is(7L));
+        assertThat(group.getAnnotations().size(), is(2));
+    }
+
+    @Test
+    public void testRuntimeStartedOnAnotherThread() throws Exception {
+        Path script = temporaryFolder.newFile("started_elsewhere.rb").toPath();
+        Files.write(script, "structure :started_elsewhere do\n  uint8 :value\nend\n".getBytes(StandardCharsets.UTF_8));
+
+        // The runtime is started on one thread and the script is run in it on another, like warming up does.
+        RuntimePool pool = new RuntimePool(1);
+        Thread thread = new Thread(() -> {
+            try {
+                pool.prestart();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        Structure structure = RubyStructureDSL.loadFromFile(script, pool);
+        assertThat(structure.getName(), is("started_elsewhere"));
+
+        // The runtime went back to the pool, so it gets used again, this time from yet another thread.
+        Path other = temporaryFolder.newFile("reused_elsewhere.rb").toPath();
+        Files.write(other, "structure :reused_elsewhere do\n  uint8 :value\nend\n".getBytes(StandardCharsets.UTF_8));
+        Structure[] reused = new Structure[1];
+        thread = new Thread(() -> reused[0] = RubyStructureDSL.loadFromFile(other, pool));
+        thread.start();
+        thread.join();
+        assertThat(reused[0].getName(), is("reused_elsewhere"));
+    }
+
+    @Test
+    public void testRuntimeIsTerminatedOnceStructureIsUnreachable() throws Exception {
+        RuntimePool pool = new RuntimePool(0);
+
+        Path script = temporaryFolder.newFile("gif_header.rb").toPath();
+        Files.write(script, BLOCK_SWITCH_SCRIPT.getBytes(StandardCharsets.UTF_8));
+        RubyStructureDSL.loadFromFile(script, pool);
+        RubyStructureDSL.loadScriptlet(BLOCK_SWITCH_SCRIPT, pool);
+        assertThat(pool.getBoundCount(), is(2));
+
+        // Modifying the script evicts the first structure from the cache, and nothing else holds the scriptlet's.
+        Files.setLastModifiedTime(script, FileTime.fromMillis(Files.getLastModifiedTime(script).toMillis() + 2000));
+        Structure reloaded = RubyStructureDSL.loadFromFile(script, pool);
+
+        for (int i = 0; i < 100 && pool.getBoundCount() > 1; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertThat(pool.getBoundCount(), is(1));
+        assertThat(reloaded.getName(), is("gif_header"));
+    }
+
     private static Annotation createAnnotation(long position, long length, Interpreter<?> interpreter, String note) {
         Annotation annotation = new SimpleAnnotation(position, length, interpreter);
         annotation.set(CommonAttributes.NOTE, note);
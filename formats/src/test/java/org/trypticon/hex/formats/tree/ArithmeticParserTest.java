@@ -0,0 +1,115 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link ArithmeticParser}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class ArithmeticParserTest {
+    private final Map<String, Long> fields = new HashMap<>();
+
+    @Test
+    public void testLiterals() {
+        assertThat(evaluate("42"), is(42L));
+        assertThat(evaluate("0x1F"), is(31L));
+        assertThat(evaluate("1_000"), is(1000L));
+        assertThat(evaluate("  7  "), is(7L));
+    }
+
+    @Test
+    public void testFieldReferences() {
+        fields.put("constant_pool_count", 10L);
+        assertThat(evaluate(":constant_pool_count - 1"), is(9L));
+        assertThat(evaluate(":constant_pool_count*:constant_pool_count"), is(100L));
+    }
+
+    @Test
+    public void testPrecedence() {
+        assertThat(evaluate("1 + 2 * 3"), is(7L));
+        assertThat(evaluate("(1 + 2) * 3"), is(9L));
+        assertThat(evaluate("1 << 2 + 1"), is(8L));
+        assertThat(evaluate("6 & 3 | 8"), is(10L));
+        assertThat(evaluate("2 ** 3 ** 2"), is(512L));
+        assertThat(evaluate("-2 ** 2"), is(-4L));
+        assertThat(evaluate("2 * -3"), is(-6L));
+    }
+
+    @Test
+    public void testDivisionRoundsDownLikeRuby() {
+        assertThat(evaluate("7 / 2"), is(3L));
+        assertThat(evaluate("-7 / 2"), is(-4L));
+        assertThat(evaluate("-7 % 3"), is(2L));
+    }
+
+    @Test
+    public void testGifColorTableSize() {
+        fields.put("color_bits", 0x83L);
+        assertThat(evaluate("2 ** ((:color_bits & 0x7) + 1)"), is(16L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrailingGarbage() {
+        evaluate("1 + 2 )");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingOperand() {
+        evaluate("1 +");
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        evaluate("1 / 0");
+    }
+
+    @Test
+    public void testConstantsAreFolded() {
+        assertThat(parse("(1 + 2) * -3 ** 2"), is(instanceOf(Expressions.Constant.class)));
+        assertThat(((Expressions.Constant) parse("(1 + 2) * -3 ** 2")).getValue(), is(-27L));
+    }
+
+    @Test
+    public void testFieldsAreLookedUpOnEachEvaluation() {
+        Expression expression = parse(":count * 2");
+        fields.put("count", 3L);
+        assertThat(expression.evaluate(new DropContext(), null, "test"), is(6L));
+        fields.put("count", 5L);
+        assertThat(expression.evaluate(new DropContext(), null, "test"), is(10L));
+    }
+
+    private Expression parse(String source) {
+        return new ArithmeticParser(source, name -> (context, binary, description) -> fields.get(name)).parse();
+    }
+
+    private long evaluate(String source) {
+        return parse(source).evaluate(new DropContext(), null, "test");
+    }
+}
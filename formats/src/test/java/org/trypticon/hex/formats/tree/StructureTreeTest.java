@@ -0,0 +1,538 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.tree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.CommonAttributes;
+import org.trypticon.hex.anno.GroupAnnotation;
+import org.trypticon.hex.anno.SimpleAnnotation;
+import org.trypticon.hex.anno.SimpleGroupAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.formats.DropMonitor;
+import org.trypticon.hex.interpreters.Interpreter;
+import org.trypticon.hex.interpreters.primitives.unsigned.UByteInterpreter;
+import org.trypticon.hex.interpreters.primitives.unsigned.UShortInterpreterBE;
+import org.trypticon.hex.interpreters.strings.StringInterpreter;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.trypticon.hex.formats.ruby.AnnotationTestUtils.sameAnnotation;
+
+/**
+ * Tests for dropping structure trees built directly in Java.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class StructureTreeTest {
+    private final StructureLibrary library = new StructureLibrary();
+
+    @Test
+    public void testArrayWithSizeExpression() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.withElementCount("entries", 1, Expressions.arithmetic(":count - 1"),
+                                                           new SimpleStructure(null, new UShortInterpreterBE(), null)));
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 3, 0, 1, 0, 2 });
+
+        Annotation[] elements = {
+            createAnnotation(1, 2, new UShortInterpreterBE(), "entries[1]"),
+            createAnnotation(3, 2, new UShortInterpreterBE(), "entries[2]"),
+        };
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "count"),
+            createGroupAnnotation(1, 4, "entries", Arrays.asList(elements)),
+        };
+        assertThat(structure.drop(binary, 0),
+                   is(sameAnnotation(createGroupAnnotation(0, 5, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testEmptyArrayIsLeftOut() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("count"),
+                                                           new SimpleStructure(null, new UShortInterpreterBE(), null)));
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 0 });
+
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "count"),
+        };
+        assertThat(structure.drop(binary, 0),
+                   is(sameAnnotation(createGroupAnnotation(0, 1, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testArrayWithByteSize() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(ArrayStructure.withByteSize("entries", 0, Expressions.constant(4),
+                                                       new SimpleStructure(null, new UShortInterpreterBE(), null)));
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 0, 1, 0, 2, 0, 3 });
+
+        Annotation[] elements = {
+            createAnnotation(0, 2, new UShortInterpreterBE(), "entries[0]"),
+            createAnnotation(2, 2, new UShortInterpreterBE(), "entries[1]"),
+        };
+        Annotation[] children = {
+            createGroupAnnotation(0, 4, "entries", Arrays.asList(elements)),
+        };
+        assertThat(structure.drop(binary, 0),
+                   is(sameAnnotation(createGroupAnnotation(0, 4, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testArrayWithByteSizeEndingPartwayThroughElement() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(ArrayStructure.withByteSize("entries", 0, Expressions.constant(3),
+                                                       new SimpleStructure(null, new UShortInterpreterBE(), null)));
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 0, 1, 0, 2, 0, 3 });
+
+        Annotation[] elements = {
+            createAnnotation(0, 2, new UShortInterpreterBE(), "entries[0]"),
+            createAnnotation(2, 2, new UShortInterpreterBE(), "entries[1]"),
+        };
+        Annotation[] children = {
+            createGroupAnnotation(0, 4, "entries", Arrays.asList(elements)),
+        };
+        assertThat(structure.drop(binary, 0),
+                   is(sameAnnotation(createGroupAnnotation(0, 4, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testArrayWithByteSizeOfZeroHasOneElement() {
+        // Strings don't have a fixed length, so they are dropped one at a time instead of all at once.
+        SimpleStructure string = new SimpleStructure(null, new StringInterpreter(StandardCharsets.UTF_8),
+                                                     Expressions.constant(1));
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(ArrayStructure.withByteSize("numbers", 0, Expressions.constant(0),
+                                                       new SimpleStructure(null, new UShortInterpreterBE(), null)));
+        structure.addField(ArrayStructure.withByteSize("strings", 0, Expressions.constant(0), string));
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 0, 1, 0x61 });
+
+        Annotation[] numbers = {
+            createAnnotation(0, 2, new UShortInterpreterBE(), "numbers[0]"),
+        };
+        Annotation[] strings = {
+            createAnnotation(2, 1, new StringInterpreter(StandardCharsets.UTF_8), "strings[0]"),
+        };
+        Annotation[] children = {
+            createGroupAnnotation(0, 2, "numbers", Arrays.asList(numbers)),
+            createGroupAnnotation(2, 1, "strings", Arrays.asList(strings)),
+        };
+        assertThat(structure.drop(binary, 0),
+                   is(sameAnnotation(createGroupAnnotation(0, 3, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testArrayUntilException() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(ArrayStructure.untilException("entries", 0,
+                                                         new SimpleStructure(null, new UShortInterpreterBE(), null)));
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 0, 1, 0, 2, 0 });
+
+        Annotation[] elements = {
+            createAnnotation(0, 2, new UShortInterpreterBE(), "entries[0]"),
+            createAnnotation(2, 2, new UShortInterpreterBE(), "entries[1]"),
+        };
+        Annotation[] children = {
+            createGroupAnnotation(0, 4, "entries", Arrays.asList(elements)),
+        };
+        assertThat(structure.drop(binary, 0),
+                   is(sameAnnotation(createGroupAnnotation(0, 4, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testLargeArrayOfFixedLengthElements() {
+        ArrayStructure structure = ArrayStructure.untilException(
+            "entries", 1, new SimpleStructure(null, new UShortInterpreterBE(), null));
+
+        Binary binary = BinaryFactory.wrap(new byte[200001]);
+
+        GroupAnnotation array = (GroupAnnotation) structure.drop(new DropContext(), binary, 0);
+        assertThat(array.getLength(), is(200000L));
+        List<? extends Annotation> elements = array.getAnnotations();
+        assertThat(elements.size(), is(100000));
+        assertThat(elements.get(0),
+                   is(sameAnnotation(createAnnotation(0, 2, new UShortInterpreterBE(), "entries[1]"))));
+        assertThat(elements.get(99999),
+                   is(sameAnnotation(createAnnotation(199998, 2, new UShortInterpreterBE(), "entries[100000]"))));
+    }
+
+    @Test
+    public void testFixedLengthArrayPastEndOfBinaryIsRejected() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("count"),
+                                                           new SimpleStructure(null, new UShortInterpreterBE(), null)));
+
+        try {
+            structure.drop(BinaryFactory.wrap(new byte[] { (byte) 200, 0, 1, 0, 2 }), 0);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Array entries has 200 elements of 2 bytes, " +
+                                          "but only 4 bytes remain in the binary"));
+        }
+    }
+
+    @Test
+    public void testCancelledFixedLengthArrayStops() {
+        ArrayStructure structure = ArrayStructure.untilException(
+            "entries", 0, new SimpleStructure(null, new UByteInterpreter(), null));
+        RecordingMonitor monitor = new RecordingMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return !positions.isEmpty();
+            }
+        };
+
+        try {
+            structure.drop(new DropContext(monitor), BinaryFactory.wrap(new byte[3 * ArrayStructure.CHUNK_SIZE]), 0);
+            fail("Expected CancellationException");
+        } catch (CancellationException e) {
+            // Expected.
+        }
+        assertThat(monitor.positions, is(Collections.singletonList((long) ArrayStructure.CHUNK_SIZE)));
+    }
+
+    @Test
+    public void testTableSwitchReplacingParent() {
+        CompositeStructure option1 = new CompositeStructure("option1");
+        option1.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        option1.addField(new SimpleStructure("value", new UShortInterpreterBE(), null));
+        library.define(option1);
+
+        TableSwitchMapping mapping = new TableSwitchMapping();
+        mapping.addCase(1, "option1");
+        CompositeStructure structure = new CompositeStructure("tagged");
+        structure.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        structure.addField(new SwitchStructure(Expressions.field("tag"), true, mapping, library));
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 0, 1 });
+
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "tag"),
+            createAnnotation(1, 2, new UShortInterpreterBE(), "value"),
+        };
+        assertThat(structure.drop(binary, 0),
+                   is(sameAnnotation(createGroupAnnotation(0, 3, "option1", Arrays.asList(children)))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTableSwitchWithUnmappedValue() {
+        CompositeStructure structure = new CompositeStructure("tagged");
+        structure.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        structure.addField(new SwitchStructure(Expressions.field("tag"), true, new TableSwitchMapping(), library));
+
+        structure.drop(BinaryFactory.wrap(new byte[] { 1 }), 0);
+    }
+
+    @Test
+    public void testSwitchToNothing() {
+        CompositeStructure structure = new CompositeStructure("header");
+        structure.addField(new SimpleStructure("flags", new UByteInterpreter(), null));
+        structure.addField(new SwitchStructure(Expressions.field("flags"), false, value -> null, library));
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { 0 }), 0);
+        assertThat(group.getAnnotations().size(), is(1));
+    }
+
+    @Test
+    public void testFieldLookedUpInParentStructure() {
+        CompositeStructure inner = new CompositeStructure("inner");
+        inner.addField(new SimpleStructure("value", new UShortInterpreterBE(), null));
+        inner.addField(ArrayStructure.withElementCount("items", 0, Expressions.field("count"),
+                                                       new SimpleStructure(null, new UByteInterpreter(), null)));
+        library.define(inner);
+
+        TableSwitchMapping mapping = new TableSwitchMapping();
+        mapping.addCase(2, "inner");
+        CompositeStructure outer = new CompositeStructure("outer");
+        outer.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        outer.addField(new SwitchStructure(Expressions.field("count"), false, mapping, library));
+
+        GroupAnnotation group = (GroupAnnotation) outer.drop(BinaryFactory.wrap(new byte[] { 2, 0, 0, 5, 6 }), 0);
+        assertThat(group.getLength(), is(5L));
+    }
+
+    @Test
+    public void testNestedFixedLengthArray() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("count"),
+                                                           new SimpleStructure(null, new UShortInterpreterBE(), null)));
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { 2, 0, 1, 0, 2 }), 0);
+
+        Annotation[] elements = {
+            createAnnotation(1, 2, new UShortInterpreterBE(), "entries[0]"),
+            createAnnotation(3, 2, new UShortInterpreterBE(), "entries[1]"),
+        };
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "count"),
+            createGroupAnnotation(1, 4, "entries", Arrays.asList(elements)),
+        };
+        assertThat(group, is(sameAnnotation(createGroupAnnotation(0, 5, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testFixedLength() {
+        CompositeStructure header = new CompositeStructure("header");
+        header.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        header.addField(new SimpleStructure("value", new UShortInterpreterBE(), null));
+        assertThat(header.getFixedLength(), is(3L));
+
+        header.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("tag"),
+                                                        new SimpleStructure(null, new UByteInterpreter(), null)));
+        assertThat(header.getFixedLength(), is(-1L));
+    }
+
+    @Test
+    public void testDropReportsFieldsAndProgress() {
+        // Strings don't have a fixed length, so every element is dropped separately.
+        SimpleStructure element = new SimpleStructure(null, new StringInterpreter(StandardCharsets.US_ASCII),
+                                                      Expressions.constant(2));
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("count"), element));
+        RecordingMonitor monitor = new RecordingMonitor();
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { 2, 0, 1, 0, 2 }), 0,
+                                                                 monitor);
+
+        // Each field is reported after the fields inside it.
+        List<? extends Annotation> fields = group.getAnnotations();
+        List<? extends Annotation> elements = ((GroupAnnotation) fields.get(1)).getAnnotations();
+        assertThat(monitor.dropped, is(Arrays.<Annotation>asList(fields.get(0), elements.get(0), elements.get(1),
+                                                                 fields.get(1))));
+        assertThat(monitor.depths, is(Arrays.asList(1, 2, 2, 1)));
+        assertThat(monitor.positions, is(Arrays.asList(1L, 3L, 5L, 5L)));
+        assertThat(monitor.partial, is(nullValue()));
+    }
+
+    @Test
+    public void testFixedLengthArrayReportsProgressOnce() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("count"),
+                                                           new SimpleStructure(null, new UShortInterpreterBE(), null)));
+        RecordingMonitor monitor = new RecordingMonitor();
+
+        structure.drop(BinaryFactory.wrap(new byte[] { 2, 0, 1, 0, 2 }), 0, monitor);
+
+        assertThat(monitor.positions, is(Arrays.asList(1L, 5L, 5L)));
+    }
+
+    @Test
+    public void testCancelledDropStops() {
+        SimpleStructure element = new SimpleStructure(null, new StringInterpreter(StandardCharsets.US_ASCII),
+                                                      Expressions.constant(1));
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.untilException("entries", 0, element));
+        RecordingMonitor monitor = new RecordingMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return positions.size() >= 3;
+            }
+        };
+
+        try {
+            structure.drop(BinaryFactory.wrap(new byte[] { 1, 2, 3, 4, 5, 6 }), 0, monitor);
+            fail("Expected CancellationException");
+        } catch (CancellationException e) {
+            // Expected.
+        }
+        assertThat(monitor.depths, is(Arrays.asList(1, 2, 2, 2)));
+        assertThat(monitor.positions, is(Arrays.asList(1L, 2L, 3L)));
+
+        // What was finished is grouped the same way as if the drop had finished.
+        Annotation[] elements = {
+            createAnnotation(1, 1, new StringInterpreter(StandardCharsets.US_ASCII), "entries[0]"),
+            createAnnotation(2, 1, new StringInterpreter(StandardCharsets.US_ASCII), "entries[1]"),
+            createAnnotation(3, 1, new StringInterpreter(StandardCharsets.US_ASCII), "entries[2]"),
+        };
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "count"),
+            createGroupAnnotation(1, 3, "entries", Arrays.asList(elements)),
+        };
+        assertThat(monitor.partial, is(sameAnnotation(createGroupAnnotation(0, 4, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testFailedDropKeepsFinishedNestedFields() {
+        CompositeStructure payload = new CompositeStructure("payload");
+        payload.addField(new SimpleStructure("value", new UShortInterpreterBE(), null));
+        library.define(payload);
+
+        TableSwitchMapping mapping = new TableSwitchMapping();
+        mapping.addCase(1, "payload");
+        CompositeStructure entry = new CompositeStructure("entry");
+        entry.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        entry.addField(new SwitchStructure(Expressions.field("tag"), false, mapping, library));
+
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(new SimpleStructure("count", new UByteInterpreter(), null));
+        structure.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("count"), entry));
+        RecordingMonitor monitor = new RecordingMonitor();
+
+        // The second entry has a tag with no mapping.
+        try {
+            structure.drop(BinaryFactory.wrap(new byte[] { 2, 1, 0, 5, 9 }), 0, monitor);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        assertThat(monitor.depths, is(Arrays.asList(1, 3, 4, 3, 2, 3)));
+
+        Annotation[] firstEntry = {
+            createAnnotation(1, 1, new UByteInterpreter(), "tag"),
+            createGroupAnnotation(2, 2, "payload", Collections.singletonList(
+                createAnnotation(2, 2, new UShortInterpreterBE(), "value"))),
+        };
+        Annotation[] elements = {
+            createGroupAnnotation(1, 3, "entries[0]", Arrays.asList(firstEntry)),
+            createGroupAnnotation(4, 1, "entries[1]", Collections.singletonList(
+                createAnnotation(4, 1, new UByteInterpreter(), "tag"))),
+        };
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "count"),
+            createGroupAnnotation(1, 4, "entries", Arrays.asList(elements)),
+        };
+        assertThat(monitor.partial, is(sameAnnotation(createGroupAnnotation(0, 5, "table", Arrays.asList(children)))));
+    }
+
+    @Test
+    public void testFailedDropOfReplacingSwitchKeepsReplacement() {
+        CompositeStructure option1 = new CompositeStructure("option1");
+        option1.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        option1.addField(new SimpleStructure("value", new UShortInterpreterBE(), null));
+        option1.addField(new SwitchStructure(Expressions.field("value"), false, new TableSwitchMapping(), library));
+        library.define(option1);
+
+        TableSwitchMapping mapping = new TableSwitchMapping();
+        mapping.addCase(1, "option1");
+        CompositeStructure structure = new CompositeStructure("tagged");
+        structure.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        structure.addField(new SwitchStructure(Expressions.field("tag"), true, mapping, library));
+        RecordingMonitor monitor = new RecordingMonitor();
+
+        try {
+            structure.drop(BinaryFactory.wrap(new byte[] { 1, 0, 1 }), 0, monitor);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        // The tag of the structure being replaced is read again by the replacement, so only the replacement's
+        // fields are reported.
+        assertThat(monitor.depths, is(Arrays.asList(2, 2)));
+
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "tag"),
+            createAnnotation(1, 2, new UShortInterpreterBE(), "value"),
+        };
+        assertThat(monitor.partial,
+                   is(sameAnnotation(createGroupAnnotation(0, 3, "option1", Arrays.asList(children)))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingField() {
+        CompositeStructure structure = new CompositeStructure("table");
+        structure.addField(ArrayStructure.withElementCount("entries", 0, Expressions.field("count"),
+                                                           new SimpleStructure(null, new UByteInterpreter(), null)));
+
+        structure.drop(BinaryFactory.wrap(new byte[] { 1 }), 0);
+    }
+
+    @Test
+    public void testMissingStructureIsReported() {
+        TableSwitchMapping mapping = new TableSwitchMapping();
+        mapping.addCase(1, "undefined");
+        CompositeStructure structure = new CompositeStructure("tagged");
+        structure.addField(new SimpleStructure("tag", new UByteInterpreter(), null));
+        structure.addField(new SwitchStructure(Expressions.field("tag"), false, mapping, library));
+
+        try {
+            structure.drop(BinaryFactory.wrap(new byte[] { 1 }), 0);
+            fail("Expected an exception");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Structure 'undefined' has not been defined"));
+        }
+    }
+
+    private static class RecordingMonitor implements DropMonitor {
+        final List<Annotation> dropped = new ArrayList<>();
+        final List<Integer> depths = new ArrayList<>();
+        final List<Long> positions = new ArrayList<>();
+        Annotation partial;
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void advanced(long position) {
+            positions.add(position);
+        }
+
+        @Override
+        public void dropped(Annotation annotation, int depth) {
+            dropped.add(annotation);
+            depths.add(depth);
+        }
+
+        @Override
+        public void droppedPartially(Annotation annotation) {
+            partial = annotation;
+        }
+    }
+
+    private static Annotation createAnnotation(long position, long length, Interpreter<?> interpreter, String note) {
+        Annotation annotation = new SimpleAnnotation(position, length, interpreter);
+        annotation.set(CommonAttributes.NOTE, note);
+        return annotation;
+    }
+
+    private static GroupAnnotation createGroupAnnotation(long position, long length, String note,
+                                                         List<Annotation> children) {
+        GroupAnnotation annotation = new SimpleGroupAnnotation(position, length, children);
+        annotation.set(CommonAttributes.NOTE, note);
+        return annotation;
+    }
+}
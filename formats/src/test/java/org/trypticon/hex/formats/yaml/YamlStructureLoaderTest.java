@@ -0,0 +1,298 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.formats.yaml;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.CommonAttributes;
+import org.trypticon.hex.anno.GroupAnnotation;
+import org.trypticon.hex.anno.SimpleAnnotation;
+import org.trypticon.hex.anno.SimpleGroupAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.formats.Structure;
+import org.trypticon.hex.interpreters.Interpreter;
+import org.trypticon.hex.interpreters.primitives.unsigned.UByteInterpreter;
+import org.trypticon.hex.interpreters.primitives.unsigned.UIntInterpreterBE;
+import org.trypticon.hex.interpreters.primitives.unsigned.UShortInterpreterBE;
+import org.trypticon.hex.interpreters.strings.StringInterpreter;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.trypticon.hex.formats.ruby.AnnotationTestUtils.sameAnnotation;
+
+/**
+ * Tests for {@link YamlStructureLoader}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class YamlStructureLoaderTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testLengthUsage() {
+        Structure structure = YamlStructureLoader.loadDocument(
+            "structures:\n" +
+            "  string_with_length:\n" +
+            "    - uint16_be: length\n" +
+            "    - string: bytes\n" +
+            "      charset: UTF-8\n" +
+            "      length: :length\n"
+        );
+
+        Binary binary = BinaryFactory.wrap(new byte[] {
+            0, 4,                     // length = 4
+            0x74, 0x65, 0x73, 0x74    // bytes = "test"
+        });
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(binary, 0);
+
+        Annotation[] children = {
+            createAnnotation(0, 2, new UShortInterpreterBE(), "length"),
+            createAnnotation(2, 4, new StringInterpreter(StandardCharsets.UTF_8), "bytes"),
+        };
+
+        GroupAnnotation expected = createGroupAnnotation(0, 6, "string_with_length", Arrays.asList(children));
+        assertThat(group, is(sameAnnotation(expected)));
+    }
+
+    @Test
+    public void testArrayUsage() {
+        Structure structure = YamlStructureLoader.loadDocument(
+            "structures:\n" +
+            "  array_with_size:\n" +
+            "    - uint16_be: size\n" +
+            "    - array: elements\n" +
+            "      element_type: uint16_be\n" +
+            "      start_index: 1\n" +
+            "      size: :size\n"
+        );
+
+        Binary binary = BinaryFactory.wrap(new byte[] {
+            0, 3,               // size = 3
+            0, 1, 0, 2, 0, 3,   // elements = [1, 2, 3]
+        });
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(binary, 0);
+
+        Annotation[] arrayElements = {
+            createAnnotation(2, 2, new UShortInterpreterBE(), "elements[1]"),
+            createAnnotation(4, 2, new UShortInterpreterBE(), "elements[2]"),
+            createAnnotation(6, 2, new UShortInterpreterBE(), "elements[3]"),
+        };
+        Annotation[] children = {
+            createAnnotation(0, 2, new UShortInterpreterBE(), "size"),
+            createGroupAnnotation(2, 6, "elements", Arrays.asList(arrayElements)),
+        };
+
+        GroupAnnotation expected = createGroupAnnotation(0, 8, "array_with_size", Arrays.asList(children));
+        assertThat(group, is(sameAnnotation(expected)));
+    }
+
+    @Test
+    public void testArrayWithByteSizeOfStructures() {
+        Structure structure = YamlStructureLoader.loadDocument(
+            "structures:\n" +
+            "  entry:\n" +
+            "    - uint8: length\n" +
+            "    - unknown: data\n" +
+            "      length: :length\n" +
+            "  table:\n" +
+            "    - uint8: size\n" +
+            "    - array: entries\n" +
+            "      size_type: fixed_byte_size\n" +
+            "      byte_size: ':size - 1'\n" +
+            "      element_type: entry\n"
+        );
+
+        Binary binary = BinaryFactory.wrap(new byte[] { 6, 1, 9, 2, 8, 8 });
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(binary, 0);
+        assertThat(group.getLength(), is(6L));
+        GroupAnnotation entries = (GroupAnnotation) group.getAnnotations().get(1);
+        assertThat(entries.getAnnotations().size(), is(2));
+    }
+
+    @Test
+    public void testSwitchUsageWithCases() {
+        Structure structure = YamlStructureLoader.loadDocument(
+            "structures:\n" +
+            "  option1:\n" +
+            "    - uint8: tag\n" +
+            "    - uint16_be: value\n" +
+            "  option2:\n" +
+            "    - uint8: tag\n" +
+            "    - uint32_be: value\n" +
+            "  one_or_the_other:\n" +
+            "    - uint8: tag\n" +
+            "    - switch: :tag\n" +
+            "      replaces_this_structure: true\n" +
+            "      cases: { 1: option1, 2: option2 }\n"
+        );
+
+        Binary binary = BinaryFactory.wrap(new byte[] {
+            2,           // tag = 2
+            0, 0, 0, 2,  // value = 2
+        });
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(binary, 0);
+
+        Annotation[] children = {
+            createAnnotation(0, 1, new UByteInterpreter(), "tag"),
+            createAnnotation(1, 4, new UIntInterpreterBE(), "value"),
+        };
+
+        GroupAnnotation expected = createGroupAnnotation(0, 5, "option2", Arrays.asList(children));
+        assertThat(group, is(sameAnnotation(expected)));
+    }
+
+    @Test
+    public void testSwitchCaseToNothing() {
+        Structure structure = YamlStructureLoader.loadDocument(
+            "structures:\n" +
+            "  extra:\n" +
+            "    - uint8: value\n" +
+            "  flagged:\n" +
+            "    - uint8: flags\n" +
+            "    - switch: ':flags & 0x80'\n" +
+            "      cases: { 0x00: null, 0x80: extra }\n"
+        );
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { 0x01, 5 }), 0);
+        assertThat(group.getLength(), is(1L));
+
+        group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { (byte) 0x81, 5 }), 0);
+        assertThat(group.getLength(), is(2L));
+    }
+
+    @Test
+    public void testJsonDocument() {
+        Structure structure = YamlStructureLoader.loadDocument(
+            "{\n" +
+            "  \"structures\": {\n" +
+            "    \"option1\": [ { \"uint16_be\": \"value\" } ],\n" +
+            "    \"tagged\": [\n" +
+            "      { \"uint8\": \"tag\" },\n" +
+            "      { \"switch\": \":tag\", \"cases\": { \"1\": \"option1\" } }\n" +
+            "    ]\n" +
+            "  }\n" +
+            "}\n"
+        );
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { 1, 0, 1 }), 0);
+        assertThat(group.getLength(), is(3L));
+    }
+
+    @Test
+    public void testUnknownInterpreterIsReported() {
+        try {
+            YamlStructureLoader.loadDocument(
+                "structures:\n" +
+                "  broken:\n" +
+                "    - no_such_interpreter: value\n"
+            );
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage().startsWith("Interpreter not found"), is(true));
+        }
+    }
+
+    @Test
+    public void testStartIndexAsString() {
+        Structure structure = YamlStructureLoader.loadDocument(
+            "structures:\n" +
+            "  table:\n" +
+            "    - array: entries\n" +
+            "      element_type: uint8\n" +
+            "      start_index: '0x10'\n" +
+            "      size: 1\n"
+        );
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { 5 }), 0);
+        GroupAnnotation array = (GroupAnnotation) group.getAnnotations().get(0);
+        assertThat(array.getAnnotations().get(0).get(CommonAttributes.NOTE), is("entries[16]"));
+    }
+
+    @Test
+    public void testInvalidStartIndexIsReported() {
+        try {
+            YamlStructureLoader.loadDocument(
+                "structures:\n" +
+                "  table:\n" +
+                "    - array: entries\n" +
+                "      element_type: uint8\n" +
+                "      start_index: first\n" +
+                "      size: 1\n"
+            );
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("Expected a number for start_index, got: first"));
+        }
+    }
+
+    @Test
+    public void testRequiresRelativeFile() throws Exception {
+        Path directory = temporaryFolder.newFolder("nested").toPath();
+        Files.write(directory.resolve("option1.yaml"),
+                    ("structures:\n" +
+                     "  option1:\n" +
+                     "    - uint16_be: value\n").getBytes(StandardCharsets.UTF_8));
+        Path file = temporaryFolder.getRoot().toPath().resolve("tagged.yaml");
+        Files.write(file, ("requires:\n" +
+                           "  - nested/option1.yaml\n" +
+                           "structures:\n" +
+                           "  tagged:\n" +
+                           "    - uint8: tag\n" +
+                           "    - switch: :tag\n" +
+                           "      cases: { 1: option1 }\n").getBytes(StandardCharsets.UTF_8));
+
+        Structure structure = YamlStructureLoader.loadFromFile(file);
+
+        GroupAnnotation group = (GroupAnnotation) structure.drop(BinaryFactory.wrap(new byte[] { 1, 0, 1 }), 0);
+        assertThat(group.getLength(), is(3L));
+        assertThat(YamlStructureLoader.loadFromFile(file), is(sameInstance(structure)));
+    }
+
+    private static Annotation createAnnotation(long position, long length, Interpreter<?> interpreter, String note) {
+        Annotation annotation = new SimpleAnnotation(position, length, interpreter);
+        annotation.set(CommonAttributes.NOTE, note);
+        return annotation;
+    }
+
+    private static GroupAnnotation createGroupAnnotation(long position, long length, String note,
+                                                         List<Annotation> children) {
+        GroupAnnotation annotation = new SimpleGroupAnnotation(position, length, children);
+        annotation.set(CommonAttributes.NOTE, note);
+        return annotation;
+    }
+}
@@ -38,9 +38,15 @@ import org.trypticon.hex.gui.file.NewNotebookAction;
 import org.trypticon.hex.gui.file.OpenNotebookAction;
 import org.trypticon.hex.gui.file.RevertToSavedAction;
 import org.trypticon.hex.gui.file.SaveNotebookAction;
+import org.trypticon.hex.gui.find.BuildSearchIndexAction;
+import org.trypticon.hex.gui.find.ExtractStringsAction;
 import org.trypticon.hex.gui.find.FindAction;
 import org.trypticon.hex.gui.find.FindNextAction;
 import org.trypticon.hex.gui.find.FindPreviousAction;
+import org.trypticon.hex.gui.find.FindSignaturesAction;
+import org.trypticon.hex.gui.find.FindSimilarAction;
+import org.trypticon.hex.gui.find.JumpToEndOfRunAction;
+import org.trypticon.hex.gui.find.JumpToNextDataAction;
 import org.trypticon.hex.gui.find.JumpToOffsetAction;
 import org.trypticon.hex.gui.find.JumpToSelectionAction;
 import org.trypticon.hex.gui.recent.OpenRecentMenu;
@@ -106,12 +112,18 @@ public class MenuBarBuilder {
 
         editMenu.addSeparator();
         editMenu.add(new JumpToOffsetAction());
+        editMenu.add(new JumpToNextDataAction());
+        editMenu.add(new JumpToEndOfRunAction());
 
         editMenu.addSeparator();
         JMenu findMenu = new JMenu(Resources.getString("FindMenu.name"));
         findMenu.add(new FindAction());
         findMenu.add(new FindNextAction());
         findMenu.add(new FindPreviousAction());
+        findMenu.add(new FindSignaturesAction(application));
+        findMenu.add(new FindSimilarAction());
+        findMenu.add(new BuildSearchIndexAction());
+        findMenu.add(new ExtractStringsAction());
         findMenu.add(new JumpToSelectionAction());
         editMenu.add(findMenu);
 
@@ -68,8 +68,8 @@ public class Resources {
         return MessageFormat.format(getString(locale, key), params);
     }
 
-    public static Localisable getMessage(@NonNls String key) {
-        return new Message(key);
+    public static Localisable getMessage(@NonNls String key, Object... params) {
+        return new Message(key, params);
     }
 
     public static void localiseAction(Action action, @NonNls String baseKey) {
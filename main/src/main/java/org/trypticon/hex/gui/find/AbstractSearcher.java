@@ -0,0 +1,260 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.concurrent.CancellationException;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Base class for searchers which can search a range of the binary.
+ * Takes care of the direction and wrapping logic, so that subclasses only need to know how
+ * to find the first or last match starting within a range of positions.
+ *
+ * @author trejkaz
+ */
+abstract class AbstractSearcher implements Searcher {
+
+    /**
+     * Default number of bytes subclasses read from the haystack in one go.
+     */
+    static final int DEFAULT_WINDOW_SIZE = 1024 * 1024;
+
+    @Nullable
+    @Override
+    public Match find(Binary haystack, long startPosition, SearchParams params, SearchMonitor monitor) {
+        long length = haystack.length();
+        SearchScope scope = params.getScope();
+        Match found;
+        if (params.isBackwards()) {
+            // Going backwards, we want the match which ends at or before the start position.
+            long position = Math.max(-1, Math.min(startPosition, length - 1));
+            found = findBackwards(haystack, scope, position + 1, monitor);
+            if (found == null && params.isWrapping()) {
+                // A match starting before the start position can still end after it, so the wrapped pass
+                // has to be able to reach all the way back.
+                found = findBackwards(haystack, scope, length, monitor);
+            }
+        } else {
+            long position = Math.max(0, Math.min(startPosition, length));
+            found = findForwards(haystack, scope, position, length, monitor);
+            if (found == null && params.isWrapping()) {
+                found = findForwards(haystack, scope, 0, position, monitor);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the first match within the scope which starts within the given range.
+     *
+     * @param haystack the binary being searched.
+     * @param scope the scope.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @return the match with the lowest offset, or {@code null} if there is no match.
+     */
+    @Nullable
+    private Match findForwards(Binary haystack, SearchScope scope, long fromPosition, long toPosition,
+                               SearchMonitor monitor) {
+        long length = haystack.length();
+        int count = scope.getRangeCount();
+        for (int i = scope.indexEndingAfter(fromPosition); i < count && scope.getStart(i) < toPosition; i++) {
+            long limit = Math.min(scope.getEnd(i), length);
+            long start = Math.max(scope.getStart(i), fromPosition);
+            long end = Math.min(limit, toPosition);
+            if (start < end) {
+                Match found = findForwards(haystack, start, end, limit, monitor);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the last match within the scope which ends before the given position.
+     *
+     * @param haystack the binary being searched.
+     * @param scope the scope.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @return the match with the highest offset, or {@code null} if there is no match.
+     */
+    @Nullable
+    private Match findBackwards(Binary haystack, SearchScope scope, long limitPosition, SearchMonitor monitor) {
+        limitPosition = Math.min(limitPosition, haystack.length());
+        for (int i = scope.indexStartingBefore(limitPosition); i >= 0; i--) {
+            long limit = Math.min(scope.getEnd(i), limitPosition);
+            Match found = findBackwards(haystack, scope.getStart(i), limit, limit, monitor);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void findAll(Binary haystack, SearchScope scope, SearchMonitor monitor, MatchListener listener) {
+        long length = haystack.length();
+        int count = scope.getRangeCount();
+        for (int i = 0; i < count && scope.getStart(i) < length; i++) {
+            long end = Math.min(scope.getEnd(i), length);
+            findAll(haystack, scope.getStart(i), end, end, monitor, listener);
+        }
+    }
+
+    /**
+     * Finds every match which starts within the given range and ends before the limit.
+     * The default implementation calls {@link #findForwards} repeatedly. Subclasses which can find
+     * all the matches in a single pass should override it.
+     *
+     * @param haystack the binary being searched.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the matches must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @param listener the listener to report matches to, in order of offset.
+     */
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        long position = fromPosition;
+        while (position < toPosition) {
+            Match found = findForwards(haystack, position, toPosition, limitPosition, monitor);
+            if (found == null) {
+                break;
+            }
+            listener.matchFound(found.offset, found.length);
+            position = found.offset + 1;
+        }
+    }
+
+    /**
+     * Finds the first match which starts within the given range and ends before the limit.
+     *
+     * @param haystack the binary being searched.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @return the match with the lowest offset, or {@code null} if there is no match.
+     */
+    @Nullable
+    abstract Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                                SearchMonitor monitor);
+
+    /**
+     * Finds the last match which starts within the given range and ends before the limit.
+     *
+     * @param haystack the binary being searched.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @return the match with the highest offset, or {@code null} if there is no match.
+     */
+    @Nullable
+    abstract Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                                SearchMonitor monitor);
+
+    /**
+     * Callback for matches found by subclasses which scan forwards through a window at a time.
+     */
+    interface HitCallback {
+        /**
+         * Called for each match.
+         *
+         * @param start the position of the first byte of the match.
+         * @param length the length of the match.
+         */
+        void hit(long start, long length);
+    }
+
+    /**
+     * Supplies the position a forward scan can stop at, which can change as matches are found.
+     */
+    interface StopPosition {
+        long get();
+    }
+
+    /**
+     * Keeps the match which starts first, out of the matches found by a forward scan.
+     *
+     * <p>Scans which find matches in order of where they end can still find one starting earlier later on,
+     *    but only while it could overlap the best one so far, so the scan can stop once it gets past that.</p>
+     */
+    static class EarliestMatch implements HitCallback, StopPosition {
+        private final int maxLength;
+        private final boolean preferLongest;
+        private long start = -1;
+        private long length;
+
+        /**
+         * Constructs the callback.
+         *
+         * @param maxLength the length of the longest possible match.
+         * @param preferLongest {@code true} to keep the longest of the matches starting at the same position,
+         *                      {@code false} to keep the shortest.
+         */
+        EarliestMatch(int maxLength, boolean preferLongest) {
+            this.maxLength = maxLength;
+            this.preferLongest = preferLongest;
+        }
+
+        @Override
+        public void hit(long start, long length) {
+            if (this.start < 0 || start < this.start ||
+                (start == this.start && (preferLongest ? length > this.length : length < this.length))) {
+                this.start = start;
+                this.length = length;
+            }
+        }
+
+        @Override
+        public long get() {
+            return start < 0 ? Long.MAX_VALUE : start + maxLength - 1;
+        }
+
+        /**
+         * Gets the match kept.
+         *
+         * @return the match, or {@code null} if nothing was found.
+         */
+        @Nullable
+        Match getMatch() {
+            return start < 0 ? null : new Match(start, length);
+        }
+    }
+
+    /**
+     * Throws an exception if the monitor says the search should stop.
+     *
+     * @param monitor the monitor.
+     * @throws CancellationException if the search should stop.
+     */
+    static void checkCancelled(SearchMonitor monitor) {
+        if (monitor.isCancelled()) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+}
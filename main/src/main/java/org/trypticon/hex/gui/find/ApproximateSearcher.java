@@ -0,0 +1,244 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Searcher which finds binary with up to a given number of bytes different, for finding blocks
+ *    which have been slightly corrupted or patched.</p>
+ *
+ * <p>Uses the shift-add algorithm: every alignment of the needle which could still be in progress has a
+ *    small counter of mismatches so far, and the counters are packed into 64-bit words so that one shift
+ *    and one add moves every alignment along by a byte. The search takes the same time whatever the haystack
+ *    contains, and doesn't allocate anything once it has started.</p>
+ *
+ * <p>Each counter has one more bit than it needs to count to the maximum number of mismatches. That top bit
+ *    is set once there are too many mismatches, and is moved into a second set of words before it can carry
+ *    into the next counter.</p>
+ *
+ * @author trejkaz
+ */
+class ApproximateSearcher extends AbstractSearcher {
+
+    private final int windowSize;
+
+    private final byte[] needle;
+    private final int maxMismatches;
+
+    private final int fieldBits;
+    private final long fieldMask;
+    private final int topFieldShift;
+    private final long usedMask;
+    private final long highMask;
+    private final int wordCount;
+    private final int lastWord;
+    private final int lastFieldShift;
+
+    /**
+     * For each byte value, the words to add for it, with a 1 in the counter of every needle position
+     * where the needle has a different byte.
+     */
+    private final long[] forwardTable;
+
+    /**
+     * The same as {@link #forwardTable}, for the needle reversed.
+     */
+    private final long[] backwardTable;
+
+    ApproximateSearcher(byte[] needle, int maxMismatches) {
+        this(needle, maxMismatches, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param needle the needle.
+     * @param maxMismatches the most bytes which can be different in a match.
+     * @param windowSize the number of bytes to read from the haystack in one go.
+     */
+    ApproximateSearcher(byte[] needle, int maxMismatches, int windowSize) {
+        if (maxMismatches < 0) {
+            throw new IllegalArgumentException("Maximum mismatches cannot be negative: " + maxMismatches);
+        }
+        this.needle = needle.clone();
+        this.maxMismatches = maxMismatches;
+        this.windowSize = Math.max(1, windowSize);
+
+        // Enough bits to count to the maximum, plus the overflow bit.
+        fieldBits = 32 - Integer.numberOfLeadingZeros(maxMismatches) + 1;
+        fieldMask = (1L << fieldBits) - 1;
+        int fieldsPerWord = 64 / fieldBits;
+        topFieldShift = (fieldsPerWord - 1) * fieldBits;
+        usedMask = fieldsPerWord * fieldBits == 64 ? -1L : (1L << (fieldsPerWord * fieldBits)) - 1;
+        long highMask = 0;
+        for (int i = 0; i < fieldsPerWord; i++) {
+            highMask |= 1L << (i * fieldBits + fieldBits - 1);
+        }
+        this.highMask = highMask;
+
+        int length = this.needle.length;
+        wordCount = Math.max(1, (length + fieldsPerWord - 1) / fieldsPerWord);
+        lastWord = Math.max(0, length - 1) / fieldsPerWord;
+        lastFieldShift = (Math.max(0, length - 1) % fieldsPerWord) * fieldBits;
+
+        forwardTable = new long[256 * wordCount];
+        backwardTable = new long[256 * wordCount];
+        for (int value = 0; value < 256; value++) {
+            for (int i = 0; i < length; i++) {
+                long bit = 1L << ((i % fieldsPerWord) * fieldBits);
+                if ((this.needle[i] & 0xFF) != value) {
+                    forwardTable[value * wordCount + i / fieldsPerWord] += bit;
+                }
+                if ((this.needle[length - 1 - i] & 0xFF) != value) {
+                    backwardTable[value * wordCount + i / fieldsPerWord] += bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts how many bytes are different between the needle and the haystack at a position,
+     * for describing a match.
+     *
+     * @param haystack the haystack.
+     * @param offset the position.
+     * @return the number of bytes which are different. Bytes past the end of the haystack count as different.
+     */
+    int countMismatches(Binary haystack, long offset) {
+        byte[] bytes = new byte[(int) Math.max(0, Math.min(needle.length, haystack.length() - offset))];
+        haystack.read(offset, ByteBuffer.wrap(bytes));
+        int count = needle.length - bytes.length;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != needle[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Nullable
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        return search(haystack, fromPosition, toPosition, limitPosition, false, monitor, null);
+    }
+
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        return search(haystack, fromPosition, toPosition, limitPosition, true, monitor, null);
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        search(haystack, fromPosition, toPosition, limitPosition, false, monitor, listener);
+    }
+
+    /**
+     * Runs the shift-add algorithm over a range. Going backwards, the haystack is read from the end
+     * and the reversed needle is matched against it.
+     *
+     * @param haystack the haystack.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param backwards {@code true} to search from the end of the range, {@code false} to search from the start.
+     * @param monitor the monitor to report progress to.
+     * @param listener the listener to report all matches to, or {@code null} to stop at the first match.
+     * @return the first match found, or {@code null} if no match is found or a listener was given.
+     */
+    @Nullable
+    private Match search(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                         boolean backwards, SearchMonitor monitor, @Nullable MatchListener listener) {
+        int needleLength = needle.length;
+        fromPosition = Math.max(fromPosition, 0);
+        long stopPosition = Math.min(toPosition, Math.min(limitPosition, haystack.length()) - needleLength + 1);
+        if (needleLength == 0 || fromPosition >= stopPosition) {
+            return null;
+        }
+
+        long[] table = backwards ? backwardTable : forwardTable;
+        long[] state = new long[wordCount];
+        long[] overflow = new long[wordCount];
+        long single = 0;
+        long singleOverflow = 0;
+
+        long total = stopPosition - fromPosition + needleLength - 1;
+        long startCount = stopPosition - fromPosition;
+        byte[] window = new byte[(int) Math.min(windowSize, total)];
+        long scanned = 0;
+        while (scanned < total) {
+            checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, total - scanned);
+            long windowPosition = backwards ? fromPosition + total - scanned - windowLength : fromPosition + scanned;
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, windowLength));
+
+            for (int i = 0; i < windowLength; i++) {
+                int index = backwards ? windowLength - 1 - i : i;
+                int tableOffset = (window[index] & 0xFF) * wordCount;
+
+                long last;
+                if (wordCount == 1) {
+                    single = ((single << fieldBits) & usedMask) + table[tableOffset];
+                    singleOverflow = (singleOverflow << fieldBits) & usedMask;
+                    long high = single & highMask;
+                    single ^= high;
+                    singleOverflow |= high;
+                    last = single | singleOverflow;
+                } else {
+                    for (int word = wordCount - 1; word >= 0; word--) {
+                        long carry = 0;
+                        long overflowCarry = 0;
+                        if (word > 0) {
+                            carry = state[word - 1] >>> topFieldShift;
+                            overflowCarry = overflow[word - 1] >>> topFieldShift;
+                        }
+                        long value = (((state[word] << fieldBits) & usedMask) | carry) + table[tableOffset + word];
+                        long high = value & highMask;
+                        state[word] = value ^ high;
+                        overflow[word] = ((overflow[word] << fieldBits) & usedMask) | overflowCarry | high;
+                    }
+                    last = state[lastWord] | overflow[lastWord];
+                }
+
+                // The counter for the whole needle is only meaningful once a whole needle's worth has been read.
+                if (scanned + i + 1 >= needleLength && ((last >>> lastFieldShift) & fieldMask) <= maxMismatches) {
+                    long offset = backwards ? windowPosition + index : windowPosition + index - needleLength + 1;
+                    if (listener == null) {
+                        monitor.searched(Math.min(startCount, scanned + i + 1) - Math.min(startCount, scanned));
+                        return new Match(offset, needleLength);
+                    }
+                    listener.matchFound(offset, needleLength);
+                }
+            }
+
+            monitor.searched(Math.min(startCount, scanned + windowLength) - Math.min(startCount, scanned));
+            scanned += windowLength;
+        }
+        return null;
+    }
+}
@@ -18,6 +18,10 @@
 
 package org.trypticon.hex.gui.find;
 
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.Nullable;
+
 import org.trypticon.hex.binary.Binary;
 
 /**
@@ -25,96 +29,217 @@ import org.trypticon.hex.binary.Binary;
  *
  * @author trejkaz
  */
-class BinarySearcher implements Searcher {
-    private final Binary needle;
-    private final int[] table;
+class BinarySearcher extends AbstractSearcher {
+
+    private final int windowSize;
+
+    private final byte[] needle;
+    private final int[] skipTable;
+    private final int[] reversedSkipTable;
 
     BinarySearcher(Binary needle) {
-        this.needle = needle;
-        table = precomputeTable(needle);
+        this(needle, DEFAULT_WINDOW_SIZE);
     }
 
-    @Override
-    public Match find(Binary haystack, long startPosition, SearchParams params) {
-        Binary needle = this.needle;
-        if (params.isBackwards()) {
-            needle = new ReversedBinary(needle);
-            haystack = new ReversedBinary(haystack);
-            startPosition = haystack.length() - 1 - startPosition;
+    /**
+     * Constructs the searcher.
+     *
+     * @param needle the needle.
+     * @param windowSize the number of bytes to read from the haystack in one go. Will be increased
+     *        to the length of the needle if it is smaller than that.
+     */
+    BinarySearcher(Binary needle, int windowSize) {
+        this.needle = new byte[(int) needle.length()];
+        needle.read(0, ByteBuffer.wrap(this.needle));
+        this.windowSize = Math.max(windowSize, this.needle.length);
+
+        byte[] reversedNeedle = new byte[this.needle.length];
+        for (int i = 0; i < reversedNeedle.length; i++) {
+            reversedNeedle[i] = this.needle[this.needle.length - 1 - i];
         }
 
-        long stopPosition = haystack.length() - needle.length() + 1;
-        Match found = kmpSearch(needle, haystack, startPosition, stopPosition);
+        skipTable = precomputeTable(this.needle);
 
-        if (found == null && params.isWrapping()) {
-            found = kmpSearch(needle, haystack, 0, startPosition);
-        }
+        // The skip table for the reversed needle gives, for each byte, how far the first occurrence of it
+        // after the start of the needle is from the start, which is how far a backwards search can shift.
+        reversedSkipTable = precomputeTable(reversedNeedle);
+    }
 
-        if (found != null && params.isBackwards()) {
-            found = new Match(haystack.length() - needle.length() - found.offset, needle.length());
-        }
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        long stopPosition = Math.min(toPosition, limitPosition - needle.length + 1);
+        long found = horspoolSearch(haystack, fromPosition, stopPosition, monitor, null);
+        return found < 0 ? null : new Match(found, needle.length);
+    }
 
-        return found;
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        long stopPosition = Math.min(toPosition, limitPosition - needle.length + 1);
+        horspoolSearch(haystack, fromPosition, stopPosition, monitor, listener);
+    }
+
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        long stopPosition = Math.min(toPosition, limitPosition - needle.length + 1);
+        long found = horspoolSearchBackwards(haystack, fromPosition, stopPosition, monitor);
+        return found < 0 ? null : new Match(found, needle.length);
     }
 
     /**
-     * Knuth-Morris-Pratt algorithm for finding a single binary inside a larger binary.
+     * Boyer-Moore-Horspool algorithm for finding a single binary inside a larger binary.
+     * The haystack is read in windows of up to {@code windowSize} bytes. Consecutive windows overlap
+     * by one byte less than the length of the needle so that matches straddling the boundary are
+     * still found.
+     *
+     * <p>Without a listener, stops at the first match. With a listener, carries on to the stop position,
+     *    reporting every match along the way.</p>
      *
-     * @param needle the needle.
      * @param haystack the haystack.
      * @param startPosition the first index to check.
      * @param stopPosition the index to stop at.
-     * @return the next offset found, or {@code null} if no match is found by the end.
+     * @param monitor the monitor to report progress to.
+     * @param listener the listener to report all matches to, or {@code null} to stop at the first match.
+     * @return the first offset found, or {@code -1} if no match is found by the end or a listener was given.
      */
-    private Match kmpSearch(Binary needle, Binary haystack, long startPosition, long stopPosition) {
-        int needleIndex = 0;
-        int needleLength = (int) needle.length();
-        long haystackIndex = startPosition;
-        while (haystackIndex < stopPosition) {
-            if (needle.read(needleIndex) == haystack.read(haystackIndex + needleIndex)) {
-                if (needleIndex == needleLength - 1) {
-                    return new Match(haystackIndex, needleLength);
+    private long horspoolSearch(Binary haystack, long startPosition, long stopPosition, SearchMonitor monitor,
+                                @Nullable MatchListener listener) {
+        int needleLength = needle.length;
+        startPosition = Math.max(startPosition, 0);
+        stopPosition = Math.min(stopPosition, haystack.length() - needleLength + 1);
+        if (needleLength == 0 || startPosition >= stopPosition) {
+            return -1;
+        }
+
+        byte lastNeedleByte = needle[needleLength - 1];
+        byte[] window = new byte[(int) Math.min(windowSize, stopPosition - startPosition + needleLength - 1)];
+        long windowPosition = startPosition;
+        while (windowPosition < stopPosition) {
+            checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, stopPosition - windowPosition + needleLength - 1);
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, windowLength));
+
+            int lastCandidate = windowLength - needleLength;
+            int index = 0;
+            while (index <= lastCandidate) {
+                byte haystackByte = window[index + needleLength - 1];
+                if (haystackByte == lastNeedleByte && regionMatches(window, index, needle)) {
+                    if (listener == null) {
+                        monitor.searched(index + 1);
+                        return windowPosition + index;
+                    }
+                    listener.matchFound(windowPosition + index, needleLength);
                 }
-                needleIndex ++;
-            } else {
-                if (table[needleIndex] > -1) {
-                    needleIndex = table[needleIndex];
-                    haystackIndex += needleIndex - table[needleIndex];
-                } else {
-                    needleIndex = 0;
-                    haystackIndex ++;
+                index += skipTable[haystackByte & 0xFF];
+            }
+
+            monitor.searched(lastCandidate + 1);
+            windowPosition += lastCandidate + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * The mirror image of {@link #horspoolSearch}, reading the haystack in windows from the end towards
+     * the start and sliding the needle leftwards through each window, checking its first byte first.
+     * Consecutive windows overlap by one byte less than the length of the needle.
+     *
+     * @param haystack the haystack.
+     * @param startPosition the lowest index to check.
+     * @param stopPosition one past the highest index to check.
+     * @param monitor the monitor to report progress to.
+     * @return the last offset found, or {@code -1} if no match is found.
+     */
+    private long horspoolSearchBackwards(Binary haystack, long startPosition, long stopPosition,
+                                         SearchMonitor monitor) {
+        int needleLength = needle.length;
+        startPosition = Math.max(startPosition, 0);
+        stopPosition = Math.min(stopPosition, haystack.length() - needleLength + 1);
+        if (needleLength == 0 || startPosition >= stopPosition) {
+            return -1;
+        }
+
+        byte firstNeedleByte = needle[0];
+        byte[] window = new byte[(int) Math.min(windowSize, stopPosition - startPosition + needleLength - 1)];
+        long windowEnd = stopPosition + needleLength - 1;
+        while (windowEnd - needleLength >= startPosition) {
+            checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, windowEnd - startPosition);
+            long windowPosition = windowEnd - windowLength;
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, windowLength));
+
+            int lastCandidate = windowLength - needleLength;
+            int index = lastCandidate;
+            while (index >= 0) {
+                byte haystackByte = window[index];
+                if (haystackByte == firstNeedleByte && regionMatchesAfterFirst(window, index, needle)) {
+                    monitor.searched(lastCandidate - index + 1);
+                    return windowPosition + index;
                 }
+                index -= reversedSkipTable[haystackByte & 0xFF];
             }
+
+            monitor.searched(lastCandidate + 1);
+            windowEnd -= lastCandidate + 1;
         }
-        return null;
+        return -1;
     }
 
     /**
-     * Precomputes the kmpNext lookup table for the given needle.
+     * Tests whether the needle occurs in the window at the given index, when the last byte is already
+     * known to match.
      *
+     * @param window the window.
+     * @param index the index into the window.
      * @param needle the needle.
-     * @return the lookup table.
+     * @return {@code true} if the needle occurs at that index, {@code false} otherwise.
      */
-    private int[] precomputeTable(Binary needle) {
-        int needleLength = (int) needle.length();
-        int[] kmpNext = new int[needleLength];
-        int i = 0;
-        int j = kmpNext[0] = -1;
-        while (i < needleLength) {
-            while (j > -1 && needle.read(i) != needle.read(j)) {
-                j = kmpNext[j];
+    private static boolean regionMatches(byte[] window, int index, byte[] needle) {
+        for (int i = needle.length - 2; i >= 0; i--) {
+            if (window[index + i] != needle[i]) {
+                return false;
             }
-            i++;
-            j++;
-            if (i >= needleLength) { // this branch isn't in copies
-                break;
-            }
-            if (needle.read(i) == needle.read(j)) {
-                kmpNext[i] = kmpNext[j];
-            } else {
-                kmpNext[i] = j;
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether the needle occurs in the window at the given index, when the first byte is already
+     * known to match.
+     *
+     * @param window the window.
+     * @param index the index into the window.
+     * @param needle the needle.
+     * @return {@code true} if the needle occurs at that index, {@code false} otherwise.
+     */
+    private static boolean regionMatchesAfterFirst(byte[] window, int index, byte[] needle) {
+        for (int i = 1; i < needle.length; i++) {
+            if (window[index + i] != needle[i]) {
+                return false;
             }
         }
-        return kmpNext;
+        return true;
+    }
+
+    /**
+     * Precomputes the bad character skip table for the given needle.
+     *
+     * @param needle the needle.
+     * @return the lookup table, indexed by unsigned byte value.
+     */
+    private static int[] precomputeTable(byte[] needle) {
+        int needleLength = needle.length;
+        int[] skipTable = new int[256];
+        for (int i = 0; i < skipTable.length; i++) {
+            skipTable[i] = needleLength;
+        }
+        for (int i = 0; i < needleLength - 1; i++) {
+            skipTable[needle[i] & 0xFF] = needleLength - 1 - i;
+        }
+        return skipTable;
     }
 }
@@ -0,0 +1,63 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.awt.event.ActionEvent;
+import javax.swing.JOptionPane;
+
+import org.trypticon.hex.gui.NotebookPaneAction;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.gui.notebook.NotebookPane;
+import org.trypticon.hex.gui.util.ActionException;
+
+/**
+ * Action to build a search index for the binary, so that searching it again is faster.
+ *
+ * @author trejkaz
+ * @see TrigramIndex
+ */
+public class BuildSearchIndexAction extends NotebookPaneAction {
+    public BuildSearchIndexAction() {
+        Resources.localiseAction(this, "BuildSearchIndex");
+    }
+
+    @Override
+    protected void doAction(ActionEvent event, NotebookPane notebookPane) throws Exception {
+        FindBar findBar = notebookPane.getTopBars().getFindBar();
+        if (!findBar.canBuildSearchIndex()) {
+            throw new ActionException(Resources.getMessage("BuildSearchIndex.Errors.unsaved"));
+        }
+
+        // The index can take up to an eighth of the size of the binary, which is a lot for a large binary.
+        findBar.estimateSearchIndexSize(size -> {
+            double megabytes = size / (1024.0 * 1024.0);
+            int result = JOptionPane.showConfirmDialog(notebookPane,
+                                                       Resources.getString("BuildSearchIndex.confirmationMessage",
+                                                                           megabytes),
+                                                       Resources.getString("BuildSearchIndex.confirmationTitle"),
+                                                       JOptionPane.OK_CANCEL_OPTION);
+            if (result != JOptionPane.OK_OPTION) {
+                return;
+            }
+
+            notebookPane.getTopBars().showFindBar();
+            findBar.buildSearchIndex();
+        });
+    }
+}
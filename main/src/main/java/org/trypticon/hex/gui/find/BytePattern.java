@@ -0,0 +1,703 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+import org.jetbrains.annotations.NonNls;
+
+/**
+ * <p>A pattern of bytes, compiled into deterministic automata for searching.</p>
+ *
+ * <p>The syntax extends the hex accepted by {@link HexTextField}:</p>
+ *
+ * <table summary="Pattern syntax">
+ *     <tr><td>{@code 4A}</td><td>the byte 0x4A</td></tr>
+ *     <tr><td>{@code ??}</td><td>any byte</td></tr>
+ *     <tr><td>{@code E?}, {@code ?A}</td><td>any byte with the given high or low nibble</td></tr>
+ *     <tr><td>{@code (4A 46|4B)}</td><td>any one of the alternatives</td></tr>
+ *     <tr><td>{@code 00{4}}, {@code ??{2,6}}</td><td>the preceding byte or group repeated exactly 4 times,
+ *                                                 or from 2 to 6 times</td></tr>
+ * </table>
+ *
+ * <p>Whitespace between bytes is optional. Alternatives are also allowed at the top level, without
+ *    parentheses. Repetition must be bounded, so every match has a length between {@link #getMinLength()}
+ *    and {@link #getMaxLength()}, and an empty match is not allowed.</p>
+ *
+ * @author trejkaz
+ */
+class BytePattern {
+
+    /**
+     * The most repetitions allowed for a single item.
+     */
+    static final int MAX_REPEAT = 1024;
+
+    /**
+     * The longest match allowed.
+     */
+    static final int MAX_LENGTH = 64 * 1024;
+
+    /**
+     * The most states allowed in a single automaton, to keep the memory used by the tables reasonable.
+     */
+    static final int MAX_STATES = 4096;
+
+    @NonNls
+    private final String pattern;
+    private final Node root;
+    private final int minLength;
+    private final int maxLength;
+
+    private final Automaton forwardSearch;
+    private final Automaton forwardAnchored;
+    private final Automaton backwardSearch;
+    private final Automaton backwardAnchored;
+
+    private BytePattern(String pattern, Node root) {
+        this.pattern = pattern;
+        this.root = root;
+        minLength = (int) root.minLength();
+        maxLength = (int) root.maxLength();
+
+        forwardSearch = compile(false, false);
+        forwardAnchored = compile(false, true);
+        backwardSearch = compile(true, false);
+        backwardAnchored = compile(true, true);
+    }
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if the pattern is not valid, or is too complex to compile.
+     */
+    static BytePattern compile(String pattern) {
+        return new BytePattern(pattern, new Parser(pattern).parse());
+    }
+
+    /**
+     * Gets the pattern as it was given.
+     *
+     * @return the pattern.
+     */
+    String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Gets the length of the shortest possible match.
+     *
+     * @return the minimum length, which is at least 1.
+     */
+    int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * Gets the length of the longest possible match.
+     *
+     * @return the maximum length.
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Gets the automaton which finds the ends of matches, reading forwards from any position.
+     *
+     * @return the automaton.
+     */
+    Automaton getForwardSearch() {
+        return forwardSearch;
+    }
+
+    /**
+     * Gets the automaton which matches from one fixed position, reading forwards.
+     *
+     * @return the automaton.
+     */
+    Automaton getForwardAnchored() {
+        return forwardAnchored;
+    }
+
+    /**
+     * Gets the automaton which finds the starts of matches, reading backwards from any position.
+     *
+     * @return the automaton.
+     */
+    Automaton getBackwardSearch() {
+        return backwardSearch;
+    }
+
+    /**
+     * Gets the automaton which matches back from one fixed position, reading backwards.
+     *
+     * @return the automaton.
+     */
+    Automaton getBackwardAnchored() {
+        return backwardAnchored;
+    }
+
+    /**
+     * Builds a Thompson NFA for the pattern and converts it into a DFA by subset construction.
+     *
+     * @param backwards {@code true} to match the bytes in reverse order.
+     * @param anchored {@code true} if the match must start where reading starts, {@code false} to find
+     *        matches starting at any position.
+     * @return the automaton.
+     */
+    private Automaton compile(boolean backwards, boolean anchored) {
+        Nfa nfa = new Nfa();
+        int[] fragment = root.emit(nfa, backwards);
+        int nfaStart = fragment[0];
+        int nfaAccept = fragment[1];
+
+        Map<BitSet, Integer> stateIds = new HashMap<>();
+        List<BitSet> states = new ArrayList<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+
+        // State 0 is the dead state, which only anchored automata can reach.
+        BitSet dead = new BitSet();
+        stateIds.put(dead, 0);
+        states.add(dead);
+
+        BitSet start = new BitSet();
+        start.set(nfaStart);
+        nfa.closure(start);
+        stateIds.put(start, 1);
+        states.add(start);
+        pending.add(1);
+
+        // Bytes which every transition treats the same way can share the work of finding the next state.
+        int[] byteClasses = new int[256];
+        int[] classRepresentatives = nfa.byteClasses(byteClasses);
+
+        int[] classTransitions = new int[MAX_STATES * classRepresentatives.length];
+        while (!pending.isEmpty()) {
+            int stateId = pending.remove();
+            BitSet state = states.get(stateId);
+            for (int byteClass = 0; byteClass < classRepresentatives.length; byteClass++) {
+                int b = classRepresentatives[byteClass];
+                BitSet next = new BitSet();
+                for (int nfaState = state.nextSetBit(0); nfaState >= 0; nfaState = state.nextSetBit(nfaState + 1)) {
+                    int target = nfa.byteTargets.get(nfaState);
+                    if (target >= 0 && (b & nfa.masks.get(nfaState)) == nfa.values.get(nfaState)) {
+                        next.set(target);
+                    }
+                }
+                if (!anchored) {
+                    next.set(nfaStart);
+                }
+                nfa.closure(next);
+
+                Integer nextId = stateIds.get(next);
+                if (nextId == null) {
+                    nextId = states.size();
+                    if (nextId >= MAX_STATES) {
+                        throw new PatternSyntaxException("Pattern is too complex", pattern, -1);
+                    }
+                    stateIds.put(next, nextId);
+                    states.add(next);
+                    pending.add(nextId);
+                }
+                classTransitions[stateId * classRepresentatives.length + byteClass] = nextId;
+            }
+        }
+
+        int[] transitions = new int[states.size() * 256];
+        boolean[] accepting = new boolean[states.size()];
+        for (int i = 0; i < states.size(); i++) {
+            for (int b = 0; b < 256; b++) {
+                transitions[i * 256 + b] = classTransitions[i * classRepresentatives.length + byteClasses[b]];
+            }
+            accepting[i] = states.get(i).get(nfaAccept);
+        }
+        return new Automaton(transitions, accepting);
+    }
+
+    /**
+     * A deterministic automaton over bytes. State 1 is the start state, and state 0 is the dead state,
+     * which is never left once entered.
+     */
+    static class Automaton {
+        static final int DEAD = 0;
+        static final int START = 1;
+
+        private final int[] transitions;
+        private final boolean[] accepting;
+
+        private Automaton(int[] transitions, boolean[] accepting) {
+            this.transitions = transitions;
+            this.accepting = accepting;
+        }
+
+        /**
+         * Gets the state after reading a byte.
+         *
+         * @param state the current state.
+         * @param b the byte.
+         * @return the next state.
+         */
+        int next(int state, byte b) {
+            return transitions[(state << 8) | (b & 0xFF)];
+        }
+
+        /**
+         * Tests whether a state means the bytes read so far end with a match.
+         *
+         * @param state the state.
+         * @return {@code true} if the state is accepting.
+         */
+        boolean isAccepting(int state) {
+            return accepting[state];
+        }
+    }
+
+    /**
+     * Nondeterministic automaton under construction. Each state has at most one byte transition, matching
+     * bytes where {@code (b & mask) == value}, plus any number of empty transitions.
+     */
+    private static class Nfa {
+        private final IntList byteTargets = new IntList();
+        private final IntList values = new IntList();
+        private final IntList masks = new IntList();
+        private final List<IntList> emptyTargets = new ArrayList<>();
+
+        private int newState() {
+            byteTargets.add(-1);
+            values.add(0);
+            masks.add(0);
+            emptyTargets.add(new IntList());
+            return byteTargets.size() - 1;
+        }
+
+        private void addByte(int from, int to, int value, int mask) {
+            byteTargets.set(from, to);
+            values.set(from, value);
+            masks.set(from, mask);
+        }
+
+        private void addEmpty(int from, int to) {
+            emptyTargets.get(from).add(to);
+        }
+
+        /**
+         * Divides the bytes into classes which every byte transition either matches all of or none of.
+         *
+         * @param byteClasses filled in with the class of each byte.
+         * @return one byte from each class.
+         */
+        private int[] byteClasses(int[] byteClasses) {
+            Map<Long, Integer> distinctTests = new HashMap<>();
+            for (int state = 0; state < byteTargets.size(); state++) {
+                if (byteTargets.get(state) >= 0) {
+                    distinctTests.putIfAbsent(((long) values.get(state) << 8) | masks.get(state), distinctTests.size());
+                }
+            }
+
+            Map<BitSet, Integer> classes = new HashMap<>();
+            IntList representatives = new IntList();
+            for (int b = 0; b < 256; b++) {
+                BitSet matchingTests = new BitSet();
+                for (Map.Entry<Long, Integer> entry : distinctTests.entrySet()) {
+                    long test = entry.getKey();
+                    if ((b & (test & 0xFF)) == (test >>> 8)) {
+                        matchingTests.set(entry.getValue());
+                    }
+                }
+                Integer byteClass = classes.get(matchingTests);
+                if (byteClass == null) {
+                    byteClass = representatives.size();
+                    classes.put(matchingTests, byteClass);
+                    representatives.add(b);
+                }
+                byteClasses[b] = byteClass;
+            }
+            return Arrays.copyOf(representatives.values, representatives.size());
+        }
+
+        private void closure(BitSet states) {
+            IntList stack = new IntList();
+            for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+                stack.add(state);
+            }
+            while (stack.size() > 0) {
+                IntList targets = emptyTargets.get(stack.removeLast());
+                for (int i = 0; i < targets.size(); i++) {
+                    int target = targets.get(i);
+                    if (!states.get(target)) {
+                        states.set(target);
+                        stack.add(target);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Minimal growable list of ints.
+     */
+    private static class IntList {
+        private int[] values = new int[8];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private void set(int index, int value) {
+            values[index] = value;
+        }
+
+        private int removeLast() {
+            return values[--size];
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Node in the parsed pattern.
+     */
+    private interface Node {
+        long minLength();
+
+        long maxLength();
+
+        /**
+         * Adds the states for this node to the automaton.
+         *
+         * @param nfa the automaton.
+         * @param backwards {@code true} to match the bytes in reverse order.
+         * @return the start and end states.
+         */
+        int[] emit(Nfa nfa, boolean backwards);
+    }
+
+    private static class ByteNode implements Node {
+        private final int value;
+        private final int mask;
+
+        private ByteNode(int value, int mask) {
+            this.value = value;
+            this.mask = mask;
+        }
+
+        @Override
+        public long minLength() {
+            return 1;
+        }
+
+        @Override
+        public long maxLength() {
+            return 1;
+        }
+
+        @Override
+        public int[] emit(Nfa nfa, boolean backwards) {
+            int start = nfa.newState();
+            int end = nfa.newState();
+            nfa.addByte(start, end, value, mask);
+            return new int[] { start, end };
+        }
+    }
+
+    private static class SequenceNode implements Node {
+        private final List<Node> items;
+
+        private SequenceNode(List<Node> items) {
+            this.items = items;
+        }
+
+        @Override
+        public long minLength() {
+            return items.stream().mapToLong(Node::minLength).sum();
+        }
+
+        @Override
+        public long maxLength() {
+            return items.stream().mapToLong(Node::maxLength).sum();
+        }
+
+        @Override
+        public int[] emit(Nfa nfa, boolean backwards) {
+            int start = nfa.newState();
+            int end = start;
+            for (int i = 0; i < items.size(); i++) {
+                int[] fragment = items.get(backwards ? items.size() - 1 - i : i).emit(nfa, backwards);
+                nfa.addEmpty(end, fragment[0]);
+                end = fragment[1];
+            }
+            return new int[] { start, end };
+        }
+    }
+
+    private static class AlternationNode implements Node {
+        private final List<Node> alternatives;
+
+        private AlternationNode(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        public long minLength() {
+            return alternatives.stream().mapToLong(Node::minLength).min().orElse(0);
+        }
+
+        @Override
+        public long maxLength() {
+            return alternatives.stream().mapToLong(Node::maxLength).max().orElse(0);
+        }
+
+        @Override
+        public int[] emit(Nfa nfa, boolean backwards) {
+            int start = nfa.newState();
+            int end = nfa.newState();
+            for (Node alternative : alternatives) {
+                int[] fragment = alternative.emit(nfa, backwards);
+                nfa.addEmpty(start, fragment[0]);
+                nfa.addEmpty(fragment[1], end);
+            }
+            return new int[] { start, end };
+        }
+    }
+
+    private static class RepeatNode implements Node {
+        private final Node item;
+        private final int min;
+        private final int max;
+
+        private RepeatNode(Node item, int min, int max) {
+            this.item = item;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public long minLength() {
+            return item.minLength() * min;
+        }
+
+        @Override
+        public long maxLength() {
+            return item.maxLength() * max;
+        }
+
+        @Override
+        public int[] emit(Nfa nfa, boolean backwards) {
+            // Expanded into copies, so x{2,4} becomes x x (x (x)?)? and the automaton stays finite.
+            int start = nfa.newState();
+            int end = start;
+            for (int i = 0; i < min; i++) {
+                int[] fragment = item.emit(nfa, backwards);
+                nfa.addEmpty(end, fragment[0]);
+                end = fragment[1];
+            }
+            int optionalEnd = nfa.newState();
+            for (int i = min; i < max; i++) {
+                int[] fragment = item.emit(nfa, backwards);
+                nfa.addEmpty(end, fragment[0]);
+                nfa.addEmpty(end, optionalEnd);
+                end = fragment[1];
+            }
+            nfa.addEmpty(end, optionalEnd);
+            return new int[] { start, optionalEnd };
+        }
+    }
+
+    /**
+     * Recursive descent parser for the pattern syntax.
+     */
+    private static class Parser {
+        private final String pattern;
+        private int position;
+
+        private Parser(String pattern) {
+            this.pattern = pattern;
+        }
+
+        private Node parse() {
+            Node node = parseAlternation();
+            skipWhitespace();
+            if (position < pattern.length()) {
+                throw error(pattern.charAt(position) == ')' ? "Unmatched closing ')'" : "Unexpected character");
+            }
+            if (node.minLength() == 0) {
+                throw error("Pattern can match nothing");
+            }
+            if (node.maxLength() > MAX_LENGTH) {
+                throw error("Pattern can match more than " + MAX_LENGTH + " bytes");
+            }
+            return node;
+        }
+
+        private Node parseAlternation() {
+            List<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseSequence());
+            while (accept('|')) {
+                alternatives.add(parseSequence());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new AlternationNode(alternatives);
+        }
+
+        private Node parseSequence() {
+            List<Node> items = new ArrayList<>();
+            while (true) {
+                skipWhitespace();
+                if (position == pattern.length() || pattern.charAt(position) == '|' ||
+                    pattern.charAt(position) == ')') {
+                    break;
+                }
+                items.add(parseRepeat());
+            }
+            return items.size() == 1 ? items.get(0) : new SequenceNode(items);
+        }
+
+        private Node parseRepeat() {
+            Node item = parseAtom();
+            skipWhitespace();
+            if (accept('{')) {
+                int min = parseCount();
+                int max = min;
+                if (accept(',')) {
+                    skipWhitespace();
+                    if (position < pattern.length() && pattern.charAt(position) == '}') {
+                        throw error("Repetition must have an upper bound");
+                    }
+                    max = parseCount();
+                }
+                if (!accept('}')) {
+                    throw error("Expected '}'");
+                }
+                if (max < min) {
+                    throw error("Repetition maximum is less than the minimum");
+                }
+                item = new RepeatNode(item, min, max);
+            }
+            return item;
+        }
+
+        private int parseCount() {
+            skipWhitespace();
+            int start = position;
+            while (position < pattern.length() && Character.isDigit(pattern.charAt(position))) {
+                position++;
+            }
+            if (position == start) {
+                throw error("Expected a number");
+            }
+            int count;
+            try {
+                count = Integer.parseInt(pattern.substring(start, position));
+            } catch (NumberFormatException e) {
+                count = Integer.MAX_VALUE;
+            }
+            if (count > MAX_REPEAT) {
+                position = start;
+                throw error("Repetition count is larger than " + MAX_REPEAT);
+            }
+            skipWhitespace();
+            return count;
+        }
+
+        private Node parseAtom() {
+            if (accept('(')) {
+                Node node = parseAlternation();
+                if (!accept(')')) {
+                    throw error("Expected ')'");
+                }
+                return node;
+            }
+
+            int high = parseNibble();
+            int low = parseNibble();
+            int value = 0;
+            int mask = 0;
+            if (high >= 0) {
+                value |= high << 4;
+                mask |= 0xF0;
+            }
+            if (low >= 0) {
+                value |= low;
+                mask |= 0x0F;
+            }
+            return new ByteNode(value, mask);
+        }
+
+        /**
+         * Parses one hex digit or wildcard.
+         *
+         * @return the value of the digit, or {@code -1} for a wildcard.
+         */
+        private int parseNibble() {
+            if (position == pattern.length()) {
+                throw error("Expected a hex digit or '?'");
+            }
+            char ch = pattern.charAt(position);
+            if (ch == '?') {
+                position++;
+                return -1;
+            }
+            int digit = Character.digit(ch, 16);
+            if (digit < 0) {
+                throw error("Expected a hex digit or '?'");
+            }
+            position++;
+            return digit;
+        }
+
+        private boolean accept(char expected) {
+            skipWhitespace();
+            if (position < pattern.length() && pattern.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (position < pattern.length() && Character.isWhitespace(pattern.charAt(position))) {
+                position++;
+            }
+        }
+
+        private PatternSyntaxException error(@NonNls String description) {
+            return new PatternSyntaxException(description, pattern, position);
+        }
+    }
+}
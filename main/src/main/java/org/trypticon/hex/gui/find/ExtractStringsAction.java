@@ -0,0 +1,75 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.awt.event.ActionEvent;
+import java.util.List;
+import java.util.logging.Level;
+import javax.swing.UIManager;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.gui.NotebookPaneAction;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.gui.notebook.NotebookPane;
+import org.trypticon.hex.gui.undo.AddAllEdit;
+import org.trypticon.hex.util.LoggerUtils;
+import org.trypticon.hex.util.swingsupport.OptionPanes;
+
+/**
+ * Action to find the printable strings in the binary and annotate them, like the {@code strings} tool.
+ * The scan goes through the find bar, so it searches within the scope chosen there, shows progress
+ * and can be cancelled. The strings are all annotated at once, as a single edit.
+ *
+ * @author trejkaz
+ * @see StringsSearcher
+ */
+public class ExtractStringsAction extends NotebookPaneAction {
+    private final ExtractStringsPane pane = new ExtractStringsPane();
+
+    public ExtractStringsAction() {
+        Resources.localiseAction(this, "ExtractStrings");
+    }
+
+    @Override
+    protected void doAction(ActionEvent event, NotebookPane notebookPane) throws Exception {
+        if (!OptionPanes.showInputDialog(notebookPane, pane, pane,
+                                         Resources.getString("ExtractStrings.nameWithoutEllipsis"),
+                                         Resources.getString("ExtractStrings.okButton"),
+                                         UIManager.getString("OptionPane.cancelButtonText"))) {
+            return;
+        }
+
+        Binary binary = notebookPane.getViewer().getBinary();
+        notebookPane.getTopBars().showFindBar();
+        notebookPane.getTopBars().getFindBar().findAllStrings(pane.createSearcher(), strings -> {
+            if (strings.isEmpty() || notebookPane.getViewer().getBinary() != binary) {
+                return;
+            }
+            List<Annotation> annotations = StringsSearcher.createAnnotations(binary, strings);
+            try {
+                notebookPane.getUndoHelper().perform(
+                    new AddAllEdit(notebookPane.getNotebook().getAnnotations(), annotations,
+                                   Resources.getString("ExtractStrings.nameWithoutEllipsis")));
+            } catch (Exception e) {
+                LoggerUtils.get().log(Level.SEVERE, "Unexpected error annotating strings", e);
+            }
+        });
+    }
+}
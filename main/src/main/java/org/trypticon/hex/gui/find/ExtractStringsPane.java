@@ -0,0 +1,112 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.EnumSet;
+import java.util.Set;
+import javax.swing.GroupLayout;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.LayoutStyle;
+import javax.swing.SpinnerNumberModel;
+
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.swingsupport.ValidatingPanel;
+
+/**
+ * Pane to show the options for extracting strings before the binary is scanned.
+ *
+ * @author trejkaz
+ */
+class ExtractStringsPane extends ValidatingPanel {
+    private static final int DEFAULT_MIN_LENGTH = 4;
+    private static final int MAX_MIN_LENGTH = 1024;
+
+    private final SpinnerNumberModel minLengthModel = new SpinnerNumberModel(DEFAULT_MIN_LENGTH, 1, MAX_MIN_LENGTH, 1);
+    private final JCheckBox asciiCheckBox = new JCheckBox(Resources.getString("ExtractStrings.ascii"), true);
+    private final JCheckBox utf16LECheckBox = new JCheckBox(Resources.getString("ExtractStrings.utf16LE"), true);
+    private final JCheckBox utf16BECheckBox = new JCheckBox(Resources.getString("ExtractStrings.utf16BE"), true);
+
+    ExtractStringsPane() {
+        JLabel minLengthLabel = new JLabel(Resources.getString("ExtractStrings.minLength"));
+        JSpinner minLengthSpinner = new JSpinner(minLengthModel);
+        minLengthLabel.setLabelFor(minLengthSpinner);
+        JLabel encodingsLabel = new JLabel(Resources.getString("ExtractStrings.encodings"));
+
+        GroupLayout layout = new GroupLayout(this);
+        layout.setAutoCreateGaps(true);
+        setLayout(layout);
+
+        layout.setHorizontalGroup(
+            layout.createSequentialGroup()
+                .addGroup(layout.createParallelGroup(GroupLayout.Alignment.TRAILING)
+                              .addComponent(minLengthLabel)
+                              .addComponent(encodingsLabel))
+                .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(GroupLayout.Alignment.LEADING)
+                              .addComponent(minLengthSpinner, GroupLayout.PREFERRED_SIZE,
+                                            GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                              .addComponent(asciiCheckBox)
+                              .addComponent(utf16LECheckBox)
+                              .addComponent(utf16BECheckBox)));
+
+        layout.setVerticalGroup(
+            layout.createSequentialGroup()
+                .addContainerGap()
+                .addGroup(layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
+                              .addComponent(minLengthLabel)
+                              .addComponent(minLengthSpinner))
+                .addPreferredGap(LayoutStyle.ComponentPlacement.UNRELATED)
+                .addGroup(layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
+                              .addComponent(encodingsLabel)
+                              .addComponent(asciiCheckBox))
+                .addComponent(utf16LECheckBox)
+                .addComponent(utf16BECheckBox)
+                .addContainerGap());
+    }
+
+    @Override
+    protected boolean validateInput() {
+        return !getEncodings().isEmpty();
+    }
+
+    /**
+     * Creates a searcher for the options which have been chosen.
+     *
+     * @return the searcher.
+     */
+    StringsSearcher createSearcher() {
+        return new StringsSearcher(minLengthModel.getNumber().intValue(), getEncodings());
+    }
+
+    private Set<StringsSearcher.Encoding> getEncodings() {
+        Set<StringsSearcher.Encoding> encodings = EnumSet.noneOf(StringsSearcher.Encoding.class);
+        if (asciiCheckBox.isSelected()) {
+            encodings.add(StringsSearcher.Encoding.ASCII);
+        }
+        if (utf16LECheckBox.isSelected()) {
+            encodings.add(StringsSearcher.Encoding.UTF_16LE);
+        }
+        if (utf16BECheckBox.isSelected()) {
+            encodings.add(StringsSearcher.Encoding.UTF_16BE);
+        }
+        return encodings;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Finds all matches, passing them to the results list in chunks as they are found.
+ * Searching for something common in a large binary could find more matches than fit in memory,
+ * so the search stops once {@link #MAX_RESULTS} have been found.
+ *
+ * @author trejkaz
+ */
+class FindAllWorker extends SearchWorker<Void, MatchList> implements MatchListener {
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * The most matches listed, which keeps the results to a few tens of megabytes.
+     */
+    static final int MAX_RESULTS = 1 << 22;
+
+    private final Searcher searcher;
+    @Nullable
+    private final String query;
+    private final MatchList target;
+    @Nullable
+    private final byte[] needle;
+
+    // Only touched by the searching thread.
+    private MatchList chunk = new MatchList();
+    private int found;
+
+    // Set by the searching thread, only read once the search has finished.
+    private boolean limitReached;
+
+    /**
+     * Constructs the worker.
+     *
+     * @param findBar the find bar the search is for.
+     * @param searcher the searcher.
+     * @param haystack the binary to search.
+     * @param scope the parts of the binary to search.
+     * @param target the results list to add the matches to.
+     * @param query the query the results are for, or {@code null} if they aren't for the query in the text field.
+     * @param needle the needle if searching for hex, so that the results can be narrowed if more is typed,
+     *        otherwise {@code null}.
+     */
+    FindAllWorker(FindBar findBar, Searcher searcher, Binary haystack, SearchScope scope, MatchList target,
+                  @Nullable String query, @Nullable byte[] needle) {
+        super(findBar, haystack, scope);
+        this.searcher = searcher;
+        this.query = query;
+        this.target = target;
+        this.needle = needle;
+    }
+
+    @Override
+    protected Void doInBackground() {
+        try {
+            searcher.findAll(haystack, scope, this, this);
+        } catch (MatchList.LimitReachedException e) {
+            limitReached = true;
+        }
+        publishChunk();
+        return null;
+    }
+
+    @Override
+    public int getMatchLimit() {
+        return MAX_RESULTS;
+    }
+
+    @Override
+    public void matchFound(long offset, long length) {
+        if (found == MAX_RESULTS) {
+            throw new MatchList.LimitReachedException(MAX_RESULTS);
+        }
+        found++;
+        chunk.add(offset, length);
+        if (chunk.size() >= CHUNK_SIZE) {
+            publishChunk();
+        }
+    }
+
+    private void publishChunk() {
+        if (!chunk.isEmpty()) {
+            publish(chunk);
+            chunk = new MatchList();
+        }
+    }
+
+    @Override
+    protected void process(List<MatchList> chunks) {
+        findBar.getResults().addResults(target, chunks);
+    }
+
+    @Override
+    protected void finished(Void result) {
+        // Chunks still waiting to be processed go into the results before we get here.
+        if (limitReached) {
+            // The results are missing matches, so they can't be narrowed or used for next and previous.
+            findBar.getResults().resultsLimitReached(MAX_RESULTS);
+            return;
+        }
+        if (needle != null) {
+            findBar.setIncrementalMatches(new IncrementalMatches(needle, haystack, scope, target));
+        }
+        findBar.getResults().resultsComplete(query, haystack, scope);
+    }
+}
@@ -19,20 +19,34 @@
 package org.trypticon.hex.gui.find;
 
 import java.awt.Insets;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import javax.swing.ButtonGroup;
 import javax.swing.GroupLayout;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.JTextField;
+import javax.swing.JProgressBar;
 import javax.swing.JToggleButton;
 import javax.swing.LayoutStyle;
+import javax.swing.Timer;
+import javax.swing.UIManager;
+
+import org.jetbrains.annotations.Nullable;
 
 import org.trypticon.hex.HexViewer;
+import org.trypticon.hex.HexViewerSelectionModel;
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.AnnotationCollection;
 import org.trypticon.hex.binary.Binary;
 import org.trypticon.hex.gui.Resources;
 import org.trypticon.hex.util.swingsupport.PLAFUtils;
-import org.trypticon.hex.util.swingsupport.SelectEncodingButton;
 
 /**
  * Bar allowing searching the binary.
@@ -40,114 +54,199 @@ import org.trypticon.hex.util.swingsupport.SelectEncodingButton;
  * @author trejkaz
  */
 public class FindBar extends JPanel {
+
+    /**
+     * How long typing has to pause for before searching for what has been typed, in milliseconds.
+     */
+    private static final int LIVE_SEARCH_DELAY = 300;
+
     private final HexViewer viewer;
 
-    private final JToggleButton hexButton;
-    private final JToggleButton textButton;
-    private final HexTextField hexTextField;
-    private final JTextField textField;
-    private final SelectEncodingButton encodingButton;
-    private final JButton previousButton;
-    private final JButton nextButton;
+    private final HexFindMode hexMode;
+    private final List<FindMode> modes;
+    private FindMode mode;
+    private final ScopeChooser scopeChooser;
+    private final FindResults results;
+
+    private final JProgressBar progressBar;
+    private final JButton cancelButton;
+    private final JLabel indexStatusLabel;
+
+    private SearchWorker<?, ?> currentSearch;
+
+    private final Timer liveSearchTimer;
+
+    /**
+     * The complete matches for the last hex needle, from typing it or from finding all, which are narrowed
+     * if more bytes are typed after it.
+     */
+    @Nullable
+    private IncrementalMatches incrementalMatches;
+
+    private final SearchIndexManager searchIndexManager = new SearchIndexManager(this::updateIndexStatus);
+    private final ParallelSearchSettings parallelSearchSettings = new ParallelSearchSettings();
+
+    /**
+     * Piecewise hashes of the binary, kept once built so that looking for more similar blocks is quick.
+     */
+    @Nullable
+    private SimilarityIndex similarityIndex;
+
+    @Nullable
+    private Match lastSelectedMatch;
 
     public FindBar(HexViewer viewer) {
         this.viewer = viewer;
 
-        hexButton = new JToggleButton(Resources.getString("FindBar.hex"), true);
-        hexButton.putClientProperty("JButton.buttonType", "segmentedTextured");
-        hexButton.putClientProperty("JButton.segmentPosition", "first");
-        hexButton.setMargin(new Insets(0, 0, 0, 0));
-        hexButton.addActionListener(event -> switchToHex());
+        results = new FindResults(this::selectResult);
+        scopeChooser = new ScopeChooser(results::showMessage);
+        scopeChooser.getComboBox().addItemListener(event -> clearResults());
 
-        textButton = new JToggleButton(Resources.getString("FindBar.text"));
-        textButton.putClientProperty("JButton.buttonType", "segmentedTextured");
-        textButton.putClientProperty("JButton.segmentPosition", "last");
-        textButton.setMargin(new Insets(0, 0, 0, 0));
-        textButton.addActionListener(event -> switchToText());
+        hexMode = new HexFindMode(parallelSearchSettings, results::showMessage, searchIndexManager,
+                                  viewer::getBinary);
+        modes = Arrays.asList(hexMode,
+                              new TextFindMode(parallelSearchSettings, results::showMessage),
+                              new NumberFindMode(parallelSearchSettings, results::showMessage),
+                              new PatternFindMode(parallelSearchSettings, results::showMessage));
 
         ButtonGroup modeButtonGroup = new ButtonGroup();
-        modeButtonGroup.add(hexButton);
-        modeButtonGroup.add(textButton);
-
-        hexTextField = new HexTextField("", 8);
-        textField = new JTextField("", 8);
-
-        encodingButton = new SelectEncodingButton();
-        encodingButton.putClientProperty("JButton.buttonType", "segmentedTextured");
-        encodingButton.putClientProperty("JButton.segmentPosition", "only");
-        encodingButton.setMargin(new Insets(0, 0, 0, 0));
+        List<JToggleButton> modeButtons = new ArrayList<>(modes.size());
+        for (FindMode findMode : modes) {
+            JToggleButton modeButton = new JToggleButton(findMode.getName(), findMode == hexMode);
+            modeButton.putClientProperty("JButton.buttonType", "segmentedTextured");
+            modeButton.putClientProperty("JButton.segmentPosition",
+                                         findMode == modes.get(0) ? "first" :
+                                         findMode == modes.get(modes.size() - 1) ? "last" : "middle");
+            modeButton.setMargin(new Insets(0, 0, 0, 0));
+            modeButton.setToolTipText(findMode.getToolTip());
+            modeButton.addActionListener(event -> switchTo(findMode));
+            PLAFUtils.makeSmall(modeButton);
+            modeButtonGroup.add(modeButton);
+            modeButtons.add(modeButton);
+        }
 
-        previousButton = new JButton(Resources.getString("FindBar.previous"));
+        JButton previousButton = new JButton(Resources.getString("FindBar.previous"));
         previousButton.putClientProperty("JButton.buttonType", "segmentedTextured");
         previousButton.putClientProperty("JButton.segmentPosition", "first");
         previousButton.setMargin(new Insets(0, 0, 0, 0));
         previousButton.addActionListener(event -> findPrevious());
 
-        nextButton = new JButton(Resources.getString("FindBar.next"));
+        JButton nextButton = new JButton(Resources.getString("FindBar.next"));
         nextButton.putClientProperty("JButton.buttonType", "segmentedTextured");
-        nextButton.putClientProperty("JButton.segmentPosition", "last");
+        nextButton.putClientProperty("JButton.segmentPosition", "middle");
         nextButton.setMargin(new Insets(0, 0, 0, 0));
         nextButton.addActionListener(event -> findNext());
 
-        hexTextField.addActionListener(event -> nextButton.doClick());
-        textField.addActionListener(event -> nextButton.doClick());
+        JButton allButton = new JButton(Resources.getString("FindBar.all"));
+        allButton.putClientProperty("JButton.buttonType", "segmentedTextured");
+        allButton.putClientProperty("JButton.segmentPosition", "last");
+        allButton.setMargin(new Insets(0, 0, 0, 0));
+        allButton.addActionListener(event -> findAll());
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setVisible(false);
+
+        cancelButton = new JButton(Resources.getString("FindBar.cancel"));
+        cancelButton.putClientProperty("JButton.buttonType", "segmentedTextured");
+        cancelButton.putClientProperty("JButton.segmentPosition", "only");
+        cancelButton.setMargin(new Insets(0, 0, 0, 0));
+        cancelButton.setVisible(false);
+        cancelButton.addActionListener(event -> cancelSearch());
 
-        PLAFUtils.makeSmall(this, hexButton, textButton, hexTextField, textField,
-                            encodingButton, previousButton, nextButton);
+        indexStatusLabel = new JLabel();
+
+        liveSearchTimer = new Timer(LIVE_SEARCH_DELAY, event -> liveSearch());
+        liveSearchTimer.setRepeats(false);
+
+        for (FindMode findMode : modes) {
+            findMode.getQueryField().addActionListener(event -> nextButton.doClick());
+
+            // Editing the query makes the previous results irrelevant.
+            findMode.addQueryChangeListener(this::queryChanged);
+        }
+
+        PLAFUtils.makeSmall(this, previousButton, nextButton, allButton, progressBar, cancelButton, indexStatusLabel);
 
         GroupLayout layout = new GroupLayout(this);
         setLayout(layout);
 
-        layout.setHorizontalGroup(layout.createSequentialGroup()
+        GroupLayout.SequentialGroup barHorizontalGroup = layout.createSequentialGroup();
+        GroupLayout.ParallelGroup barVerticalGroup = layout.createParallelGroup(GroupLayout.Alignment.BASELINE);
+
+        barHorizontalGroup.addGap(4);
+        for (JToggleButton modeButton : modeButtons) {
+            barHorizontalGroup.addComponent(modeButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE);
+            barVerticalGroup.addComponent(modeButton);
+        }
+        barHorizontalGroup.addPreferredGap(LayoutStyle.ComponentPlacement.RELATED);
+        for (FindMode findMode : modes) {
+            barHorizontalGroup.addComponent(findMode.getQueryField());
+            barVerticalGroup.addComponent(findMode.getQueryField());
+        }
+        barHorizontalGroup.addPreferredGap(LayoutStyle.ComponentPlacement.RELATED);
+        for (FindMode findMode : modes) {
+            for (JComponent control : findMode.getOptionControls()) {
+                barHorizontalGroup.addComponent(control, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE);
+                barVerticalGroup.addComponent(control);
+            }
+        }
+
+        JComboBox<ScopeType> scopeComboBox = scopeChooser.getComboBox();
+        JLabel matchCountLabel = results.getMatchCountLabel();
+        barHorizontalGroup.addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                          .addComponent(scopeComboBox, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                          .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                          .addComponent(previousButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                          .addComponent(nextButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                          .addComponent(allButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                          .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                          .addComponent(progressBar, GroupLayout.DEFAULT_SIZE, 80, GroupLayout.PREFERRED_SIZE)
+                          .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                          .addComponent(cancelButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                          .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                          .addComponent(matchCountLabel)
+                          .addPreferredGap(LayoutStyle.ComponentPlacement.UNRELATED, GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                          .addComponent(indexStatusLabel)
+                          .addGap(4);
+        barVerticalGroup.addComponent(scopeComboBox)
+                        .addComponent(previousButton)
+                        .addComponent(nextButton)
+                        .addComponent(allButton)
+                        .addComponent(progressBar)
+                        .addComponent(cancelButton)
+                        .addComponent(matchCountLabel)
+                        .addComponent(indexStatusLabel);
+
+        layout.setHorizontalGroup(layout.createParallelGroup()
+                                    .addGroup(barHorizontalGroup)
+                                    .addGroup(layout.createSequentialGroup()
                                       .addGap(4)
-                                      .addComponent(hexButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
-                                      .addComponent(textButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
-                                      .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
-                                      .addComponent(hexTextField)
-                                      .addComponent(textField)
-                                      .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
-                                      .addComponent(encodingButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
-                                      .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
-                                      .addComponent(previousButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
-                                      .addComponent(nextButton, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
-                                      .addGap(4));
-
-        layout.setVerticalGroup(layout.createParallelGroup(GroupLayout.Alignment.BASELINE)
-                                    .addComponent(hexButton)
-                                    .addComponent(textButton)
-                                    .addComponent(hexTextField)
-                                    .addComponent(textField)
-                                    .addComponent(encodingButton)
-                                    .addComponent(previousButton)
-                                    .addComponent(nextButton));
-
-        switchToHex();
+                                      .addComponent(results.getResultsPane())
+                                      .addGap(4)));
+
+        layout.setVerticalGroup(layout.createSequentialGroup()
+                                  .addGroup(barVerticalGroup)
+                                  .addComponent(results.getResultsPane(), GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE));
+
+        switchTo(hexMode);
     }
 
     @Override
     public boolean requestFocusInWindow() {
         // Redirect focus to the text field.
-        JComponent mainFocus;
-        if (hexButton.isSelected()) {
-            mainFocus = hexTextField;
-        } else { // textButton.isSelected()
-            mainFocus = textField;
-        }
-        return mainFocus.requestFocusInWindow();
+        return mode.getQueryField().requestFocusInWindow();
     }
 
-    private void switchToHex() {
-        encodingButton.setVisible(false);
-        textField.setVisible(false);
-        hexTextField.setVisible(true);
-        hexTextField.requestFocusInWindow();
-    }
-
-    private void switchToText() {
-        encodingButton.setVisible(true);
-        hexTextField.setVisible(false);
-        textField.setVisible(true);
-        textField.requestFocusInWindow();
+    private void switchTo(FindMode newMode) {
+        clearResults();
+        mode = newMode;
+        for (FindMode otherMode : modes) {
+            if (otherMode != newMode) {
+                otherMode.setVisible(false);
+            }
+        }
+        newMode.setVisible(true);
+        newMode.getQueryField().requestFocusInWindow();
     }
 
     void findNext() {
@@ -159,30 +258,483 @@ public class FindBar extends JPanel {
     }
 
     private void find(boolean backwards) {
-        Searcher searcher;
+        if (findUsingResults(backwards)) {
+            return;
+        }
+
+        SearchScope scope = currentScope();
+        if (scope == null) {
+            return;
+        }
 
-        if (hexButton.isSelected()) {
-            Binary binary = hexTextField.getBinary();
-            if (binary.length() == 0) {
+        Searcher searcher = mode.createSearcher();
+        if (searcher == null) {
+            return;
+        }
+
+        //XXX: Option not to wrap? Doesn't seem particularly crucial.
+        SearchParams params = new SearchParams(true, backwards, scope);
+
+        long startPosition = viewer.getSelectionModel().getCursor() + (backwards ? -1 : 1);
+
+        startSearch(new FindWorker(this, searcher, mode.createLabeller(), viewer.getBinary(), startPosition,
+                                   params));
+    }
+
+    /**
+     * Called when the query is edited. Whatever is running was for the old query, and the new one is
+     * searched for once typing pauses.
+     */
+    private void queryChanged() {
+        cancelSearch();
+        clearResults();
+        liveSearchTimer.restart();
+    }
+
+    /**
+     * Finds the next match for the query as typed so far, if the mode searches live. Finding all matches is
+     * left to the user, but the exact matches for a hex needle are kept, unless there are too many, so that as
+     * more bytes are typed, only those matches have to be looked at.
+     */
+    private void liveSearch() {
+        if (mode == hexMode) {
+            byte[] needle = hexMode.getCompleteNeedle();
+            if (needle.length == 0) {
                 return;
             }
-            searcher = new BinarySearcher(binary);
-        } else {
-            String text = textField.getText();
-            if (text.isEmpty()) {
+            if (hexMode.getTolerance() > 0) {
+                // Approximate matches for the longer needle could have their mismatches anywhere, so aren't kept.
+                findFromLiveSearchStart(hexMode.createSearcher(needle), hexMode.createLabeller(needle));
+                return;
+            }
+            SearchScope scope = currentScope();
+            if (scope == null) {
                 return;
             }
-            searcher = new TextSearcher(text, encodingButton.getEncoding());
+            Binary binary = viewer.getBinary();
+            if (incrementalMatches != null && incrementalMatches.canNarrowTo(needle, binary, scope)) {
+                startSearch(new LiveHexWorker(this, incrementalMatches, needle, binary, scope,
+                                              getLiveSearchStart()));
+            } else {
+                startSearch(new LiveHexWorker(this, hexMode.createSearcher(needle), needle, binary, scope,
+                                              getLiveSearchStart()));
+            }
+        } else if (mode.isSearchedLive()) {
+            Searcher searcher = mode.createSearcher();
+            if (searcher != null) {
+                findFromLiveSearchStart(searcher, mode.createLabeller());
+            }
         }
+    }
 
-        //XXX: Option not to wrap? Doesn't seem particularly crucial.
-        SearchParams params = new SearchParams(true, backwards);
+    /**
+     * Finds the first match at or after where the live search started, and selects it.
+     *
+     * @param searcher the searcher.
+     * @param labeller the labeller for the match, or {@code null} if it doesn't need labelling.
+     */
+    private void findFromLiveSearchStart(Searcher searcher, @Nullable MatchLabeller labeller) {
+        SearchScope scope = currentScope();
+        if (scope == null) {
+            return;
+        }
 
-        long startPosition = viewer.getSelectionModel().getCursor() + (backwards ? -1 : 1);
+        startSearch(new FindWorker(this, searcher, labeller, viewer.getBinary(), getLiveSearchStart(),
+                                   new SearchParams(true, false, scope)));
+    }
+
+    /**
+     * Gets where the live search starts. The match selected for the query typed so far is where a longer
+     * query is most likely to match as well, so if it is still selected, the search starts from it rather
+     * than after it.
+     *
+     * @return the start position.
+     */
+    private long getLiveSearchStart() {
+        HexViewerSelectionModel selectionModel = viewer.getSelectionModel();
+        long selectionStart = selectionModel.getSelectionStart();
+        long selectionEnd = selectionModel.getSelectionEnd() + 1;
+        return new Match(selectionStart, selectionEnd - selectionStart).equals(lastSelectedMatch)
+               ? selectionStart : selectionModel.getCursor();
+    }
+
+    /**
+     * Finds all matches, listing them as they are found.
+     */
+    void findAll() {
+        if (mode == hexMode) {
+            findAllHex(hexMode.getNeedle(), hexMode.getQuery());
+            return;
+        }
+
+        SearchScope scope = currentScope();
+        if (scope == null) {
+            return;
+        }
+
+        Searcher searcher = mode.createSearcher();
+        if (searcher == null) {
+            return;
+        }
+
+        clearResults();
+        results.showList(mode.createLabeller(), viewer.getBinary());
+        startSearch(new FindAllWorker(this, searcher, viewer.getBinary(), scope, results.getMatches(),
+                                      mode.getQuery(), null));
+    }
+
+    /**
+     * Finds all matches for a hex needle. If the matches for the last needle are complete and the new
+     * needle only has more bytes on the end, those matches are narrowed instead of searching again.
+     *
+     * @param needle the needle.
+     * @param query the query the results will be for, or {@code null} if they aren't for the query
+     *        in the text field.
+     */
+    private void findAllHex(byte[] needle, @Nullable String query) {
+        if (needle.length == 0) {
+            return;
+        }
+        SearchScope scope = currentScope();
+        if (scope == null) {
+            return;
+        }
+
+        clearResults();
+        Binary binary = viewer.getBinary();
+        results.showList(hexMode.createLabeller(needle), binary);
+        if (hexMode.getTolerance() > 0) {
+            // Approximate matches for the longer needle could have their mismatches anywhere, so aren't narrowed.
+            startSearch(new FindAllWorker(this, hexMode.createSearcher(needle), binary, scope, results.getMatches(),
+                                          query, null));
+        } else if (incrementalMatches != null && incrementalMatches.canNarrowTo(needle, binary, scope)) {
+            startSearch(new NarrowWorker(this, incrementalMatches, needle, binary, scope, results.getMatches(),
+                                         query));
+        } else {
+            startSearch(new FindAllWorker(this, hexMode.createSearcher(needle), binary, scope, results.getMatches(),
+                                          query, needle));
+        }
+    }
 
-        Match match = searcher.find(viewer.getBinary(), startPosition, params);
-        if (match != null) {
-            viewer.getSelectionModel().setSelection(match.offset, match.endOffset());
+    /**
+     * Finds all matches for a set of signatures in a single pass, listing them with their labels.
+     *
+     * @param signatures the signatures to find.
+     */
+    void findAllSignatures(SignatureSet signatures) {
+        SearchScope scope = currentScope();
+        if (scope == null) {
+            return;
+        }
+
+        clearResults();
+        results.showList(signatures, viewer.getBinary());
+
+        // The results aren't for the query in the text field, so they are never used for next and previous.
+        startSearch(new FindAllWorker(this, parallelSearchSettings.createSearcher(signatures.createSearcher()),
+                                      viewer.getBinary(), scope, results.getMatches(), null, null));
+    }
+
+    /**
+     * Finds all the printable strings within the current scope, listing them in the results.
+     *
+     * @param searcher the searcher for the strings.
+     * @param whenComplete called with the strings if the search finishes without being cancelled.
+     */
+    void findAllStrings(StringsSearcher searcher, Consumer<MatchList> whenComplete) {
+        SearchScope scope = currentScope();
+        if (scope == null) {
+            return;
+        }
+
+        clearResults();
+        results.showList(searcher, viewer.getBinary());
+
+        MatchList strings = results.getMatches();
+        startSearch(new FindAllWorker(this, parallelSearchSettings.createSearcher(searcher), viewer.getBinary(),
+                                      scope, strings, null, null) {
+            @Override
+            protected void finished(Void result) {
+                super.finished(result);
+                whenComplete.accept(strings);
+            }
+        });
+    }
+
+    /**
+     * Finds the blocks which are similar to a block of the binary, listing them with the most similar first.
+     * The binary is indexed first if it hasn't been already.
+     *
+     * @param start the start of the block, inclusive.
+     * @param end the end of the block, exclusive.
+     */
+    void findSimilar(long start, long end) {
+        clearResults();
+        Binary binary = viewer.getBinary();
+        boolean indexed = similarityIndex != null && similarityIndex.getBinary() == binary;
+        startSearch(new SimilarityWorker(this, binary, indexed ? similarityIndex : null, start, end));
+    }
+
+    /**
+     * Wraps the viewer in a layer which highlights the results. The layer should be shown in place of the viewer.
+     *
+     * @return the layer.
+     */
+    public JComponent createHighlightingLayer() {
+        return results.createHighlightingLayer(viewer);
+    }
+
+    /**
+     * Sets the files for the notebook being searched, so that a search index can be kept next to it.
+     * Should be called whenever the binary or the notebook location changes.
+     *
+     * @param notebookFile the notebook file, or {@code null} if the notebook hasn't been saved to a file.
+     * @param binaryFile the binary file, or {@code null} if the binary isn't a file.
+     */
+    public void setNotebookFiles(@Nullable File notebookFile, @Nullable File binaryFile) {
+        incrementalMatches = null;
+        similarityIndex = null;
+        searchIndexManager.setLocation(notebookFile == null ? null : TrigramIndex.indexFileFor(notebookFile.toPath()),
+                                       viewer.getBinary(), binaryFile == null ? 0 : binaryFile.lastModified());
+    }
+
+    /**
+     * Sets the annotations, used to find the parts of the binary which are not annotated.
+     * These should be all the annotations, not only the ones being shown.
+     *
+     * @param annotations the annotations, or {@code null} if there are none.
+     */
+    public void setAnnotations(@Nullable AnnotationCollection annotations) {
+        scopeChooser.setAnnotations(annotations);
+        if (scopeChooser.getScopeType() == ScopeType.UNANNOTATED) {
+            clearResults();
+        }
+    }
+
+    /**
+     * Sets the annotation selected in the annotation tree, which can be searched within.
+     *
+     * @param selectedAnnotation the selected annotation, or {@code null} if there isn't one.
+     */
+    public void setSelectedAnnotation(@Nullable Annotation selectedAnnotation) {
+        scopeChooser.setSelectedAnnotation(selectedAnnotation);
+    }
+
+    /**
+     * Tests whether a search index can be built, which requires the notebook to have been saved.
+     *
+     * @return {@code true} if a search index can be built.
+     */
+    public boolean canBuildSearchIndex() {
+        return searchIndexManager.canBuild();
+    }
+
+    /**
+     * Estimates the size of the search index which would be built for the binary, in the background. The index is
+     * stored next to the notebook and takes up to an eighth of the size of the binary.
+     *
+     * @param callback called on the event dispatch thread with the size of the index, in bytes.
+     */
+    public void estimateSearchIndexSize(LongConsumer callback) {
+        searchIndexManager.estimateSize(callback);
+    }
+
+    /**
+     * Builds a search index for the binary in the background, which speeds up searching for hex from then on.
+     */
+    public void buildSearchIndex() {
+        searchIndexManager.build();
+    }
+
+    private void updateIndexStatus() {
+        if (searchIndexManager.isBuilding()) {
+            indexStatusLabel.setText(Resources.getString("FindBar.indexing"));
+        } else if (searchIndexManager.isReady()) {
+            indexStatusLabel.setText(Resources.getString("FindBar.indexed"));
+        } else {
+            indexStatusLabel.setText("");
+        }
+    }
+
+    /**
+     * Gets the parts of the binary to search, for the scope chosen by the user.
+     *
+     * @return the scope, or {@code null} if the scope can't be searched right now.
+     */
+    @Nullable
+    private SearchScope currentScope() {
+        return scopeChooser.getScope(viewer.getSelectionModel(), lastSelectedMatch);
+    }
+
+    /**
+     * Jumps to the next or previous match using the results of finding all, if they are complete
+     * and still current, which saves searching again.
+     *
+     * @param backwards {@code true} to jump to the previous match, {@code false} to jump to the next one.
+     * @return {@code true} if the results were used, {@code false} if a search is needed.
+     */
+    private boolean findUsingResults(boolean backwards) {
+        if (!results.isCurrent(mode.getQuery(), viewer.getBinary())) {
+            return false;
+        }
+        SearchScope scope = currentScope();
+        if (scope == null) {
+            return true;
+        }
+        if (!scope.equals(results.getScope())) {
+            return false;
+        }
+        MatchList matches = results.getMatches();
+        if (matches.isEmpty()) {
+            return true;
+        }
+
+        long cursor = viewer.getSelectionModel().getCursor();
+        int index;
+        if (backwards) {
+            index = matches.indexEndingAtOrBefore(cursor - 1);
+            if (index < 0) {
+                index = matches.size() - 1;
+            }
+        } else {
+            index = matches.indexAtOrAfter(cursor + 1);
+            if (index == matches.size()) {
+                index = 0;
+            }
+        }
+
+        results.selectInList(index);
+        selectResult(index);
+        return true;
+    }
+
+    private void selectResult(int index) {
+        selectMatch(results.getMatches().get(index));
+    }
+
+    private void selectMatch(Match match) {
+        lastSelectedMatch = match;
+        viewer.getSelectionModel().setSelection(match.offset, match.endOffset());
+    }
+
+    /**
+     * Selects a match found by finding the next or previous one.
+     *
+     * @param match the match.
+     * @param labeller the labeller for the match, or {@code null} if it doesn't need labelling.
+     * @param haystack the binary the match was found in.
+     */
+    void showMatch(Match match, @Nullable MatchLabeller labeller, Binary haystack) {
+        selectMatch(match);
+        if (labeller != null) {
+            results.showMessage(labeller.getLabel(haystack, match.offset, match.length));
+        }
+    }
+
+    private void clearResults() {
+        if (currentSearch instanceof FindAllWorker || currentSearch instanceof NarrowWorker) {
+            cancelSearch();
+        }
+
+        results.clear();
+        revalidate();
+    }
+
+    private void startSearch(SearchWorker<?, ?> search) {
+        // Only one search at a time. The newest one is the one the user is waiting for.
+        cancelSearch();
+        currentSearch = search;
+        currentSearch.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                progressBar.setValue((Integer) event.getNewValue());
+            }
+        });
+        setSearching(true);
+        currentSearch.execute();
+    }
+
+    /**
+     * Cancels the search currently running, if there is one.
+     *
+     * @return {@code true} if a search was cancelled, {@code false} if there was no search running.
+     */
+    public boolean cancelSearch() {
+        if (currentSearch == null) {
+            return false;
+        }
+        currentSearch.cancel(false);
+        currentSearch = null;
+        setSearching(false);
+        return true;
+    }
+
+    /**
+     * Called by a search when it is done, whether it finished or not.
+     *
+     * @param search the search.
+     * @return {@code true} if it is the search currently running, {@code false} if it has been cancelled
+     *         or superseded by a newer search.
+     */
+    boolean searchDone(SearchWorker<?, ?> search) {
+        if (currentSearch != search) {
+            return false;
+        }
+        currentSearch = null;
+        setSearching(false);
+        return true;
+    }
+
+    private void setSearching(boolean searching) {
+        progressBar.setValue(0);
+        progressBar.setVisible(searching);
+        cancelButton.setVisible(searching);
+        revalidate();
+    }
+
+    /**
+     * Gets the results of finding all, which the workers finding them report them to.
+     *
+     * @return the results.
+     */
+    FindResults getResults() {
+        return results;
+    }
+
+    /**
+     * Sets the complete matches for a hex needle, which are narrowed if more bytes are typed after it.
+     *
+     * @param incrementalMatches the matches, or {@code null} if there were too many to keep.
+     */
+    void setIncrementalMatches(@Nullable IncrementalMatches incrementalMatches) {
+        this.incrementalMatches = incrementalMatches;
+    }
+
+    /**
+     * Shows the blocks found to be similar to a block of the binary.
+     *
+     * @param binary the binary.
+     * @param index the index of the binary, which is kept for next time.
+     * @param start the start of the block, inclusive.
+     * @param end the end of the block, exclusive.
+     * @param blocks the similar blocks, or {@code null} if the block was too small or too large to look for.
+     */
+    void similarFound(Binary binary, SimilarityIndex index, long start, long end,
+                      @Nullable List<SimilarityIndex.SimilarBlock> blocks) {
+        similarityIndex = index;
+        if (blocks == null) {
+            // Pieces come out longer than the average piece size, as none are shorter than a quarter of it.
+            int pieceSize = index.getAveragePieceSize() * 5 / 4;
+            if (index.countPieces(start, end) < SimilarityIndex.MIN_QUERY_PIECES) {
+                results.showMessage(Resources.getString("FindBar.similarBlockTooSmall",
+                                                        (SimilarityIndex.MIN_QUERY_PIECES + 1) * pieceSize));
+            } else {
+                results.showMessage(Resources.getString("FindBar.similarBlockTooLarge",
+                                                        SimilarityIndex.MAX_QUERY_PIECES * pieceSize));
+            }
+            UIManager.getLookAndFeel().provideErrorFeedback(this);
+            return;
         }
+        results.showSimilar(binary, blocks);
+        revalidate();
     }
 }
@@ -0,0 +1,177 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.swing.JComponent;
+import javax.swing.JTextField;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * One of the kinds of thing the find bar can search for. Each mode has its own query field, and knows how to
+ * turn the query into a searcher.
+ *
+ * @author trejkaz
+ */
+abstract class FindMode {
+    private final String name;
+    @Nullable
+    private final String toolTip;
+    protected final ParallelSearchSettings parallelSearchSettings;
+    private final Consumer<String> errorListener;
+
+    /**
+     * Constructs the mode.
+     *
+     * @param name the name shown on the mode's button.
+     * @param toolTip the tool tip for the mode's button and query field, or {@code null} if there isn't one.
+     * @param parallelSearchSettings the settings for searching in parallel.
+     * @param errorListener called with a message when the query isn't valid.
+     */
+    protected FindMode(String name, @Nullable String toolTip, ParallelSearchSettings parallelSearchSettings,
+                       Consumer<String> errorListener) {
+        this.name = name;
+        this.toolTip = toolTip;
+        this.parallelSearchSettings = parallelSearchSettings;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Gets the name shown on the mode's button.
+     *
+     * @return the name.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the tool tip for the mode's button.
+     *
+     * @return the tool tip, or {@code null} if there isn't one.
+     */
+    @Nullable
+    String getToolTip() {
+        return toolTip;
+    }
+
+    /**
+     * Gets the field the query is typed into.
+     *
+     * @return the query field.
+     */
+    abstract JTextField getQueryField();
+
+    /**
+     * Gets the controls shown after the query field, which change how the query is searched for.
+     *
+     * @return the controls.
+     */
+    List<JComponent> getOptionControls() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Shows or hides the mode's controls.
+     *
+     * @param visible {@code true} to show them, {@code false} to hide them.
+     */
+    void setVisible(boolean visible) {
+        getQueryField().setVisible(visible);
+        getOptionControls().forEach(control -> control.setVisible(visible));
+    }
+
+    /**
+     * Adds a listener called whenever the query is edited.
+     *
+     * @param listener the listener.
+     */
+    void addQueryChangeListener(Runnable listener) {
+        getQueryField().getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent event) {
+                listener.run();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent event) {
+                listener.run();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent event) {
+                listener.run();
+            }
+        });
+    }
+
+    /**
+     * Tests whether the query is searched for as it is typed. Queries which are usually not valid until they
+     * are finished are not.
+     *
+     * @return {@code true} if the query is searched for as it is typed.
+     */
+    boolean isSearchedLive() {
+        return false;
+    }
+
+    /**
+     * Creates the searcher for the query.
+     *
+     * @return the searcher, or {@code null} if there is nothing to search for.
+     */
+    @Nullable
+    abstract Searcher createSearcher();
+
+    /**
+     * Creates the labeller for matches of the query, if the query can match more than one kind of thing.
+     *
+     * @return the labeller, or {@code null} if matches don't need labelling.
+     */
+    @Nullable
+    MatchLabeller createLabeller() {
+        return null;
+    }
+
+    /**
+     * Gets a key identifying the query, used to tell whether results are still current.
+     *
+     * @return the key.
+     */
+    @NonNls
+    abstract String getQuery();
+
+    /**
+     * Tells the user that the query isn't valid.
+     *
+     * @param message the message to show.
+     * @param component the component holding the invalid part of the query.
+     */
+    protected void queryInvalid(String message, JComponent component) {
+        errorListener.accept(message);
+        UIManager.getLookAndFeel().provideErrorFeedback(component);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JLayer;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.HexViewer;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.swingsupport.PLAFUtils;
+
+/**
+ * The matches from the last time the find bar found all of them, which are listed below the find bar
+ * and highlighted in the viewer. Workers finding all matches report them here as they go.
+ *
+ * @author trejkaz
+ */
+class FindResults {
+    private final JLabel matchCountLabel;
+    private final ResultsListModel resultsListModel;
+    private final JList<String> resultsList;
+    private final JScrollPane resultsScrollPane;
+    private final MatchHighlighter matchHighlighter = new MatchHighlighter();
+
+    private MatchList results = new MatchList();
+
+    /**
+     * The query the results are for, or {@code null} if they are incomplete or out of date.
+     */
+    @Nullable
+    private String resultsQuery;
+    @Nullable
+    private Binary resultsBinary;
+    @Nullable
+    private SearchScope resultsScope;
+
+    /**
+     * Constructs the results.
+     *
+     * @param resultSelected called with the index of a result when the user selects it in the list.
+     */
+    FindResults(IntConsumer resultSelected) {
+        matchCountLabel = new JLabel();
+
+        resultsListModel = new ResultsListModel();
+        resultsList = new JList<>(resultsListModel);
+        resultsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Prototype value stops the list measuring every element, which would be slow with millions of them.
+        resultsList.setPrototypeCellValue(ResultsListModel.formatResult(0xFFFFFFFFFFL, 9999));
+        resultsList.setVisibleRowCount(6);
+        resultsList.addListSelectionListener(event -> {
+            int row = resultsList.getSelectedIndex();
+            if (!event.getValueIsAdjusting() && row >= 0) {
+                resultSelected.accept(resultsListModel.getResultIndex(row));
+            }
+        });
+        resultsScrollPane = new JScrollPane(resultsList);
+        resultsScrollPane.setVisible(false);
+
+        PLAFUtils.makeSmall(matchCountLabel, resultsList);
+    }
+
+    /**
+     * Gets the label showing how many matches there are, or why a search couldn't be done.
+     *
+     * @return the label.
+     */
+    JLabel getMatchCountLabel() {
+        return matchCountLabel;
+    }
+
+    /**
+     * Gets the list of results.
+     *
+     * @return the scroll pane holding the list.
+     */
+    JComponent getResultsPane() {
+        return resultsScrollPane;
+    }
+
+    /**
+     * Wraps the viewer in a layer which highlights the results.
+     *
+     * @param viewer the viewer.
+     * @return the layer.
+     */
+    JComponent createHighlightingLayer(HexViewer viewer) {
+        return new JLayer<>(viewer, matchHighlighter);
+    }
+
+    /**
+     * Gets the matches, which may still be being added to.
+     *
+     * @return the matches.
+     */
+    MatchList getMatches() {
+        return results;
+    }
+
+    /**
+     * Shows a message in place of the match count.
+     *
+     * @param message the message.
+     */
+    void showMessage(String message) {
+        matchCountLabel.setText(message);
+    }
+
+    /**
+     * Clears the results, ready for new ones. Matches are added to the new results through
+     * {@link #addResults}.
+     */
+    void clear() {
+        results = new MatchList();
+        resultsQuery = null;
+        resultsBinary = null;
+        resultsScope = null;
+        resultsListModel.setResults(results);
+        resultsScrollPane.setVisible(false);
+        matchCountLabel.setText("");
+        updateHighlights();
+    }
+
+    /**
+     * Shows the list of results, which is empty until matches are added.
+     *
+     * @param labeller the labeller for the matches, or {@code null} if they don't need labelling.
+     * @param haystack the binary being searched.
+     */
+    void showList(@Nullable MatchLabeller labeller, Binary haystack) {
+        resultsListModel.setLabeller(labeller, haystack);
+        resultsScrollPane.setVisible(true);
+    }
+
+    /**
+     * Tests whether the results are complete and still current, so that they can be used for next and previous.
+     *
+     * @param query the current query.
+     * @param haystack the binary being viewed.
+     * @return {@code true} if the results are for the query and binary.
+     */
+    boolean isCurrent(String query, Binary haystack) {
+        return query.equals(resultsQuery) && haystack == resultsBinary;
+    }
+
+    /**
+     * Gets the parts of the binary which were searched for the results.
+     *
+     * @return the scope, or {@code null} if the results aren't complete.
+     */
+    @Nullable
+    SearchScope getScope() {
+        return resultsScope;
+    }
+
+    /**
+     * Selects a result in the list, scrolling to it.
+     *
+     * @param index the index of the result.
+     */
+    void selectInList(int index) {
+        int row = resultsListModel.getRow(index);
+        resultsList.setSelectedIndex(row);
+        resultsList.ensureIndexIsVisible(row);
+    }
+
+    private void updateHighlights() {
+        matchHighlighter.setMatches(results.isEmpty() ? null : results);
+    }
+
+    /**
+     * Records that the results are complete, so that they can be used for next and previous.
+     *
+     * @param query the query the results are for, or {@code null} if they aren't for the query in the text field.
+     * @param haystack the binary which was searched.
+     * @param scope the parts of the binary which were searched.
+     */
+    void resultsComplete(@Nullable String query, Binary haystack, SearchScope scope) {
+        resultsQuery = query;
+        resultsBinary = haystack;
+        resultsScope = scope;
+        matchCountLabel.setText(Resources.getString("FindBar.matchCount", results.size()));
+        updateHighlights();
+    }
+
+    /**
+     * Records that finding all stopped because it found too many matches. The results are left incomplete,
+     * so next and previous search again instead of using them.
+     *
+     * @param limit the most matches listed.
+     */
+    void resultsLimitReached(int limit) {
+        matchCountLabel.setText(Resources.getString("FindBar.tooManyMatches", limit));
+        updateHighlights();
+    }
+
+    /**
+     * Adds matches found by finding all to the results.
+     *
+     * @param target the results the matches were found for.
+     * @param chunks the matches.
+     */
+    void addResults(MatchList target, List<MatchList> chunks) {
+        if (target != results) {
+            // The results have since been cleared.
+            return;
+        }
+
+        int oldSize = results.size();
+        chunks.forEach(results::addAll);
+        resultsListModel.resultsAdded(oldSize, results.size());
+        matchCountLabel.setText(Resources.getString("FindBar.matchCount", results.size()));
+        updateHighlights();
+    }
+
+    /**
+     * Shows the matches found by narrowing the matches for a shorter hex needle.
+     *
+     * @param target the results the matches were found for.
+     * @param narrowed the narrowed matches.
+     * @param query the query the results are for, or {@code null} if they aren't for the query in the text field.
+     * @param haystack the binary which was searched.
+     * @param scope the parts of the binary which were searched.
+     */
+    void narrowed(MatchList target, IncrementalMatches narrowed, @Nullable String query, Binary haystack,
+                  SearchScope scope) {
+        if (target != results) {
+            // The results have since been cleared.
+            return;
+        }
+
+        results = narrowed.getMatches();
+        resultsListModel.setResults(results);
+        resultsComplete(query, haystack, scope);
+    }
+
+    /**
+     * Shows the blocks found to be similar to a block of the binary, with the most similar first.
+     *
+     * @param binary the binary.
+     * @param blocks the similar blocks.
+     */
+    void showSimilar(Binary binary, List<SimilarityIndex.SimilarBlock> blocks) {
+        // The blocks come most similar first, and are listed in that order, but the results have to be in order
+        // of offset. More than one block can start at the same offset, so the blocks are never looked up by
+        // offset. Each row keeps its own result and score instead.
+        Integer[] rowsByOffset = new Integer[blocks.size()];
+        for (int row = 0; row < rowsByOffset.length; row++) {
+            rowsByOffset[row] = row;
+        }
+        Arrays.sort(rowsByOffset, Comparator.comparingLong(row -> blocks.get(row).offset));
+
+        int[] ranking = new int[blocks.size()];
+        for (int index = 0; index < rowsByOffset.length; index++) {
+            SimilarityIndex.SimilarBlock block = blocks.get(rowsByOffset[index]);
+            results.add(block.offset, block.length);
+            ranking[rowsByOffset[index]] = index;
+        }
+        int[] scores = blocks.stream().mapToInt(block -> block.score).toArray();
+
+        resultsListModel.setRanking(ranking);
+        resultsListModel.setRowLabeller(row -> Resources.getString("FindBar.similarity", scores[row]));
+        resultsScrollPane.setVisible(true);
+        resultsListModel.resultsAdded(0, results.size());
+        resultsComplete(null, binary, SearchScope.EVERYWHERE);
+    }
+}
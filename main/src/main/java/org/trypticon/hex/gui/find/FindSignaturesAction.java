@@ -0,0 +1,86 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+
+import org.trypticon.hex.gui.HexApplication;
+import org.trypticon.hex.gui.HexFrame;
+import org.trypticon.hex.gui.NotebookPaneAction;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.gui.notebook.NotebookPane;
+import org.trypticon.hex.gui.prefs.PreferredDirectoryManager;
+import org.trypticon.hex.gui.util.ActionException;
+import org.trypticon.hex.gui.util.FileSelection;
+import org.trypticon.hex.util.swingsupport.PLAFUtils;
+
+/**
+ * Action to find all matches for a file of signatures at once.
+ *
+ * @author trejkaz
+ * @see SignatureSet
+ */
+public class FindSignaturesAction extends NotebookPaneAction {
+    private final PreferredDirectoryManager preferredDirectoryManager;
+
+    public FindSignaturesAction(HexApplication application) {
+        this.preferredDirectoryManager = application.getPreferredDirectoryManager();
+
+        Resources.localiseAction(this, "FindSignatures");
+    }
+
+    @Override
+    protected void doAction(ActionEvent event, NotebookPane notebookPane) throws Exception {
+        // For Mac OS X, when opening files, the file chooser is *not* parented by the current window.
+        Window activeWindow = PLAFUtils.isAqua() ? null : HexFrame.findActiveFrame();
+
+        File file = FileSelection.getInstance().selectFile(
+                activeWindow, FileSelection.Mode.LOAD,
+                preferredDirectoryManager.getPreferredDirectory(PreferredDirectoryManager.SIGNATURES),
+                null);
+        if (file == null) {
+            return;
+        }
+        if (!file.isFile()) {
+            throw new ActionException(Resources.getMessage("Common.Errors.notFile", file));
+        }
+
+        preferredDirectoryManager.setPreferredDirectory(PreferredDirectoryManager.SIGNATURES, file.getParentFile());
+
+        SignatureSet signatures;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            signatures = SignatureSet.read(reader);
+        } catch (ParseException e) {
+            throw new ActionException(Resources.getMessage("FindSignatures.Errors.invalidLine",
+                                                           e.getErrorOffset(), e.getMessage()), e);
+        }
+        if (signatures.size() == 0) {
+            throw new ActionException(Resources.getMessage("FindSignatures.Errors.empty"));
+        }
+
+        notebookPane.getTopBars().showFindBar();
+        notebookPane.getTopBars().getFindBar().findAllSignatures(signatures);
+    }
+}
@@ -18,41 +18,40 @@
 
 package org.trypticon.hex.gui.find;
 
-import java.nio.ByteBuffer;
+import org.jetbrains.annotations.Nullable;
 
-import org.trypticon.hex.binary.AbstractBinary;
 import org.trypticon.hex.binary.Binary;
 
 /**
- * A binary which is a reversed view of another binary.
+ * Finds the next or previous match and selects it.
  *
  * @author trejkaz
  */
-class ReversedBinary extends AbstractBinary {
-    private final Binary delegate;
-    private final long length;
-
-    ReversedBinary(Binary delegate) {
-        this.delegate = delegate;
-        length = delegate.length();
+class FindWorker extends SearchWorker<Match, Void> {
+    private final Searcher searcher;
+    @Nullable
+    private final MatchLabeller labeller;
+    private final long startPosition;
+    private final SearchParams params;
+
+    FindWorker(FindBar findBar, Searcher searcher, @Nullable MatchLabeller labeller, Binary haystack,
+               long startPosition, SearchParams params) {
+        super(findBar, haystack, params.getScope());
+        this.searcher = searcher;
+        this.labeller = labeller;
+        this.startPosition = startPosition;
+        this.params = params;
     }
 
     @Override
-    protected byte readSpi(long position) {
-        return delegate.read(length - 1 - position);
+    protected Match doInBackground() {
+        return searcher.find(haystack, startPosition, params, this);
     }
 
     @Override
-    protected void readSpi(long position, ByteBuffer byteBuffer) {
-        // I don't think the search algorithms will call this method anyway, but if they do,
-        // I might have to find a faster way to do this.
-        while (byteBuffer.hasRemaining()) {
-            readSpi(position++, byteBuffer);
+    protected void finished(Match match) {
+        if (match != null) {
+            findBar.showMatch(match, labeller, haystack);
         }
     }
-
-    @Override
-    public long length() {
-        return length;
-    }
 }
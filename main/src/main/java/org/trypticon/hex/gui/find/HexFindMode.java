@@ -0,0 +1,180 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.JComponent;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.swingsupport.PLAFUtils;
+
+/**
+ * Find mode for searching for hex, allowing some of the bytes to differ.
+ *
+ * @author trejkaz
+ */
+class HexFindMode extends FindMode {
+
+    /**
+     * The most bytes which can be allowed to differ.
+     */
+    private static final int MAX_TOLERANCE = 64;
+
+    private final HexTextField hexTextField;
+    private final JSpinner toleranceSpinner;
+    private final SearchIndexManager searchIndexManager;
+    private final Supplier<Binary> haystackSupplier;
+
+    /**
+     * Constructs the mode.
+     *
+     * @param parallelSearchSettings the settings for searching in parallel.
+     * @param errorListener called with a message when the query isn't valid.
+     * @param searchIndexManager the search index for the binary, used when no bytes may differ.
+     * @param haystackSupplier gets the binary which will be searched.
+     */
+    HexFindMode(ParallelSearchSettings parallelSearchSettings, Consumer<String> errorListener,
+                SearchIndexManager searchIndexManager, Supplier<Binary> haystackSupplier) {
+        super(Resources.getString("FindBar.hex"), null, parallelSearchSettings, errorListener);
+        this.searchIndexManager = searchIndexManager;
+        this.haystackSupplier = haystackSupplier;
+
+        hexTextField = new HexTextField("", 8);
+        toleranceSpinner = new JSpinner(new SpinnerNumberModel(0, 0, MAX_TOLERANCE, 1));
+        toleranceSpinner.setToolTipText(Resources.getString("FindBar.toleranceToolTip"));
+
+        PLAFUtils.makeSmall(hexTextField, toleranceSpinner);
+    }
+
+    @Override
+    JTextField getQueryField() {
+        return hexTextField;
+    }
+
+    @Override
+    List<JComponent> getOptionControls() {
+        return Collections.singletonList(toleranceSpinner);
+    }
+
+    @Override
+    void addQueryChangeListener(Runnable listener) {
+        super.addQueryChangeListener(listener);
+        toleranceSpinner.addChangeListener(event -> listener.run());
+    }
+
+    @Override
+    boolean isSearchedLive() {
+        return true;
+    }
+
+    /**
+     * Gets the needle.
+     *
+     * @return the needle, which is empty if nothing has been typed.
+     */
+    byte[] getNeedle() {
+        return HexTextField.parseBytes(hexTextField.getText());
+    }
+
+    /**
+     * Gets the needle as typed so far. A byte with only its first digit typed is left out until the second
+     * one is typed.
+     *
+     * @return the needle, which is empty if no complete byte has been typed.
+     */
+    byte[] getCompleteNeedle() {
+        return hexTextField.getCompleteBytes();
+    }
+
+    /**
+     * Gets the number of bytes which may differ.
+     *
+     * @return the tolerance.
+     */
+    int getTolerance() {
+        return (Integer) toleranceSpinner.getValue();
+    }
+
+    @Nullable
+    @Override
+    Searcher createSearcher() {
+        byte[] needle = getNeedle();
+        if (needle.length == 0) {
+            return null;
+        }
+        return createSearcher(needle);
+    }
+
+    /**
+     * Creates the searcher for a needle. Finds approximate matches if some bytes may differ,
+     * otherwise uses the search index if there is one.
+     *
+     * @param needle the needle.
+     * @return the searcher.
+     */
+    Searcher createSearcher(byte[] needle) {
+        int tolerance = getTolerance();
+        if (tolerance > 0) {
+            return parallelSearchSettings.createSearcher(new ApproximateSearcher(needle, tolerance));
+        }
+        BinarySearcher searcher = new BinarySearcher(BinaryFactory.wrap(needle));
+        return parallelSearchSettings.createSearcher(searchIndexManager.wrap(searcher, needle,
+                                                                            haystackSupplier.get()));
+    }
+
+    @Nullable
+    @Override
+    MatchLabeller createLabeller() {
+        byte[] needle = getNeedle();
+        return needle.length == 0 ? null : createLabeller(needle);
+    }
+
+    /**
+     * Creates the labeller for matches of a needle, which describes how many bytes of an approximate match
+     * are different.
+     *
+     * @param needle the needle.
+     * @return the labeller, or {@code null} if no bytes may differ.
+     */
+    @Nullable
+    MatchLabeller createLabeller(byte[] needle) {
+        int tolerance = getTolerance();
+        if (tolerance == 0) {
+            return null;
+        }
+        ApproximateSearcher searcher = new ApproximateSearcher(needle, tolerance);
+        return (haystack, offset, length) -> Resources.getString("FindBar.mismatches",
+                                                                 searcher.countMismatches(haystack, offset));
+    }
+
+    @Override
+    String getQuery() {
+        return "hex:" + toleranceSpinner.getValue() + ':' + hexTextField.getText();
+    }
+}
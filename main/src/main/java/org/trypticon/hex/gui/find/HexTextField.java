@@ -18,6 +18,7 @@
 
 package org.trypticon.hex.gui.find;
 
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.JTextField;
@@ -58,12 +59,58 @@ public class HexTextField extends JTextField {
      * @return the binary. The binary will be in-memory and thus doesn't need to be closed.
      */
     public Binary getBinary() {
-        String text = getText();
-        byte[] bytes = new byte[text.length() / 3];
-        for (int i = 0, j = 0; i < bytes.length; i++, j += 3) {
-            bytes[i] = (byte) Integer.parseInt(text.substring(j, j + 2), 16);
+        return BinaryFactory.wrap(parseBytes(getText()));
+    }
+
+    /**
+     * Gets the bytes which have been typed in full. While a byte is being typed, its first digit is
+     * followed by a selected {@code 0} standing in for the second one, and that byte is left out.
+     *
+     * @return the bytes.
+     */
+    public byte[] getCompleteBytes() {
+        byte[] bytes = parseBytes(getText());
+        int selectionStart = getSelectionStart();
+        if (bytes.length > 0 && getSelectionEnd() - selectionStart == 1 && selectionStart % 3 == 1 &&
+            selectionStart / 3 == bytes.length - 1) {
+            return Arrays.copyOf(bytes, bytes.length - 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * Parses hex in the same format as the text field, as pairs of hex digits separated by whitespace.
+     * The whitespace is optional, so {@code "CAFEBABE"} and {@code "CA FE BA BE"} give the same result.
+     *
+     * @param text the text to parse.
+     * @return the bytes.
+     * @throws IllegalArgumentException if the text contains anything other than hex digits and whitespace,
+     *         or if a byte is missing its second digit.
+     */
+    public static byte[] parseBytes(String text) {
+        byte[] bytes = new byte[text.length() / 2];
+        int count = 0;
+        int high = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                continue;
+            }
+            int digit = Character.digit(ch, 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Not a hex digit at index " + i + ": " + ch);
+            }
+            if (high < 0) {
+                high = digit;
+            } else {
+                bytes[count++] = (byte) (high << 4 | digit);
+                high = -1;
+            }
+        }
+        if (high >= 0) {
+            throw new IllegalArgumentException("Odd number of hex digits: " + text);
         }
-        return BinaryFactory.wrap(bytes);
+        return Arrays.copyOf(bytes, count);
     }
 
     /**
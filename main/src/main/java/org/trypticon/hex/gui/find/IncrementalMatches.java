@@ -0,0 +1,150 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>The complete matches for a hex needle, kept so that typing more of the needle doesn't need
+ *    another search of the whole binary.</p>
+ *
+ * <p>Every match for a longer needle starting with the same bytes is also a match for the shorter one,
+ *    so the matches for the longer needle are found by checking only the bytes added to the end,
+ *    only at the offsets which are already known to match.</p>
+ *
+ * @author trejkaz
+ */
+class IncrementalMatches {
+
+    /**
+     * Default number of bytes read after a match in one go, so that the matches close after it are checked
+     * without reading again. Smaller than the searchers' window, as most of it is skipped when matches are sparse.
+     */
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Number of offsets checked between checks for cancellation.
+     */
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final byte[] needle;
+    private final Binary haystack;
+    private final SearchScope scope;
+    private final MatchList matches;
+
+    /**
+     * Constructs the matches.
+     *
+     * @param needle the needle the matches are for.
+     * @param haystack the binary which was searched.
+     * @param scope the parts of the binary which were searched.
+     * @param matches every match for the needle in the scope.
+     */
+    IncrementalMatches(byte[] needle, Binary haystack, SearchScope scope, MatchList matches) {
+        this.needle = needle.clone();
+        this.haystack = haystack;
+        this.scope = scope;
+        this.matches = matches;
+    }
+
+    MatchList getMatches() {
+        return matches;
+    }
+
+    /**
+     * Tests whether the matches for a new needle can be found by narrowing these matches.
+     *
+     * @param newNeedle the new needle.
+     * @param newHaystack the binary to search.
+     * @param newScope the parts of the binary to search.
+     * @return {@code true} if the new needle starts with the old one and the same parts of the same
+     *         binary are being searched.
+     */
+    boolean canNarrowTo(byte[] newNeedle, Binary newHaystack, SearchScope newScope) {
+        if (newHaystack != haystack || !newScope.equals(scope) || newNeedle.length < needle.length) {
+            return false;
+        }
+        for (int i = 0; i < needle.length; i++) {
+            if (newNeedle[i] != needle[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Narrows the matches to the ones for a longer needle.
+     *
+     * @param newNeedle the new needle, which must pass {@link #canNarrowTo}.
+     * @param monitor the monitor to report progress to, in offsets checked rather than bytes.
+     * @return the matches for the new needle.
+     * @throws java.util.concurrent.CancellationException if the monitor says to stop.
+     */
+    IncrementalMatches narrow(byte[] newNeedle, SearchMonitor monitor) {
+        return narrow(newNeedle, monitor, DEFAULT_WINDOW_SIZE);
+    }
+
+    IncrementalMatches narrow(byte[] newNeedle, SearchMonitor monitor, int windowSize) {
+        int oldLength = needle.length;
+        int addedLength = newNeedle.length - oldLength;
+        long haystackLength = haystack.length();
+
+        // Matches are in order, so the bytes after them can be read a window at a time.
+        byte[] window = new byte[Math.max(1, windowSize) + addedLength];
+        long[] windowState = { -1, -1 }; // position, end
+        int[] checkedCount = { 0 };
+
+        MatchList narrowed = matches.narrow(offset -> {
+            if (++checkedCount[0] == CHECK_INTERVAL) {
+                AbstractSearcher.checkCancelled(monitor);
+                monitor.searched(checkedCount[0]);
+                checkedCount[0] = 0;
+            }
+
+            // The longer match still has to fit in the part of the scope the shorter one was in.
+            long end = offset + newNeedle.length;
+            int range = scope.indexEndingAfter(offset);
+            if (end > haystackLength || range >= scope.getRangeCount() || end > scope.getEnd(range)) {
+                return false;
+            }
+            if (addedLength == 0) {
+                return true;
+            }
+
+            long addedStart = offset + oldLength;
+            if (addedStart < windowState[0] || end > windowState[1]) {
+                windowState[0] = addedStart;
+                windowState[1] = Math.min(haystackLength, addedStart + window.length);
+                haystack.read(addedStart, ByteBuffer.wrap(window, 0, (int) (windowState[1] - addedStart)));
+            }
+            int index = (int) (addedStart - windowState[0]);
+            for (int i = 0; i < addedLength; i++) {
+                if (window[index + i] != newNeedle[oldLength + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }, newNeedle.length);
+        monitor.searched(checkedCount[0]);
+
+        return new IncrementalMatches(newNeedle, haystack, scope, narrowed);
+    }
+}
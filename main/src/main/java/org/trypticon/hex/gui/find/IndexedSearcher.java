@@ -0,0 +1,215 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.io.IOException;
+import java.util.logging.Level;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.util.LoggerUtils;
+
+/**
+ * Searcher which only searches the blocks of the binary which a {@link TrigramIndex} says might contain
+ * a match, skipping the rest.
+ *
+ * <p>The candidate blocks are looked up in the index the first time the searcher is used, so that the index
+ *    is read on the thread doing the search, not the one which created the searcher. If the index doesn't help
+ *    for the needle, or can't be read, the whole binary is searched.</p>
+ *
+ * @author trejkaz
+ */
+class IndexedSearcher extends AbstractSearcher {
+    private final AbstractSearcher delegate;
+    private final TrigramIndex index;
+    private final byte[] needle;
+    private final int blockSize;
+    private final int blockCount;
+
+    private boolean lookedUp;
+    @Nullable
+    private long[] candidateBlocks;
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param delegate the searcher to verify the candidate blocks with.
+     * @param index the index for the binary which will be searched.
+     * @param needle the needle to look up in the index.
+     */
+    IndexedSearcher(AbstractSearcher delegate, TrigramIndex index, byte[] needle) {
+        this.delegate = delegate;
+        this.index = index;
+        this.needle = needle;
+        blockSize = index.getBlockSize();
+        blockCount = index.getBlockCount();
+    }
+
+    /**
+     * Looks up the candidate blocks, if they haven't been already.
+     *
+     * @return {@code true} if there are candidate blocks, {@code false} if the whole binary has to be searched.
+     */
+    private synchronized boolean lookUpCandidates() {
+        if (!lookedUp) {
+            lookedUp = true;
+            try {
+                candidateBlocks = index.findCandidateBlocks(needle);
+            } catch (IOException e) {
+                // Searching without the index still works, so don't bother the user.
+                LoggerUtils.get().log(Level.WARNING, "Error reading search index, searching without it", e);
+            }
+        }
+        return candidateBlocks != null;
+    }
+
+    @Nullable
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        if (!lookUpCandidates()) {
+            return delegate.findForwards(haystack, fromPosition, toPosition, limitPosition, monitor);
+        }
+        long position = Math.max(fromPosition, 0);
+        while (position < toPosition) {
+            checkCancelled(monitor);
+
+            long runStart = nextCandidate(position, toPosition);
+            long runEnd = nextNonCandidate(runStart, toPosition);
+            monitor.searched(runStart - position);
+            if (runStart < runEnd) {
+                Match found = delegate.findForwards(haystack, runStart, runEnd, limitPosition, monitor);
+                if (found != null) {
+                    return found;
+                }
+            }
+            position = runEnd;
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        if (!lookUpCandidates()) {
+            return delegate.findBackwards(haystack, fromPosition, toPosition, limitPosition, monitor);
+        }
+        fromPosition = Math.max(fromPosition, 0);
+        long position = toPosition;
+        while (position > fromPosition) {
+            checkCancelled(monitor);
+
+            long runEnd = previousCandidate(position, fromPosition);
+            long runStart = previousNonCandidate(runEnd, fromPosition);
+            monitor.searched(position - runEnd);
+            if (runStart < runEnd) {
+                Match found = delegate.findBackwards(haystack, runStart, runEnd, limitPosition, monitor);
+                if (found != null) {
+                    return found;
+                }
+            }
+            position = runStart;
+        }
+        return null;
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        if (!lookUpCandidates()) {
+            delegate.findAll(haystack, fromPosition, toPosition, limitPosition, monitor, listener);
+            return;
+        }
+        long position = Math.max(fromPosition, 0);
+        while (position < toPosition) {
+            checkCancelled(monitor);
+
+            long runStart = nextCandidate(position, toPosition);
+            long runEnd = nextNonCandidate(runStart, toPosition);
+            monitor.searched(runStart - position);
+            if (runStart < runEnd) {
+                delegate.findAll(haystack, runStart, runEnd, limitPosition, monitor, listener);
+            }
+            position = runEnd;
+        }
+    }
+
+    private boolean isCandidate(long block) {
+        long[] candidateBlocks = this.candidateBlocks;
+        assert candidateBlocks != null;
+        return block >= blockCount || (candidateBlocks[(int) (block >>> 6)] & (1L << block)) != 0;
+    }
+
+    /**
+     * Finds the start of the next candidate block, or the position itself if it is already in one.
+     *
+     * @param position the position.
+     * @param bound the position to give up at.
+     * @return the position of the next candidate, or {@code bound} if there isn't one before it.
+     */
+    private long nextCandidate(long position, long bound) {
+        long block = position / blockSize;
+        while (!isCandidate(block)) {
+            block++;
+            if (block * blockSize >= bound) {
+                return bound;
+            }
+        }
+        return Math.min(bound, Math.max(position, block * blockSize));
+    }
+
+    private long nextNonCandidate(long position, long bound) {
+        long block = position / blockSize;
+        while (block * blockSize < bound && isCandidate(block)) {
+            block++;
+        }
+        return Math.min(bound, Math.max(position, block * blockSize));
+    }
+
+    /**
+     * Finds the end of the previous candidate block, or the position itself if it is already in one.
+     *
+     * @param position the position, exclusive.
+     * @param bound the position to give up at.
+     * @return the position just after the previous candidate, or {@code bound} if there isn't one after it.
+     */
+    private long previousCandidate(long position, long bound) {
+        long block = (position - 1) / blockSize;
+        while (!isCandidate(block)) {
+            if (block * blockSize <= bound) {
+                return bound;
+            }
+            block--;
+        }
+        return Math.max(bound, Math.min(position, (block + 1) * blockSize));
+    }
+
+    private long previousNonCandidate(long position, long bound) {
+        if (position <= bound) {
+            return bound;
+        }
+        long block = (position - 1) / blockSize;
+        while (block >= 0 && (block + 1) * blockSize > bound && isCandidate(block)) {
+            block--;
+        }
+        return Math.max(bound, Math.min(position, (block + 1) * blockSize));
+    }
+}
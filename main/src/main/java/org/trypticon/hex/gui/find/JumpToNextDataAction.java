@@ -0,0 +1,55 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+
+import org.trypticon.hex.HexViewer;
+import org.trypticon.hex.HexViewerSelectionModel;
+import org.trypticon.hex.gui.NotebookPaneAction;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.gui.notebook.NotebookPane;
+
+/**
+ * Action to jump to the start of the next data after padding, skipping runs of {@code 00} and {@code FF} bytes.
+ *
+ * @author trejkaz
+ * @see RunScanner
+ */
+public class JumpToNextDataAction extends NotebookPaneAction {
+    private final RunScanner scanner = new RunScanner();
+
+    public JumpToNextDataAction() {
+        Resources.localiseAction(this, "JumpToNextData");
+    }
+
+    @Override
+    protected void doAction(ActionEvent event, NotebookPane notebookPane) throws Exception {
+        HexViewer viewer = notebookPane.getViewer();
+        HexViewerSelectionModel selectionModel = viewer.getSelectionModel();
+        long offset = scanner.findNextData(viewer.getBinary(), selectionModel.getCursor());
+        if (offset < viewer.getBinary().length()) {
+            selectionModel.setCursor(offset);
+            viewer.scrollPosToVisible(offset);
+        } else {
+            Toolkit.getDefaultToolkit().beep();
+        }
+    }
+}
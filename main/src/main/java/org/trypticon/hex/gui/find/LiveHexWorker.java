@@ -0,0 +1,151 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Finds the match for a hex needle as it is typed, and selects it. Every match for the needle is kept, so
+ * that when more bytes are typed, the matches can be narrowed instead of searching the binary again.
+ * When searching, the first match at or after the start position is selected as soon as it is found,
+ * while the search carries on to collect the rest. A short needle can match almost everywhere, so if
+ * there are too many matches to keep, only the next match is found, and longer needles are searched for
+ * from scratch.
+ *
+ * @author trejkaz
+ */
+class LiveHexWorker extends SearchWorker<IncrementalMatches, Match> implements MatchListener {
+
+    /**
+     * The most matches kept for narrowing.
+     */
+    static final int MAX_KEPT_MATCHES = 1 << 18;
+
+    @Nullable
+    private final Searcher searcher;
+    @Nullable
+    private final IncrementalMatches previous;
+    private final byte[] needle;
+    private final long startPosition;
+
+    // Only touched by the searching thread until the search has finished.
+    private final MatchList matches = new MatchList(MAX_KEPT_MATCHES);
+    private boolean shown;
+
+    /**
+     * Constructs the worker to search for the needle.
+     *
+     * @param findBar the find bar the search is for.
+     * @param searcher the searcher for the needle.
+     * @param needle the needle.
+     * @param haystack the binary to search.
+     * @param scope the parts of the binary to search.
+     * @param startPosition the position to select the first match at or after, wrapping to the start.
+     */
+    LiveHexWorker(FindBar findBar, Searcher searcher, byte[] needle, Binary haystack, SearchScope scope,
+                  long startPosition) {
+        super(findBar, haystack, scope);
+        this.searcher = searcher;
+        this.previous = null;
+        this.needle = needle;
+        this.startPosition = startPosition;
+    }
+
+    /**
+     * Constructs the worker to narrow the matches for a shorter needle.
+     *
+     * @param findBar the find bar the search is for.
+     * @param previous the matches for the shorter needle, which must be able to narrow to the needle.
+     * @param needle the needle.
+     * @param haystack the binary to search.
+     * @param scope the parts of the binary to search.
+     * @param startPosition the position to select the first match at or after, wrapping to the start.
+     */
+    LiveHexWorker(FindBar findBar, IncrementalMatches previous, byte[] needle, Binary haystack, SearchScope scope,
+                  long startPosition) {
+        super(findBar, haystack, scope, previous.getMatches().size());
+        this.searcher = null;
+        this.previous = previous;
+        this.needle = needle;
+        this.startPosition = startPosition;
+    }
+
+    @Nullable
+    @Override
+    protected IncrementalMatches doInBackground() {
+        if (previous != null) {
+            return previous.narrow(needle, this);
+        }
+        assert searcher != null;
+        try {
+            searcher.findAll(haystack, scope, this, this);
+        } catch (MatchList.LimitReachedException e) {
+            if (!shown) {
+                // Still monitored, so that typing another digit cancels it like the search it replaces.
+                Match match = searcher.find(haystack, startPosition, new SearchParams(true, false, scope), this);
+                if (match != null) {
+                    shown = true;
+                    publish(match);
+                }
+            }
+            return null;
+        }
+        return new IncrementalMatches(needle, haystack, scope, matches);
+    }
+
+    @Override
+    public int getMatchLimit() {
+        return MAX_KEPT_MATCHES;
+    }
+
+    @Override
+    public void matchFound(long offset, long length) {
+        matches.add(offset, length);
+        if (!shown && offset >= startPosition) {
+            shown = true;
+            publish(new Match(offset, length));
+        }
+    }
+
+    @Override
+    protected void process(List<Match> chunks) {
+        // Matches still waiting to be processed when the query changes are for the old query.
+        if (!isCancelled()) {
+            findBar.showMatch(chunks.get(0), null, haystack);
+        }
+    }
+
+    @Override
+    protected void finished(@Nullable IncrementalMatches result) {
+        findBar.setIncrementalMatches(result);
+        if (result == null) {
+            // Too many matches to keep, and the next one has already been shown if there was one.
+            return;
+        }
+        MatchList found = result.getMatches();
+        if (!shown && !found.isEmpty()) {
+            int index = found.indexAtOrAfter(startPosition);
+            findBar.showMatch(found.get(index == found.size() ? 0 : index), null, haystack);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import javax.swing.JComponent;
+import javax.swing.JLayer;
+import javax.swing.SwingUtilities;
+import javax.swing.plaf.LayerUI;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.HexViewer;
+
+/**
+ * <p>Paints highlights over the matches from finding all, on top of the viewer.</p>
+ *
+ * <p>The highlights are painted rather than added to the annotations, so they show over matches inside
+ *    annotations as well as between them, and nothing working with the annotations ever sees them.
+ *    Only the rows on the screen are painted, so it doesn't matter how many matches there are.</p>
+ *
+ * @author trejkaz
+ */
+class MatchHighlighter extends LayerUI<HexViewer> {
+    private static final Color HIGHLIGHT_COLOR = new Color(255, 153, 0, 96);
+
+    @Nullable
+    private MatchList matches;
+
+    /**
+     * Sets the matches to highlight.
+     *
+     * @param matches the matches, or {@code null} to remove the highlights.
+     */
+    void setMatches(@Nullable MatchList matches) {
+        MatchList oldMatches = this.matches;
+        this.matches = matches;
+        // Always fired, because the same list gets longer as finding all adds to it.
+        firePropertyChange("matches", oldMatches == matches ? null : oldMatches, matches);
+    }
+
+    @Override
+    public void applyPropertyChange(PropertyChangeEvent event, JLayer<? extends HexViewer> layer) {
+        if ("matches".equals(event.getPropertyName())) {
+            layer.repaint();
+        }
+    }
+
+    @Override
+    public void paint(Graphics g, JComponent component) {
+        super.paint(g, component);
+
+        MatchList matches = this.matches;
+        if (matches == null || matches.isEmpty()) {
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        HexViewer viewer = ((JLayer<HexViewer>) component).getView();
+        if (viewer.getBinary() == null) {
+            return;
+        }
+        long bytesPerRow = viewer.getBytesPerRow();
+        long start = viewer.getFirstVisibleRow() * bytesPerRow;
+        // One more row, for the one partly shown at the bottom.
+        long end = Math.min(start + (viewer.getVisibleRowCount() + 1) * bytesPerRow, viewer.getBinary().length());
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setColor(HIGHLIGHT_COLOR);
+            // The match before the first one starting on the screen might still reach onto it.
+            // Matches can overlap, and each byte is only painted once so that the colour stays the same.
+            long paintedEnd = start;
+            for (int i = Math.max(matches.indexAtOrAfter(start) - 1, 0);
+                 i < matches.size() && matches.getOffset(i) < end; i++) {
+                long matchEnd = Math.min(matches.getOffset(i) + matches.getLength(i), end);
+                for (long position = Math.max(matches.getOffset(i), paintedEnd); position < matchEnd; position++) {
+                    Rectangle bounds = viewer.getUI().modelToView(viewer, position);
+                    if (bounds != null) {
+                        g2.fill(SwingUtilities.convertRectangle(viewer, bounds, component));
+                    }
+                }
+                paintedEnd = Math.max(paintedEnd, matchEnd);
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Describes what a match is, for searches which can match more than one kind of thing.
+ *
+ * @author trejkaz
+ */
+interface MatchLabeller {
+
+    /**
+     * Gets the label for a match. Matches don't record what they matched, so it is worked out again
+     * from the bytes.
+     *
+     * @param haystack the binary the match was found in.
+     * @param offset the offset of the match.
+     * @param length the length of the match.
+     * @return the label, or an empty string if the bytes don't match anything.
+     */
+    String getLabel(Binary haystack, long offset, long length);
+}
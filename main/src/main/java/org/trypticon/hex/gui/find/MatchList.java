@@ -0,0 +1,245 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * <p>Compact list of matches, in order of offset.</p>
+ *
+ * <p>A search for something common can find millions of matches, so rather than keeping a
+ *    {@link Match} per hit, offsets are kept in a primitive array. Lengths are usually all the same,
+ *    so a length per match is only stored once the lengths turn out to differ.</p>
+ *
+ * @author trejkaz
+ */
+class MatchList implements MatchListener {
+    /**
+     * The most matches a list can hold, which is as big as an array can get.
+     */
+    static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int limit;
+    private long[] offsets = new long[16];
+    private long[] lengths;
+    private long commonLength = -1;
+    private int size;
+
+    /**
+     * Constructs a list which can hold as many matches as will fit.
+     */
+    MatchList() {
+        this(MAX_SIZE);
+    }
+
+    /**
+     * Constructs a list which holds no more than a given number of matches.
+     *
+     * @param limit the most matches the list will hold.
+     */
+    MatchList(int limit) {
+        if (limit <= 0 || limit > MAX_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_SIZE + ": " + limit);
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public void matchFound(long offset, long length) {
+        add(offset, length);
+    }
+
+    @Override
+    public int getMatchLimit() {
+        return limit;
+    }
+
+    /**
+     * Adds a match to the end of the list.
+     *
+     * @param offset the offset of the match. Must not be less than the offset of the last match.
+     * @param length the length of the match.
+     * @throws LimitReachedException if the list already holds as many matches as it can.
+     */
+    void add(long offset, long length) {
+        if (size > 0 && offset < offsets[size - 1]) {
+            throw new IllegalArgumentException("Matches must be added in order, got " + offset +
+                                               " after " + offsets[size - 1]);
+        }
+        if (size == limit) {
+            throw new LimitReachedException(limit);
+        }
+
+        if (size == offsets.length) {
+            // Worked out as a long so that doubling past the biggest int doesn't overflow.
+            int capacity = (int) Math.min((long) size * 2, limit);
+            offsets = Arrays.copyOf(offsets, capacity);
+            if (lengths != null) {
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+        }
+
+        if (lengths == null) {
+            if (size == 0) {
+                commonLength = length;
+            } else if (length != commonLength) {
+                lengths = new long[offsets.length];
+                Arrays.fill(lengths, 0, size, commonLength);
+            }
+        }
+
+        offsets[size] = offset;
+        if (lengths != null) {
+            lengths[size] = length;
+        }
+        size++;
+    }
+
+    /**
+     * Adds all the matches from another list to the end of this one.
+     *
+     * @param other the other list.
+     */
+    void addAll(MatchList other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.getOffset(i), other.getLength(i));
+        }
+    }
+
+    /**
+     * Narrows the list to the matches at offsets which pass a test, giving them all a new length.
+     * This is how the results for a needle become the results for a longer needle starting with it,
+     * without searching anywhere the shorter needle didn't match.
+     *
+     * @param test the test, called with each offset in order.
+     * @param length the length of the narrowed matches.
+     * @return a new list containing the matches which passed the test.
+     */
+    MatchList narrow(LongPredicate test, long length) {
+        MatchList narrowed = new MatchList();
+        long[] kept = new long[Math.max(16, size)];
+        int keptCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (test.test(offsets[i])) {
+                kept[keptCount++] = offsets[i];
+            }
+        }
+        if (keptCount > 0) {
+            narrowed.offsets = keptCount * 2 < kept.length ? Arrays.copyOf(kept, Math.max(16, keptCount)) : kept;
+            narrowed.size = keptCount;
+            narrowed.commonLength = length;
+        }
+        return narrowed;
+    }
+
+    /**
+     * Removes all matches from the list.
+     */
+    void clear() {
+        size = 0;
+        lengths = null;
+        commonLength = -1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long getOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    long getLength(int index) {
+        checkIndex(index);
+        return lengths == null ? commonLength : lengths[index];
+    }
+
+    /**
+     * Gets a match from the list.
+     *
+     * @param index the index of the match.
+     * @return the match.
+     */
+    Match get(int index) {
+        return new Match(getOffset(index), getLength(index));
+    }
+
+    /**
+     * Finds the first match starting at or after the given position.
+     *
+     * @param position the position.
+     * @return the index of the match, or the size of the list if all matches start before the position.
+     */
+    int indexAtOrAfter(long position) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (offsets[middle] < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the last match which ends at or before the given position, the same one a backwards
+     * search from that position would find.
+     *
+     * @param position the position, inclusive.
+     * @return the index of the match, or {@code -1} if no match ends by the position.
+     */
+    int indexEndingAtOrBefore(long position) {
+        if (lengths == null) {
+            // All the same length, so the ends are in the same order as the offsets.
+            return indexAtOrAfter(position - commonLength + 2) - 1;
+        }
+
+        // Nothing starting after the position can end by it, but the ones before might, in any order.
+        for (int index = indexAtOrAfter(position + 1) - 1; index >= 0; index--) {
+            if (offsets[index] + lengths[index] - 1 <= position) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Thrown when adding a match to a list which already holds as many as it can.
+     */
+    static class LimitReachedException extends RuntimeException {
+        LimitReachedException(int limit) {
+            super("Can't keep more than " + limit + " matches");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+/**
+ * Receives matches as they are found when finding all matches.
+ *
+ * @author trejkaz
+ */
+interface MatchListener {
+
+    /**
+     * Called when a match is found. Matches are reported in order of offset.
+     *
+     * @param offset the offset of the match.
+     * @param length the length of the match.
+     */
+    void matchFound(long offset, long length);
+
+    /**
+     * Gets the most matches the listener will take. Searchers which collect matches before passing
+     * them on collect no more than this many at a time, as the rest would be refused anyway.
+     *
+     * @return the most matches the listener will take.
+     */
+    default int getMatchLimit() {
+        return MatchList.MAX_SIZE;
+    }
+}
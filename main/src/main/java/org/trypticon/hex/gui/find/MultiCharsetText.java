@@ -0,0 +1,170 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NonNls;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Some text encoded in several charsets at once, for finding the text whichever of them it was
+ *    written in.</p>
+ *
+ * <p>Each encoding of the text becomes one pattern for a {@link MultiPatternSearcher}, so all the charsets
+ *    are searched in a single pass over the binary. Matches are exact byte matches, so the text is encoded
+ *    in both its composed and decomposed forms to find it however the accents were written.</p>
+ *
+ * @author trejkaz
+ */
+class MultiCharsetText implements MatchLabeller {
+    @NonNls
+    private static final String[] UNICODE_CHARSET_NAMES = { "UTF-8", "UTF-16LE", "UTF-16BE", "UTF-32LE", "UTF-32BE" };
+
+    private final Map<ByteBuffer, String> labelsByPattern;
+    private final int maxLength;
+
+    /**
+     * Constructs the text.
+     *
+     * @param labelsByPattern the names of the charsets for each encoding of the text.
+     */
+    private MultiCharsetText(Map<ByteBuffer, String> labelsByPattern) {
+        this.labelsByPattern = labelsByPattern;
+        maxLength = labelsByPattern.keySet().stream().mapToInt(ByteBuffer::remaining).max().orElse(0);
+    }
+
+    /**
+     * Gets the charsets searched when searching in any encoding: the Unicode encodings in both byte orders,
+     * followed by the given legacy charset, the platform's default charset and ISO-8859-1.
+     *
+     * @param legacyCharset the legacy charset the user has chosen.
+     * @return the charsets, without duplicates.
+     */
+    static List<Charset> anyEncodingCharsets(Charset legacyCharset) {
+        Set<Charset> charsets = new LinkedHashSet<>();
+        for (String name : UNICODE_CHARSET_NAMES) {
+            if (Charset.isSupported(name)) {
+                charsets.add(Charset.forName(name));
+            }
+        }
+        charsets.add(legacyCharset);
+        charsets.add(Charset.defaultCharset());
+        charsets.add(StandardCharsets.ISO_8859_1);
+        return new ArrayList<>(charsets);
+    }
+
+    /**
+     * Encodes the text in each of the charsets. Charsets which can't encode the text are skipped.
+     *
+     * @param text the text.
+     * @param charsets the charsets to encode it in.
+     * @return the encoded text.
+     */
+    static MultiCharsetText encode(String text, Collection<Charset> charsets) {
+        Set<String> forms = new LinkedHashSet<>();
+        forms.add(text);
+        forms.add(Normalizer.normalize(text, Normalizer.Form.NFC));
+        forms.add(Normalizer.normalize(text, Normalizer.Form.NFD));
+
+        Map<ByteBuffer, String> labelsByPattern = new LinkedHashMap<>();
+        for (Charset charset : charsets) {
+            CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+            for (String form : forms) {
+                byte[] pattern;
+                try {
+                    encoder.reset();
+                    ByteBuffer buffer = encoder.encode(CharBuffer.wrap(form));
+                    pattern = new byte[buffer.remaining()];
+                    buffer.get(pattern);
+                } catch (CharacterCodingException e) {
+                    // Can't be written in this charset, so can't be found in it either.
+                    continue;
+                }
+                if (pattern.length == 0) {
+                    continue;
+                }
+
+                // Text which encodes the same in several charsets (e.g. ASCII) is one pattern with all their names.
+                labelsByPattern.merge(ByteBuffer.wrap(pattern), charset.name(),
+                                      (existing, added) -> existing.equals(added) ||
+                                                           existing.endsWith(", " + added) ?
+                                                           existing : existing + ", " + added);
+            }
+        }
+        return new MultiCharsetText(labelsByPattern);
+    }
+
+    /**
+     * Gets the number of distinct encodings of the text.
+     *
+     * @return the number of encodings.
+     */
+    int size() {
+        return labelsByPattern.size();
+    }
+
+    /**
+     * Creates a searcher which finds the text in any of the charsets.
+     *
+     * @return the searcher.
+     */
+    MultiPatternSearcher createSearcher() {
+        List<byte[]> patterns = new ArrayList<>(labelsByPattern.size());
+        for (ByteBuffer pattern : labelsByPattern.keySet()) {
+            patterns.add(pattern.array().clone());
+        }
+        return new MultiPatternSearcher(patterns);
+    }
+
+    /**
+     * Gets the names of the charsets a match found by the searcher was in.
+     *
+     * @param haystack the binary the match was found in.
+     * @param offset the offset of the match.
+     * @param length the length of the match.
+     * @return the charset names, or an empty string if the bytes aren't the text in any of the charsets.
+     */
+    @Override
+    public String getLabel(Binary haystack, long offset, long length) {
+        if (length <= 0 || length > maxLength || offset < 0 || offset + length > haystack.length()) {
+            return "";
+        }
+        byte[] bytes = new byte[(int) length];
+        haystack.read(offset, ByteBuffer.wrap(bytes));
+        return labelsByPattern.getOrDefault(ByteBuffer.wrap(bytes), "");
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Searcher which searches for several binary patterns at once, using the Aho-Corasick algorithm.</p>
+ *
+ * <p>The patterns are compiled into a single automaton, so finding every match for every pattern takes
+ *    a single pass over the binary, however many patterns there are. When matches for more than one
+ *    pattern start at the same position, the shortest is the one found by {@link #find}, and all of
+ *    them are reported when finding all.</p>
+ *
+ * @author trejkaz
+ */
+class MultiPatternSearcher extends AbstractSearcher {
+
+    private final int windowSize;
+
+    /**
+     * The patterns, shortest first.
+     */
+    private final byte[][] patterns;
+    private final int maxLength;
+
+    private final Automaton forwardAutomaton;
+    private final Automaton backwardAutomaton;
+
+    MultiPatternSearcher(List<byte[]> patterns) {
+        this(patterns, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param patterns the patterns to search for. Empty patterns are ignored.
+     * @param windowSize the number of bytes to read from the haystack in one go.
+     */
+    MultiPatternSearcher(List<byte[]> patterns, int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+
+        List<byte[]> sortedPatterns = new ArrayList<>(patterns.size());
+        for (byte[] pattern : patterns) {
+            if (pattern.length > 0 && sortedPatterns.stream().noneMatch(p -> Arrays.equals(p, pattern))) {
+                sortedPatterns.add(pattern.clone());
+            }
+        }
+        sortedPatterns.sort(Comparator.comparingInt(pattern -> pattern.length));
+        this.patterns = sortedPatterns.toArray(new byte[sortedPatterns.size()][]);
+        maxLength = this.patterns.length == 0 ? 0 : this.patterns[this.patterns.length - 1].length;
+
+        forwardAutomaton = new Automaton(this.patterns, false);
+        backwardAutomaton = new Automaton(this.patterns, true);
+    }
+
+    /**
+     * Gets the number of distinct patterns.
+     *
+     * @return the number of patterns.
+     */
+    int getPatternCount() {
+        return patterns.length;
+    }
+
+    @Nullable
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition,
+                       long limitPosition, SearchMonitor monitor) {
+        EarliestMatch earliest = new EarliestMatch(maxLength, false);
+        scanForwards(haystack, fromPosition, toPosition, limitPosition, monitor, earliest, earliest);
+        return earliest.getMatch();
+    }
+
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition,
+                        long limitPosition, SearchMonitor monitor) {
+        fromPosition = Math.max(fromPosition, 0);
+        limitPosition = Math.min(limitPosition, haystack.length());
+        long scanEnd = Math.min(limitPosition, toPosition + maxLength - 1);
+        if (patterns.length == 0 || fromPosition >= Math.min(toPosition, scanEnd)) {
+            return null;
+        }
+
+        // Scanning backwards with the reversed patterns finds matches in order of where they start,
+        // latest first, and patterns are in length order, so the first one found is the one we want.
+        byte[] window = new byte[(int) Math.min(windowSize, scanEnd - fromPosition)];
+        int state = 0;
+        long windowEnd = scanEnd;
+        while (windowEnd > fromPosition) {
+            checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, windowEnd - fromPosition);
+            long windowPosition = windowEnd - windowLength;
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, windowLength));
+
+            for (int index = windowLength - 1; index >= 0; index--) {
+                state = backwardAutomaton.next(state, window[index]);
+                long position = windowPosition + index;
+                if (position < toPosition) {
+                    int[] output = backwardAutomaton.outputs[state];
+                    if (output.length > 0) {
+                        monitor.searched(windowEnd - position);
+                        return new Match(position, patterns[output[0]].length);
+                    }
+                }
+            }
+
+            monitor.searched(windowLength);
+            windowEnd = windowPosition;
+        }
+        return null;
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        // Matches are found in order of where they end, but have to be reported in order of where they start.
+        // A match ending later can only start earlier if it's within the longest pattern's length, so matches
+        // are held back until nothing found later could start before them.
+        PendingMatches pending = new PendingMatches();
+        scanForwards(haystack, fromPosition, toPosition, limitPosition, monitor, (start, length) -> {
+            pending.flushStartingBefore(start + length - maxLength, listener);
+            pending.add(start, length);
+        }, () -> Long.MAX_VALUE);
+        pending.flushStartingBefore(Long.MAX_VALUE, listener);
+    }
+
+    /**
+     * Scans forwards, passing every match to the callback. Matches are passed in order of where they end.
+     *
+     * @param haystack the haystack.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @param callback the callback to pass matches to.
+     * @param stopPosition supplies the position after which the scan can stop.
+     */
+    private void scanForwards(Binary haystack, long fromPosition, long toPosition,
+                              long limitPosition, SearchMonitor monitor, HitCallback callback,
+                              StopPosition stopPosition) {
+        fromPosition = Math.max(fromPosition, 0);
+        limitPosition = Math.min(limitPosition, haystack.length());
+        long scanEnd = Math.min(limitPosition, toPosition + maxLength - 1);
+        if (patterns.length == 0 || fromPosition >= Math.min(toPosition, scanEnd)) {
+            return;
+        }
+
+        byte[] window = new byte[(int) Math.min(windowSize, scanEnd - fromPosition)];
+        int state = 0;
+        long windowPosition = fromPosition;
+        while (windowPosition < scanEnd) {
+            checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, scanEnd - windowPosition);
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, windowLength));
+
+            for (int index = 0; index < windowLength; index++) {
+                state = forwardAutomaton.next(state, window[index]);
+                long position = windowPosition + index;
+                for (int patternIndex : forwardAutomaton.outputs[state]) {
+                    long start = position - patterns[patternIndex].length + 1;
+                    if (start < toPosition) {
+                        callback.hit(start, patterns[patternIndex].length);
+                    }
+                }
+                if (position >= stopPosition.get()) {
+                    monitor.searched(index + 1);
+                    return;
+                }
+            }
+
+            monitor.searched(windowLength);
+            windowPosition += windowLength;
+        }
+    }
+
+    /**
+     * Matches waiting to be reported, in order of offset and then length.
+     */
+    private static class PendingMatches {
+        private long[] offsets = new long[16];
+        private long[] lengths = new long[16];
+        private int start;
+        private int end;
+
+        private void add(long offset, long length) {
+            if (end == offsets.length) {
+                if (start > 0) {
+                    System.arraycopy(offsets, start, offsets, 0, end - start);
+                    System.arraycopy(lengths, start, lengths, 0, end - start);
+                    end -= start;
+                    start = 0;
+                } else {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    lengths = Arrays.copyOf(lengths, lengths.length * 2);
+                }
+            }
+
+            // Usually goes at the end, but longer patterns can start before matches already found.
+            int index = end;
+            while (index > start && (offsets[index - 1] > offset ||
+                                     (offsets[index - 1] == offset && lengths[index - 1] > length))) {
+                offsets[index] = offsets[index - 1];
+                lengths[index] = lengths[index - 1];
+                index--;
+            }
+            offsets[index] = offset;
+            lengths[index] = length;
+            end++;
+        }
+
+        private void flushStartingBefore(long position, MatchListener listener) {
+            while (start < end && offsets[start] < position) {
+                listener.matchFound(offsets[start], lengths[start]);
+                start++;
+            }
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton, with the failure links already followed so that every state has
+     * a transition for every byte.
+     */
+    private static class Automaton {
+        /**
+         * Next state for each state and byte, indexed by {@code state * 256 + byte}.
+         */
+        private final int[] transitions;
+
+        /**
+         * The patterns which end at each state, shortest first.
+         */
+        private final int[][] outputs;
+
+        private Automaton(byte[][] patterns, boolean reversed) {
+            // Build the trie.
+            int maxStates = 1;
+            for (byte[] pattern : patterns) {
+                maxStates += pattern.length;
+            }
+            int[] trie = new int[maxStates * 256];
+            Arrays.fill(trie, -1);
+            List<List<Integer>> stateOutputs = new ArrayList<>();
+            stateOutputs.add(new ArrayList<>());
+            int stateCount = 1;
+            for (int patternIndex = 0; patternIndex < patterns.length; patternIndex++) {
+                byte[] pattern = patterns[patternIndex];
+                int state = 0;
+                for (int i = 0; i < pattern.length; i++) {
+                    int b = pattern[reversed ? pattern.length - 1 - i : i] & 0xFF;
+                    if (trie[state * 256 + b] < 0) {
+                        trie[state * 256 + b] = stateCount++;
+                        stateOutputs.add(new ArrayList<>());
+                    }
+                    state = trie[state * 256 + b];
+                }
+                stateOutputs.get(state).add(patternIndex);
+            }
+
+            // Breadth first, so the failure state is always done before the states which fail to it.
+            transitions = Arrays.copyOf(trie, stateCount * 256);
+            int[] failure = new int[stateCount];
+            int[] queue = new int[stateCount];
+            int head = 0;
+            int tail = 0;
+            for (int b = 0; b < 256; b++) {
+                int next = transitions[b];
+                if (next < 0) {
+                    transitions[b] = 0;
+                } else {
+                    failure[next] = 0;
+                    queue[tail++] = next;
+                }
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                stateOutputs.get(state).addAll(stateOutputs.get(failure[state]));
+                for (int b = 0; b < 256; b++) {
+                    int next = transitions[state * 256 + b];
+                    int failureNext = transitions[failure[state] * 256 + b];
+                    if (next < 0) {
+                        transitions[state * 256 + b] = failureNext;
+                    } else {
+                        failure[next] = failureNext;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+
+            outputs = new int[stateCount][];
+            for (int state = 0; state < stateCount; state++) {
+                outputs[state] = stateOutputs.get(state).stream().mapToInt(Integer::intValue).sorted().toArray();
+            }
+        }
+
+        private int next(int state, byte b) {
+            return transitions[state * 256 + (b & 0xFF)];
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Finds all matches for a longer hex needle by narrowing the matches for a shorter one.
+ * The narrowed matches all turn up at once at the end, as narrowing is much quicker than searching.
+ *
+ * @author trejkaz
+ */
+class NarrowWorker extends SearchWorker<IncrementalMatches, Void> {
+    private final IncrementalMatches previous;
+    private final byte[] needle;
+    private final MatchList target;
+    @Nullable
+    private final String query;
+
+    NarrowWorker(FindBar findBar, IncrementalMatches previous, byte[] needle, Binary haystack, SearchScope scope,
+                 MatchList target, @Nullable String query) {
+        super(findBar, haystack, scope, previous.getMatches().size());
+        this.previous = previous;
+        this.needle = needle;
+        this.target = target;
+        this.query = query;
+    }
+
+    @Override
+    protected IncrementalMatches doInBackground() {
+        return previous.narrow(needle, this);
+    }
+
+    @Override
+    protected void finished(IncrementalMatches narrowed) {
+        findBar.setIncrementalMatches(narrowed);
+        findBar.getResults().narrowed(target, narrowed, query, haystack, scope);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.function.Consumer;
+import javax.swing.JTextField;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.swingsupport.PLAFUtils;
+
+/**
+ * Find mode for searching for a number, in any of the widths and byte orders it could be stored in.
+ *
+ * @author trejkaz
+ */
+class NumberFindMode extends FindMode {
+    private final JTextField numberTextField;
+
+    /**
+     * Constructs the mode.
+     *
+     * @param parallelSearchSettings the settings for searching in parallel.
+     * @param errorListener called with a message when the query isn't valid.
+     */
+    NumberFindMode(ParallelSearchSettings parallelSearchSettings, Consumer<String> errorListener) {
+        super(Resources.getString("FindBar.number"), Resources.getString("FindBar.numberToolTip"),
+              parallelSearchSettings, errorListener);
+
+        numberTextField = new JTextField("", 8);
+        numberTextField.setToolTipText(getToolTip());
+
+        PLAFUtils.makeSmall(numberTextField);
+    }
+
+    @Override
+    JTextField getQueryField() {
+        return numberTextField;
+    }
+
+    @Nullable
+    @Override
+    Searcher createSearcher() {
+        NumericValue value = parseNumber();
+        if (value == null) {
+            return null;
+        }
+        return parallelSearchSettings.createSearcher(new NumericSearcher(value));
+    }
+
+    @Nullable
+    @Override
+    MatchLabeller createLabeller() {
+        // Matches are labelled with the width and byte order they were found in.
+        return parseNumber();
+    }
+
+    /**
+     * Parses the number in the number field, showing an error if it isn't valid.
+     *
+     * @return the number, or {@code null} if there is no valid number.
+     */
+    @Nullable
+    private NumericValue parseNumber() {
+        String number = numberTextField.getText();
+        if (number.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return NumericValue.parse(number);
+        } catch (NumberFormatException e) {
+            queryInvalid(Resources.getString("FindBar.invalidNumber", number.trim()), numberTextField);
+            return null;
+        }
+    }
+
+    @Override
+    String getQuery() {
+        return "number:" + numberTextField.getText();
+    }
+}
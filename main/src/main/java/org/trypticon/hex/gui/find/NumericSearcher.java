@@ -0,0 +1,168 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Searcher which finds a number in every encoding at once.</p>
+ *
+ * <p>At each position, the next eight bytes are read as a single long, and every width and byte order
+ *    is checked by masking, shifting or reversing that word, so the binary is only read once however many
+ *    encodings there are. When the number matches with more than one width at
+ *    the same position, the shortest is the one found by {@link #find}, and all of them are reported
+ *    when finding all.</p>
+ *
+ * @author trejkaz
+ */
+class NumericSearcher extends AbstractSearcher {
+
+    private static final int MAX_WIDTH = 8;
+
+    private final NumericValue value;
+    private final int windowSize;
+
+    NumericSearcher(NumericValue value) {
+        this(value, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param value the value to search for.
+     * @param windowSize the number of positions to check for each read from the haystack.
+     */
+    NumericSearcher(NumericValue value, int windowSize) {
+        this.value = value;
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    @Nullable
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        // Every match starts at the position it's found at, so the scan stops at the first one.
+        EarliestMatch earliest = new EarliestMatch(1, false);
+        scanForwards(haystack, fromPosition, toPosition, limitPosition, monitor, earliest, earliest);
+        return earliest.getMatch();
+    }
+
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        fromPosition = Math.max(fromPosition, 0);
+        limitPosition = Math.min(limitPosition, haystack.length());
+        toPosition = Math.min(toPosition, limitPosition);
+        if (fromPosition >= toPosition) {
+            return null;
+        }
+
+        byte[] window = new byte[(int) Math.min(windowSize, toPosition - fromPosition) + MAX_WIDTH - 1];
+        ByteBuffer littleEndian = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+        long windowEnd = toPosition;
+        while (windowEnd > fromPosition) {
+            checkCancelled(monitor);
+
+            int count = (int) Math.min(window.length - MAX_WIDTH + 1, windowEnd - fromPosition);
+            long windowPosition = windowEnd - count;
+            int readLength = (int) Math.min(window.length, limitPosition - windowPosition);
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, readLength));
+
+            for (int index = count - 1; index >= 0; index--) {
+                int widths = value.matchingWidths(littleEndian.getLong(index), readLength - index);
+                if (widths != 0) {
+                    monitor.searched(count - index);
+                    return new Match(windowPosition + index, Integer.lowestOneBit(widths));
+                }
+            }
+
+            monitor.searched(count);
+            windowEnd = windowPosition;
+        }
+        return null;
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        scanForwards(haystack, fromPosition, toPosition, limitPosition, monitor, listener::matchFound,
+                     () -> Long.MAX_VALUE);
+    }
+
+    /**
+     * Scans forwards, passing every match to the callback. Matches are passed in order of where they start,
+     * and then in order of width.
+     *
+     * @param haystack the haystack.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @param callback the callback to pass matches to.
+     * @param stopPosition supplies the position after which the scan can stop.
+     */
+    private void scanForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                              SearchMonitor monitor, HitCallback callback, StopPosition stopPosition) {
+        fromPosition = Math.max(fromPosition, 0);
+        limitPosition = Math.min(limitPosition, haystack.length());
+        toPosition = Math.min(toPosition, limitPosition);
+        if (fromPosition >= toPosition) {
+            return;
+        }
+
+        // The window has room for the bytes after the last position, so every position can read a whole long.
+        // Bytes past the end of what was read can be left over from the previous window, but they are only
+        // ever part of widths which aren't available.
+        byte[] window = new byte[(int) Math.min(windowSize, toPosition - fromPosition) + MAX_WIDTH - 1];
+        ByteBuffer littleEndian = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+        long windowPosition = fromPosition;
+        while (windowPosition < toPosition) {
+            checkCancelled(monitor);
+
+            int count = (int) Math.min(window.length - MAX_WIDTH + 1, toPosition - windowPosition);
+            int readLength = (int) Math.min(window.length, limitPosition - windowPosition);
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, readLength));
+
+            for (int index = 0; index < count; index++) {
+                int widths = value.matchingWidths(littleEndian.getLong(index), readLength - index);
+                long position = windowPosition + index;
+                if (widths != 0) {
+                    for (int width : NumericValue.WIDTHS) {
+                        if ((widths & width) != 0) {
+                            callback.hit(position, width);
+                        }
+                    }
+                    if (position >= stopPosition.get()) {
+                        monitor.searched(index + 1);
+                        return;
+                    }
+                }
+            }
+
+            monitor.searched(count);
+            windowPosition += count;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>A number to search for, without knowing how it is encoded.</p>
+ *
+ * <p>Whole numbers match 8, 16, 32 and 64-bit integers, signed or unsigned, in either byte order,
+ *    wherever the number fits. Any number also matches 32 and 64-bit floating point values within
+ *    a tolerance. The tolerance is either given after the number with &plusmn; (or {@code +-}), or
+ *    is half a unit in the last digit typed, so {@code 3.14} matches anything from 3.135 to 3.145.
+ *    Whole numbers default to matching floating point values exactly.</p>
+ *
+ * @author trejkaz
+ */
+class NumericValue implements MatchLabeller {
+
+    /**
+     * The widths which can be matched, in bytes.
+     */
+    static final int[] WIDTHS = { 1, 2, 4, 8 };
+
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    @NonNls
+    private final String text;
+
+    /**
+     * The integer to match for each width, as the unsigned value of the bytes, or {@code -1} if the number
+     * doesn't fit. Fewer than eight bytes can never have the value {@code -1}, so only the 64-bit integer
+     * needs a separate check.
+     */
+    private final long int8Target;
+    private final long int16Target;
+    private final long int32Target;
+    private final long int64Target;
+    private final boolean int64Enabled;
+    private final boolean[] integerUnsigned = new boolean[9];
+
+    /**
+     * The floating point values which match, as ranges of their bits other than the sign bit. Floating point
+     * values with the same sign are in the same order as their bits, so checking the tolerance only needs
+     * integer comparisons. Each array is the low end and size of the positive range, then of the negative
+     * range, so that the sign bit picks the range without a branch.
+     */
+    private final long[] float32Ranges;
+    private final long[] float64Ranges;
+
+    private NumericValue(String text, double value, double tolerance, @Nullable BigInteger integer) {
+        this.text = text;
+
+        long[] integerTargets = new long[9];
+        Arrays.fill(integerTargets, -1);
+        boolean int64Enabled = false;
+        if (integer != null) {
+            for (int width : WIDTHS) {
+                BigInteger signedMin = TWO.pow(width * 8 - 1).negate();
+                BigInteger signedLimit = TWO.pow(width * 8 - 1);
+                BigInteger unsignedLimit = TWO.pow(width * 8);
+                if (integer.compareTo(signedMin) >= 0 && integer.compareTo(unsignedLimit) < 0) {
+                    integerUnsigned[width] = integer.compareTo(signedLimit) >= 0;
+                    integerTargets[width] = integer.longValue() & mask(width);
+                    int64Enabled |= width == 8;
+                }
+            }
+        }
+        int8Target = integerTargets[1];
+        int16Target = integerTargets[2];
+        int32Target = integerTargets[4];
+        int64Target = integerTargets[8];
+        this.int64Enabled = int64Enabled;
+
+        float32Ranges = floatRanges(value, tolerance, true);
+        float64Ranges = floatRanges(value, tolerance, false);
+    }
+
+    /**
+     * Works out the ranges of bits for floating point values within the tolerance of the number.
+     *
+     * @param value the number.
+     * @param tolerance the tolerance.
+     * @param single {@code true} for 32-bit values, {@code false} for 64-bit values.
+     * @return the ranges.
+     */
+    private static long[] floatRanges(double value, double tolerance, boolean single) {
+        long[] ranges = { 1, 0, 1, 0 };
+        double low = value - tolerance;
+        double high = value + tolerance;
+        if (high >= 0) {
+            setRange(ranges, 0, Math.max(low, 0), high, single);
+        }
+        if (low <= 0) {
+            setRange(ranges, 2, Math.max(-high, 0), -low, single);
+        }
+
+        // The nearest 32-bit value to the number always matches, even if the tolerance is smaller than its error.
+        // It's next to any values in the range, so the range stays in one piece.
+        if (single) {
+            float nearest = (float) value;
+            if (!Float.isInfinite(nearest)) {
+                long magnitude = Float.floatToRawIntBits(Math.abs(nearest));
+                if (nearest >= 0) {
+                    includeInRange(ranges, 0, magnitude);
+                }
+                if (nearest <= 0) {
+                    includeInRange(ranges, 2, magnitude);
+                }
+            }
+        }
+
+        // Convert the high ends to sizes, offset for comparing unsigned. An empty range gets a low end which
+        // nothing can be at or above, when compared unsigned after subtracting it.
+        for (int index = 0; index < ranges.length; index += 2) {
+            if (ranges[index] > ranges[index + 1]) {
+                ranges[index] = Long.MIN_VALUE;
+                ranges[index + 1] = Long.MIN_VALUE;
+            } else {
+                ranges[index + 1] = ranges[index + 1] - ranges[index] + Long.MIN_VALUE;
+            }
+        }
+        return ranges;
+    }
+
+    private static void setRange(long[] ranges, int index, double from, double to, boolean single) {
+        if (single) {
+            float first = (float) from;
+            if (first < from) {
+                first = Math.nextUp(first);
+            }
+            float last = (float) to;
+            if (last > to) {
+                last = Math.nextDown(last);
+            }
+            last = Math.min(last, Float.MAX_VALUE);
+            if (!Float.isInfinite(first) && first <= last) {
+                ranges[index] = Float.floatToRawIntBits(first);
+                ranges[index + 1] = Float.floatToRawIntBits(last);
+            }
+        } else {
+            double last = Math.min(to, Double.MAX_VALUE);
+            if (!Double.isInfinite(from) && from <= last) {
+                ranges[index] = Double.doubleToRawLongBits(from);
+                ranges[index + 1] = Double.doubleToRawLongBits(last);
+            }
+        }
+    }
+
+    private static void includeInRange(long[] ranges, int index, long magnitude) {
+        if (ranges[index] > ranges[index + 1]) {
+            ranges[index] = magnitude;
+            ranges[index + 1] = magnitude;
+        } else {
+            ranges[index] = Math.min(ranges[index], magnitude);
+            ranges[index + 1] = Math.max(ranges[index + 1], magnitude);
+        }
+    }
+
+    /**
+     * Parses a number, which can be a whole number in decimal or in hex with {@code 0x} in front,
+     * or a decimal number, and can be followed by &plusmn; or {@code +-} and a tolerance.
+     *
+     * @param text the text to parse.
+     * @return the value.
+     * @throws NumberFormatException if the text is not a valid number.
+     */
+    static NumericValue parse(String text) {
+        String number = text.trim();
+        String toleranceText = null;
+        int toleranceIndex = number.indexOf('\u00B1');
+        int toleranceSeparatorLength = 1;
+        if (toleranceIndex < 0) {
+            toleranceIndex = number.indexOf("+-");
+            toleranceSeparatorLength = 2;
+        }
+        if (toleranceIndex >= 0) {
+            toleranceText = number.substring(toleranceIndex + toleranceSeparatorLength).trim();
+            number = number.substring(0, toleranceIndex).trim();
+        }
+
+        BigInteger integer;
+        BigDecimal decimal;
+        String unsigned = number.startsWith("-") || number.startsWith("+") ? number.substring(1) : number;
+        if (unsigned.startsWith("0x") || unsigned.startsWith("0X")) {
+            integer = new BigInteger(unsigned.substring(2), 16);
+            if (number.startsWith("-")) {
+                integer = integer.negate();
+            }
+            decimal = new BigDecimal(integer);
+        } else {
+            decimal = new BigDecimal(number);
+            try {
+                integer = decimal.toBigIntegerExact();
+            } catch (ArithmeticException e) {
+                integer = null;
+            }
+        }
+
+        double tolerance;
+        if (toleranceText != null) {
+            tolerance = new BigDecimal(toleranceText).abs().doubleValue();
+        } else if (decimal.scale() > 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+            // Half a unit in the last digit typed.
+            tolerance = BigDecimal.valueOf(5, decimal.scale() + 1).doubleValue();
+        } else {
+            tolerance = 0;
+        }
+
+        if (Double.isInfinite(decimal.doubleValue()) || Double.isInfinite(tolerance)) {
+            throw new NumberFormatException("Number is too large: " + text);
+        }
+        return new NumericValue(text.trim(), decimal.doubleValue(), tolerance, integer);
+    }
+
+    /**
+     * Works out which widths the number matches at a position.
+     *
+     * @param littleEndian the eight bytes from the position, read as a little endian long. Bytes which aren't
+     *        available can have any value.
+     * @param available the number of bytes from the position which can be part of a match.
+     * @return the widths which match, as a bit mask where each width is its own bit.
+     */
+    int matchingWidths(long littleEndian, int available) {
+        long bigEndian = Long.reverseBytes(littleEndian);
+        int widths = 0;
+        if ((littleEndian & 0xFF) == int8Target) {
+            widths |= 1;
+        }
+        if (available >= 2 && ((littleEndian & 0xFFFF) == int16Target || bigEndian >>> 48 == int16Target)) {
+            widths |= 2;
+        }
+        if (available >= 4 && (matches32(littleEndian & 0xFFFFFFFFL) || matches32(bigEndian >>> 32))) {
+            widths |= 4;
+        }
+        if (available >= 8 && (matches64(littleEndian) || matches64(bigEndian))) {
+            widths |= 8;
+        }
+        return widths;
+    }
+
+    private boolean matches32(long bits) {
+        return bits == int32Target || matchesFloat(float32Ranges, bits & 0x7FFFFFFFL, (int) (bits >>> 31) & 1);
+    }
+
+    private boolean matches64(long bits) {
+        return (int64Enabled && bits == int64Target) ||
+               matchesFloat(float64Ranges, bits & Long.MAX_VALUE, (int) (bits >>> 63));
+    }
+
+    private static boolean matchesFloat(long[] ranges, long magnitude, int sign) {
+        // The sign of random data is unpredictable, so it is used as an index rather than branched on,
+        // and the range is checked with a single unsigned comparison.
+        int index = sign << 1;
+        return magnitude - ranges[index] + Long.MIN_VALUE <= ranges[index + 1];
+    }
+
+    /**
+     * Tests whether bytes match the number as an integer.
+     *
+     * @param width the number of bytes.
+     * @param bits the bytes, as an unsigned value in whichever byte order is being tested.
+     * @return {@code true} if they match.
+     */
+    boolean matchesInteger(int width, long bits) {
+        switch (width) {
+            case 1:
+                return bits == int8Target;
+            case 2:
+                return bits == int16Target;
+            case 4:
+                return bits == int32Target;
+            case 8:
+                return int64Enabled && bits == int64Target;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Tests whether bytes match the number as a floating point value.
+     *
+     * @param width the number of bytes, which must be 4 or 8 for there to be any match.
+     * @param bits the bytes, as an unsigned value in whichever byte order is being tested.
+     * @return {@code true} if they match.
+     */
+    boolean matchesFloat(int width, long bits) {
+        if (width == 4) {
+            return matchesFloat(float32Ranges, bits & 0x7FFFFFFFL, (int) (bits >>> 31) & 1);
+        } else if (width == 8) {
+            return matchesFloat(float64Ranges, bits & Long.MAX_VALUE, (int) (bits >>> 63));
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Tests whether bytes match the number in any way.
+     *
+     * @param width the number of bytes.
+     * @param bits the bytes, as an unsigned value in whichever byte order is being tested.
+     * @return {@code true} if they match.
+     */
+    boolean matches(int width, long bits) {
+        return matchesInteger(width, bits) || matchesFloat(width, bits);
+    }
+
+    /**
+     * Gets the label of a match, listing every encoding of the number which the bytes match,
+     * such as {@code "uint32 LE"}.
+     *
+     * @param haystack the binary the match was found in.
+     * @param offset the offset of the match.
+     * @param length the length of the match.
+     * @return the label, or an empty string if the bytes don't match.
+     */
+    @Override
+    public String getLabel(Binary haystack, long offset, long length) {
+        if (!(length == 1 || length == 2 || length == 4 || length == 8) ||
+            offset < 0 || offset + length > haystack.length()) {
+            return "";
+        }
+        int width = (int) length;
+
+        byte[] bytes = new byte[8];
+        haystack.read(offset, ByteBuffer.wrap(bytes, 0, width));
+        long mask = mask(width);
+        long littleEndian = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong() & mask;
+        long bigEndian = ByteBuffer.wrap(bytes).getLong() >>> (64 - width * 8);
+
+        List<String> encodings = new ArrayList<>();
+        String integerName = (integerUnsigned[width] ? "uint" : "int") + width * 8;
+        if (width == 1) {
+            if (matchesInteger(width, littleEndian)) {
+                encodings.add(integerName);
+            }
+        } else {
+            if (matchesInteger(width, littleEndian)) {
+                encodings.add(integerName + " LE");
+            }
+            if (matchesInteger(width, bigEndian)) {
+                encodings.add(integerName + " BE");
+            }
+            if (matchesFloat(width, littleEndian)) {
+                encodings.add("float" + width * 8 + " LE");
+            }
+            if (matchesFloat(width, bigEndian)) {
+                encodings.add("float" + width * 8 + " BE");
+            }
+        }
+        return String.join(", ", encodings);
+    }
+
+    private static long mask(int width) {
+        return width == 8 ? -1L : (1L << (width * 8)) - 1;
+    }
+
+    @NonNls
+    @Override
+    public String toString() {
+        return text;
+    }
+}
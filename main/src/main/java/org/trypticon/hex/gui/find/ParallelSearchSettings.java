@@ -0,0 +1,150 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.prefs.Preferences;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>Settings for searching in parallel, kept in the user's preferences: the number of start positions
+ *    searched by a single task, and the number of tasks searched at the same time.</p>
+ *
+ * <p>A parallelism of {@code 0} means the common pool, which has a thread for each core but one.
+ *    Any other parallelism gets a pool of its own, created when a search first needs it and shared by
+ *    every search until the parallelism changes, when it is shut down.</p>
+ *
+ * @author trejkaz
+ */
+class ParallelSearchSettings {
+    @NonNls
+    private static final String SEGMENT_SIZE_KEY = "segment_size";
+    @NonNls
+    private static final String PARALLELISM_KEY = "parallelism";
+
+    /**
+     * The pool for the parallelism last used, or {@code null} if the common pool was used.
+     */
+    @Nullable
+    private static ForkJoinPool pool;
+
+    private final Preferences prefs;
+
+    /**
+     * Constructs the settings, kept in the user's preferences.
+     */
+    ParallelSearchSettings() {
+        this(Preferences.userRoot().node("org/trypticon/hex/gui/prefs/search"));
+    }
+
+    /**
+     * Constructs the settings.
+     *
+     * @param prefs the preferences node to keep the settings in.
+     */
+    ParallelSearchSettings(Preferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /**
+     * Gets the number of start positions searched by a single task.
+     *
+     * @return the segment size. If it isn't set or isn't positive, {@link ParallelSearcher#DEFAULT_SEGMENT_SIZE}.
+     */
+    long getSegmentSize() {
+        long segmentSize = prefs.getLong(SEGMENT_SIZE_KEY, ParallelSearcher.DEFAULT_SEGMENT_SIZE);
+        return segmentSize > 0 ? segmentSize : ParallelSearcher.DEFAULT_SEGMENT_SIZE;
+    }
+
+    /**
+     * Sets the number of start positions searched by a single task.
+     *
+     * @param segmentSize the segment size. Must be positive.
+     */
+    void setSegmentSize(long segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        prefs.putLong(SEGMENT_SIZE_KEY, segmentSize);
+    }
+
+    /**
+     * Gets the number of tasks searched at the same time.
+     *
+     * @return the parallelism, or {@code 0} to use the common pool.
+     */
+    int getParallelism() {
+        return Math.max(0, prefs.getInt(PARALLELISM_KEY, 0));
+    }
+
+    /**
+     * Sets the number of tasks searched at the same time.
+     *
+     * @param parallelism the parallelism, or {@code 0} to use the common pool.
+     */
+    void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism cannot be negative: " + parallelism);
+        }
+        prefs.putInt(PARALLELISM_KEY, parallelism);
+        shutDownOtherPool(parallelism);
+    }
+
+    /**
+     * Creates a searcher which searches in parallel as these settings say.
+     *
+     * @param delegate the searcher to use for each segment. Must be safe to call from multiple threads.
+     * @return the parallel searcher.
+     */
+    ParallelSearcher createSearcher(AbstractSearcher delegate) {
+        return new ParallelSearcher(delegate, getSegmentSize(), getPool(getParallelism()));
+    }
+
+    /**
+     * Gets the pool for a parallelism, creating it if it doesn't exist yet.
+     *
+     * @param parallelism the parallelism, or {@code 0} for the common pool.
+     * @return the pool.
+     */
+    static synchronized ForkJoinPool getPool(int parallelism) {
+        shutDownOtherPool(parallelism);
+        if (parallelism == 0) {
+            return ForkJoinPool.commonPool();
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Shuts down the pool if it isn't the one for a parallelism.
+     *
+     * @param parallelism the parallelism, or {@code 0} for the common pool.
+     */
+    private static synchronized void shutDownOtherPool(int parallelism) {
+        if (pool != null && pool.getParallelism() != parallelism) {
+            // Searches still running on the old pool search the rest of their segments themselves.
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
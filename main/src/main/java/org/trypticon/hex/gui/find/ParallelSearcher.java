@@ -0,0 +1,270 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Searcher which splits the range being searched into segments and searches them in parallel
+ *    using another searcher.</p>
+ *
+ * <p>Each segment covers a range of start positions, but the delegate is allowed to read past the end
+ *    of the segment up to the limit, so matches straddling two segments are still found. Segments are
+ *    searched in waves of as many segments as the pool has threads, nearest first, so the result is
+ *    the same as searching the whole range sequentially. Once a segment has found a match, the segments
+ *    further away in the same wave are told to stop through their monitors.</p>
+ *
+ * @author trejkaz
+ */
+class ParallelSearcher extends AbstractSearcher {
+
+    /**
+     * Default number of start positions searched by a single task.
+     */
+    static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final AbstractSearcher delegate;
+    private final long segmentSize;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param delegate the searcher to use for each segment. Must be safe to call from multiple threads.
+     * @param segmentSize the number of start positions searched by a single task.
+     * @param pool the pool to run the tasks on. The number of segments searched at the same time
+     *        is the parallelism of the pool. The searcher doesn't shut the pool down, so the caller
+     *        remains responsible for it. If the pool is shut down while searching, the segments left
+     *        are searched on the calling thread.
+     */
+    ParallelSearcher(AbstractSearcher delegate, long segmentSize, ForkJoinPool pool) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+
+        this.delegate = delegate;
+        this.segmentSize = segmentSize;
+        this.pool = pool;
+    }
+
+    @Nullable
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        if (toPosition - fromPosition <= segmentSize) {
+            return delegate.findForwards(haystack, fromPosition, toPosition, limitPosition, monitor);
+        }
+
+        int parallelism = pool.getParallelism();
+        long segmentStart = fromPosition;
+        while (segmentStart < toPosition) {
+            checkCancelled(monitor);
+
+            AtomicInteger firstHit = new AtomicInteger(Integer.MAX_VALUE);
+            List<ForkJoinTask<Match>> wave = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism && segmentStart < toPosition; i++) {
+                long start = segmentStart;
+                long end = Math.min(toPosition, start + segmentSize);
+                int segment = i;
+                SearchMonitor segmentMonitor = new SegmentMonitor(monitor, firstHit, segment);
+                wave.add(submit(() -> recordHit(firstHit, segment, delegate.findForwards(
+                    haystack, start, end, limitPosition, segmentMonitor))));
+                segmentStart = end;
+            }
+
+            Match found = firstResult(wave);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        if (toPosition - fromPosition <= segmentSize) {
+            return delegate.findBackwards(haystack, fromPosition, toPosition, limitPosition, monitor);
+        }
+
+        int parallelism = pool.getParallelism();
+        long segmentEnd = toPosition;
+        while (segmentEnd > fromPosition) {
+            checkCancelled(monitor);
+
+            AtomicInteger firstHit = new AtomicInteger(Integer.MAX_VALUE);
+            List<ForkJoinTask<Match>> wave = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism && segmentEnd > fromPosition; i++) {
+                long end = segmentEnd;
+                long start = Math.max(fromPosition, end - segmentSize);
+                int segment = i;
+                SearchMonitor segmentMonitor = new SegmentMonitor(monitor, firstHit, segment);
+                wave.add(submit(() -> recordHit(firstHit, segment, delegate.findBackwards(
+                    haystack, start, end, limitPosition, segmentMonitor))));
+                segmentEnd = start;
+            }
+
+            Match found = firstResult(wave);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        if (toPosition - fromPosition <= segmentSize) {
+            delegate.findAll(haystack, fromPosition, toPosition, limitPosition, monitor, listener);
+            return;
+        }
+
+        // Each task collects its own matches, which are passed on in segment order once the task is done,
+        // so the listener still sees them in order of offset. No task collects more than the listener takes.
+        int matchLimit = listener.getMatchLimit();
+        int parallelism = pool.getParallelism();
+        long segmentStart = fromPosition;
+        while (segmentStart < toPosition) {
+            checkCancelled(monitor);
+
+            List<ForkJoinTask<MatchList>> wave = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism && segmentStart < toPosition; i++) {
+                long start = segmentStart;
+                long end = Math.min(toPosition, start + segmentSize);
+                wave.add(submit(() -> {
+                    MatchList matches = new MatchList(matchLimit);
+                    delegate.findAll(haystack, start, end, limitPosition, monitor, matches);
+                    return matches;
+                }));
+                segmentStart = end;
+            }
+
+            try {
+                for (ForkJoinTask<MatchList> task : wave) {
+                    MatchList matches = task.join();
+                    for (int i = 0; i < matches.size(); i++) {
+                        listener.matchFound(matches.getOffset(i), matches.getLength(i));
+                    }
+                }
+            } catch (RuntimeException e) {
+                wave.forEach(task -> task.cancel(false));
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Submits a task to the pool, or runs it straight away on this thread if the pool has been shut down.
+     *
+     * @param task the task.
+     * @param <T> the type of the result.
+     * @return the task, which can be joined to get its result.
+     */
+    private <T> ForkJoinTask<T> submit(Callable<T> task) {
+        ForkJoinTask<T> forkJoinTask = ForkJoinTask.adapt(task);
+        try {
+            pool.execute(forkJoinTask);
+        } catch (RejectedExecutionException e) {
+            // Failures are kept for when the task is joined, as they would be if it had run in the pool.
+            forkJoinTask.quietlyInvoke();
+        }
+        return forkJoinTask;
+    }
+
+    /**
+     * Records that a segment found a match, so that the segments further away can stop.
+     *
+     * @param firstHit the nearest segment in the wave which has found a match.
+     * @param segment the segment.
+     * @param found the match the segment found, or {@code null} if it didn't find one.
+     * @return the match.
+     */
+    @Nullable
+    private static Match recordHit(AtomicInteger firstHit, int segment, @Nullable Match found) {
+        if (found != null) {
+            firstHit.accumulateAndGet(segment, Math::min);
+        }
+        return found;
+    }
+
+    /**
+     * Waits for the tasks in a wave and returns the result of the first one which found anything.
+     * Since the tasks are in order of distance from the start, that is the nearest match.
+     * Tasks after the first hit, or after a task which failed, are cancelled if they haven't started yet,
+     * and the ones already running stop when they next check their monitor.
+     *
+     * @param wave the tasks for the wave.
+     * @return the first result found, or {@code null} if no task found anything.
+     */
+    @Nullable
+    private Match firstResult(List<ForkJoinTask<Match>> wave) {
+        Match found = null;
+        try {
+            for (ForkJoinTask<Match> task : wave) {
+                if (found != null) {
+                    task.cancel(false);
+                } else {
+                    found = task.join();
+                }
+            }
+        } catch (RuntimeException e) {
+            wave.forEach(task -> task.cancel(false));
+            throw e;
+        }
+        return found;
+    }
+
+    /**
+     * Monitor for one segment of a wave, which stops the segment once a segment nearer the start has found
+     * a match, since a match in this one could no longer be the nearest.
+     */
+    private static class SegmentMonitor implements SearchMonitor {
+        private final SearchMonitor monitor;
+        private final AtomicInteger firstHit;
+        private final int segment;
+
+        private SegmentMonitor(SearchMonitor monitor, AtomicInteger firstHit, int segment) {
+            this.monitor = monitor;
+            this.firstHit = firstHit;
+            this.segment = segment;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return firstHit.get() < segment || monitor.isCancelled();
+        }
+
+        @Override
+        public void searched(long byteCount) {
+            monitor.searched(byteCount);
+        }
+    }
+}
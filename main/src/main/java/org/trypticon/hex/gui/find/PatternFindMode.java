@@ -0,0 +1,81 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.JTextField;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.swingsupport.PLAFUtils;
+
+/**
+ * Find mode for searching for a {@link BytePattern}.
+ *
+ * @author trejkaz
+ */
+class PatternFindMode extends FindMode {
+    private final JTextField patternTextField;
+
+    /**
+     * Constructs the mode.
+     *
+     * @param parallelSearchSettings the settings for searching in parallel.
+     * @param errorListener called with a message when the query isn't valid.
+     */
+    PatternFindMode(ParallelSearchSettings parallelSearchSettings, Consumer<String> errorListener) {
+        super(Resources.getString("FindBar.pattern"), Resources.getString("FindBar.patternToolTip"),
+              parallelSearchSettings, errorListener);
+
+        patternTextField = new JTextField("", 8);
+        patternTextField.setToolTipText(getToolTip());
+
+        PLAFUtils.makeSmall(patternTextField);
+    }
+
+    @Override
+    JTextField getQueryField() {
+        return patternTextField;
+    }
+
+    @Nullable
+    @Override
+    Searcher createSearcher() {
+        String pattern = patternTextField.getText();
+        if (pattern.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return parallelSearchSettings.createSearcher(new PatternSearcher(BytePattern.compile(pattern)));
+        } catch (PatternSyntaxException e) {
+            if (e.getIndex() >= 0) {
+                patternTextField.setCaretPosition(Math.min(e.getIndex(), pattern.length()));
+            }
+            queryInvalid(Resources.getString("FindBar.invalidPattern", e.getDescription()), patternTextField);
+            return null;
+        }
+    }
+
+    @Override
+    String getQuery() {
+        return "pattern:" + patternTextField.getText();
+    }
+}
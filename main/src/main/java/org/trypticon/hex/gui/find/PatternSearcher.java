@@ -0,0 +1,227 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Searcher which searches for a {@link BytePattern}.</p>
+ *
+ * <p>The haystack is read once, through a deterministic automaton which finds where matches end.
+ *    Where a match was found, a second automaton reads back over at most the pattern's maximum length
+ *    to find where it starts, so there is never any backtracking over the haystack itself.</p>
+ *
+ * <p>Where more than one match starts at the same position, the longest one is used.</p>
+ *
+ * @author trejkaz
+ */
+class PatternSearcher extends AbstractSearcher {
+
+    private final BytePattern pattern;
+    private final int windowSize;
+
+    PatternSearcher(BytePattern pattern) {
+        this(pattern, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param pattern the pattern to search for.
+     * @param windowSize the number of bytes to read from the haystack in one go.
+     */
+    PatternSearcher(BytePattern pattern, int windowSize) {
+        this.pattern = pattern;
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    @Nullable
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        EarliestMatch earliest = new EarliestMatch(pattern.getMaxLength(), true);
+        scanForwards(haystack, fromPosition, toPosition, limitPosition, monitor, earliest, earliest);
+        return earliest.getMatch();
+    }
+
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        fromPosition = Math.max(fromPosition, 0);
+        limitPosition = Math.min(limitPosition, haystack.length());
+        long scanEnd = Math.min(limitPosition, toPosition + pattern.getMaxLength() - 1);
+        if (fromPosition >= Math.min(toPosition, scanEnd)) {
+            return null;
+        }
+
+        // Reading backwards finds where matches start, latest first.
+        BytePattern.Automaton automaton = pattern.getBackwardSearch();
+        byte[] window = new byte[(int) Math.min(windowSize, scanEnd - fromPosition)];
+        int state = BytePattern.Automaton.START;
+        long windowEnd = scanEnd;
+        while (windowEnd > fromPosition) {
+            checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, windowEnd - fromPosition);
+            long windowPosition = windowEnd - windowLength;
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, windowLength));
+
+            for (int index = windowLength - 1; index >= 0; index--) {
+                state = automaton.next(state, window[index]);
+                long position = windowPosition + index;
+                if (position < toPosition && automaton.isAccepting(state)) {
+                    monitor.searched(windowEnd - position);
+                    return new Match(position, longestMatchAt(haystack, position, limitPosition));
+                }
+            }
+
+            monitor.searched(windowLength);
+            windowEnd = windowPosition;
+        }
+        return null;
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        // Matches are found in order of where they end. Each start position keeps its longest match, and is
+        // reported once nothing found later could start before it.
+        int maxLength = pattern.getMaxLength();
+        long[] pendingLengths = new long[maxLength];
+        long[] flushedTo = { Math.max(fromPosition, 0) };
+        scanForwards(haystack, fromPosition, toPosition, limitPosition, monitor, (start, length) -> {
+            long flushTo = start + length - maxLength;
+            for (long stop = Math.min(flushTo, flushedTo[0] + maxLength); flushedTo[0] < stop; flushedTo[0]++) {
+                flushPending(pendingLengths, flushedTo[0], listener);
+            }
+            flushedTo[0] = Math.max(flushedTo[0], flushTo);
+            pendingLengths[(int) (start % maxLength)] = length;
+        }, () -> Long.MAX_VALUE);
+        for (long end = flushedTo[0] + maxLength; flushedTo[0] < end; flushedTo[0]++) {
+            flushPending(pendingLengths, flushedTo[0], listener);
+        }
+    }
+
+    private void flushPending(long[] pendingLengths, long start, MatchListener listener) {
+        int slot = (int) (start % pendingLengths.length);
+        if (pendingLengths[slot] > 0) {
+            listener.matchFound(start, pendingLengths[slot]);
+            pendingLengths[slot] = 0;
+        }
+    }
+
+    /**
+     * Scans forwards, passing every match to the callback. Matches are passed in order of where they end,
+     * and every start position for each end is passed.
+     *
+     * @param haystack the haystack.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @param callback the callback to pass matches to.
+     * @param stopPosition supplies the position after which the scan can stop.
+     */
+    private void scanForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                              SearchMonitor monitor, HitCallback callback, StopPosition stopPosition) {
+        fromPosition = Math.max(fromPosition, 0);
+        limitPosition = Math.min(limitPosition, haystack.length());
+        int maxLength = pattern.getMaxLength();
+        long scanEnd = Math.min(limitPosition, toPosition + maxLength - 1);
+        if (fromPosition >= Math.min(toPosition, scanEnd)) {
+            return;
+        }
+
+        BytePattern.Automaton automaton = pattern.getForwardSearch();
+        BytePattern.Automaton backwardAnchored = pattern.getBackwardAnchored();
+
+        // The window keeps the previous bytes which a match ending in it could start at.
+        int keep = maxLength - 1;
+        byte[] window = new byte[keep + (int) Math.min(windowSize, scanEnd - fromPosition)];
+        int kept = 0;
+        int state = BytePattern.Automaton.START;
+        long readPosition = fromPosition;
+        while (readPosition < scanEnd) {
+            checkCancelled(monitor);
+
+            int readLength = (int) Math.min(window.length - kept, scanEnd - readPosition);
+            haystack.read(readPosition, ByteBuffer.wrap(window, kept, readLength));
+            long windowPosition = readPosition - kept;
+            int windowLength = kept + readLength;
+
+            for (int index = kept; index < windowLength; index++) {
+                state = automaton.next(state, window[index]);
+                if (automaton.isAccepting(state)) {
+                    // Read back from the end to find every start of a match ending here.
+                    long end = windowPosition + index;
+                    int backState = BytePattern.Automaton.START;
+                    int lowest = (int) Math.max(0, Math.max(fromPosition - windowPosition, index - maxLength + 1));
+                    for (int back = index; back >= lowest; back--) {
+                        backState = backwardAnchored.next(backState, window[back]);
+                        if (backState == BytePattern.Automaton.DEAD) {
+                            break;
+                        }
+                        long start = windowPosition + back;
+                        if (start < toPosition && backwardAnchored.isAccepting(backState)) {
+                            callback.hit(start, end - start + 1);
+                        }
+                    }
+                }
+                if (windowPosition + index >= stopPosition.get()) {
+                    monitor.searched(index - kept + 1);
+                    return;
+                }
+            }
+
+            monitor.searched(readLength);
+            readPosition += readLength;
+
+            kept = Math.min(keep, windowLength);
+            System.arraycopy(window, windowLength - kept, window, 0, kept);
+        }
+    }
+
+    /**
+     * Finds the length of the longest match starting at a position.
+     *
+     * @param haystack the haystack.
+     * @param start the position of the start of the match, which is known to exist.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @return the length of the longest match.
+     */
+    private long longestMatchAt(Binary haystack, long start, long limitPosition) {
+        BytePattern.Automaton automaton = pattern.getForwardAnchored();
+        byte[] bytes = new byte[(int) Math.min(pattern.getMaxLength(), limitPosition - start)];
+        haystack.read(start, ByteBuffer.wrap(bytes));
+        int state = BytePattern.Automaton.START;
+        long longest = 0;
+        for (int index = 0; index < bytes.length && state != BytePattern.Automaton.DEAD; index++) {
+            state = automaton.next(state, bytes[index]);
+            if (automaton.isAccepting(state)) {
+                longest = index + 1;
+            }
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.function.IntFunction;
+import javax.swing.AbstractListModel;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.gui.Resources;
+
+/**
+ * List model over the results of finding all, formatting them on demand so that there is no object per match.
+ *
+ * @author trejkaz
+ */
+class ResultsListModel extends AbstractListModel<String> {
+    private MatchList results = new MatchList();
+
+    /**
+     * Labels the results, if they came from a search which can match more than one kind of thing.
+     */
+    @Nullable
+    private MatchLabeller labeller;
+    @Nullable
+    private Binary labellerBinary;
+
+    /**
+     * Labels each row, for results whose labels can't be worked out again from the bytes.
+     * Takes the place of the labeller if set.
+     */
+    @Nullable
+    private IntFunction<String> rowLabeller;
+
+    /**
+     * The order to list the results in, if it isn't the order of their offsets. Element {@code n} is the index
+     * of the result to list in row {@code n}.
+     */
+    @Nullable
+    private int[] ranking;
+
+    @Override
+    public int getSize() {
+        return results.size();
+    }
+
+    @Override
+    public String getElementAt(int row) {
+        int index = getResultIndex(row);
+        long offset = results.getOffset(index);
+        long length = results.getLength(index);
+        if (rowLabeller != null) {
+            return Resources.getString("FindBar.labelledResult", formatResult(offset, length),
+                                       rowLabeller.apply(row));
+        }
+        if (labeller != null && labellerBinary != null) {
+            return Resources.getString("FindBar.labelledResult", formatResult(offset, length),
+                                       labeller.getLabel(labellerBinary, offset, length));
+        }
+        return formatResult(offset, length);
+    }
+
+    /**
+     * Sets the results to list, forgetting any labeller and ranking for the old ones.
+     *
+     * @param results the results. Matches added to them later must be reported through {@link #resultsAdded}.
+     */
+    void setResults(MatchList results) {
+        int oldSize = this.results.size();
+        this.results = results;
+        labeller = null;
+        labellerBinary = null;
+        rowLabeller = null;
+        ranking = null;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        resultsAdded(0, results.size());
+    }
+
+    /**
+     * Sets the labeller for the results.
+     *
+     * @param labeller the labeller, or {@code null} if the results don't need labelling.
+     * @param binary the binary the results were found in.
+     */
+    void setLabeller(@Nullable MatchLabeller labeller, @Nullable Binary binary) {
+        this.labeller = labeller;
+        this.labellerBinary = binary;
+    }
+
+    /**
+     * Sets the labels for the rows, for results which can't be labelled from their bytes.
+     *
+     * @param rowLabeller gets the label for a row, or {@code null} to use the labeller.
+     */
+    void setRowLabeller(@Nullable IntFunction<String> rowLabeller) {
+        this.rowLabeller = rowLabeller;
+    }
+
+    /**
+     * Sets the order to list the results in.
+     *
+     * @param ranking the index of the result to list in each row, or {@code null} to list them in order of offset.
+     */
+    void setRanking(@Nullable int[] ranking) {
+        this.ranking = ranking;
+    }
+
+    /**
+     * Gets the result listed in a row.
+     *
+     * @param row the row.
+     * @return the index of the result.
+     */
+    int getResultIndex(int row) {
+        return ranking == null ? row : ranking[row];
+    }
+
+    /**
+     * Gets the row a result is listed in.
+     *
+     * @param index the index of the result.
+     * @return the row.
+     */
+    int getRow(int index) {
+        if (ranking != null) {
+            for (int row = 0; row < ranking.length; row++) {
+                if (ranking[row] == index) {
+                    return row;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Called after results have been added to the end of the list.
+     *
+     * @param fromIndex the index of the first result added.
+     * @param toIndex the size of the list after adding them.
+     */
+    void resultsAdded(int fromIndex, int toIndex) {
+        if (toIndex > fromIndex) {
+            fireIntervalAdded(this, fromIndex, toIndex - 1);
+        }
+    }
+
+    /**
+     * Formats a result for the list.
+     *
+     * @param offset the offset of the match.
+     * @param length the length of the match.
+     * @return the formatted result.
+     */
+    static String formatResult(long offset, long length) {
+        return Resources.getString("FindBar.result", String.format("%08X", offset), length);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Scans over runs of repeated bytes, for skipping padding.</p>
+ *
+ * <p>Bytes are compared eight at a time by reading them as longs, so that skipping a long run of padding
+ *    costs little more than reading it. The longs are read little endian so that the first byte in the binary
+ *    is the lowest byte of the long, and the first byte which stands out can be found from the trailing zeroes.</p>
+ *
+ * @author trejkaz
+ */
+class RunScanner {
+    /**
+     * Default number of bytes read from the binary in one go.
+     */
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Length of the shortest run of {@code 00} and {@code FF} bytes which counts as padding. Shorter runs are
+     * taken to be part of the data, as ordinary data is full of stray zeroes.
+     */
+    static final int MIN_PADDING_LENGTH = 8;
+
+    private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long ONES = 0x0101010101010101L;
+
+    private final int windowSize;
+
+    RunScanner() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs the scanner.
+     *
+     * @param windowSize the number of bytes to read from the binary in one go. Rounded up to a multiple of 8.
+     */
+    RunScanner(int windowSize) {
+        this.windowSize = (Math.max(1, windowSize) + 7) & ~7;
+    }
+
+    /**
+     * Finds the end of the run of bytes the same as the byte at the given position.
+     *
+     * @param binary the binary.
+     * @param position the position of a byte in the run.
+     * @return the position of the first byte after the position which is different, or the length of the binary
+     *         if the run carries on to the end.
+     */
+    long findEndOfRun(Binary binary, long position) {
+        long length = binary.length();
+        if (position < 0 || position >= length) {
+            return length;
+        }
+        long pattern = (binary.read(position) & 0xFFL) * ONES;
+        return scan(binary, position + 1, Target.DIFFERENT, pattern);
+    }
+
+    /**
+     * <p>Finds the start of the next data after padding, where padding is any run of at least
+     *    {@link #MIN_PADDING_LENGTH} {@code 00} and {@code FF} bytes. If the position is within padding, this is
+     *    the end of that padding, otherwise it is the end of the next padding after the position.</p>
+     *
+     * @param binary the binary.
+     * @param position the position to start from.
+     * @return the position of the first byte of data after the padding, or the length of the binary if there is
+     *         no more data.
+     */
+    long findNextData(Binary binary, long position) {
+        long length = binary.length();
+        if (position < 0 || position >= length) {
+            return length;
+        }
+        // If the position is in padding, start far enough back that the whole run is counted if it is long enough.
+        long start = position;
+        if (isPadding(binary.read(position))) {
+            start = Math.max(0, position - (MIN_PADDING_LENGTH - 1));
+        }
+        long padding = scan(binary, start, Target.PADDING, 0);
+        return padding >= length ? length : scan(binary, padding + MIN_PADDING_LENGTH, Target.DATA, 0);
+    }
+
+    /**
+     * Scans forwards.
+     *
+     * @param binary the binary.
+     * @param position the position to start from.
+     * @param target what to look for.
+     * @param pattern the byte to skip when looking for a different byte, repeated across the long.
+     * @return the position of the first byte found, or the length of the binary if there is none. When looking
+     *         for padding, this is the position of the first byte of the run.
+     */
+    private long scan(Binary binary, long position, Target target, long pattern) {
+        long length = binary.length();
+        long runStart = -1;
+        byte[] window = new byte[(int) Math.min(windowSize, (length - position + 7) & ~7)];
+        ByteBuffer words = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+        while (position < length) {
+            int windowLength = (int) Math.min(window.length, length - position);
+            binary.read(position, ByteBuffer.wrap(window, 0, windowLength));
+            // Fill out the last word with bytes which will never be found.
+            byte filler = target == Target.PADDING ? 0x01 : (byte) pattern;
+            for (int i = windowLength; i < window.length && (i & 7) != 0; i++) {
+                window[i] = filler;
+            }
+
+            for (int i = 0; i < windowLength; i += 8) {
+                long word = words.getLong(i);
+                long found;
+                if (target == Target.DIFFERENT) {
+                    found = word ^ pattern;
+                } else {
+                    // A byte is padding if all its bits are the same, so comparing each bit with the one above
+                    // finds no differences. Adding 7F to the differences carries into the top bit unless there
+                    // are none, and can never carry into the next byte.
+                    long changed = ((word ^ (word >>> 1)) & LOW_7_BITS) + LOW_7_BITS;
+                    found = target == Target.PADDING ? ~changed & HIGH_BITS : changed & HIGH_BITS;
+                }
+                if (target == Target.PADDING) {
+                    // Padding only counts once the run is long enough, so track where the current run started.
+                    // Words which are all padding or all data are common and don't need looking at byte by byte.
+                    if (found == 0) {
+                        runStart = -1;
+                        continue;
+                    }
+                    if (found == HIGH_BITS) {
+                        if (runStart < 0) {
+                            runStart = position + i;
+                        }
+                        if (position + i + 8 - runStart >= MIN_PADDING_LENGTH) {
+                            return runStart;
+                        }
+                        continue;
+                    }
+                    for (int b = 0; b < 8; b++) {
+                        if ((found & (0x80L << (b << 3))) == 0) {
+                            runStart = -1;
+                        } else {
+                            if (runStart < 0) {
+                                runStart = position + i + b;
+                            }
+                            if (position + i + b + 1 - runStart >= MIN_PADDING_LENGTH) {
+                                return runStart;
+                            }
+                        }
+                    }
+                } else if (found != 0) {
+                    return position + i + (Long.numberOfTrailingZeros(found) >>> 3);
+                }
+            }
+            position += windowLength;
+        }
+        return length;
+    }
+
+    private static boolean isPadding(byte value) {
+        return value == 0 || value == (byte) 0xFF;
+    }
+
+    private enum Target {
+        /**
+         * The first byte different from the pattern.
+         */
+        DIFFERENT,
+
+        /**
+         * The first byte of a run of padding at least {@link #MIN_PADDING_LENGTH} long.
+         */
+        PADDING,
+
+        /**
+         * The first byte which is not padding.
+         */
+        DATA
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.function.Consumer;
+import javax.swing.JComboBox;
+import javax.swing.UIManager;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.HexViewerSelectionModel;
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.AnnotationCollection;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.Format;
+import org.trypticon.hex.util.swingsupport.LocalisableComboBox;
+import org.trypticon.hex.util.swingsupport.PLAFUtils;
+
+/**
+ * Lets the user choose which parts of the binary the find bar searches.
+ *
+ * @author trejkaz
+ */
+class ScopeChooser {
+    private final JComboBox<ScopeType> scopeComboBox;
+    private final Consumer<String> errorListener;
+
+    @Nullable
+    private AnnotationCollection annotations;
+    @Nullable
+    private Annotation selectedAnnotation;
+
+    /**
+     * The selection being searched within, which is kept while the selection is only moving
+     * from one match to the next.
+     */
+    @Nullable
+    private SearchScope selectionScope;
+
+    /**
+     * Constructs the chooser.
+     *
+     * @param errorListener called with a message when the chosen scope can't be searched.
+     */
+    ScopeChooser(Consumer<String> errorListener) {
+        this.errorListener = errorListener;
+
+        scopeComboBox = new LocalisableComboBox<>(Format.LONG, ScopeType.values());
+        PLAFUtils.makeSmall(scopeComboBox);
+    }
+
+    /**
+     * Gets the combo box the scope is chosen with.
+     *
+     * @return the combo box.
+     */
+    JComboBox<ScopeType> getComboBox() {
+        return scopeComboBox;
+    }
+
+    /**
+     * Gets the type of scope chosen.
+     *
+     * @return the type of scope.
+     */
+    ScopeType getScopeType() {
+        return (ScopeType) scopeComboBox.getSelectedItem();
+    }
+
+    /**
+     * Sets the annotations, used to find the parts of the binary which are not annotated.
+     *
+     * @param annotations the annotations, or {@code null} if there are none.
+     */
+    void setAnnotations(@Nullable AnnotationCollection annotations) {
+        this.annotations = annotations;
+    }
+
+    /**
+     * Sets the annotation selected in the annotation tree, which can be searched within.
+     *
+     * @param selectedAnnotation the selected annotation, or {@code null} if there isn't one.
+     */
+    void setSelectedAnnotation(@Nullable Annotation selectedAnnotation) {
+        this.selectedAnnotation = selectedAnnotation;
+    }
+
+    /**
+     * Gets the parts of the binary to search, for the scope chosen by the user.
+     *
+     * @param selectionModel the selection in the viewer.
+     * @param lastSelectedMatch the match the find bar selected last, or {@code null} if there isn't one.
+     * @return the scope, or {@code null} if the scope can't be searched right now.
+     */
+    @Nullable
+    SearchScope getScope(HexViewerSelectionModel selectionModel, @Nullable Match lastSelectedMatch) {
+        switch (getScopeType()) {
+            case SELECTION: {
+                // Finding a match selects it, so the selection is only taken as the new scope if it isn't
+                // the match we selected last.
+                long start = selectionModel.getSelectionStart();
+                long end = selectionModel.getSelectionEnd() + 1;
+                if (selectionScope == null || !new Match(start, end - start).equals(lastSelectedMatch)) {
+                    selectionScope = SearchScope.range(start, end);
+                }
+                return selectionScope;
+            }
+            case ANNOTATION: {
+                if (selectedAnnotation == null) {
+                    errorListener.accept(Resources.getString("FindBar.noAnnotationSelected"));
+                    UIManager.getLookAndFeel().provideErrorFeedback(scopeComboBox);
+                    return null;
+                }
+                long start = selectedAnnotation.getPosition();
+                return SearchScope.range(start, start + selectedAnnotation.getLength());
+            }
+            case UNANNOTATED:
+                if (annotations == null) {
+                    return SearchScope.EVERYWHERE;
+                }
+                return SearchScope.gaps(annotations.getRootGroup());
+            default:
+                return SearchScope.EVERYWHERE;
+        }
+    }
+}
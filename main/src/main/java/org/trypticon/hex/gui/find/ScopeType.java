@@ -0,0 +1,53 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Locale;
+
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.Format;
+import org.trypticon.hex.util.Localisable;
+
+/**
+ * The parts of the binary which can be searched.
+ *
+ * @author trejkaz
+ */
+enum ScopeType implements Localisable {
+    EVERYWHERE("FindBar.everywhere"),
+    SELECTION("FindBar.inSelection"),
+    ANNOTATION("FindBar.inAnnotation"),
+    UNANNOTATED("FindBar.unannotated");
+
+    private final String stringKey;
+
+    private ScopeType(String stringKey) {
+        this.stringKey = stringKey;
+    }
+
+    @Override
+    public String toLocalisedString(Format style) {
+        return toLocalisedString(style, Locale.getDefault(Locale.Category.DISPLAY));
+    }
+
+    @Override
+    public String toLocalisedString(Format style, Locale locale) {
+        return Resources.getString(stringKey);
+    }
+}
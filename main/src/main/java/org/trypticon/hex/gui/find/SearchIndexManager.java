@@ -0,0 +1,245 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import javax.swing.SwingWorker;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.util.LoggerUtils;
+
+/**
+ * Keeps track of the search index for the binary being viewed, opening it when the binary is shown,
+ * building it in the background when asked, and rebuilding it if it turns out to be out of date.
+ *
+ * @author trejkaz
+ */
+class SearchIndexManager {
+    private final Runnable stateListener;
+
+    @Nullable
+    private Path indexFile;
+    @Nullable
+    private Binary binary;
+    private long binaryModified;
+
+    @Nullable
+    private TrigramIndex index;
+    @Nullable
+    private IndexWorker worker;
+
+    /**
+     * Constructs the manager.
+     *
+     * @param stateListener called on the event dispatch thread whenever the index becomes available or unavailable,
+     *        or starts or stops building.
+     */
+    SearchIndexManager(Runnable stateListener) {
+        this.stateListener = stateListener;
+    }
+
+    /**
+     * Sets where the index for the binary lives. If there is already an index there, it is opened in the
+     * background, and rebuilt if the binary has changed since it was built.
+     *
+     * @param indexFile the index file, or {@code null} if the binary can't have an index.
+     * @param binary the binary.
+     * @param binaryModified the modification time of the binary, or {@code 0} if it is unknown.
+     */
+    void setLocation(@Nullable Path indexFile, Binary binary, long binaryModified) {
+        if (worker != null) {
+            worker.cancel(false);
+            worker = null;
+        }
+        index = null;
+        this.indexFile = indexFile;
+        this.binary = binary;
+        this.binaryModified = binaryModified;
+
+        if (indexFile != null && Files.isRegularFile(indexFile)) {
+            startWorker(new IndexWorker(indexFile, binary, binaryModified, false));
+        } else {
+            stateListener.run();
+        }
+    }
+
+    /**
+     * Tests whether an index can be built, which needs somewhere to put it.
+     *
+     * @return {@code true} if an index can be built.
+     */
+    boolean canBuild() {
+        return indexFile != null;
+    }
+
+    /**
+     * Estimates the size of the index file which would be built, so the user can be told before building it.
+     * Estimating it reads samples of the binary, so it is done in the background.
+     *
+     * @param callback called on the event dispatch thread with the size of the index file, in bytes.
+     */
+    void estimateSize(LongConsumer callback) {
+        Binary binary = this.binary;
+        if (binary == null) {
+            throw new IllegalStateException("No binary to build an index for");
+        }
+        new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() {
+                return TrigramIndex.estimateSize(binary, TrigramIndex.DEFAULT_BLOCK_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    callback.accept(get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    LoggerUtils.get().log(Level.WARNING, "Error estimating search index size", e.getCause());
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Builds the index in the background, replacing any existing one.
+     */
+    void build() {
+        if (indexFile == null || binary == null) {
+            throw new IllegalStateException("Nowhere to build an index");
+        }
+        if (worker != null) {
+            worker.cancel(false);
+        }
+        index = null;
+        startWorker(new IndexWorker(indexFile, binary, binaryModified, true));
+    }
+
+    /**
+     * Tests whether the index is currently being built.
+     *
+     * @return {@code true} if the index is being built.
+     */
+    boolean isBuilding() {
+        return worker != null && worker.building;
+    }
+
+    /**
+     * Tests whether an index is ready to use.
+     *
+     * @return {@code true} if there is an index.
+     */
+    boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Wraps a searcher so that it only searches the places the index says a needle might be.
+     *
+     * @param searcher the searcher for the needle.
+     * @param needle the needle.
+     * @param haystack the binary which will be searched.
+     * @return the wrapped searcher, or the original searcher if there is no index for the binary.
+     *         The index isn't read until the wrapped searcher is used.
+     */
+    AbstractSearcher wrap(AbstractSearcher searcher, byte[] needle, Binary haystack) {
+        if (index == null || haystack != binary) {
+            return searcher;
+        }
+        return new IndexedSearcher(searcher, index, needle);
+    }
+
+    private void startWorker(IndexWorker worker) {
+        this.worker = worker;
+        worker.execute();
+        stateListener.run();
+    }
+
+    /**
+     * Opens or builds the index in the background.
+     */
+    private class IndexWorker extends SwingWorker<TrigramIndex, Void> implements SearchMonitor {
+        private final Path indexFile;
+        private final Binary binary;
+        private final long binaryModified;
+        private volatile boolean building;
+
+        private IndexWorker(Path indexFile, Binary binary, long binaryModified, boolean building) {
+            this.indexFile = indexFile;
+            this.binary = binary;
+            this.binaryModified = binaryModified;
+            this.building = building;
+
+            addPropertyChangeListener(event -> {
+                if ("building".equals(event.getPropertyName()) && worker == this) {
+                    stateListener.run();
+                }
+            });
+        }
+
+        @Override
+        protected TrigramIndex doInBackground() throws IOException {
+            if (!building) {
+                TrigramIndex existing = TrigramIndex.open(indexFile, binary, binaryModified);
+                if (existing != null) {
+                    return existing;
+                }
+
+                // The binary has changed since the index was built.
+                LoggerUtils.get().info("Search index is out of date, rebuilding: " + indexFile);
+                building = true;
+                firePropertyChange("building", false, true);
+            }
+            return TrigramIndex.build(binary, binaryModified, indexFile, TrigramIndex.DEFAULT_BLOCK_SIZE, this);
+        }
+
+        @Override
+        public void searched(long byteCount) {
+            // Nobody is watching the progress.
+        }
+
+        @Override
+        protected void done() {
+            if (worker != this) {
+                return;
+            }
+            worker = null;
+            try {
+                index = get();
+            } catch (CancellationException e) {
+                // Replaced by a newer worker.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LoggerUtils.get().log(Level.WARNING, "Error opening or building search index: " + indexFile,
+                                      e.getCause());
+            }
+            stateListener.run();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+/**
+ * Receives progress information from a running search and tells it when to stop.
+ * Searches may run on multiple threads, so implementations must be thread-safe.
+ *
+ * @author trejkaz
+ */
+interface SearchMonitor {
+
+    /**
+     * A monitor which ignores progress and never cancels.
+     */
+    SearchMonitor NONE = new SearchMonitor() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void searched(long byteCount) {
+        }
+    };
+
+    /**
+     * Tests whether the search should stop.
+     * Searches which find this to be {@code true} throw {@link java.util.concurrent.CancellationException}.
+     *
+     * @return {@code true} if the search should stop, {@code false} otherwise.
+     */
+    boolean isCancelled();
+
+    /**
+     * Called periodically as positions in the binary are searched.
+     *
+     * @param byteCount the number of positions searched since the last call.
+     */
+    void searched(long byteCount);
+}
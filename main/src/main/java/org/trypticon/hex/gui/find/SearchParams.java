@@ -27,10 +27,16 @@ class SearchParams {
 
     private final boolean wrapping;
     private final boolean backwards;
+    private final SearchScope scope;
 
     SearchParams(boolean wrapping, boolean backwards) {
+        this(wrapping, backwards, SearchScope.EVERYWHERE);
+    }
+
+    SearchParams(boolean wrapping, boolean backwards, SearchScope scope) {
         this.wrapping = wrapping;
         this.backwards = backwards;
+        this.scope = scope;
     }
 
     public boolean isWrapping() {
@@ -40,4 +46,13 @@ class SearchParams {
     public boolean isBackwards() {
         return backwards;
     }
+
+    /**
+     * Gets the parts of the binary to search. When wrapping, the search wraps around within the scope.
+     *
+     * @return the scope.
+     */
+    public SearchScope getScope() {
+        return scope;
+    }
 }
@@ -0,0 +1,221 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NonNls;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.GroupAnnotation;
+
+/**
+ * <p>The parts of the binary a search should look at, as a list of ranges in order of position
+ *    which don't overlap or touch.</p>
+ *
+ * <p>Matches must lie entirely within one of the ranges. Ranges may run past the end of the binary,
+ *    in which case they are cut off at the end.</p>
+ *
+ * @author trejkaz
+ */
+class SearchScope {
+
+    /**
+     * Scope covering the whole binary.
+     */
+    static final SearchScope EVERYWHERE = new SearchScope(new long[] { 0 }, new long[] { Long.MAX_VALUE }, 1);
+
+    private final long[] starts;
+    private final long[] ends;
+    private final int rangeCount;
+
+    private SearchScope(long[] starts, long[] ends, int rangeCount) {
+        this.starts = starts;
+        this.ends = ends;
+        this.rangeCount = rangeCount;
+    }
+
+    /**
+     * Gets a scope covering a single range.
+     *
+     * @param start the start of the range, inclusive.
+     * @param end the end of the range, exclusive.
+     * @return the scope.
+     */
+    static SearchScope range(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid range: " + start + " to " + end);
+        }
+        if (start == end) {
+            return new SearchScope(new long[0], new long[0], 0);
+        }
+        return new SearchScope(new long[] { start }, new long[] { end }, 1);
+    }
+
+    /**
+     * Gets a scope covering the parts of a group which are not covered by any of its child annotations.
+     * Only the direct children need to be looked at, since the rest of the tree is inside them,
+     * so this takes time proportional to the number of children.
+     *
+     * @param group the group, usually the root group of an annotation collection.
+     * @return the scope.
+     */
+    static SearchScope gaps(GroupAnnotation group) {
+        long[] starts = new long[16];
+        long[] ends = new long[16];
+        int count = 0;
+
+        // Children are kept in order of position.
+        long position = group.getPosition();
+        for (Annotation annotation : group.getAnnotations()) {
+            if (annotation.getPosition() > position) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = position;
+                ends[count] = annotation.getPosition();
+                count++;
+            }
+            position = Math.max(position, annotation.getPosition() + annotation.getLength());
+        }
+
+        long groupEnd = group.getPosition() + group.getLength();
+        if (groupEnd > position) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count + 1);
+                ends = Arrays.copyOf(ends, count + 1);
+            }
+            starts[count] = position;
+            ends[count] = groupEnd;
+            count++;
+        }
+
+        return new SearchScope(starts, ends, count);
+    }
+
+    /**
+     * Gets the number of ranges.
+     *
+     * @return the number of ranges.
+     */
+    int getRangeCount() {
+        return rangeCount;
+    }
+
+    /**
+     * Gets the start of a range.
+     *
+     * @param index the index of the range.
+     * @return the start of the range, inclusive.
+     */
+    long getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Gets the end of a range.
+     *
+     * @param index the index of the range.
+     * @return the end of the range, exclusive.
+     */
+    long getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Gets the index of the first range which ends after a position.
+     *
+     * @param position the position.
+     * @return the index of the range, or the range count if every range ends at or before the position.
+     */
+    int indexEndingAfter(long position) {
+        int index = Arrays.binarySearch(ends, 0, rangeCount, position);
+        // An exact hit is a range ending at the position, so the one after it is the one we want.
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Gets the index of the last range which starts before a position.
+     *
+     * @param position the position.
+     * @return the index of the range, or {@code -1} if every range starts at or after the position.
+     */
+    int indexStartingBefore(long position) {
+        int index = Arrays.binarySearch(starts, 0, rangeCount, position);
+        return index >= 0 ? index - 1 : -index - 2;
+    }
+
+    /**
+     * Gets the number of bytes of a binary which are in the scope.
+     *
+     * @param length the length of the binary.
+     * @return the number of bytes.
+     */
+    long getSize(long length) {
+        long size = 0;
+        for (int i = 0; i < rangeCount && starts[i] < length; i++) {
+            size += Math.min(ends[i], length) - starts[i];
+        }
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof SearchScope)) {
+            return false;
+        }
+        SearchScope that = (SearchScope) obj;
+        if (rangeCount != that.rangeCount) {
+            return false;
+        }
+        for (int i = 0; i < rangeCount; i++) {
+            if (starts[i] != that.starts[i] || ends[i] != that.ends[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = rangeCount;
+        for (int i = 0; i < rangeCount; i++) {
+            hash = hash * 31 + Long.hashCode(starts[i]);
+            hash = hash * 31 + Long.hashCode(ends[i]);
+        }
+        return hash;
+    }
+
+    @NonNls
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < rangeCount; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(starts[i]).append('-').append(ends[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import javax.swing.SwingWorker;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.util.LoggerUtils;
+
+/**
+ * Runs a search for the find bar on a background thread, reporting progress to its progress bar.
+ *
+ * @param <T> the type of the result.
+ * @param <V> the type of intermediate results.
+ * @author trejkaz
+ */
+abstract class SearchWorker<T, V> extends SwingWorker<T, V> implements SearchMonitor {
+    protected final FindBar findBar;
+    protected final Binary haystack;
+    protected final SearchScope scope;
+    private final long totalCount;
+    private final AtomicLong searchedCount = new AtomicLong();
+
+    protected SearchWorker(FindBar findBar, Binary haystack, SearchScope scope) {
+        this(findBar, haystack, scope, scope.getSize(haystack.length()));
+    }
+
+    /**
+     * Constructs the worker for a search which doesn't go through the scope a byte at a time.
+     *
+     * @param findBar the find bar the search is for.
+     * @param haystack the binary to search.
+     * @param scope the parts of the binary to search.
+     * @param totalCount the count reported to {@link #searched} once the search has finished.
+     */
+    protected SearchWorker(FindBar findBar, Binary haystack, SearchScope scope, long totalCount) {
+        this.findBar = findBar;
+        this.haystack = haystack;
+        this.scope = scope;
+        this.totalCount = totalCount;
+    }
+
+    // isCancelled() is implemented by SwingWorker itself.
+
+    @Override
+    public void searched(long byteCount) {
+        long total = searchedCount.addAndGet(byteCount);
+        setProgress((int) Math.min(100, total * 100 / Math.max(1, totalCount)));
+    }
+
+    @Override
+    protected final void done() {
+        if (!findBar.searchDone(this)) {
+            // Cancelled or superseded by a newer search.
+            return;
+        }
+
+        T result;
+        try {
+            result = get();
+        } catch (CancellationException e) {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            LoggerUtils.get().log(Level.SEVERE, "Unexpected error searching", e.getCause());
+            return;
+        }
+
+        finished(result);
+    }
+
+    /**
+     * Called on the event dispatch thread when the search finishes without being cancelled.
+     *
+     * @param result the result.
+     */
+    protected abstract void finished(T result);
+}
@@ -38,5 +38,45 @@ interface Searcher {
      * @return the found position, or {@code null} if there is no match.
      */
     @Nullable
-    Match find(Binary haystack, long startPosition, SearchParams params);
+    default Match find(Binary haystack, long startPosition, SearchParams params) {
+        return find(haystack, startPosition, params, SearchMonitor.NONE);
+    }
+
+    /**
+     * Searches the binary, reporting progress as it goes.
+     *
+     * @param haystack the binary being searched.
+     * @param startPosition the position to start searching from.
+     * @param params the search parameters.
+     * @param monitor the monitor to report progress to.
+     * @return the found position, or {@code null} if there is no match.
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the search.
+     */
+    @Nullable
+    Match find(Binary haystack, long startPosition, SearchParams params, SearchMonitor monitor);
+
+    /**
+     * Finds every match in the binary, reporting them in order of offset as they are found.
+     * Matches which overlap are all reported.
+     *
+     * @param haystack the binary being searched.
+     * @param monitor the monitor to report progress to.
+     * @param listener the listener to report matches to.
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the search.
+     */
+    default void findAll(Binary haystack, SearchMonitor monitor, MatchListener listener) {
+        findAll(haystack, SearchScope.EVERYWHERE, monitor, listener);
+    }
+
+    /**
+     * Finds every match within part of the binary, reporting them in order of offset as they are found.
+     * Matches which overlap are all reported.
+     *
+     * @param haystack the binary being searched.
+     * @param scope the parts of the binary to search.
+     * @param monitor the monitor to report progress to.
+     * @param listener the listener to report matches to.
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the search.
+     */
+    void findAll(Binary haystack, SearchScope scope, SearchMonitor monitor, MatchListener listener);
 }
@@ -0,0 +1,184 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>A set of labelled byte patterns to search for all at once.</p>
+ *
+ * <p>The text form has one signature per line, optionally preceded by a label and a colon,
+ *    with the bytes in the same format as {@link HexTextField}:</p>
+ *
+ * <pre>
+ * # Comments and blank lines are ignored.
+ * PNG: 89 50 4E 47 0D 0A 1A 0A
+ * ZIP: 50 4B 03 04
+ * CA FE BA BE
+ * </pre>
+ *
+ * <p>Signatures without a label are labelled with their bytes.</p>
+ *
+ * @author trejkaz
+ */
+class SignatureSet implements MatchLabeller {
+    private final Map<ByteBuffer, String> labelsByPattern;
+    private final int maxLength;
+
+    /**
+     * Constructs the signature set.
+     *
+     * @param labelsByPattern the labels for each pattern.
+     */
+    private SignatureSet(Map<ByteBuffer, String> labelsByPattern) {
+        this.labelsByPattern = labelsByPattern;
+        maxLength = labelsByPattern.keySet().stream().mapToInt(ByteBuffer::remaining).max().orElse(0);
+    }
+
+    /**
+     * Reads a signature set from its text form.
+     *
+     * @param reader the reader to read from.
+     * @return the signature set.
+     * @throws IOException if an error occurs reading.
+     * @throws ParseException if a line is not a valid signature. The error offset is the line number,
+     *         starting from 1.
+     */
+    static SignatureSet read(Reader reader) throws IOException, ParseException {
+        Map<ByteBuffer, String> labelsByPattern = new LinkedHashMap<>();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        int lineNumber = 0;
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            lineNumber++;
+
+            int commentStart = line.indexOf('#');
+            if (commentStart >= 0) {
+                line = line.substring(0, commentStart);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            String label = null;
+            int colon = line.lastIndexOf(':');
+            if (colon >= 0) {
+                label = line.substring(0, colon).trim();
+                line = line.substring(colon + 1).trim();
+            }
+
+            byte[] pattern;
+            try {
+                pattern = HexTextField.parseBytes(line);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException(line, lineNumber);
+            }
+            if (pattern.length == 0) {
+                throw new ParseException(line, lineNumber);
+            }
+
+            if (label == null || label.isEmpty()) {
+                label = format(pattern);
+            }
+
+            // The same bytes listed twice are one pattern with both labels.
+            labelsByPattern.merge(ByteBuffer.wrap(pattern), label,
+                                  (existing, added) -> existing.equals(added) ? existing : existing + ", " + added);
+        }
+        return new SignatureSet(labelsByPattern);
+    }
+
+    /**
+     * Gets the number of distinct patterns in the set.
+     *
+     * @return the number of patterns.
+     */
+    int size() {
+        return labelsByPattern.size();
+    }
+
+    /**
+     * Gets the patterns in the set.
+     *
+     * @return the patterns.
+     */
+    List<byte[]> getPatterns() {
+        List<byte[]> patterns = new ArrayList<>(labelsByPattern.size());
+        for (ByteBuffer pattern : labelsByPattern.keySet()) {
+            patterns.add(pattern.array().clone());
+        }
+        return patterns;
+    }
+
+    /**
+     * Creates a searcher which finds all the patterns in the set.
+     *
+     * @return the searcher.
+     */
+    MultiPatternSearcher createSearcher() {
+        return new MultiPatternSearcher(getPatterns());
+    }
+
+    /**
+     * Gets the label of a match found by the searcher. The pattern is exactly the bytes that were matched,
+     * so it can be looked up from those.
+     *
+     * @param haystack the binary the match was found in.
+     * @param offset the offset of the match.
+     * @param length the length of the match.
+     * @return the label, or an empty string if the bytes don't match any pattern.
+     */
+    @Override
+    public String getLabel(Binary haystack, long offset, long length) {
+        if (length <= 0 || length > maxLength || offset < 0 || offset + length > haystack.length()) {
+            return "";
+        }
+        byte[] bytes = new byte[(int) length];
+        haystack.read(offset, ByteBuffer.wrap(bytes));
+        return labelsByPattern.getOrDefault(ByteBuffer.wrap(bytes), "");
+    }
+
+    /**
+     * Formats a pattern the same way as {@link HexTextField} does.
+     *
+     * @param pattern the pattern.
+     * @return the formatted pattern.
+     */
+    private static String format(byte[] pattern) {
+        StringBuilder builder = new StringBuilder(pattern.length * 3);
+        for (byte b : pattern) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(String.format("%02X", b & 0xFF));
+        }
+        return builder.toString();
+    }
+}
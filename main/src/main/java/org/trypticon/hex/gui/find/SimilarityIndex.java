@@ -0,0 +1,464 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Piecewise hashes of a binary, for finding blocks which are similar to a block of the same binary.</p>
+ *
+ * <p>In the same way as {@code ssdeep}, the binary is cut into pieces wherever a rolling hash of the last
+ *    few bytes hits a trigger value, so the cuts depend only on the content near them and fall in the same
+ *    places in two copies of a block, even if one has moved or had bytes inserted. Each piece is then hashed.
+ *    A change to a block only changes the hashes of the pieces it touches, so two blocks are similar if they
+ *    have many of the same piece hashes in the same order.</p>
+ *
+ * <p>The average piece size grows with the binary, to keep the number of pieces down, which means a block
+ *    has to be a few pieces long before anything similar to it can be found.</p>
+ *
+ * @author trejkaz
+ */
+class SimilarityIndex {
+
+    /**
+     * The smallest average piece size.
+     */
+    static final int MIN_AVERAGE_PIECE_SIZE = 32;
+
+    /**
+     * The number of pieces the average piece size aims for. Larger binaries get larger pieces.
+     */
+    static final int TARGET_PIECE_COUNT = 4 * 1024 * 1024;
+
+    /**
+     * The fewest pieces a block can have to look for blocks similar to it.
+     */
+    static final int MIN_QUERY_PIECES = 4;
+
+    /**
+     * The most pieces a block can have to look for blocks similar to it, as comparing blocks takes time
+     * proportional to the square of their size.
+     */
+    static final int MAX_QUERY_PIECES = 1024;
+
+    /**
+     * The lowest score which counts as similar.
+     */
+    static final int MIN_SCORE = 25;
+
+    /**
+     * The most similar blocks reported.
+     */
+    static final int MAX_RESULTS = 200;
+
+    /**
+     * The most candidate blocks which are compared in full.
+     */
+    private static final int MAX_CANDIDATES = 256;
+
+    /**
+     * Pieces which occur more often than this, such as padding, don't help to find anything.
+     */
+    private static final int MAX_OCCURRENCES = 1024;
+
+    private static final int ROLLING_WINDOW = 7;
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private static final int[] BUZ_TABLE = new int[256];
+    static {
+        // Fixed seed, as the index is only ever compared with itself.
+        Random random = new Random(0x5EED);
+        for (int i = 0; i < BUZ_TABLE.length; i++) {
+            BUZ_TABLE[i] = random.nextInt();
+        }
+    }
+
+    private final Binary binary;
+    private final int averagePieceSize;
+    private final int pieceCount;
+
+    /**
+     * The offset each piece ends at, exclusive. Piece {@code i} starts where piece {@code i - 1} ends.
+     */
+    private final long[] ends;
+    private final int[] hashes;
+
+    private SimilarityIndex(Binary binary, int averagePieceSize, int pieceCount, long[] ends, int[] hashes) {
+        this.binary = binary;
+        this.averagePieceSize = averagePieceSize;
+        this.pieceCount = pieceCount;
+        this.ends = ends;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Gets the average piece size used for a binary.
+     *
+     * @param length the length of the binary.
+     * @return the average piece size, which is a power of two.
+     */
+    static int averagePieceSize(long length) {
+        long pieces = (length + TARGET_PIECE_COUNT - 1) / TARGET_PIECE_COUNT;
+        long size = Long.highestOneBit(Math.max(1, pieces - 1)) << 1;
+        return (int) Math.max(MIN_AVERAGE_PIECE_SIZE, size);
+    }
+
+    /**
+     * Builds the index for a binary.
+     *
+     * @param binary the binary.
+     * @param monitor the monitor to report progress to.
+     * @return the index.
+     * @throws java.util.concurrent.CancellationException if the monitor says to stop.
+     */
+    static SimilarityIndex build(Binary binary, SearchMonitor monitor) {
+        long length = binary.length();
+        int averagePieceSize = averagePieceSize(length);
+        int mask = averagePieceSize - 1;
+        int minPieceSize = averagePieceSize / 4;
+        int maxPieceSize = averagePieceSize * 4;
+
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, length / averagePieceSize + 16);
+        long[] ends = new long[capacity];
+        int[] hashes = new int[capacity];
+        int count = 0;
+
+        byte[] window = new byte[(int) Math.min(READ_SIZE, length)];
+        // The rolling hash starts as if the binary were preceded by zeroes.
+        byte[] recent = new byte[ROLLING_WINDOW];
+        int oldestSlot = 0;
+        int rolling = 0;
+        for (int i = 0; i < ROLLING_WINDOW; i++) {
+            rolling = Integer.rotateLeft(rolling, 1) ^ BUZ_TABLE[0];
+        }
+        int pieceHash = 0x811C9DC5;
+        long pieceStart = 0;
+        long position = 0;
+        while (position < length) {
+            AbstractSearcher.checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, length - position);
+            binary.read(position, ByteBuffer.wrap(window, 0, windowLength));
+            for (int i = 0; i < windowLength; i++) {
+                int value = window[i] & 0xFF;
+                long current = position + i;
+
+                // Buzhash of the last few bytes: rotate everything along and swap the oldest byte for the newest.
+                int oldest = recent[oldestSlot] & 0xFF;
+                recent[oldestSlot] = (byte) value;
+                oldestSlot = oldestSlot == ROLLING_WINDOW - 1 ? 0 : oldestSlot + 1;
+                rolling = Integer.rotateLeft(rolling, 1) ^ Integer.rotateLeft(BUZ_TABLE[oldest], ROLLING_WINDOW) ^
+                          BUZ_TABLE[value];
+
+                // FNV-1a of the piece so far.
+                pieceHash = (pieceHash ^ value) * 0x01000193;
+
+                long pieceLength = current + 1 - pieceStart;
+                if (pieceLength >= maxPieceSize || (pieceLength >= minPieceSize && (rolling & mask) == mask)) {
+                    if (count == ends.length) {
+                        int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, count + (count >> 1) + 16);
+                        ends = Arrays.copyOf(ends, newCapacity);
+                        hashes = Arrays.copyOf(hashes, newCapacity);
+                    }
+                    ends[count] = current + 1;
+                    hashes[count] = pieceHash;
+                    count++;
+                    pieceHash = 0x811C9DC5;
+                    pieceStart = current + 1;
+                }
+            }
+
+            monitor.searched(windowLength);
+            position += windowLength;
+        }
+
+        // Whatever comes after the last cut is left out, as it was cut short by the end of the binary.
+        return new SimilarityIndex(binary, averagePieceSize, count, ends, hashes);
+    }
+
+    /**
+     * Gets the binary which was indexed.
+     *
+     * @return the binary.
+     */
+    Binary getBinary() {
+        return binary;
+    }
+
+    /**
+     * Gets the average piece size, which is roughly how far apart changes can be before a block stops
+     * looking similar.
+     *
+     * @return the average piece size.
+     */
+    int getAveragePieceSize() {
+        return averagePieceSize;
+    }
+
+    /**
+     * Counts the pieces lying entirely within a block.
+     *
+     * @param start the start of the block, inclusive.
+     * @param end the end of the block, exclusive.
+     * @return the number of pieces.
+     */
+    int countPieces(long start, long end) {
+        return Math.max(0, lastPieceEndingBy(end) - firstPieceStartingAt(start) + 1);
+    }
+
+    private int firstPieceStartingAt(long position) {
+        if (position <= 0) {
+            return 0;
+        }
+        // The piece after the first piece which ends at or after the position.
+        int index = Arrays.binarySearch(ends, 0, pieceCount, position);
+        return (index >= 0 ? index : -index - 1) + 1;
+    }
+
+    private int lastPieceEndingBy(long position) {
+        int index = Arrays.binarySearch(ends, 0, pieceCount, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private long pieceStart(int index) {
+        return index == 0 ? 0 : ends[index - 1];
+    }
+
+    /**
+     * Finds the blocks which are similar to a block of the binary.
+     *
+     * @param start the start of the block, inclusive.
+     * @param end the end of the block, exclusive.
+     * @param monitor the monitor to check for cancellation.
+     * @return the similar blocks, most similar first. Blocks overlapping the block itself are left out.
+     * @throws IllegalArgumentException if the block has fewer than {@link #MIN_QUERY_PIECES} or more than
+     *         {@link #MAX_QUERY_PIECES} pieces.
+     * @throws java.util.concurrent.CancellationException if the monitor says to stop.
+     */
+    List<SimilarBlock> findSimilar(long start, long end, SearchMonitor monitor) {
+        int first = firstPieceStartingAt(start);
+        int queryLength = countPieces(start, end);
+        if (queryLength < MIN_QUERY_PIECES || queryLength > MAX_QUERY_PIECES) {
+            throw new IllegalArgumentException("Block has " + queryLength + " pieces");
+        }
+        int[] query = Arrays.copyOfRange(hashes, first, first + queryLength);
+
+        // Open addressing table from the hashes in the query to their positions in it.
+        int tableSize = Integer.highestOneBit(queryLength * 4 - 1) << 1;
+        int[] tableHashes = new int[tableSize];
+        int[] tableHeads = new int[tableSize];
+        Arrays.fill(tableHeads, -1);
+        int[] nextInQuery = new int[queryLength];
+        for (int j = queryLength - 1; j >= 0; j--) {
+            int slot = findSlot(tableHashes, tableHeads, query[j]);
+            tableHashes[slot] = query[j];
+            nextInQuery[j] = tableHeads[slot];
+            tableHeads[slot] = j;
+        }
+
+        // Pieces which are everywhere would make every block a candidate.
+        int[] occurrences = new int[tableSize];
+        for (int i = 0; i < pieceCount; i++) {
+            int slot = findSlot(tableHashes, tableHeads, hashes[i]);
+            if (tableHeads[slot] >= 0) {
+                occurrences[slot]++;
+            }
+        }
+        AbstractSearcher.checkCancelled(monitor);
+
+        // Each piece in common is a vote for the block lined up so that the two pieces coincide. Votes for
+        // nearby alignments are pooled, so that a block with a few bytes inserted still gets all its votes.
+        int band = queryLength / 8 + 1;
+        Map<Long, int[]> votes = new HashMap<>();
+        for (int i = 0; i < pieceCount; i++) {
+            if (i == first) {
+                // The block itself would only vote for itself.
+                i += queryLength - 1;
+                continue;
+            }
+            int slot = findSlot(tableHashes, tableHeads, hashes[i]);
+            if (tableHeads[slot] < 0 || occurrences[slot] > MAX_OCCURRENCES) {
+                continue;
+            }
+            for (int j = tableHeads[slot]; j >= 0; j = nextInQuery[j]) {
+                votes.computeIfAbsent(Math.floorDiv((long) i - j, band), key -> new int[1])[0]++;
+            }
+        }
+        AbstractSearcher.checkCancelled(monitor);
+
+        int minVotes = Math.max(2, queryLength * MIN_SCORE / 200);
+        List<Map.Entry<Long, int[]>> candidates = new ArrayList<>();
+        for (Map.Entry<Long, int[]> entry : votes.entrySet()) {
+            if (entry.getValue()[0] >= minVotes) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingInt((Map.Entry<Long, int[]> entry) -> -entry.getValue()[0])
+                                  .thenComparing(Map.Entry::getKey));
+        if (candidates.size() > MAX_CANDIDATES) {
+            candidates = candidates.subList(0, MAX_CANDIDATES);
+        }
+
+        List<SimilarBlock> scored = new ArrayList<>();
+        int maxWindowLength = queryLength + 3 * band;
+        int[] table = new int[(maxWindowLength + 1) * (queryLength + 1)];
+        for (Map.Entry<Long, int[]> candidate : candidates) {
+            AbstractSearcher.checkCancelled(monitor);
+
+            // Every alignment in the band, give or take another band for pieces inserted or removed,
+            // but never taking in the block being compared with.
+            long alignment = candidate.getKey() * band;
+            int windowStart = (int) Math.max(0, alignment - band);
+            int windowEnd = (int) Math.min(pieceCount, alignment + queryLength + 2L * band);
+            if (alignment >= first) {
+                windowStart = Math.max(windowStart, first + queryLength);
+            } else {
+                windowEnd = Math.min(windowEnd, first);
+            }
+            if (windowStart >= windowEnd) {
+                continue;
+            }
+
+            SimilarBlock block = compare(query, windowStart, windowEnd, table);
+            if (block != null && block.score >= MIN_SCORE) {
+                scored.add(block);
+            }
+        }
+
+        // Nearby candidates often find the same block, so only the best of any overlapping blocks is kept.
+        scored.sort(Comparator.comparingInt((SimilarBlock block) -> -block.score)
+                              .thenComparingLong(block -> block.offset));
+        List<SimilarBlock> results = new ArrayList<>();
+        for (SimilarBlock block : scored) {
+            boolean overlaps = false;
+            for (SimilarBlock kept : results) {
+                if (block.offset < kept.offset + kept.length && kept.offset < block.offset + block.length) {
+                    overlaps = true;
+                    break;
+                }
+            }
+            if (!overlaps) {
+                results.add(block);
+                if (results.size() == MAX_RESULTS) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compares the query with a window of pieces by finding their longest common subsequence,
+     * then trims the window down to the pieces which were part of it.
+     *
+     * @param query the piece hashes of the block being compared with.
+     * @param windowStart the first piece of the window, inclusive.
+     * @param windowEnd the last piece of the window, exclusive.
+     * @param table space for the table of common subsequence lengths.
+     * @return the block within the window, or {@code null} if nothing was in common.
+     */
+    private SimilarBlock compare(int[] query, int windowStart, int windowEnd, int[] table) {
+        int columns = query.length + 1;
+        int rows = windowEnd - windowStart + 1;
+        Arrays.fill(table, 0, columns, 0);
+        for (int row = 1; row < rows; row++) {
+            int hash = hashes[windowStart + row - 1];
+            int rowStart = row * columns;
+            table[rowStart] = 0;
+            int previousRowStart = rowStart - columns;
+            for (int j = 1; j < columns; j++) {
+                table[rowStart + j] = query[j - 1] == hash
+                    ? table[previousRowStart + j - 1] + 1
+                    : Math.max(table[previousRowStart + j], table[rowStart + j - 1]);
+            }
+        }
+        int common = table[rows * columns - 1];
+        if (common == 0) {
+            return null;
+        }
+
+        // Walk back through the table to find the first and last pieces in the subsequence.
+        int firstMatch = -1;
+        int lastMatch = -1;
+        int row = rows - 1;
+        int j = columns - 1;
+        while (row > 0 && j > 0) {
+            int piece = windowStart + row - 1;
+            if (query[j - 1] == hashes[piece]) {
+                if (lastMatch < 0) {
+                    lastMatch = piece;
+                }
+                firstMatch = piece;
+                row--;
+                j--;
+            } else if (table[(row - 1) * columns + j] >= table[row * columns + j - 1]) {
+                row--;
+            } else {
+                j--;
+            }
+        }
+
+        int blockLength = lastMatch - firstMatch + 1;
+        int score = (int) (200L * common / (query.length + blockLength));
+        long blockStart = pieceStart(firstMatch);
+        return new SimilarBlock(blockStart, ends[lastMatch] - blockStart, Math.min(100, score));
+    }
+
+    private static int findSlot(int[] tableHashes, int[] tableHeads, int hash) {
+        int mask = tableHashes.length - 1;
+        int slot = (hash * 0x9E3779B9) >>> 16 & mask;
+        while (tableHeads[slot] >= 0 && tableHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * A block found to be similar.
+     */
+    static class SimilarBlock {
+        final long offset;
+        final long length;
+
+        /**
+         * How similar the block is, from 0 to 100.
+         */
+        final int score;
+
+        SimilarBlock(long offset, long length, int score) {
+            this.offset = offset;
+            this.length = length;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return "offset " + offset + ", length " + length + ", score " + score;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * Indexes the binary if necessary, then finds the blocks similar to a block of it.
+ *
+ * @author trejkaz
+ */
+class SimilarityWorker extends SearchWorker<List<SimilarityIndex.SimilarBlock>, Void> {
+    private final long start;
+    private final long end;
+    private volatile SimilarityIndex index;
+
+    SimilarityWorker(FindBar findBar, Binary haystack, @Nullable SimilarityIndex index, long start, long end) {
+        super(findBar, haystack, SearchScope.EVERYWHERE, index == null ? haystack.length() : 0);
+        this.index = index;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    protected List<SimilarityIndex.SimilarBlock> doInBackground() {
+        if (index == null) {
+            index = SimilarityIndex.build(haystack, this);
+        }
+        int pieces = index.countPieces(start, end);
+        if (pieces < SimilarityIndex.MIN_QUERY_PIECES || pieces > SimilarityIndex.MAX_QUERY_PIECES) {
+            return null;
+        }
+        return index.findSimilar(start, end, this);
+    }
+
+    @Override
+    protected void finished(@Nullable List<SimilarityIndex.SimilarBlock> blocks) {
+        findBar.similarFound(haystack, index, start, end, blocks);
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.SimpleAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.interpreters.strings.StringInterpreter;
+
+/**
+ * <p>Searcher which finds runs of printable characters, like the {@code strings} tool.</p>
+ *
+ * <p>Printable characters are the printable ASCII characters and tab. Runs can be found as single bytes,
+ *    or as UTF-16 in either byte order, in which case each character must be a printable ASCII character
+ *    with a zero high byte. All the encodings are looked for in the same pass over the binary.</p>
+ *
+ * <p>A run is only a match if the whole run lies within the range being searched, so the strings found
+ *    in a range are the same as the strings found in the whole binary which fall inside it. This also means
+ *    the range can be split up and searched in parallel.</p>
+ *
+ * @author trejkaz
+ */
+class StringsSearcher extends AbstractSearcher implements MatchLabeller {
+
+    private static final boolean[] PRINTABLE = new boolean[256];
+    static {
+        for (int b = 0x20; b < 0x7F; b++) {
+            PRINTABLE[b] = true;
+        }
+        PRINTABLE['\t'] = true;
+    }
+
+    private final int windowSize;
+    private final int minLength;
+    private final boolean ascii;
+    private final boolean utf16LE;
+    private final boolean utf16BE;
+
+    StringsSearcher(int minLength, Set<Encoding> encodings) {
+        this(minLength, encodings, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param minLength the fewest characters a run must have to be found.
+     * @param encodings the encodings to look for runs in.
+     * @param windowSize the number of bytes to read from the haystack in one go.
+     */
+    StringsSearcher(int minLength, Set<Encoding> encodings, int windowSize) {
+        if (minLength < 1) {
+            throw new IllegalArgumentException("Minimum length must be at least 1: " + minLength);
+        }
+        this.minLength = minLength;
+        this.windowSize = Math.max(1, windowSize);
+        ascii = encodings.contains(Encoding.ASCII);
+        utf16LE = encodings.contains(Encoding.UTF_16LE);
+        utf16BE = encodings.contains(Encoding.UTF_16BE);
+    }
+
+    @Nullable
+    @Override
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        MatchList first = new MatchList();
+        scan(haystack, fromPosition, toPosition, limitPosition, monitor, first, true);
+        return first.isEmpty() ? null : first.get(0);
+    }
+
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        // Runs have to be seen from their start, so go back a window at a time and take the last from each.
+        long blockEnd = toPosition;
+        while (blockEnd > fromPosition) {
+            long blockStart = Math.max(fromPosition, blockEnd - windowSize);
+            MatchList matches = new MatchList();
+            scan(haystack, blockStart, blockEnd, limitPosition, monitor, matches, false);
+            if (!matches.isEmpty()) {
+                return matches.get(matches.size() - 1);
+            }
+            blockEnd = blockStart;
+        }
+        return null;
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        scan(haystack, fromPosition, toPosition, limitPosition, monitor, listener, false);
+    }
+
+    /**
+     * Scans for runs starting within a range. Scanning starts a little before the range to tell whether
+     * a run at the start of the range started earlier, and carries on after it until every run which started
+     * in the range has finished.
+     *
+     * @param haystack the haystack.
+     * @param fromPosition the first position where a run may start, inclusive.
+     * @param toPosition the last position where a run may start, exclusive.
+     * @param limitPosition the position where the run must end by, exclusive.
+     * @param monitor the monitor to report progress to.
+     * @param listener the listener to report runs to, in order of offset.
+     * @param firstOnly {@code true} to stop after the first run.
+     */
+    private void scan(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                      SearchMonitor monitor, MatchListener listener, boolean firstOnly) {
+        long length = haystack.length();
+        fromPosition = Math.max(fromPosition, 0);
+        toPosition = Math.min(toPosition, Math.min(limitPosition, length));
+        limitPosition = Math.min(limitPosition, length);
+        if (fromPosition >= toPosition) {
+            return;
+        }
+
+        Runs runs = new Runs(fromPosition, toPosition, limitPosition, listener, firstOnly);
+
+        // Two bytes before is enough to see the previous UTF-16 character in both alignments.
+        // Two bytes after the limit is enough to see that every run reaching the limit carries on past it.
+        long scanStart = Math.max(0, fromPosition - 2);
+        long scanEnd = Math.min(length, limitPosition + 2);
+        byte[] window = new byte[(int) Math.min(windowSize, scanEnd - scanStart)];
+        int previous = -1;
+        long position = scanStart;
+        while (position < scanEnd) {
+            checkCancelled(monitor);
+
+            int windowLength = (int) Math.min(window.length, scanEnd - position);
+            haystack.read(position, ByteBuffer.wrap(window, 0, windowLength));
+
+            for (int i = 0; i < windowLength; i++) {
+                long current = position + i;
+                int value = window[i] & 0xFF;
+
+                if (ascii) {
+                    if (PRINTABLE[value]) {
+                        runs.extend(Runs.ASCII, current, current + 1);
+                    } else {
+                        runs.end(Runs.ASCII);
+                    }
+                }
+
+                if (previous >= 0) {
+                    // The UTF-16 character which ends at this byte.
+                    int alignment = (int) ((current - 1) & 1);
+                    if (utf16LE) {
+                        if (value == 0 && PRINTABLE[previous]) {
+                            runs.extend(Runs.UTF_16LE + alignment, current - 1, current + 1);
+                        } else {
+                            runs.end(Runs.UTF_16LE + alignment);
+                        }
+                    }
+                    if (utf16BE) {
+                        if (previous == 0 && PRINTABLE[value]) {
+                            runs.extend(Runs.UTF_16BE + alignment, current - 1, current + 1);
+                        } else {
+                            runs.end(Runs.UTF_16BE + alignment);
+                        }
+                    }
+                }
+                previous = value;
+
+                if (runs.isFinished(current)) {
+                    monitor.searched(Math.max(0, toPosition - Math.max(fromPosition, position)));
+                    return;
+                }
+            }
+
+            monitor.searched(Math.max(0, Math.min(toPosition, position + windowLength) -
+                                         Math.max(fromPosition, position)));
+            position += windowLength;
+        }
+
+        // Runs which reach the end of the binary end there. Any others still going are past the limit.
+        for (int run = 0; run < Runs.COUNT; run++) {
+            if (scanEnd == length) {
+                runs.end(run);
+            } else {
+                runs.discard(run);
+            }
+        }
+        runs.passOnPending();
+    }
+
+    /**
+     * Keeps track of the runs in progress, and of runs which have ended but can't be passed on yet
+     * because a run which started before them is still in progress.
+     */
+    private class Runs {
+        static final int ASCII = 0;
+        static final int UTF_16LE = 1; // + alignment
+        static final int UTF_16BE = 3; // + alignment
+        static final int COUNT = 5;
+
+        private final long fromPosition;
+        private final long toPosition;
+        private final long limitPosition;
+        private final MatchListener listener;
+        private final boolean firstOnly;
+
+        private final long[] starts = new long[COUNT];
+        private final long[] ends = new long[COUNT];
+
+        private long[] pendingOffsets = new long[8];
+        private long[] pendingLengths = new long[8];
+        private int pendingCount;
+        private boolean found;
+
+        private Runs(long fromPosition, long toPosition, long limitPosition, MatchListener listener,
+                     boolean firstOnly) {
+            this.fromPosition = fromPosition;
+            this.toPosition = toPosition;
+            this.limitPosition = limitPosition;
+            this.listener = listener;
+            this.firstOnly = firstOnly;
+            Arrays.fill(starts, -1);
+        }
+
+        private void extend(int run, long start, long end) {
+            if (starts[run] < 0) {
+                starts[run] = start;
+            }
+            ends[run] = end;
+        }
+
+        private void discard(int run) {
+            starts[run] = -1;
+        }
+
+        private void end(int run) {
+            long start = starts[run];
+            if (start < 0) {
+                return;
+            }
+            starts[run] = -1;
+
+            long end = ends[run];
+            long characters = run == ASCII ? end - start : (end - start) / 2;
+            if (characters >= minLength && start >= fromPosition && start < toPosition && end <= limitPosition) {
+                addPending(start, end - start);
+            }
+            passOnPending();
+        }
+
+        private void addPending(long offset, long length) {
+            if (pendingCount == pendingOffsets.length) {
+                pendingOffsets = Arrays.copyOf(pendingOffsets, pendingCount * 2);
+                pendingLengths = Arrays.copyOf(pendingLengths, pendingCount * 2);
+            }
+            // Runs usually end in the order they started, so this is rarely more than one step.
+            int index = pendingCount;
+            while (index > 0 && pendingOffsets[index - 1] > offset) {
+                pendingOffsets[index] = pendingOffsets[index - 1];
+                pendingLengths[index] = pendingLengths[index - 1];
+                index--;
+            }
+            pendingOffsets[index] = offset;
+            pendingLengths[index] = length;
+            pendingCount++;
+        }
+
+        /**
+         * Passes on the runs which no run still in progress could be found before.
+         */
+        private void passOnPending() {
+            long earliestInProgress = Long.MAX_VALUE;
+            for (int run = 0; run < COUNT; run++) {
+                long start = starts[run];
+                if (start >= fromPosition && start < earliestInProgress && ends[run] <= limitPosition) {
+                    earliestInProgress = start;
+                }
+            }
+            int passed = 0;
+            while (passed < pendingCount && pendingOffsets[passed] <= earliestInProgress && !(firstOnly && found)) {
+                listener.matchFound(pendingOffsets[passed], pendingLengths[passed]);
+                found = true;
+                passed++;
+            }
+            if (passed > 0) {
+                System.arraycopy(pendingOffsets, passed, pendingOffsets, 0, pendingCount - passed);
+                System.arraycopy(pendingLengths, passed, pendingLengths, 0, pendingCount - passed);
+                pendingCount -= passed;
+            }
+        }
+
+        /**
+         * Tests whether scanning can stop, because every run which could still be found has been.
+         *
+         * @param position the position which has just been scanned.
+         * @return {@code true} if scanning can stop.
+         */
+        private boolean isFinished(long position) {
+            if (firstOnly && found) {
+                return true;
+            }
+            if (position < toPosition) {
+                return false;
+            }
+            // Runs which started before the range or have gone past the limit can never be found.
+            for (int run = 0; run < COUNT; run++) {
+                if (starts[run] >= fromPosition && starts[run] < toPosition && ends[run] <= limitPosition) {
+                    return false;
+                }
+            }
+            for (int run = 0; run < COUNT; run++) {
+                discard(run);
+            }
+            passOnPending();
+            return true;
+        }
+    }
+
+    /**
+     * Gets the encoding of a run found by the searcher, which can be told from where the zero bytes are.
+     *
+     * @param haystack the binary the run was found in.
+     * @param offset the offset of the run.
+     * @param length the length of the run.
+     * @return the encoding.
+     */
+    static Encoding getEncoding(Binary haystack, long offset, long length) {
+        if (length < 2 || offset < 0 || offset + 2 > haystack.length()) {
+            return Encoding.ASCII;
+        }
+        ByteBuffer start = ByteBuffer.allocate(2);
+        haystack.read(offset, start);
+        if (start.get(1) == 0) {
+            return Encoding.UTF_16LE;
+        } else if (start.get(0) == 0) {
+            return Encoding.UTF_16BE;
+        } else {
+            return Encoding.ASCII;
+        }
+    }
+
+    @Override
+    public String getLabel(Binary haystack, long offset, long length) {
+        return getEncoding(haystack, offset, length).getCharset().name();
+    }
+
+    /**
+     * Creates string annotations for runs found by the searcher. Where runs overlap, which happens when UTF-16
+     * can be read in either byte order, only the one with the most characters is kept.
+     *
+     * @param haystack the binary the runs were found in.
+     * @param runs the runs, in order of offset.
+     * @return the annotations.
+     */
+    static List<Annotation> createAnnotations(Binary haystack, MatchList runs) {
+        List<Annotation> annotations = new ArrayList<>(runs.size());
+        long lastEnd = -1;
+        long lastCharacters = 0;
+        StringInterpreter[] interpreters = new StringInterpreter[Encoding.values().length];
+        for (int i = 0; i < runs.size(); i++) {
+            long offset = runs.getOffset(i);
+            long length = runs.getLength(i);
+            Encoding encoding = getEncoding(haystack, offset, length);
+            long characters = encoding == Encoding.ASCII ? length : length / 2;
+            if (offset < lastEnd) {
+                if (characters <= lastCharacters) {
+                    continue;
+                }
+                annotations.remove(annotations.size() - 1);
+            }
+
+            StringInterpreter interpreter = interpreters[encoding.ordinal()];
+            if (interpreter == null) {
+                interpreter = new StringInterpreter(encoding.getCharset());
+                interpreters[encoding.ordinal()] = interpreter;
+            }
+            annotations.add(new SimpleAnnotation(offset, length, interpreter));
+            lastEnd = offset + length;
+            lastCharacters = characters;
+        }
+        return annotations;
+    }
+
+    /**
+     * The encodings strings can be found in.
+     */
+    static enum Encoding {
+        ASCII(StandardCharsets.US_ASCII),
+        UTF_16LE(StandardCharsets.UTF_16LE),
+        UTF_16BE(StandardCharsets.UTF_16BE);
+
+        private final Charset charset;
+
+        private Encoding(Charset charset) {
+            this.charset = charset;
+        }
+
+        Charset getCharset() {
+            return charset;
+        }
+
+        static Set<Encoding> all() {
+            return EnumSet.allOf(Encoding.class);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.awt.Insets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JTextField;
+
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.util.swingsupport.PLAFUtils;
+import org.trypticon.hex.util.swingsupport.SelectEncodingButton;
+
+/**
+ * Find mode for searching for text, in one encoding or in any of the common ones.
+ *
+ * @author trejkaz
+ */
+class TextFindMode extends FindMode {
+    private final JTextField textField;
+    private final SelectEncodingButton encodingButton;
+    private final JCheckBox anyEncodingCheckBox;
+
+    /**
+     * Constructs the mode.
+     *
+     * @param parallelSearchSettings the settings for searching in parallel.
+     * @param errorListener called with a message when the query isn't valid.
+     */
+    TextFindMode(ParallelSearchSettings parallelSearchSettings, Consumer<String> errorListener) {
+        super(Resources.getString("FindBar.text"), null, parallelSearchSettings, errorListener);
+
+        textField = new JTextField("", 8);
+
+        encodingButton = new SelectEncodingButton();
+        encodingButton.putClientProperty("JButton.buttonType", "segmentedTextured");
+        encodingButton.putClientProperty("JButton.segmentPosition", "only");
+        encodingButton.setMargin(new Insets(0, 0, 0, 0));
+
+        anyEncodingCheckBox = new JCheckBox(Resources.getString("FindBar.anyEncoding"));
+        anyEncodingCheckBox.setToolTipText(Resources.getString("FindBar.anyEncodingToolTip"));
+
+        PLAFUtils.makeSmall(textField, encodingButton, anyEncodingCheckBox);
+    }
+
+    @Override
+    JTextField getQueryField() {
+        return textField;
+    }
+
+    @Override
+    List<JComponent> getOptionControls() {
+        return Arrays.asList(encodingButton, anyEncodingCheckBox);
+    }
+
+    @Override
+    void addQueryChangeListener(Runnable listener) {
+        super.addQueryChangeListener(listener);
+        anyEncodingCheckBox.addItemListener(event -> listener.run());
+    }
+
+    @Override
+    boolean isSearchedLive() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    Searcher createSearcher() {
+        String text = textField.getText();
+        if (text.isEmpty()) {
+            return null;
+        }
+        if (anyEncodingCheckBox.isSelected()) {
+            return parallelSearchSettings.createSearcher(encodeInAnyEncoding(text).createSearcher());
+        }
+        return parallelSearchSettings.createSearcher(new TextSearcher(text, encodingButton.getEncoding()));
+    }
+
+    @Nullable
+    @Override
+    MatchLabeller createLabeller() {
+        // Matches in any encoding are labelled with the encoding they were found in.
+        String text = textField.getText();
+        if (!anyEncodingCheckBox.isSelected() || text.isEmpty()) {
+            return null;
+        }
+        return encodeInAnyEncoding(text);
+    }
+
+    /**
+     * Encodes text in every charset searched when searching in any encoding. The charset chosen
+     * on the encoding button is searched as well as the Unicode ones.
+     *
+     * @param text the text.
+     * @return the encoded text.
+     */
+    private MultiCharsetText encodeInAnyEncoding(String text) {
+        return MultiCharsetText.encode(text, MultiCharsetText.anyEncodingCharsets(encodingButton.getEncoding()));
+    }
+
+    @Override
+    String getQuery() {
+        return "text:" + (anyEncodingCheckBox.isSelected() ? "any:" : "") +
+               encodingButton.getEncoding().name() + ':' + textField.getText();
+    }
+}
@@ -20,158 +20,440 @@ package org.trypticon.hex.gui.find;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.icu.text.CollationElementIterator;
 import com.ibm.icu.text.Collator;
 import com.ibm.icu.text.RuleBasedCollator;
 import com.ibm.icu.text.UCharacterIterator;
+import com.ibm.icu.text.UnicodeSet;
+import com.ibm.icu.util.ULocale;
 import org.jetbrains.annotations.Nullable;
 
 import org.trypticon.hex.binary.Binary;
 
 /**
- * Searches for text in the binary.
+ * <p>Searches for text in the binary.</p>
+ *
+ * <p>Text is compared using collation elements, so that different normalisation forms of the same
+ *    text match. Decoding and collating at every position would be slow, so positions are first
+ *    filtered by looking at the first two bytes. A match has to start with a character whose first
+ *    collation element is the same as the needle's, so only positions starting with the encoding
+ *    of one of those characters can possibly match. The haystack is read in windows, and positions
+ *    which get past the filter are decoded straight out of the window.</p>
+ *
+ * <p>The filter is the only thing which speeds this up. Each position which gets past it is still decoded
+ *    and collated on its own, starting from a freshly reset decoder. The window isn't decoded once and
+ *    mapped back to byte offsets, because a match can start at any byte, and in charsets like UTF-16 or
+ *    Shift_JIS the characters decoded depend on where decoding starts. A single decode would only find
+ *    the matches which line up with it. Searches where most positions get past the filter, such as
+ *    needles starting with an accent, are therefore as slow as they were before the filter.</p>
  *
  * @author trejkaz
  */
-class TextSearcher implements Searcher {
-    private final CollationElementIterator needleIterator;
+class TextSearcher extends AbstractSearcher {
+
+    /**
+     * Cache of what we need to know about the collator for each locale.
+     * Working it out takes long enough to notice, and it's the same for every search.
+     */
+    private static final Map<ULocale, CollationTable> collationTables = new ConcurrentHashMap<>();
+
+    /**
+     * Cache of the pairs of bytes supplementary characters can start with, for each charset.
+     */
+    private static final Map<Charset, long[]> supplementaryStartPairs = new ConcurrentHashMap<>();
+
+    private final String needle;
+    private final Charset charset;
     private final RuleBasedCollator collator;
-    private final CharsetDecoder charsetDecoder;
+    private final int likelyMaxSize;
+    private final int windowSize;
 
-    private ByteBuffer byteBuffer;
-    private CharBuffer charBuffer;
+    /**
+     * Pairs of bytes a match can start with, as a bit set indexed by {@code (first << 8) | second}.
+     */
+    private final long[] startPairs = new long[65536 / 64];
+
+    /**
+     * Bytes a match can start with, for the last position, where there is no second byte.
+     */
+    private final boolean[] startBytes = new boolean[256];
 
     TextSearcher(String needle, Charset charset) {
+        this(needle, charset, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param needle the needle.
+     * @param charset the charset to decode the haystack with.
+     * @param windowSize the number of positions to read from the haystack in one go.
+     */
+    TextSearcher(String needle, Charset charset, int windowSize) {
+        this.needle = needle;
+        this.charset = charset;
+        this.windowSize = Math.max(1, windowSize);
 
         // ICU does this cast itself so it must be safe.
-        collator = (RuleBasedCollator) Collator.getInstance();
+        ULocale locale = ULocale.getDefault();
+        RuleBasedCollator collator = (RuleBasedCollator) Collator.getInstance(locale);
         collator.setStrength(Collator.IDENTICAL);
+        // Frozen so that the same collator can be used from multiple searching threads.
+        this.collator = (RuleBasedCollator) collator.freeze();
+
+        likelyMaxSize = (int) Math.ceil(needle.length() * charset.newEncoder().maxBytesPerChar());
+
+        computeStartBytes(collationTables.computeIfAbsent(locale, key -> new CollationTable(this.collator)));
+    }
+
+    /**
+     * Fills in the tables of bytes a match can start with.
+     *
+     * @param collationTable information about the collator.
+     */
+    private void computeStartBytes(CollationTable collationTable) {
+        int firstOrder = nextNonNullElement(collator.getCollationElementIterator(needle));
+        if (firstOrder == CollationElementIterator.NULLORDER ||
+            CollationElementIterator.primaryOrder(firstOrder) == 0 ||
+            collationTable.contractionStarts == null ||
+            !charset.canEncode()) {
+            // Needle starts with something like an accent, which canonical reordering could move around,
+            // or we can't figure out what the bytes could be. Every position is a candidate.
+            Arrays.fill(startPairs, -1L);
+            Arrays.fill(startBytes, true);
+            return;
+        }
 
-        needleIterator = collator.getCollationElementIterator(needle);
+        CharsetEncoder encoder = charset.newEncoder();
+        for (int ch = 0; ch <= Character.MAX_VALUE; ch++) {
+            if (collationTable.firstElements[ch] == firstOrder && !Character.isSurrogate((char) ch)) {
+                markStart(encoder, String.valueOf((char) ch), startPairs);
+            }
+        }
 
-        charsetDecoder = charset.newDecoder();
-        int likelyMaxSize = (int) Math.ceil(needle.length() * charset.newEncoder().maxBytesPerChar());
-        byteBuffer = ByteBuffer.allocate(2 * likelyMaxSize);
-        charBuffer = CharBuffer.allocate(2 * needle.length());
+        // Characters starting contractions have different collation elements when followed by the rest
+        // of the contraction, so they might start a match even though they wouldn't by themselves.
+        for (String contractionStart : collationTable.contractionStarts) {
+            markStart(encoder, contractionStart, startPairs);
+        }
 
+        long[] supplementaryPairs = supplementaryStartPairs.computeIfAbsent(charset, key -> {
+            // Checking every supplementary character would take too long, so assume they could all
+            // start a match. The first two bytes only depend on the high surrogate, give or take a boundary.
+            long[] pairs = new long[65536 / 64];
+            CharsetEncoder supplementaryEncoder = charset.newEncoder();
+            for (char high = Character.MIN_HIGH_SURROGATE; high <= Character.MAX_HIGH_SURROGATE; high++) {
+                markStart(supplementaryEncoder, new String(new char[] { high, Character.MIN_LOW_SURROGATE }), pairs);
+                markStart(supplementaryEncoder, new String(new char[] { high, Character.MAX_LOW_SURROGATE }), pairs);
+            }
+            return pairs;
+        });
+        for (int i = 0; i < startPairs.length; i++) {
+            startPairs[i] |= supplementaryPairs[i];
+        }
+
+        for (int first = 0; first < 256; first++) {
+            for (int i = first << 2; i < (first + 1) << 2; i++) {
+                if (startPairs[i] != 0) {
+                    startBytes[first] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the encodings of some text as somewhere a match can start.
+     *
+     * @param encoder the encoder.
+     * @param text the text, usually a single code point.
+     * @param pairs the bit set of pairs of bytes to mark.
+     */
+    private static void markStart(CharsetEncoder encoder, String text, long[] pairs) {
+        byte[] single;
+        byte[] doubled;
+        try {
+            single = encode(encoder, text);
+            doubled = encode(encoder, text + text);
+        } catch (CharacterCodingException e) {
+            // Can't be encoded, so won't be decoded either.
+            return;
+        }
+
+        markStart(single, 0, pairs);
+
+        // Encoders which write something like a byte order mark at the start would otherwise hide
+        // the bytes the text gets in the middle of a string. The second copy starts where the first
+        // one ended.
+        markStart(doubled, single.length, pairs);
+    }
+
+    private static void markStart(byte[] encoded, int offset, long[] pairs) {
+        if (offset >= encoded.length) {
+            return;
+        }
+
+        int first = encoded[offset] & 0xFF;
+        if (offset + 1 < encoded.length) {
+            int pair = (first << 8) | (encoded[offset + 1] & 0xFF);
+            pairs[pair >>> 6] |= 1L << pair;
+        } else {
+            // Could be followed by anything.
+            Arrays.fill(pairs, first << 2, (first + 1) << 2, -1L);
+        }
+    }
+
+    private static byte[] encode(CharsetEncoder encoder, String text) throws CharacterCodingException {
+        encoder.reset();
+        ByteBuffer buffer = encoder.encode(CharBuffer.wrap(text));
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
     }
 
     @Nullable
     @Override
-    public Match find(Binary haystack, long startPosition, SearchParams params) {
-        long position = startPosition;
-        long haystackLength = haystack.length();
-        boolean wrappedAlready = false;
-        while (true) {
-            Match matchResult = testForMatch(haystack, position);
-            if (matchResult != null) {
-                return matchResult;
-            }
+    Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                       SearchMonitor monitor) {
+        return search(haystack, fromPosition, toPosition, limitPosition, false, monitor, null);
+    }
 
-            if (params.isBackwards()) {
-                position --;
-                if (position < 0) {
-                    if (params.isWrapping() && !wrappedAlready) {
-                        wrappedAlready = true;
-                        position = haystackLength - 1;
-                    } else {
-                        break;
-                    }
+    @Nullable
+    @Override
+    Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                        SearchMonitor monitor) {
+        return search(haystack, fromPosition, toPosition, limitPosition, true, monitor, null);
+    }
+
+    @Override
+    void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                 SearchMonitor monitor, MatchListener listener) {
+        search(haystack, fromPosition, toPosition, limitPosition, false, monitor, listener);
+    }
+
+    /**
+     * Searches a range of start positions a window at a time. Each window also holds enough bytes past
+     * the last position in it that most matches can be tested without reading the haystack again.
+     *
+     * @param haystack the haystack.
+     * @param fromPosition the first position where a match may start, inclusive.
+     * @param toPosition the last position where a match may start, exclusive.
+     * @param limitPosition the position where the match must end by, exclusive.
+     * @param backwards {@code true} to search from the end of the range, {@code false} to search from the start.
+     * @param monitor the monitor to report progress to.
+     * @param listener the listener to report all matches to, or {@code null} to stop at the first match.
+     * @return the first match found, or {@code null} if no match is found or a listener was given.
+     */
+    @Nullable
+    private Match search(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                         boolean backwards, SearchMonitor monitor, @Nullable MatchListener listener) {
+        fromPosition = Math.max(fromPosition, 0);
+        toPosition = Math.min(toPosition, Math.min(limitPosition, haystack.length()));
+        limitPosition = Math.min(limitPosition, haystack.length());
+        if (fromPosition >= toPosition) {
+            return null;
+        }
+
+        MatchState state = new MatchState();
+        int lookahead = 2 * likelyMaxSize;
+        byte[] window = new byte[(int) Math.min(windowSize, toPosition - fromPosition) + lookahead];
+
+        long remaining = toPosition - fromPosition;
+        while (remaining > 0) {
+            checkCancelled(monitor);
+
+            int positionCount = (int) Math.min(windowSize, remaining);
+            long windowPosition = backwards ? fromPosition + remaining - positionCount : toPosition - remaining;
+            int windowLength = (int) Math.min(positionCount + lookahead, limitPosition - windowPosition);
+            haystack.read(windowPosition, ByteBuffer.wrap(window, 0, windowLength));
+
+            for (int i = 0; i < positionCount; i++) {
+                int index = backwards ? positionCount - 1 - i : i;
+                if (!isPossibleStart(window, index, windowLength)) {
+                    continue;
                 }
-            } else {
-                position ++;
-                if (position >= haystackLength) {
-                    if (params.isWrapping() && !wrappedAlready) {
-                        wrappedAlready = true;
-                        position = 0;
-                    } else {
-                        break;
+
+                Match found = state.testForMatch(haystack, windowPosition + index, limitPosition,
+                                                 window, index, windowLength);
+                if (found != null) {
+                    if (listener == null) {
+                        monitor.searched(i + 1);
+                        return found;
                     }
+                    listener.matchFound(found.offset, found.length);
                 }
             }
+
+            monitor.searched(positionCount);
+            remaining -= positionCount;
         }
         return null;
     }
 
-    private Match testForMatch(Binary haystack, long position) {
-        if (position >= haystack.length()) {
-            return null;
+    private boolean isPossibleStart(byte[] window, int index, int windowLength) {
+        int first = window[index] & 0xFF;
+        if (index + 1 < windowLength) {
+            int pair = (first << 8) | (window[index + 1] & 0xFF);
+            return (startPairs[pair >>> 6] & (1L << pair)) != 0;
+        } else {
+            return startBytes[first];
         }
+    }
 
-        while (true) {
-            byteBuffer.clear();
-            charBuffer.clear();
-            charsetDecoder.reset();
-            needleIterator.reset();
-
-            // Read some number of bytes into the byte buffer.
-            byteBuffer.limit(Math.min(byteBuffer.capacity(), (int) (haystack.length() - position)));
-            haystack.read(position, byteBuffer);
-            byteBuffer.flip();
-
-            // Try to convert that to chars.
-            boolean endOfInput = byteBuffer.limit() < byteBuffer.capacity();
-            CoderResult coderResult = charsetDecoder.decode(byteBuffer, charBuffer, endOfInput);
-            if (coderResult.isError()) {
-                return null;
-            }
-            charBuffer.flip();
-
-            CollationElementIterator haystackIterator = collator.getCollationElementIterator(
-                UCharacterIterator.getInstance(charBuffer.array(), 0, charBuffer.limit()));
+    /**
+     * Holds the buffers used while testing for a match, which are reused between positions
+     * but cannot be shared between threads.
+     */
+    private class MatchState {
+        private final CollationElementIterator needleIterator = collator.getCollationElementIterator(needle);
+        private final CollationElementIterator haystackIterator = collator.getCollationElementIterator("");
+        private final CharsetDecoder charsetDecoder = charset.newDecoder();
 
-            int firstOrder = haystackIterator.next();
-            if (firstOrder == CollationElementIterator.NULLORDER ||
-                firstOrder == CollationElementIterator.IGNORABLE) {
-                // Special case of having ignorable stuff at the front of the match (e.g. NULs.)
-                return null;
-            }
+        private ByteBuffer byteBuffer = ByteBuffer.allocate(2 * likelyMaxSize);
+        private CharBuffer charBuffer = CharBuffer.allocate(2 * needle.length());
 
-            haystackIterator.reset();
+        /**
+         * Tests for a match at a position, decoding from the window if it has enough bytes,
+         * otherwise reading from the haystack.
+         *
+         * @param haystack the haystack.
+         * @param position the position to test.
+         * @param limitPosition the position where the match must end by, exclusive.
+         * @param window the window the position is in.
+         * @param index the index of the position in the window.
+         * @param windowLength the number of bytes in the window.
+         * @return the match, or {@code null} if there is no match at this position.
+         */
+        @Nullable
+        private Match testForMatch(Binary haystack, long position, long limitPosition,
+                                   byte[] window, int index, int windowLength) {
             while (true) {
-                int matchCharCount = haystackIterator.getOffset();
-                int needleOrder = nextNonNullElement(needleIterator);
-                int haystackOrder = nextNonNullElement(haystackIterator);
-
-                if (needleOrder == CollationElementIterator.NULLORDER) {
-                    // Found a match, but how many bytes was it?
-                    int matchByteCount = 0;
-                    while (true) {
-                        matchByteCount++;
-
-                        byteBuffer.position(0);
-                        byteBuffer.limit(matchByteCount);
-                        charBuffer.clear();
-                        charsetDecoder.decode(byteBuffer, charBuffer, endOfInput);
+                long remaining = limitPosition - position;
+                int length = (int) Math.min(byteBuffer.capacity(), remaining);
+                boolean endOfInput = length == remaining;
 
-                        if (charBuffer.position() == matchCharCount) {
-                            break;
-                        }
+                ByteBuffer bytes;
+                if (windowLength - index >= length) {
+                    bytes = ByteBuffer.wrap(window, index, length);
+                } else {
+                    byteBuffer.clear();
+                    byteBuffer.limit(length);
+                    haystack.read(position, byteBuffer);
+                    byteBuffer.flip();
+                    bytes = byteBuffer;
+                }
+                int startIndex = bytes.position();
+
+                // Try to convert that to chars.
+                charBuffer.clear();
+                charsetDecoder.reset();
+                CoderResult coderResult = charsetDecoder.decode(bytes, charBuffer, endOfInput);
+                if (coderResult.isError()) {
+                    // What was decoded before the bad bytes can still be a match, but reading more won't help.
+                    if (charBuffer.position() == 0) {
+                        return null;
                     }
+                    endOfInput = true;
+                } else if (coderResult.isOverflow()) {
+                    endOfInput = false;
+                }
+                charBuffer.flip();
+
+                haystackIterator.setText(UCharacterIterator.getInstance(charBuffer.array(), 0, charBuffer.limit()));
+                needleIterator.reset();
 
-                    // End of the needle, therefore it's a match.
-                    return new Match(position, matchByteCount);
+                int firstOrder = haystackIterator.next();
+                if (firstOrder == CollationElementIterator.NULLORDER ||
+                    firstOrder == CollationElementIterator.IGNORABLE) {
+                    // Special case of having ignorable stuff at the front of the match (e.g. NULs.)
+                    return null;
                 }
-                if (haystackOrder == CollationElementIterator.NULLORDER) {
-                    if (endOfInput) {
-                        return null;
+
+                haystackIterator.reset();
+                while (true) {
+                    int matchCharCount = haystackIterator.getOffset();
+                    int needleOrder = nextNonNullElement(needleIterator);
+                    int haystackOrder = nextNonNullElement(haystackIterator);
+
+                    if (needleOrder == CollationElementIterator.NULLORDER) {
+                        // End of the needle, therefore it's a match. Decoding exactly as many chars again
+                        // tells us how many bytes it was.
+                        bytes.position(startIndex);
+                        charBuffer.clear();
+                        charBuffer.limit(matchCharCount);
+                        charsetDecoder.reset();
+                        charsetDecoder.decode(bytes, charBuffer, endOfInput);
+                        // A needle of nothing but ignorable characters still matches at least a byte.
+                        return new Match(position, Math.max(1, bytes.position() - startIndex));
+                    }
+                    if (haystackOrder == CollationElementIterator.NULLORDER) {
+                        if (endOfInput) {
+                            return null;
+                        }
+
+                        // Ran out of text before the needle did, which happens when the text is much longer
+                        // than the needle, such as when it is decomposed or has ignorable characters in it.
+                        // The position is tested again from the start with bigger buffers, which are kept
+                        // for the rest of the search, so this only happens a few times per search.
+                        byteBuffer = ByteBuffer.allocate(byteBuffer.capacity() * 2);
+                        charBuffer = CharBuffer.allocate(charBuffer.capacity() * 2);
+                        break; // will go to the outer group
                     }
 
-                    byteBuffer = ByteBuffer.allocate(byteBuffer.capacity() * 2);
-                    charBuffer = CharBuffer.allocate(charBuffer.capacity() * 2);
-                    break; // will go to the outer group
+                    if (needleOrder != haystackOrder) {
+                        // This character doesn't match.
+                        return null;
+                    }
+                    // Otherwise, back around for the next collation element.
                 }
+            }
+        }
+    }
 
-                if (needleOrder != haystackOrder) {
-                    // This character doesn't match.
-                    return null;
+    /**
+     * What we need to know about a collator to work out where matches can start.
+     */
+    private static class CollationTable {
+        /**
+         * The first collation element of every character in the BMP, indexed by character.
+         */
+        private final int[] firstElements = new int[Character.MAX_VALUE + 1];
+
+        /**
+         * The first code point of every contraction, or {@code null} if they couldn't be determined.
+         */
+        @Nullable
+        private final Set<String> contractionStarts;
+
+        private CollationTable(RuleBasedCollator collator) {
+            CollationElementIterator iterator = collator.getCollationElementIterator("");
+            for (int ch = 0; ch <= Character.MAX_VALUE; ch++) {
+                iterator.setText(String.valueOf((char) ch));
+                firstElements[ch] = iterator.next();
+            }
+
+            Set<String> contractionStarts = new HashSet<>();
+            try {
+                UnicodeSet contractions = new UnicodeSet();
+                collator.getContractionsAndExpansions(contractions, null, false);
+                for (String contraction : contractions) {
+                    contractionStarts.add(contraction.substring(0, Character.charCount(contraction.codePointAt(0))));
                 }
-                // Otherwise, back around for the next collation element.
+            } catch (Exception e) {
+                // Declared by ICU but not expected.
+                contractionStarts = null;
             }
+            this.contractionStarts = contractionStarts;
         }
     }
 
@@ -181,7 +463,7 @@ class TextSearcher implements Searcher {
      * @param iterator the iterator.
      * @return the next non-ignored collation element, which cannot possibly be {@code IGNORABLE}.
      */
-    private int nextNonNullElement(CollationElementIterator iterator) {
+    private static int nextNonNullElement(CollationElementIterator iterator) {
         int order = CollationElementIterator.IGNORABLE;
         while (order != CollationElementIterator.NULLORDER) {
             order = iterator.next();
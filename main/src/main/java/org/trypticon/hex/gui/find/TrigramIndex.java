@@ -0,0 +1,472 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.binary.Binary;
+
+/**
+ * <p>Index of the three-byte sequences occurring in a binary, stored in a file so that it can be reused
+ *    every time the binary is searched.</p>
+ *
+ * <p>The binary is divided into blocks, and each block gets a Bloom filter of the trigrams starting in it.
+ *    The filters are stored bit-sliced: bit {@code n} of every block's filter is stored together, so finding
+ *    the blocks which might contain a needle only reads one row of bits per trigram in the needle, no
+ *    matter how large the binary is. Those blocks then have to be searched as normal to verify them.</p>
+ *
+ * <p>Each filter has one bit set per distinct trigram, so the filters are sized from the blocks sampled
+ *    across the binary which have the most distinct trigrams, keeping at least half of each filter clear.
+ *    At most, a filter is an eighth of the size of its block, which is what random or compressed data needs,
+ *    so the index takes up to 12.5% of the size of the binary. Binaries with less variety, like text or
+ *    sparse structures, get smaller filters.</p>
+ *
+ * <p>The index records the length and modification time of the binary, along with a checksum of bytes
+ *    sampled across it, and will not open if the binary no longer matches.</p>
+ *
+ * @author trejkaz
+ */
+class TrigramIndex {
+
+    /**
+     * Default size of each block of the binary.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The fewest bits in each block's filter, as a power of two.
+     */
+    static final int MIN_FILTER_BITS_LOG2 = 6;
+
+    /**
+     * The most bits in each block's filter, as a power of two.
+     */
+    static final int MAX_FILTER_BITS_LOG2 = 16;
+
+    /**
+     * The most trigrams from a needle used to look up candidates. More than this only costs time
+     * without narrowing things down much further.
+     */
+    static final int MAX_LOOKUP_TRIGRAMS = 32;
+
+    @NonNls
+    private static final byte[] MAGIC = "HEXIDX01".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = MAGIC.length + 8 + 8 + 8 + 4 + 4 + 4;
+
+    private static final int SAMPLE_COUNT = 16;
+    private static final int SAMPLE_SIZE = 4096;
+
+    /**
+     * The most memory to use for the part of the filters built up at once, in bytes.
+     */
+    private static final int BUILD_MEMORY = 32 * 1024 * 1024;
+
+    /**
+     * The most memory to use for buffering a single write, in bytes.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path indexFile;
+    private final int blockSize;
+    private final int filterBitsLog2;
+    private final int blockCount;
+    private final int rowWords;
+
+    private TrigramIndex(Path indexFile, int blockSize, int filterBitsLog2, int blockCount) {
+        this.indexFile = indexFile;
+        this.blockSize = blockSize;
+        this.filterBitsLog2 = filterBitsLog2;
+        this.blockCount = blockCount;
+        rowWords = (blockCount + 63) / 64;
+    }
+
+    /**
+     * Gets the index file to use for a notebook, which sits next to the notebook file.
+     *
+     * @param notebookFile the notebook file.
+     * @return the index file.
+     */
+    static Path indexFileFor(Path notebookFile) {
+        return notebookFile.resolveSibling(notebookFile.getFileName() + ".index");
+    }
+
+    /**
+     * Opens an existing index.
+     *
+     * @param indexFile the index file.
+     * @param binary the binary the index should be for.
+     * @param binaryModified the modification time of the binary, or {@code 0} if it is unknown.
+     * @return the index, or {@code null} if the file doesn't exist, is not an index, or is for
+     *         a different or modified binary.
+     * @throws IOException if an error occurs reading the file.
+     */
+    @Nullable
+    static TrigramIndex open(Path indexFile, Binary binary, long binaryModified) throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            long length = header.getLong();
+            long modified = header.getLong();
+            long fingerprint = header.getLong();
+            int blockSize = header.getInt();
+            int filterBitsLog2 = header.getInt();
+            int blockCount = header.getInt();
+
+            if (!Arrays.equals(magic, MAGIC) || length != binary.length() || modified != binaryModified ||
+                blockSize <= 0 || filterBitsLog2 < MIN_FILTER_BITS_LOG2 || filterBitsLog2 > MAX_FILTER_BITS_LOG2 ||
+                blockCount != blockCount(length, blockSize) ||
+                channel.size() != indexSize(blockCount, filterBitsLog2) ||
+                fingerprint != fingerprint(binary)) {
+                return null;
+            }
+
+            return new TrigramIndex(indexFile, blockSize, filterBitsLog2, blockCount);
+        }
+    }
+
+    /**
+     * Works out how many bits each block's filter needs, from the number of distinct trigrams in blocks
+     * sampled across the binary.
+     *
+     * @param binary the binary.
+     * @param blockSize the size of each block of the binary.
+     * @return the number of bits in each filter, as a power of two.
+     */
+    static int chooseFilterBits(Binary binary, int blockSize) {
+        int blockCount = blockCount(binary.length(), blockSize);
+        int sampleCount = Math.min(SAMPLE_COUNT, blockCount);
+        BitSet seen = new BitSet(1 << 24);
+        byte[] block = new byte[blockSize + 2];
+        int maxDistinct = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            int blockIndex = sampleCount == 1 ? 0 : (int) ((long) (blockCount - 1) * i / (sampleCount - 1));
+            int trigramCount = readBlock(binary, blockIndex, blockSize, block);
+            seen.clear();
+            int distinct = 0;
+            if (trigramCount > 0) {
+                int trigram = ((block[0] & 0xFF) << 8) | (block[1] & 0xFF);
+                for (int j = 0; j < trigramCount; j++) {
+                    trigram = ((trigram << 8) | (block[j + 2] & 0xFF)) & 0xFFFFFF;
+                    if (!seen.get(trigram)) {
+                        seen.set(trigram);
+                        distinct++;
+                    }
+                }
+            }
+            maxDistinct = Math.max(maxDistinct, distinct);
+        }
+
+        int filterBitsLog2 = MIN_FILTER_BITS_LOG2;
+        while (filterBitsLog2 < MAX_FILTER_BITS_LOG2 && (1 << filterBitsLog2) < 2 * maxDistinct) {
+            filterBitsLog2++;
+        }
+        return filterBitsLog2;
+    }
+
+    /**
+     * Estimates the size of the index file for a binary, to tell the user before building it.
+     *
+     * @param binary the binary.
+     * @param blockSize the size of each block of the binary.
+     * @return the size of the index file, in bytes.
+     */
+    static long estimateSize(Binary binary, int blockSize) {
+        return indexSize(blockCount(binary.length(), blockSize), chooseFilterBits(binary, blockSize));
+    }
+
+    /**
+     * Builds an index for a binary, replacing any existing index file. The size of the filters is
+     * chosen to suit the binary.
+     *
+     * @param binary the binary.
+     * @param binaryModified the modification time of the binary, or {@code 0} if it is unknown.
+     * @param indexFile the index file to write.
+     * @param blockSize the size of each block of the binary.
+     * @param monitor the monitor to report progress to, and check for cancellation.
+     * @return the index.
+     * @throws IOException if an error occurs writing the file.
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    static TrigramIndex build(Binary binary, long binaryModified, Path indexFile, int blockSize,
+                              SearchMonitor monitor) throws IOException {
+        return build(binary, binaryModified, indexFile, blockSize, chooseFilterBits(binary, blockSize), monitor);
+    }
+
+    /**
+     * Builds an index for a binary, replacing any existing index file.
+     *
+     * @param binary the binary.
+     * @param binaryModified the modification time of the binary, or {@code 0} if it is unknown.
+     * @param indexFile the index file to write.
+     * @param blockSize the size of each block of the binary.
+     * @param filterBitsLog2 the number of bits in each block's filter, as a power of two.
+     * @param monitor the monitor to report progress to, and check for cancellation.
+     * @return the index.
+     * @throws IOException if an error occurs writing the file.
+     * @throws java.util.concurrent.CancellationException if the monitor is cancelled.
+     */
+    static TrigramIndex build(Binary binary, long binaryModified, Path indexFile, int blockSize, int filterBitsLog2,
+                              SearchMonitor monitor) throws IOException {
+        if (filterBitsLog2 < MIN_FILTER_BITS_LOG2 || filterBitsLog2 > MAX_FILTER_BITS_LOG2) {
+            throw new IllegalArgumentException("Filter bits out of range: " + filterBitsLog2);
+        }
+
+        long length = binary.length();
+        int blockCount = blockCount(length, blockSize);
+        int rowWords = (blockCount + 63) / 64;
+        int rowCount = 1 << filterBitsLog2;
+
+        Path tempFile = Files.createTempFile(indexFile.toAbsolutePath().getParent(),
+                                             indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.put(MAGIC);
+                header.putLong(length);
+                header.putLong(binaryModified);
+                header.putLong(fingerprint(binary));
+                header.putInt(blockSize);
+                header.putInt(filterBitsLog2);
+                header.putInt(blockCount);
+                header.flip();
+                writeFully(channel, header, 0);
+
+                // Rows are laid out one after another, but blocks are read one after another, so as many columns
+                // of every row as fit in memory are built up and then written out to each row in turn.
+                int buildColumns = Math.max(1, Math.min(rowWords, BUILD_MEMORY / 8 / rowCount));
+                long[] columns = new long[rowCount * buildColumns];
+                ByteBuffer writeBuffer = ByteBuffer.allocate(Math.min(columns.length * 8, WRITE_BUFFER_SIZE));
+                byte[] block = new byte[blockSize + 2];
+                for (int firstWord = 0; firstWord < rowWords; firstWord += buildColumns) {
+                    int columnCount = Math.min(buildColumns, rowWords - firstWord);
+                    Arrays.fill(columns, 0);
+
+                    int lastBlock = Math.min(blockCount, (firstWord + columnCount) * 64);
+                    for (int blockIndex = firstWord * 64; blockIndex < lastBlock; blockIndex++) {
+                        AbstractSearcher.checkCancelled(monitor);
+
+                        int trigramCount = readBlock(binary, blockIndex, blockSize, block);
+                        int column = blockIndex / 64 - firstWord;
+                        long bit = 1L << (blockIndex % 64);
+                        if (trigramCount > 0) {
+                            int trigram = ((block[0] & 0xFF) << 8) | (block[1] & 0xFF);
+                            for (int i = 0; i < trigramCount; i++) {
+                                trigram = ((trigram << 8) | (block[i + 2] & 0xFF)) & 0xFFFFFF;
+                                columns[hash(trigram, filterBitsLog2) * buildColumns + column] |= bit;
+                            }
+                        }
+
+                        monitor.searched(Math.min(blockSize, length - (long) blockIndex * blockSize));
+                    }
+
+                    if (columnCount == rowWords) {
+                        // Every column fits at once, so the rows sit next to each other and go out in one write.
+                        writeLongs(channel, writeBuffer, columns, 0, columns.length, HEADER_SIZE);
+                    } else {
+                        for (int row = 0; row < rowCount; row++) {
+                            writeLongs(channel, writeBuffer, columns, row * buildColumns, columnCount,
+                                       HEADER_SIZE + ((long) row * rowWords + firstWord) * 8);
+                        }
+                    }
+                }
+            }
+
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        TrigramIndex index = open(indexFile, binary, binaryModified);
+        if (index == null) {
+            throw new IOException("Index could not be opened after building it: " + indexFile);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the size of each block of the binary.
+     *
+     * @return the block size.
+     */
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Gets the number of blocks.
+     *
+     * @return the block count.
+     */
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Finds the blocks where a match for the needle might start. Blocks where a match definitely doesn't start
+     * are excluded, but blocks which are included still have to be searched to see whether there really is one.
+     *
+     * @param needle the needle.
+     * @return the candidate blocks, as a bit set with one bit per block, or {@code null} if the needle is too short
+     *         for the index to help.
+     * @throws IOException if an error occurs reading the index.
+     */
+    @Nullable
+    long[] findCandidateBlocks(byte[] needle) throws IOException {
+        int trigramCount = Math.min(needle.length - 2, Math.min(MAX_LOOKUP_TRIGRAMS, blockSize));
+        if (trigramCount <= 0) {
+            return null;
+        }
+
+        long[] candidates = new long[rowWords];
+        Arrays.fill(candidates, -1L);
+        if (blockCount % 64 != 0) {
+            candidates[rowWords - 1] = (1L << (blockCount % 64)) - 1;
+        }
+
+        ByteBuffer rowBuffer = ByteBuffer.allocate(rowWords * 8);
+        long[] row = new long[rowWords];
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            for (int i = 0; i < trigramCount; i++) {
+                int trigram = ((needle[i] & 0xFF) << 16) | ((needle[i + 1] & 0xFF) << 8) | (needle[i + 2] & 0xFF);
+                rowBuffer.clear();
+                readFully(channel, rowBuffer, HEADER_SIZE + (long) hash(trigram, filterBitsLog2) * rowWords * 8);
+                rowBuffer.flip();
+                rowBuffer.asLongBuffer().get(row);
+
+                if (i == 0) {
+                    // The first trigram starts where the match starts, so it must be in the block itself.
+                    for (int word = 0; word < rowWords; word++) {
+                        candidates[word] &= row[word];
+                    }
+                } else {
+                    // Later trigrams can start in the block or run on into the next one.
+                    for (int word = 0; word < rowWords; word++) {
+                        long next = word + 1 < rowWords ? row[word + 1] << 63 : 0;
+                        candidates[word] &= row[word] | (row[word] >>> 1) | next;
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static int blockCount(long length, int blockSize) {
+        long count = (length + blockSize - 1) / blockSize;
+        if (count > Integer.MAX_VALUE - 63) {
+            throw new IllegalArgumentException("Binary is too large for the block size: " + length);
+        }
+        return (int) count;
+    }
+
+    private static long indexSize(int blockCount, int filterBitsLog2) {
+        return HEADER_SIZE + (((blockCount + 63) / 64 * 8L) << filterBitsLog2);
+    }
+
+    private static int hash(int trigram, int filterBitsLog2) {
+        return (trigram * 0x9E3779B1) >>> (32 - filterBitsLog2);
+    }
+
+    /**
+     * Reads a block of the binary, along with the two bytes after it, as trigrams starting near the end
+     * of the block run over into the next one.
+     *
+     * @param binary the binary.
+     * @param blockIndex the index of the block.
+     * @param blockSize the size of each block.
+     * @param block the array to read into, which must have room for the block and two more bytes.
+     * @return the number of trigrams starting in the block.
+     */
+    private static int readBlock(Binary binary, int blockIndex, int blockSize, byte[] block) {
+        long position = (long) blockIndex * blockSize;
+        int readLength = (int) Math.min(block.length, binary.length() - position);
+        binary.read(position, ByteBuffer.wrap(block, 0, readLength));
+        return Math.min(blockSize, readLength - 2);
+    }
+
+    /**
+     * Computes a checksum of bytes sampled evenly across the binary, to detect changes without reading all of it.
+     *
+     * @param binary the binary.
+     * @return the checksum.
+     */
+    private static long fingerprint(Binary binary) {
+        long length = binary.length();
+        CRC32 crc = new CRC32();
+        byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, length)];
+        long lastSamplePosition = length - sample.length;
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            long position = lastSamplePosition / (SAMPLE_COUNT - 1) * i;
+            if (i == SAMPLE_COUNT - 1) {
+                position = lastSamplePosition;
+            }
+            binary.read(position, ByteBuffer.wrap(sample));
+            crc.update(sample);
+        }
+        return crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of index file");
+            }
+            position += count;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void writeLongs(FileChannel channel, ByteBuffer buffer, long[] values, int offset, int count,
+                                   long position) throws IOException {
+        int perWrite = buffer.capacity() / 8;
+        for (int i = 0; i < count; i += perWrite) {
+            int writeCount = Math.min(perWrite, count - i);
+            buffer.clear();
+            buffer.asLongBuffer().put(values, offset + i, writeCount);
+            buffer.limit(writeCount * 8);
+            writeFully(channel, buffer, position + i * 8L);
+        }
+    }
+}
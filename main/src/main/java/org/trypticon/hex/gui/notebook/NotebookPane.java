@@ -62,8 +62,10 @@ public class NotebookPane extends JPanel {
     private final ExpandableAccessoryBar accessoryBar;
     private final AnnotationPane annoPane;
 
-    PropertyChangeListener notebookLocationListener = event ->
+    PropertyChangeListener notebookLocationListener = event -> {
         firePropertyChange("notebookLocation", event.getOldValue(), event.getNewValue());
+        updateFindBarFiles();
+    };
     PropertyChangeListener unsavedListener = event ->
         firePropertyChange("unsaved", event.getOldValue(), event.getNewValue());
 
@@ -92,7 +94,7 @@ public class NotebookPane extends JPanel {
 
         JPanel viewerWrapper = new JPanel(new BorderLayout());
         viewerWrapper.add(topBars, BorderLayout.PAGE_START);
-        viewerWrapper.add(viewer, BorderLayout.CENTER);
+        viewerWrapper.add(topBars.getFindBar().createHighlightingLayer(), BorderLayout.CENTER);
         viewerWrapper.add(accessoryBar, BorderLayout.PAGE_END);
 
         annoPane.addPropertyChangeListener("selectedAnnotationPath", event -> {
@@ -102,6 +104,9 @@ public class NotebookPane extends JPanel {
                 Annotation annotation = selectedAnnotationPath.get(selectedAnnotationPath.size() - 1);
                 viewer.getSelectionModel().setCursor(annotation.getPosition());
                 viewer.getSelectionModel().setCursorAndExtendSelection(annotation.getPosition() + annotation.getLength() - 1);
+                topBars.getFindBar().setSelectedAnnotation(annotation);
+            } else {
+                topBars.getFindBar().setSelectedAnnotation(null);
             }
         });
 
@@ -119,11 +124,14 @@ public class NotebookPane extends JPanel {
 
         setNotebook(notebook);
 
-        // Esc closes the find bar and returns focus to the viewer.
+        // Esc cancels a running search, otherwise closes the find bar and returns focus to the viewer.
         getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ESCAPE"), "close-top-bar");
         getActionMap().put("close-top-bar", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent event) {
+                if (topBars.getFindBar().cancelSearch()) {
+                    return;
+                }
                 topBars.hideBar();
                 viewer.requestFocusInWindow();
             }
@@ -166,10 +174,28 @@ public class NotebookPane extends JPanel {
 
         viewer.setAnnotations(annoPane.getExpandedAnnotations());
         viewer.setBinary(notebook.getBinary());
+        updateFindBarFiles();
+        topBars.getFindBar().setAnnotations(notebook.getAnnotations());
 
         attachListeners();
     }
 
+    /**
+     * Tells the find bar where the notebook and binary are, so that it can keep a search index next to them.
+     */
+    private void updateFindBarFiles() {
+        File binaryFile = null;
+        URL binaryLocation = notebook.getBinaryLocation();
+        if (binaryLocation != null && "file".equals(binaryLocation.getProtocol())) {
+            try {
+                binaryFile = new File(binaryLocation.toURI());
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException("Illegal URI but it came from a URL: " + binaryLocation, e);
+            }
+        }
+        topBars.getFindBar().setNotebookFiles(getNotebookFile(), binaryFile);
+    }
+
     /**
      * Gets the notebook location.
      *
@@ -32,6 +32,7 @@ import org.jetbrains.annotations.NonNls;
 public class PreferredDirectoryManager {
     public static final Key BINARIES = new Key("binaries");
     public static final Key NOTEBOOKS = new Key("notebooks");
+    public static final Key SIGNATURES = new Key("signatures");
 
     /**
      * Gets the preferences node to use for storing the state.
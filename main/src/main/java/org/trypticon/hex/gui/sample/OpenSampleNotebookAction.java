@@ -26,7 +26,7 @@ import org.trypticon.hex.anno.AnnotationCollection;
 import org.trypticon.hex.binary.Binary;
 import org.trypticon.hex.formats.Repository;
 import org.trypticon.hex.formats.Structure;
-import org.trypticon.hex.formats.ruby.RubyStructureDSL;
+import org.trypticon.hex.formats.yaml.YamlStructureLoader;
 import org.trypticon.hex.gui.HexApplication;
 import org.trypticon.hex.gui.Resources;
 import org.trypticon.hex.gui.notebook.DefaultNotebook;
@@ -57,9 +57,10 @@ public class OpenSampleNotebookAction extends BaseAction {
         Binary binary = notebook.getBinary();
         AnnotationCollection annotations = notebook.getAnnotations();
 
-        Structure structure = RubyStructureDSL.loadFromFile(Repository.getRoot().resolve("classfile/class_file.rb"));
+        Structure structure = YamlStructureLoader.loadFromFile(
+            Repository.getRoot().resolve("classfile/class_file.yaml"));
         if (structure == null) {
-            throw new IllegalStateException("class_file.rb couldn't be loaded");
+            throw new IllegalStateException("class_file.yaml couldn't be loaded");
         }
 
         annotations.add(structure.drop(binary, 0));
@@ -0,0 +1,312 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.scripting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.UIManager;
+
+import org.jdesktop.swingx.JXErrorPane;
+import org.jdesktop.swingx.error.ErrorInfo;
+import org.jetbrains.annotations.Nullable;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.AnnotationCollection;
+import org.trypticon.hex.anno.OverlappingAnnotationException;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.formats.DropMonitor;
+import org.trypticon.hex.formats.Structure;
+import org.trypticon.hex.gui.Resources;
+import org.trypticon.hex.gui.notebook.NotebookPane;
+import org.trypticon.hex.gui.undo.AddEdit;
+import org.trypticon.hex.util.LoggerUtils;
+
+/**
+ * <p>Loads a structure and drops it on a background thread, showing its progress and letting the user
+ *    cancel it.</p>
+ *
+ * <p>Fields are added to the annotations as they are finished, at any depth, so that they show up while the
+ *    rest is still being dropped. When a field is finished, it takes the place of the fields inside it. Once the
+ *    drop stops, they are swapped for the annotation of the whole structure in a single undoable edit. If the
+ *    drop fails or is cancelled, what was finished is kept, grouped the way the whole structure would have
+ *    been.</p>
+ *
+ * @author trejkaz
+ */
+class DropStructureWorker extends SwingWorker<Annotation, DropStructureWorker.DroppedField> implements DropMonitor {
+    private static final int POPUP_DELAY = 500;
+
+    private final NotebookPane notebookPane;
+    private final AnnotationCollection annotationCollection;
+    private final String name;
+    private final Supplier<Structure> loader;
+    private final Binary binary;
+    private final long startPosition;
+
+    private final JDialog progressDialog;
+    private final Timer popupTimer;
+
+    // Set by the dropping thread once the structure has been loaded, and only read elsewhere once it has stopped.
+    private boolean loaded;
+    private long expectedLength = -1;
+
+    // Only touched on the event dispatch thread. The fields which have been streamed and haven't been
+    // taken in by a field containing them yet, of which the first shownCount have been added to the annotations.
+    private final List<DroppedField> streamed = new ArrayList<>();
+    private int shownCount;
+    private boolean overlapped;
+    private boolean finished;
+    private boolean awaitingPartial;
+    @Nullable
+    private Annotation partial;
+
+    /**
+     * Constructs the worker.
+     *
+     * @param notebookPane the notebook pane to drop the structure into.
+     * @param name the name of the structure, to show while it is being loaded and dropped.
+     * @param loader loads the structure. Called on the background thread.
+     * @param startPosition the position to drop the structure at.
+     */
+    DropStructureWorker(NotebookPane notebookPane, String name, Supplier<Structure> loader, long startPosition) {
+        this.notebookPane = notebookPane;
+        this.annotationCollection = notebookPane.getViewer().getAnnotations();
+        this.name = name;
+        this.loader = loader;
+        this.binary = notebookPane.getViewer().getBinary();
+        this.startPosition = startPosition;
+
+        // Most structures only find out how long they are by being dropped, so there is nothing to measure
+        // their progress against. The rest of the binary would be no better, since they rarely fill it.
+        // Structures which know their length report progress once they have been loaded.
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setIndeterminate(true);
+        addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                progressBar.setIndeterminate(false);
+                progressBar.setValue((Integer) event.getNewValue());
+            }
+        });
+
+        // Laid out the same way as a ProgressMonitor, which can't show indeterminate progress.
+        JOptionPane progressPane = new JOptionPane(
+            new Object[] { Resources.getString("DropStructure.progress", name), progressBar },
+            JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION, null,
+            new Object[] { UIManager.getString("OptionPane.cancelButtonText") });
+        progressPane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, event -> {
+            // Pressing cancel or closing the dialog.
+            if (!finished) {
+                cancel(false);
+            }
+        });
+        progressDialog = progressPane.createDialog(notebookPane, UIManager.getString("ProgressMonitor.progressText"));
+        progressDialog.setModal(false);
+
+        // Small structures are done before the dialog would be worth showing.
+        popupTimer = new Timer(POPUP_DELAY, event -> progressDialog.setVisible(true));
+        popupTimer.setRepeats(false);
+        popupTimer.start();
+    }
+
+    @Override
+    protected Annotation doInBackground() {
+        Structure structure = loader.get();
+        loaded = true;
+        expectedLength = structure.getFixedLength();
+        if (isCancelled()) {
+            throw new CancellationException("Drop cancelled");
+        }
+        return structure.drop(binary, startPosition, this);
+    }
+
+    // isCancelled() is implemented by SwingWorker itself.
+
+    @Override
+    public void advanced(long position) {
+        if (expectedLength <= 0) {
+            return;
+        }
+        int progress = (int) Math.max(0, Math.min(100, (position - startPosition) * 100 / expectedLength));
+        if (progress != getProgress()) {
+            setProgress(progress);
+        }
+    }
+
+    @Override
+    public void dropped(Annotation annotation, int depth) {
+        publish(new DroppedField(annotation, depth));
+    }
+
+    @Override
+    public void droppedPartially(Annotation annotation) {
+        SwingUtilities.invokeLater(() -> partialDropped(annotation));
+    }
+
+    @Override
+    protected void process(List<DroppedField> fields) {
+        if (finished || overlapped) {
+            return;
+        }
+
+        // Fields inside ones which finish in the same batch are never shown at all.
+        for (DroppedField field : fields) {
+            while (!streamed.isEmpty() && streamed.get(streamed.size() - 1).depth > field.depth) {
+                DroppedField inside = streamed.remove(streamed.size() - 1);
+                if (streamed.size() < shownCount) {
+                    annotationCollection.removeWithDescendants(inside.annotation);
+                    shownCount--;
+                }
+            }
+            streamed.add(field);
+        }
+
+        for (; shownCount < streamed.size(); shownCount++) {
+            try {
+                annotationCollection.add(streamed.get(shownCount).annotation);
+            } catch (OverlappingAnnotationException e) {
+                // The whole structure would overlap too, so there's no point going on.
+                overlapped = true;
+                cancel(false);
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void done() {
+        finished = true;
+        popupTimer.stop();
+        progressDialog.dispose();
+
+        // These were only there to show progress. The real edit adds them back.
+        for (int i = shownCount - 1; i >= 0; i--) {
+            annotationCollection.removeWithDescendants(streamed.get(i).annotation);
+        }
+        streamed.clear();
+        shownCount = 0;
+
+        if (overlapped) {
+            showError(Resources.getString("AddAnnotation.Errors.overlap"));
+            return;
+        }
+
+        Annotation annotation;
+        Throwable failure = null;
+        try {
+            annotation = get();
+        } catch (CancellationException e) {
+            // The drop only finds out it was cancelled the next time it checks, so what was finished
+            // before that is kept when it turns up.
+            if (partial != null) {
+                addAnnotation(partial);
+            } else {
+                awaitingPartial = true;
+            }
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+            if (!loaded) {
+                LoggerUtils.get().log(Level.WARNING, "Error loading structure " + name, failure);
+                JXErrorPane.showDialog(notebookPane, new ErrorInfo(Resources.getString("Common.Errors.title"),
+                                                                   Resources.getString("DropStructure.Errors.load"),
+                                                                   null, null, failure, Level.WARNING, null));
+                return;
+            }
+
+            // What was finished before the failure is passed on before the failure, so it's already here.
+            LoggerUtils.get().log(Level.INFO, "Error dropping structure " + name, failure);
+            annotation = partial;
+        }
+
+        if (annotation == null) {
+            if (failure != null) {
+                showError(Resources.getString("DropStructure.Errors.catchAll"));
+            }
+            return;
+        }
+
+        if (addAnnotation(annotation) && failure != null) {
+            showError(Resources.getString("DropStructure.Errors.partial"));
+        }
+    }
+
+    /**
+     * Called on the event dispatch thread with what was finished of the structure, when the drop fails
+     * or is cancelled.
+     *
+     * @param annotation the annotation for the part of the structure which was finished.
+     */
+    private void partialDropped(Annotation annotation) {
+        partial = annotation;
+        if (awaitingPartial) {
+            awaitingPartial = false;
+            addAnnotation(annotation);
+        }
+    }
+
+    /**
+     * Adds the annotation for the structure in an undoable edit.
+     *
+     * @param annotation the annotation.
+     * @return {@code true} if it was added, {@code false} if there was an error, which has been reported.
+     */
+    private boolean addAnnotation(Annotation annotation) {
+        try {
+            notebookPane.getUndoHelper().perform(new AddEdit(annotationCollection, annotation));
+            return true;
+        } catch (OverlappingAnnotationException e) {
+            showError(Resources.getString("AddAnnotation.Errors.overlap"));
+            return false;
+        } catch (Exception e) {
+            LoggerUtils.get().log(Level.SEVERE, "Unexpected error adding dropped structure", e);
+            return false;
+        }
+    }
+
+    private void showError(String message) {
+        JOptionPane.showMessageDialog(notebookPane, message, Resources.getString("Common.Errors.title"),
+                                      JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * A field which was finished, with how deep it is in the structure.
+     */
+    static class DroppedField {
+        private final Annotation annotation;
+        private final int depth;
+
+        private DroppedField(Annotation annotation, int depth) {
+            this.annotation = annotation;
+            this.depth = depth;
+        }
+    }
+}
@@ -20,19 +20,15 @@ package org.trypticon.hex.gui.scripting;
 
 import java.awt.event.ActionEvent;
 import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.Nullable;
 
-import org.trypticon.hex.HexViewer;
-import org.trypticon.hex.anno.Annotation;
-import org.trypticon.hex.anno.AnnotationCollection;
-import org.trypticon.hex.anno.OverlappingAnnotationException;
-import org.trypticon.hex.binary.Binary;
 import org.trypticon.hex.formats.Structure;
 import org.trypticon.hex.formats.ruby.RubyStructureDSL;
+import org.trypticon.hex.formats.yaml.YamlStructureLoader;
 import org.trypticon.hex.gui.NotebookPaneAction;
-import org.trypticon.hex.gui.Resources;
 import org.trypticon.hex.gui.notebook.NotebookPane;
-import org.trypticon.hex.gui.undo.AddEdit;
-import org.trypticon.hex.gui.util.ActionException;
 
 /**
  * Action to run a script.
@@ -40,41 +36,54 @@ import org.trypticon.hex.gui.util.ActionException;
  * @author trejkaz
  */
 public class RunScriptAction extends NotebookPaneAction {
+    private static final String RUBY_EXTENSION = ".rb"; // NON-NLS
+    private static final String[] EXTENSIONS = { ".yaml", ".yml", ".json", RUBY_EXTENSION }; // NON-NLS
+
     private final Path scriptFile;
 
     public RunScriptAction(String fileName, Path scriptFile) {
         this.scriptFile = scriptFile;
 
-        String scriptName = fileName;
-        if (fileName.endsWith(".rb")) { // NON-NLS
-            scriptName = fileName.substring(0, fileName.length() - 3);
-        }
-        putValue(NAME, scriptName);
+        String scriptName = getScriptName(fileName);
+        putValue(NAME, scriptName != null ? scriptName : fileName);
 
         updateEnabled();
     }
 
-    @Override
-    protected void doAction(ActionEvent event, NotebookPane notebookPane) throws Exception {
-        Structure structure = RubyStructureDSL.loadFromFile(scriptFile);
+    /**
+     * Gets the name of the script in a file.
+     *
+     * @param fileName the name of the file.
+     * @return the name of the script, or {@code null} if the file isn't a script.
+     */
+    @Nullable
+    static String getScriptName(String fileName) {
+        for (String extension : EXTENSIONS) {
+            if (fileName.endsWith(extension)) {
+                return fileName.substring(0, fileName.length() - extension.length());
+            }
+        }
+        return null;
+    }
 
-        HexViewer viewer = notebookPane.getViewer();
+    /**
+     * Tests whether a script is written in Ruby, rather than being a declarative structure definition.
+     *
+     * @param scriptFile the script file.
+     * @return {@code true} if the script is written in Ruby.
+     */
+    static boolean isRubyScript(Path scriptFile) {
+        return scriptFile.getFileName().toString().endsWith(RUBY_EXTENSION);
+    }
 
-        Binary binary = viewer.getBinary();
-        AnnotationCollection annotationCollection = viewer.getAnnotations();
-        long position = viewer.getSelectionModel().getSelectionStart();
+    @Override
+    protected void doAction(ActionEvent event, NotebookPane notebookPane) throws Exception {
+        // Loading a script can take a while, so it's left to the worker's thread.
+        Supplier<Structure> loader = isRubyScript(scriptFile) ? () -> RubyStructureDSL.loadFromFile(scriptFile)
+                                                              : () -> YamlStructureLoader.loadFromFile(scriptFile);
 
-        Annotation annotation;
-        try {
-            annotation = structure.drop(binary, position);
-        } catch (Exception e) {
-            throw new ActionException(Resources.getMessage("DropStructure.Errors.catchAll"), e);
-        }
+        long position = notebookPane.getViewer().getSelectionModel().getSelectionStart();
 
-        try {
-            notebookPane.getUndoHelper().perform(new AddEdit(annotationCollection, annotation));
-        } catch (OverlappingAnnotationException e) {
-            throw new ActionException(Resources.getMessage("AddAnnotation.Errors.overlap"), e);
-        }
+        new DropStructureWorker(notebookPane, (String) getValue(NAME), loader, position).execute();
     }
 }
@@ -83,22 +83,27 @@ public class ScriptMenu extends JMenu {
 
         Map<String, List<Path>> listings = directories.parallelStream()
             .flatMap(safeDirectoryList)
-            .filter(p -> Files.isDirectory(p) || p.getFileName().toString().endsWith(".rb")) //NON-NLS
-            .collect(Collectors.groupingBy(p -> p.getFileName().toString(),
+            .filter(p -> Files.isDirectory(p) || RunScriptAction.getScriptName(p.getFileName().toString()) != null)
+            .collect(Collectors.groupingBy(ScriptMenu::getItemName,
                                            () -> new TreeMap<>(Collator.getInstance()),
                                            Collectors.toList()));
 
         listings.entrySet().stream().forEach(entry -> {
-            String fileName = entry.getKey();
+            String itemName = entry.getKey();
             List<Path> files = entry.getValue();
 
             Path firstFile = files.get(0);
             if (Files.isDirectory(firstFile)) {
-                add(new ScriptMenu(fileName, files.stream()
+                add(new ScriptMenu(itemName, files.stream()
                     .filter(Files::isDirectory)
                     .collect(Collectors.toList())));
             } else {
-                add(new RunScriptAction(fileName, firstFile));
+                // Where a script is there in both forms, the declarative one doesn't need to start Ruby.
+                Path scriptFile = files.stream()
+                    .filter(p -> p.getParent().equals(firstFile.getParent()) && !RunScriptAction.isRubyScript(p))
+                    .findFirst()
+                    .orElse(firstFile);
+                add(new RunScriptAction(scriptFile.getFileName().toString(), scriptFile));
             }
         });
 
@@ -106,4 +111,19 @@ public class ScriptMenu extends JMenu {
             staticItems.forEach(this::add);
         }
     }
+
+    /**
+     * Gets the name of the menu item for a file, so that the same script in different forms is only listed once.
+     *
+     * @param file the file, which is either a directory or a script.
+     * @return the name of the menu item.
+     */
+    private static String getItemName(Path file) {
+        String fileName = file.getFileName().toString();
+        if (Files.isDirectory(file)) {
+            return fileName;
+        }
+        String scriptName = RunScriptAction.getScriptName(fileName);
+        return scriptName != null ? scriptName : fileName;
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.undo;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.undo.CannotUndoException;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.anno.AnnotationCollection;
+import org.trypticon.hex.anno.OverlappingAnnotationException;
+
+/**
+ * Undoable edit implementation for adding many annotations at once. Annotations which would overlap
+ * existing annotations are skipped, so that adding everything found by a scan doesn't fail halfway through.
+ *
+ * @author trejkaz
+ */
+public class AddAllEdit implements DryUndoableEdit {
+    private final AnnotationCollection annotationCollection;
+    private final List<Annotation> annotations;
+    private final String presentationName;
+    private final List<Annotation> added = new ArrayList<>();
+
+    /**
+     * Constructs the edit.
+     *
+     * @param annotationCollection the annotation collection to add the annotations to.
+     * @param annotations the annotations to add.
+     * @param presentationName the name of the edit, for the undo and redo menu items.
+     */
+    public AddAllEdit(AnnotationCollection annotationCollection, List<Annotation> annotations,
+                      String presentationName) {
+        this.annotationCollection = annotationCollection;
+        this.annotations = annotations;
+        this.presentationName = presentationName;
+    }
+
+    @Override
+    public void execute() {
+        added.clear();
+        for (Annotation annotation : annotations) {
+            try {
+                annotationCollection.add(annotation);
+                added.add(annotation);
+            } catch (OverlappingAnnotationException e) {
+                // Leave whatever is already there alone.
+            }
+        }
+    }
+
+    @Override
+    public void undo() throws CannotUndoException {
+        for (int i = added.size() - 1; i >= 0; i--) {
+            annotationCollection.removeWithDescendants(added.get(i));
+        }
+    }
+
+    @Override
+    public String getPresentationName() {
+        return presentationName;
+    }
+}
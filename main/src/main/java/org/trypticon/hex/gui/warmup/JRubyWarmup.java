@@ -27,7 +27,8 @@ import org.trypticon.hex.formats.ruby.RubyStructureDSL;
  */
 public class JRubyWarmup {
     public void start() {
-        Thread thread = new Thread(() -> RubyStructureDSL.loadScriptlet("structure :dummy do ; end"));
+        // Leaves a runtime in the pool, ready for the first script.
+        Thread thread = new Thread(RubyStructureDSL::warmUp);
         thread.start();
     }
 }
@@ -0,0 +1,167 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link ApproximateSearcher}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class ApproximateSearcherTest {
+
+    @Test
+    public void testFindsPatchedBlock() {
+        Binary haystack = wrap("the quick brown fox jumps over the lazy dog");
+        ApproximateSearcher searcher = new ApproximateSearcher(bytes("jumpy ovxr"), 2);
+
+        Match match = searcher.find(haystack, 0, new SearchParams(false, false));
+        assertThat(match, is(equalTo(new Match(20, 10))));
+        assertThat(searcher.countMismatches(haystack, 20), is(2));
+
+        assertThat(new ApproximateSearcher(bytes("jumpy ovxr"), 1).find(haystack, 0, new SearchParams(false, false)),
+                   is(nullValue()));
+    }
+
+    @Test
+    public void testNoMismatchesIsExact() {
+        Binary haystack = wrap("abcabdabc");
+        List<Long> offsets = new ArrayList<>();
+        new ApproximateSearcher(bytes("abc"), 0).findAll(haystack, SearchMonitor.NONE,
+                                                        (offset, length) -> offsets.add(offset));
+        assertThat(offsets, is(equalTo(Arrays.asList(0L, 6L))));
+    }
+
+    @Test
+    public void testBackwards() {
+        Binary haystack = wrap("abcXbcabYaaa");
+        ApproximateSearcher searcher = new ApproximateSearcher(bytes("abc"), 1);
+        assertThat(searcher.find(haystack, 11, new SearchParams(false, true)), is(equalTo(new Match(6, 3))));
+        assertThat(searcher.find(haystack, 7, new SearchParams(false, true)), is(equalTo(new Match(3, 3))));
+        assertThat(searcher.find(haystack, 1, new SearchParams(false, true)), is(nullValue()));
+        assertThat(searcher.find(haystack, 1, new SearchParams(true, true)), is(equalTo(new Match(6, 3))));
+    }
+
+    @Test
+    public void testCountMismatchesPastTheEnd() {
+        ApproximateSearcher searcher = new ApproximateSearcher(bytes("abcd"), 1);
+        assertThat(searcher.countMismatches(wrap("xxab"), 2), is(2));
+    }
+
+    /**
+     * Compares against checking every position the slow way, for needles short enough for one word
+     * and long enough for several, in haystacks of few distinct bytes so that there are plenty of near misses.
+     */
+    @Test
+    public void testAgainstBruteForce() {
+        Random random = new Random(14);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int round = 0; round < 300; round++) {
+                byte[] haystack = randomBytes(random, random.nextInt(400));
+                byte[] needle = randomBytes(random, random.nextInt(round % 3 == 0 ? 80 : 12) + 1);
+                int maxMismatches = random.nextInt(Math.min(needle.length, 9) + 1);
+                int windowSize = random.nextInt(50) + 1;
+                Binary haystackBinary = BinaryFactory.wrap(haystack);
+                long rangeStart = random.nextInt(haystack.length + 1);
+                SearchScope scope = random.nextBoolean() ? SearchScope.EVERYWHERE :
+                                    SearchScope.range(rangeStart, rangeStart + random.nextInt(haystack.length + 1));
+
+                List<Match> expected = new ArrayList<>();
+                for (int offset = 0; offset + needle.length <= haystack.length; offset++) {
+                    if (offset >= scope.getStart(0) && offset + needle.length <= scope.getEnd(0) &&
+                        mismatches(haystack, offset, needle) <= maxMismatches) {
+                        expected.add(new Match(offset, needle.length));
+                    }
+                }
+
+                String message = "round " + round;
+                for (AbstractSearcher searcher : new AbstractSearcher[] {
+                    new ApproximateSearcher(needle, maxMismatches, windowSize),
+                    new ParallelSearcher(new ApproximateSearcher(needle, maxMismatches, windowSize), 7, pool) }) {
+
+                    List<Match> found = new ArrayList<>();
+                    searcher.findAll(haystackBinary, scope, SearchMonitor.NONE,
+                                     (offset, length) -> found.add(new Match(offset, length)));
+                    assertThat(message, found, is(equalTo(expected)));
+
+                    long start = random.nextInt(haystack.length + 1);
+                    Match forwards = expected.stream().filter(m -> m.offset >= start).findFirst().orElse(null);
+                    assertThat(message + ", forwards from " + start,
+                               searcher.find(haystackBinary, start, new SearchParams(false, false, scope)),
+                               is(equalTo(forwards)));
+                    Match backwards = null;
+                    for (Match match : expected) {
+                        if (match.endOffset() <= start) {
+                            backwards = match;
+                        }
+                    }
+                    assertThat(message + ", backwards from " + start,
+                               searcher.find(haystackBinary, start, new SearchParams(false, true, scope)),
+                               is(equalTo(backwards)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int mismatches(byte[] haystack, int offset, byte[] needle) {
+        int count = 0;
+        for (int i = 0; i < needle.length; i++) {
+            if (haystack[offset + i] != needle[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) random.nextInt(3);
+        }
+        return bytes;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Binary wrap(String text) {
+        return BinaryFactory.wrap(bytes(text));
+    }
+}
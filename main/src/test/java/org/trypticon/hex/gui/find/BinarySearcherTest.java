@@ -120,13 +120,51 @@ public class BinarySearcherTest {
             // Single match at the end, wrapping backwards to find it.
             { "ding", "reading", 2, true, true, 3 },
 
+            // Repetitive needles which the skip table can't skip far on.
+            { "aab", "aaaaaaab", 0, false, false, 5 },
+            { "aab", "aaaaaaab", 6, true, false, 5 },
+            { "baa", "baaaaaaa", 7, false, true, 0 },
+
+            // Skipping over a near miss straddling a window boundary.
+            { "abcd", "xabcxabcdx", 0, false, false, 5 },
+            { "abcd", "xabcdxabcx", 9, false, true, 1 },
+
+            // Two matches, not overlapping, backwards.
+            { "ingmat", "stringmatchingmatching", 21, false, true, 11 },
+            { "ingmat", "stringmatchingmatching", 16, false, true, 11 },
+            { "ingmat", "stringmatchingmatching", 15, false, true, 3 },
+            { "ingmat", "stringmatchingmatching", 8, false, true, 3 },
+            { "ingmat", "stringmatchingmatching", 7, false, true, null },
+
+            // Two matches, overlapping, backwards.
+            { "haha", "hahaha", 5, false, true, 2 },
+            { "haha", "hahaha", 4, false, true, 0 },
+            { "haha", "hahaha", 2, false, true, null },
+
+            // Repetitive needle backwards.
+            { "aab", "aaaaaaab", 7, false, true, 5 },
+            { "aab", "aaaaaaab", 6, false, true, null },
         };
         return Arrays.asList(data);
     }
 
     @Test
     public void test() {
-        Searcher searcher = new BinarySearcher(makeBinary(needle));
+        check(new BinarySearcher(makeBinary(needle)));
+    }
+
+    @Test
+    public void testSmallWindow() {
+        // Window gets bumped up to the needle length, so every match straddles a window boundary.
+        check(new BinarySearcher(makeBinary(needle), 1));
+    }
+
+    @Test
+    public void testSlightlyLargerWindow() {
+        check(new BinarySearcher(makeBinary(needle), needle.length() + 1));
+    }
+
+    private void check(Searcher searcher) {
         Match result = searcher.find(makeBinary(haystack), start, new SearchParams(wrapping, backwards));
         if (expectedResult == null) {
             assertThat(result, is(nullValue()));
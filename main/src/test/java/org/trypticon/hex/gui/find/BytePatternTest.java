@@ -0,0 +1,89 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.regex.PatternSyntaxException;
+
+import org.jetbrains.annotations.NonNls;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BytePattern}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class BytePatternTest {
+
+    @Test
+    public void testLengths() {
+        checkLengths("CA FE BA BE", 4, 4);
+        checkLengths("cafebabe", 4, 4);
+        checkLengths("FF D8 FF E? ?? ?? 4A 46 49 46", 10, 10);
+        checkLengths("00 | 01 02 | 03 04 05", 1, 3);
+        checkLengths("(00|01 02){2,3}", 2, 6);
+        checkLengths("41 ??{0,4} 42", 2, 6);
+        checkLengths("(|41) 42", 1, 2);
+    }
+
+    @Test
+    public void testSyntaxErrors() {
+        checkSyntaxError("", 0);
+        checkSyntaxError("4", 1);
+        checkSyntaxError("4G", 1);
+        checkSyntaxError("41 (42", 6);
+        checkSyntaxError("41 42)", 5);
+        checkSyntaxError("41{", 3);
+        checkSyntaxError("41{2,}", 5);
+        checkSyntaxError("41{3,2}", 7);
+        checkSyntaxError("41{2000}", 3);
+        checkSyntaxError("41{0}", 5);
+        checkSyntaxError("(41|)", 5);
+    }
+
+    @Test
+    public void testTooComplex() {
+        try {
+            // Any byte, then the 20th byte after it being 0x41: the automaton has to remember every byte.
+            BytePattern.compile("(4? ??{19} 41)");
+            fail("Expected PatternSyntaxException");
+        } catch (PatternSyntaxException e) {
+            // Expected.
+        }
+    }
+
+    private void checkLengths(@NonNls String pattern, int expectedMinLength, int expectedMaxLength) {
+        BytePattern compiled = BytePattern.compile(pattern);
+        assertThat(pattern + " min", compiled.getMinLength(), is(expectedMinLength));
+        assertThat(pattern + " max", compiled.getMaxLength(), is(expectedMaxLength));
+    }
+
+    private void checkSyntaxError(@NonNls String pattern, int expectedIndex) {
+        try {
+            BytePattern.compile(pattern);
+            fail("Expected PatternSyntaxException for: " + pattern);
+        } catch (PatternSyntaxException e) {
+            assertThat(pattern, e.getIndex(), is(expectedIndex));
+        }
+    }
+}
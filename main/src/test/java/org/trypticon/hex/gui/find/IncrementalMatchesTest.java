@@ -0,0 +1,165 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link IncrementalMatches}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class IncrementalMatchesTest {
+
+    @Test
+    public void testCanNarrowTo() {
+        Binary binary = BinaryFactory.wrap(new byte[16]);
+        IncrementalMatches matches = new IncrementalMatches(new byte[] { 1, 2 }, binary, SearchScope.EVERYWHERE,
+                                                            new MatchList());
+
+        assertThat(matches.canNarrowTo(new byte[] { 1, 2 }, binary, SearchScope.EVERYWHERE), is(true));
+        assertThat(matches.canNarrowTo(new byte[] { 1, 2, 3 }, binary, SearchScope.EVERYWHERE), is(true));
+        assertThat(matches.canNarrowTo(new byte[] { 1 }, binary, SearchScope.EVERYWHERE), is(false));
+        assertThat(matches.canNarrowTo(new byte[] { 1, 3, 3 }, binary, SearchScope.EVERYWHERE), is(false));
+        assertThat(matches.canNarrowTo(new byte[] { 1, 2, 3 }, binary, SearchScope.range(0, 8)), is(false));
+        assertThat(matches.canNarrowTo(new byte[] { 1, 2, 3 }, BinaryFactory.wrap(new byte[16]),
+                                       SearchScope.EVERYWHERE), is(false));
+    }
+
+    @Test
+    public void testNarrowingAsNeedleIsTyped() {
+        String haystack = "CAFE CAFEBABE CAFEBA CAFEBABE";
+        Binary binary = BinaryFactory.wrap(haystack.getBytes(StandardCharsets.US_ASCII));
+
+        IncrementalMatches matches = search("CA", binary, SearchScope.EVERYWHERE);
+        assertThat(matches.getMatches().size(), is(4));
+
+        matches = matches.narrow(bytes("CAFEB"), SearchMonitor.NONE);
+        assertThat(offsets(matches.getMatches()), is(equalTo(Arrays.asList(5L, 14L, 21L))));
+
+        matches = matches.narrow(bytes("CAFEBABE"), SearchMonitor.NONE);
+        assertThat(offsets(matches.getMatches()), is(equalTo(Arrays.asList(5L, 21L))));
+        assertThat(matches.getMatches().get(0), is(equalTo(new Match(5, 8))));
+    }
+
+    @Test
+    public void testNarrowedMatchesMustStayInScope() {
+        String haystack = "abcd abcd abcd";
+        Binary binary = BinaryFactory.wrap(haystack.getBytes(StandardCharsets.US_ASCII));
+        SearchScope scope = SearchScope.range(0, 13);
+
+        IncrementalMatches matches = search("ab", binary, scope).narrow(bytes("abcd"), SearchMonitor.NONE);
+
+        // The last one would run past the end of the scope.
+        assertThat(offsets(matches.getMatches()), is(equalTo(Arrays.asList(0L, 5L))));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancel() {
+        Binary binary = BinaryFactory.wrap(new byte[100000]);
+        IncrementalMatches matches = search("\0", binary, SearchScope.EVERYWHERE);
+        matches.narrow(new byte[2], new SearchMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+
+            @Override
+            public void searched(long byteCount) {
+            }
+        });
+    }
+
+    /**
+     * Narrows one byte at a time and checks the matches against a fresh search each time, in binaries full of
+     * partial matches so that there is a lot to narrow.
+     */
+    @Test
+    public void testNarrowingMatchesSearching() {
+        Random random = new Random(12);
+        for (int round = 0; round < 50; round++) {
+            byte[] haystack = new byte[random.nextInt(2000) + 1];
+            for (int i = 0; i < haystack.length; i++) {
+                haystack[i] = (byte) random.nextInt(3);
+            }
+            Binary binary = BinaryFactory.wrap(haystack);
+            byte[] needle = new byte[8];
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = (byte) random.nextInt(3);
+            }
+            long rangeStart = random.nextInt(haystack.length);
+            SearchScope scope = random.nextBoolean() ? SearchScope.EVERYWHERE :
+                                SearchScope.range(rangeStart, rangeStart + random.nextInt(haystack.length));
+            int windowSize = random.nextInt(20) + 1;
+
+            IncrementalMatches matches = search(Arrays.copyOf(needle, 1), binary, scope);
+            for (int length = 2; length <= needle.length; length++) {
+                byte[] longer = Arrays.copyOf(needle, length);
+                matches = matches.narrow(longer, SearchMonitor.NONE, windowSize);
+                List<Match> expected = matches(search(longer, binary, scope).getMatches());
+                assertThat("round " + round + ", length " + length, matches(matches.getMatches()), is(equalTo(expected)));
+            }
+        }
+    }
+
+    private static IncrementalMatches search(String needle, Binary binary, SearchScope scope) {
+        return search(bytes(needle), binary, scope);
+    }
+
+    private static IncrementalMatches search(byte[] needle, Binary binary, SearchScope scope) {
+        MatchList list = new MatchList();
+        new BinarySearcher(BinaryFactory.wrap(needle)).findAll(binary, scope, SearchMonitor.NONE, list);
+        return new IncrementalMatches(needle, binary, scope, list);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static List<Long> offsets(MatchList list) {
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            offsets.add(list.getOffset(i));
+        }
+        return offsets;
+    }
+
+    private static List<Match> matches(MatchList list) {
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            matches.add(list.get(i));
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link MatchList}.
+ *
+ * @author trejkaz
+ */
+public class MatchListTest {
+
+    @Test
+    public void testSameLengths() {
+        MatchList list = new MatchList();
+        for (int i = 0; i < 100; i++) {
+            list.add(i * 10, 4);
+        }
+
+        assertThat(list.size(), is(100));
+        assertThat(list.get(42), is(equalTo(new Match(420, 4))));
+        assertThat(list.indexAtOrAfter(0), is(0));
+        assertThat(list.indexAtOrAfter(421), is(43));
+        assertThat(list.indexAtOrAfter(991), is(100));
+        assertThat(list.indexEndingAtOrBefore(2), is(-1));
+        assertThat(list.indexEndingAtOrBefore(3), is(0));
+        assertThat(list.indexEndingAtOrBefore(422), is(41));
+        assertThat(list.indexEndingAtOrBefore(423), is(42));
+    }
+
+    @Test
+    public void testOverlappingSameLengths() {
+        MatchList list = new MatchList();
+        list.add(0, 4);
+        list.add(2, 4);
+
+        // The match at 2 doesn't end until 5, but the one at 0 does end by 3.
+        assertThat(list.indexEndingAtOrBefore(3), is(0));
+        assertThat(list.indexEndingAtOrBefore(5), is(1));
+    }
+
+    @Test
+    public void testDifferentLengths() {
+        MatchList list = new MatchList();
+        list.add(0, 2);
+        list.add(5, 2);
+        list.add(6, 10);
+        list.add(8, 1);
+
+        assertThat(list.get(0), is(equalTo(new Match(0, 2))));
+        assertThat(list.get(1), is(equalTo(new Match(5, 2))));
+        assertThat(list.get(2), is(equalTo(new Match(6, 10))));
+        assertThat(list.get(3), is(equalTo(new Match(8, 1))));
+
+        assertThat(list.indexEndingAtOrBefore(7), is(1));
+        assertThat(list.indexEndingAtOrBefore(8), is(3));
+        assertThat(list.indexEndingAtOrBefore(15), is(3));
+    }
+
+    @Test
+    public void testAddAll() {
+        MatchList first = new MatchList();
+        first.add(1, 3);
+        MatchList second = new MatchList();
+        second.add(4, 3);
+        second.add(9, 5);
+
+        first.addAll(second);
+
+        assertThat(first.size(), is(3));
+        assertThat(first.get(2), is(equalTo(new Match(9, 5))));
+    }
+
+    @Test
+    public void testNarrow() {
+        MatchList list = new MatchList();
+        list.add(0, 2);
+        list.add(3, 2);
+        list.add(6, 2);
+        list.add(8, 2);
+
+        MatchList narrowed = list.narrow(offset -> offset % 2 == 0, 3);
+
+        assertThat(narrowed.size(), is(3));
+        assertThat(narrowed.get(0), is(equalTo(new Match(0, 3))));
+        assertThat(narrowed.get(2), is(equalTo(new Match(8, 3))));
+        assertThat(narrowed.indexAtOrAfter(5), is(1));
+        assertThat(list.size(), is(4));
+
+        // The narrowed list can still be added to.
+        narrowed.add(20, 3);
+        assertThat(narrowed.size(), is(4));
+        assertThat(list.narrow(offset -> false, 3).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testLimit() {
+        MatchList list = new MatchList(20);
+        for (int i = 0; i < 20; i++) {
+            list.add(i, 1);
+        }
+        assertThat(list.getMatchLimit(), is(20));
+
+        try {
+            list.add(20, 1);
+            fail("Expected LimitReachedException");
+        } catch (MatchList.LimitReachedException e) {
+            // Expected.
+        }
+        assertThat(list.size(), is(20));
+        assertThat(list.get(19), is(equalTo(new Match(19, 1))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfOrder() {
+        MatchList list = new MatchList();
+        list.add(5, 1);
+        list.add(4, 1);
+    }
+}
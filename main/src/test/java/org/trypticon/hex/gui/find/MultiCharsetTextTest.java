@@ -0,0 +1,110 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link MultiCharsetText}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class MultiCharsetTextTest {
+
+    @Test
+    public void testAnyEncodingCharsets() {
+        List<Charset> charsets = MultiCharsetText.anyEncodingCharsets(Charset.forName("windows-1252"));
+        assertThat(charsets, hasItems(StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE,
+                                      Charset.forName("UTF-32LE"), Charset.forName("UTF-32BE"),
+                                      Charset.forName("windows-1252"), StandardCharsets.ISO_8859_1));
+        assertThat(charsets.size(), is((int) charsets.stream().distinct().count()));
+    }
+
+    @Test
+    public void testFindsEachEncodingInOnePass() throws Exception {
+        String text = "caf\u00E9";
+        Charset windows1252 = Charset.forName("windows-1252");
+        MultiCharsetText encoded = MultiCharsetText.encode(text, Arrays.asList(
+            StandardCharsets.UTF_8, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE, windows1252));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(0);
+        long utf8 = stream.size();
+        stream.write(text.getBytes(StandardCharsets.UTF_8));
+        stream.write(new byte[] { 1, 2 });
+        long utf16le = stream.size();
+        stream.write(text.getBytes(StandardCharsets.UTF_16LE));
+        long utf16be = stream.size();
+        stream.write(text.getBytes(StandardCharsets.UTF_16BE));
+        long legacy = stream.size();
+        stream.write(text.getBytes(windows1252));
+        long decomposed = stream.size();
+        stream.write("cafe\u0301".getBytes(StandardCharsets.UTF_8));
+        Binary binary = BinaryFactory.wrap(stream.toByteArray());
+
+        List<String> labels = new ArrayList<>();
+        encoded.createSearcher().findAll(binary, SearchMonitor.NONE,
+                                         (offset, length) -> labels.add(offset + " " +
+                                             encoded.getLabel(binary, offset, length)));
+        assertThat(labels, contains(utf8 + " UTF-8", utf16le + " UTF-16LE", utf16be + " UTF-16BE",
+                                    legacy + " windows-1252",
+                                    decomposed + " UTF-8"));
+    }
+
+    @Test
+    public void testSameBytesInSeveralCharsetsAreOnePattern() {
+        MultiCharsetText encoded = MultiCharsetText.encode("hex", Arrays.asList(
+            StandardCharsets.UTF_8, StandardCharsets.US_ASCII, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE));
+        assertThat(encoded.size(), is(2));
+
+        Binary binary = BinaryFactory.wrap("hex".getBytes(StandardCharsets.US_ASCII));
+        assertThat(encoded.getLabel(binary, 0, 3), is("UTF-8, US-ASCII, ISO-8859-1"));
+        assertThat(encoded.getLabel(binary, 0, 2), is(""));
+    }
+
+    @Test
+    public void testSkipsCharsetsWhichCannotEncodeTheText() {
+        MultiCharsetText encoded = MultiCharsetText.encode("\u65E5\u672C", Arrays.asList(
+            StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8));
+        assertThat(encoded.size(), is(1));
+
+        Binary binary = BinaryFactory.wrap("\u65E5\u672C".getBytes(StandardCharsets.UTF_8));
+        Match match = encoded.createSearcher().find(binary, 0, new SearchParams(false, false));
+        assertThat(match, is(not(nullValue())));
+        assertThat(encoded.getLabel(binary, match.offset, match.length), is("UTF-8"));
+    }
+}
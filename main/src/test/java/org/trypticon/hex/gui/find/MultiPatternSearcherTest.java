@@ -0,0 +1,211 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link MultiPatternSearcher}.
+ *
+ * @author trejkaz
+ */
+@RunWith(Parameterized.class)
+@SuppressWarnings("HardCodedStringLiteral")
+public class MultiPatternSearcherTest {
+    private static final ForkJoinPool pool = new ForkJoinPool(3);
+
+    private final List<byte[]> needles;
+    private final Binary haystack;
+    private final int windowSize;
+
+    public MultiPatternSearcherTest(@NonNls String needles, @NonNls String haystack, int windowSize) {
+        this.needles = Arrays.stream(needles.split("\\|"))
+            .map(needle -> needle.getBytes(StandardCharsets.US_ASCII))
+            .collect(Collectors.toList());
+        this.haystack = BinaryFactory.wrap(haystack.getBytes(StandardCharsets.US_ASCII));
+        this.windowSize = windowSize;
+    }
+
+    @Parameterized.Parameters()
+    public static List<Object[]> parameters() {
+        String[][] data = {
+            // No match.
+            { "where|what", "not here" },
+
+            // One pattern behaves like a single needle.
+            { "ding", "dingoes" },
+            { "haha", "hahahahaha" },
+
+            // Several patterns, each matching once.
+            { "he|she|his|hers", "ushers" },
+            { "cat|dog|bird", "the dog chased the cat past the bird" },
+
+            // Patterns which are prefixes, suffixes and infixes of each other.
+            { "a|ab|abc|bc|c", "abcabcab" },
+            { "aab|ab|b", "aaaabaaaaabaaabaab" },
+            { "abcd|bc", "abcabcd" },
+
+            // Duplicates and empty patterns.
+            { "ab|ab||b", "abab" },
+        };
+
+        List<Object[]> parameters = new ArrayList<>();
+        for (String[] row : data) {
+            for (int windowSize : new int[] { 1, 2, 3, 1024 }) {
+                parameters.add(new Object[] { row[0], row[1], windowSize });
+            }
+        }
+        return parameters;
+    }
+
+    @AfterClass
+    public static void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testFind() {
+        AbstractSearcher searcher = new MultiPatternSearcher(needles, windowSize);
+        AbstractSearcher expectedSearcher = new NaiveSearcher(needles);
+        for (long start = -1; start <= haystack.length(); start++) {
+            for (boolean wrapping : new boolean[] { false, true }) {
+                for (boolean backwards : new boolean[] { false, true }) {
+                    SearchParams params = new SearchParams(wrapping, backwards);
+                    assertThat("start " + start + ", wrapping " + wrapping + ", backwards " + backwards,
+                               searcher.find(haystack, start, params),
+                               is(equalTo(expectedSearcher.find(haystack, start, params))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindAll() {
+        List<Match> expected = new ArrayList<>();
+        new NaiveSearcher(needles).findAll(haystack, SearchMonitor.NONE,
+                                           (offset, length) -> expected.add(new Match(offset, length)));
+
+        AbstractSearcher searcher = new MultiPatternSearcher(needles, windowSize);
+        List<Match> result = new ArrayList<>();
+        searcher.findAll(haystack, SearchMonitor.NONE, (offset, length) -> result.add(new Match(offset, length)));
+        assertThat("sequential", result, is(equalTo(expected)));
+
+        for (long segmentSize : new long[] { 1, 2, 5 }) {
+            List<Match> parallelResult = new ArrayList<>();
+            new ParallelSearcher(searcher, segmentSize, pool).findAll(
+                haystack, SearchMonitor.NONE, (offset, length) -> parallelResult.add(new Match(offset, length)));
+            assertThat("parallel, segment size " + segmentSize, parallelResult, is(equalTo(expected)));
+        }
+    }
+
+    /**
+     * Searcher which checks every pattern at every position, to compare against.
+     */
+    private static class NaiveSearcher extends AbstractSearcher {
+        private final List<byte[]> needles;
+
+        private NaiveSearcher(List<byte[]> needles) {
+            this.needles = needles.stream()
+                .filter(needle -> needle.length > 0)
+                .map(ByteBuffer::wrap)
+                .distinct()
+                .map(ByteBuffer::array)
+                .sorted(Comparator.comparingInt(needle -> needle.length))
+                .collect(Collectors.toList());
+        }
+
+        @Nullable
+        @Override
+        Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                           SearchMonitor monitor) {
+            for (long position = Math.max(fromPosition, 0); position < toPosition; position++) {
+                Match match = matchAt(haystack, position, limitPosition);
+                if (match != null) {
+                    return match;
+                }
+            }
+            return null;
+        }
+
+        @Nullable
+        @Override
+        Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                            SearchMonitor monitor) {
+            for (long position = toPosition - 1; position >= Math.max(fromPosition, 0); position--) {
+                Match match = matchAt(haystack, position, limitPosition);
+                if (match != null) {
+                    return match;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        void findAll(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                     SearchMonitor monitor, MatchListener listener) {
+            for (long position = Math.max(fromPosition, 0); position < toPosition; position++) {
+                for (byte[] needle : needles) {
+                    if (matchesAt(haystack, position, limitPosition, needle)) {
+                        listener.matchFound(position, needle.length);
+                    }
+                }
+            }
+        }
+
+        @Nullable
+        private Match matchAt(Binary haystack, long position, long limitPosition) {
+            for (byte[] needle : needles) {
+                if (matchesAt(haystack, position, limitPosition, needle)) {
+                    return new Match(position, needle.length);
+                }
+            }
+            return null;
+        }
+
+        private boolean matchesAt(Binary haystack, long position, long limitPosition, byte[] needle) {
+            if (position + needle.length > Math.min(limitPosition, haystack.length())) {
+                return false;
+            }
+            byte[] bytes = new byte[needle.length];
+            haystack.read(position, ByteBuffer.wrap(bytes));
+            return Arrays.equals(bytes, needle);
+        }
+    }
+}
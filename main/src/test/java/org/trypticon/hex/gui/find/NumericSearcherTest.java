@@ -0,0 +1,228 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link NumericSearcher} and {@link NumericValue}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class NumericSearcherTest {
+
+    @Test
+    public void testFindInt32() {
+        Binary haystack = BinaryFactory.wrap(new byte[] { 9, 9, (byte) 0xE8, 3, 0, 0, 9 });
+        Match match = findFirst("1000", haystack);
+        // int16 LE matches at the same position, and is shorter.
+        assertThat(match, is(new Match(2, 2)));
+    }
+
+    @Test
+    public void testFindAllWidthsAtOnePosition() {
+        Binary haystack = BinaryFactory.wrap(new byte[] { (byte) 0xE8, 3, 0, 0, 0, 0, 0, 0 });
+        NumericSearcher searcher = new NumericSearcher(NumericValue.parse("1000"));
+        List<Match> matches = new ArrayList<>();
+        searcher.findAll(haystack, SearchMonitor.NONE, (offset, length) -> matches.add(new Match(offset, length)));
+        assertThat(matches.toString(), is("[offset 0, length 2, offset 0, length 4, offset 0, length 8]"));
+    }
+
+    @Test
+    public void testFindBigEndianAtEnd() {
+        Binary haystack = BinaryFactory.wrap(new byte[] { 1, 2, 3, 0, 0, 3, (byte) 0xE8 });
+        Match match = findFirst("1000", haystack);
+        assertThat(match, is(new Match(3, 4)));
+    }
+
+    @Test
+    public void testFindFloatWithTolerance() {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putInt(0x7F7F7F7F);
+        buffer.putFloat(3.14159f);
+        buffer.putInt(0x7F7F7F7F);
+        Binary haystack = BinaryFactory.wrap(buffer.array());
+
+        assertThat(findFirst("3.14", haystack), is(new Match(4, 4)));
+        assertThat(findFirst("3.1416", haystack), is(new Match(4, 4)));
+        assertThat(findFirst("3.141", haystack), is(nullValue()));
+        assertThat(findFirst("3.141 +- 0.01", haystack), is(new Match(4, 4)));
+        assertThat(findFirst("3 \u00B1 0.5", haystack), is(new Match(4, 4)));
+    }
+
+    @Test
+    public void testFindDouble() {
+        ByteBuffer buffer = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) 0x7F7F);
+        buffer.putDouble(-2.5e10);
+        Binary haystack = BinaryFactory.wrap(buffer.array());
+        assertThat(findFirst("-2.5e10", haystack), is(new Match(2, 8)));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseInvalid() {
+        NumericValue.parse("twelve");
+    }
+
+    @Test
+    public void testLabels() {
+        Binary haystack = BinaryFactory.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, 0, 0, (byte) 0xFF, (byte) 0xFF });
+        assertThat(NumericValue.parse("65535").getLabel(haystack, 0, 2), is("uint16 LE, uint16 BE"));
+        assertThat(NumericValue.parse("65535").getLabel(haystack, 0, 4), is("int32 LE"));
+        assertThat(NumericValue.parse("65535").getLabel(haystack, 2, 4), is("int32 BE"));
+        assertThat(NumericValue.parse("-1").getLabel(haystack, 0, 1), is("int8"));
+        assertThat(NumericValue.parse("-1").getLabel(haystack, 0, 2), is("int16 LE, int16 BE"));
+        assertThat(NumericValue.parse("0xFF").getLabel(haystack, 0, 1), is("uint8"));
+        assertThat(NumericValue.parse("0").getLabel(haystack, 1, 4), is(""));
+        assertThat(NumericValue.parse("0").getLabel(haystack, 2, 2), is("int16 LE, int16 BE"));
+    }
+
+    @Test
+    public void testFloatToleranceSameAsArithmetic() {
+        Object[][] data = {
+            { "0", 0.0, 0.0 },
+            { "-1", -1.0, 0.0 },
+            { "16777217", 16777217.0, 0.0 },
+            { "3.14", 3.14, 0.005 },
+            { "-2.5e-3", -2.5e-3, 0.00005 },
+            { "1e30 +- 1e29", 1e30, 1e29 },
+            { "0 +- 1e-40", 0.0, 1e-40 },
+        };
+
+        Random random = new Random(3);
+        for (Object[] row : data) {
+            NumericValue value = NumericValue.parse((String) row[0]);
+            double number = (Double) row[1];
+            double tolerance = (Double) row[2];
+
+            for (int i = 0; i < 100000; i++) {
+                // Half are near the number, so that the edges of the range get tested.
+                float candidate = i % 2 == 0 ? Float.intBitsToFloat(random.nextInt())
+                                             : (float) (number + (random.nextDouble() * 4 - 2) * tolerance);
+                boolean expected = (candidate == (float) number && !Float.isInfinite(candidate)) ||
+                                   Math.abs(candidate - number) <= tolerance;
+                assertThat(row[0] + ", " + candidate,
+                           value.matchesFloat(4, Float.floatToRawIntBits(candidate) & 0xFFFFFFFFL), is(expected));
+
+                double doubleCandidate = i % 2 == 0 ? Double.longBitsToDouble(random.nextLong())
+                                                    : number + (random.nextDouble() * 4 - 2) * tolerance;
+                assertThat(row[0] + ", " + doubleCandidate,
+                           value.matchesFloat(8, Double.doubleToRawLongBits(doubleCandidate)),
+                           is(doubleCandidate == number || Math.abs(doubleCandidate - number) <= tolerance));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsBruteForce() {
+        // Few distinct byte values, so that values of every width turn up by chance.
+        Random random = new Random(7);
+        byte[] bytes = new byte[3000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (random.nextInt(3) == 0 ? 0xFF : random.nextInt(2));
+        }
+        Binary haystack = BinaryFactory.wrap(bytes);
+
+        for (String text : new String[] { "0", "1", "-1", "256", "65535", "65536", "-256", "4294967295",
+                                          "18446744073709551615", "0x100000000", "1.5 +- 1e-30" }) {
+            NumericValue value = NumericValue.parse(text);
+            List<Match> expected = bruteForce(bytes, value);
+            for (int windowSize : new int[] { 1, 7, 100, AbstractSearcher.DEFAULT_WINDOW_SIZE }) {
+                NumericSearcher searcher = new NumericSearcher(value, windowSize);
+                String message = "value " + text + ", window size " + windowSize;
+
+                List<Match> found = new ArrayList<>();
+                searcher.findAll(haystack, SearchMonitor.NONE,
+                                 (offset, length) -> found.add(new Match(offset, length)));
+                assertThat(message, found, is(equalTo(expected)));
+
+                for (long start = 0; start < bytes.length; start += 37) {
+                    for (boolean backwards : new boolean[] { false, true }) {
+                        assertThat(message + ", start " + start + ", backwards " + backwards,
+                                   searcher.find(haystack, start, new SearchParams(false, backwards)),
+                                   is(equalTo(expectedFind(expected, start, backwards))));
+                    }
+                }
+            }
+        }
+    }
+
+    private Match findFirst(String value, Binary haystack) {
+        return new NumericSearcher(NumericValue.parse(value)).find(haystack, 0, new SearchParams(false, false));
+    }
+
+    private List<Match> bruteForce(byte[] bytes, NumericValue value) {
+        List<Match> matches = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset++) {
+            for (int width : NumericValue.WIDTHS) {
+                if (offset + width > bytes.length) {
+                    continue;
+                }
+                byte[] big = new byte[width];
+                System.arraycopy(bytes, offset, big, 0, width);
+                byte[] little = new byte[width];
+                for (int i = 0; i < width; i++) {
+                    little[i] = big[width - 1 - i];
+                }
+                long bigBits = new BigInteger(1, big).longValue();
+                long littleBits = new BigInteger(1, little).longValue();
+                if (value.matches(width, bigBits) || value.matches(width, littleBits)) {
+                    matches.add(new Match(offset, width));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private Match expectedFind(List<Match> matches, long start, boolean backwards) {
+        if (backwards) {
+            // The last match ending by the start, but of the shortest width at that position.
+            Match found = null;
+            for (Match match : matches) {
+                if (match.endOffset() <= start && (found == null || match.offset > found.offset)) {
+                    found = match;
+                }
+            }
+            return found;
+        } else {
+            for (Match match : matches) {
+                if (match.offset >= start) {
+                    return match;
+                }
+            }
+            return null;
+        }
+    }
+}
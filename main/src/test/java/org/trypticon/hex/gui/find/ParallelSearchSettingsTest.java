@@ -0,0 +1,95 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link ParallelSearchSettings}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class ParallelSearchSettingsTest {
+    private final Preferences prefs = Preferences.userRoot().node("org/trypticon/hex/gui/find/test");
+
+    @After
+    public void removePrefs() throws BackingStoreException {
+        prefs.removeNode();
+    }
+
+    @Test
+    public void testDefaults() {
+        ParallelSearchSettings settings = new ParallelSearchSettings(prefs);
+        assertThat(settings.getSegmentSize(), is(ParallelSearcher.DEFAULT_SEGMENT_SIZE));
+        assertThat(settings.getParallelism(), is(0));
+    }
+
+    @Test
+    public void testSettingsAreKept() {
+        new ParallelSearchSettings(prefs).setSegmentSize(4096);
+        new ParallelSearchSettings(prefs).setParallelism(3);
+
+        ParallelSearchSettings settings = new ParallelSearchSettings(prefs);
+        assertThat(settings.getSegmentSize(), is(4096L));
+        assertThat(settings.getParallelism(), is(3));
+    }
+
+    @Test
+    public void testInvalidSettingsFallBackToDefaults() {
+        prefs.putLong("segment_size", -5);
+        prefs.putInt("parallelism", -2);
+
+        ParallelSearchSettings settings = new ParallelSearchSettings(prefs);
+        assertThat(settings.getSegmentSize(), is(ParallelSearcher.DEFAULT_SEGMENT_SIZE));
+        assertThat(settings.getParallelism(), is(0));
+    }
+
+    @Test
+    public void testPoolShutDownWhenParallelismChanges() {
+        ParallelSearchSettings settings = new ParallelSearchSettings(prefs);
+        settings.setParallelism(2);
+        ForkJoinPool pool = ParallelSearchSettings.getPool(2);
+        assertThat(ParallelSearchSettings.getPool(2), is(sameInstance(pool)));
+        assertThat(pool.getParallelism(), is(2));
+
+        settings.setParallelism(3);
+        assertThat(pool.isShutdown(), is(true));
+        ForkJoinPool newPool = ParallelSearchSettings.getPool(3);
+        assertThat(newPool.getParallelism(), is(3));
+
+        settings.setParallelism(0);
+        assertThat(newPool.isShutdown(), is(true));
+        assertThat(ParallelSearchSettings.getPool(0), is(sameInstance(ForkJoinPool.commonPool())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveSegmentSize() {
+        new ParallelSearchSettings(prefs).setSegmentSize(0);
+    }
+}
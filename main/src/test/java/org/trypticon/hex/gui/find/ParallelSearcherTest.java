@@ -0,0 +1,207 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.NonNls;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link ParallelSearcher}.
+ *
+ * @author trejkaz
+ */
+@RunWith(Parameterized.class)
+@SuppressWarnings("HardCodedStringLiteral")
+public class ParallelSearcherTest {
+    private static final ForkJoinPool pool = new ForkJoinPool(3);
+
+    private final String needle;
+    private final String haystack;
+    private final long segmentSize;
+
+    public ParallelSearcherTest(@NonNls String needle, @NonNls String haystack, long segmentSize) {
+        this.needle = needle;
+        this.haystack = haystack;
+        this.segmentSize = segmentSize;
+    }
+
+    @Parameterized.Parameters()
+    public static List<Object[]> parameters() {
+        String[][] data = {
+            // No match.
+            { "where", "not here" },
+
+            // Single match at the start, in the middle and at the end.
+            { "ding", "dingoes" },
+            { "rave", "travesty" },
+            { "ding", "reading" },
+
+            // Several matches, some overlapping.
+            { "ingmat", "stringmatchingmatching" },
+            { "haha", "hahahahaha" },
+            { "aab", "aaaabaaaaabaaabaab" },
+        };
+
+        List<Object[]> parameters = new ArrayList<>();
+        for (String[] row : data) {
+            for (long segmentSize : new long[] { 1, 2, 3, 5 }) {
+                parameters.add(new Object[] { row[0], row[1], segmentSize });
+            }
+        }
+        return parameters;
+    }
+
+    @AfterClass
+    public static void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBinary() {
+        Binary needleBinary = BinaryFactory.wrap(needle.getBytes(StandardCharsets.US_ASCII));
+        checkSameAsSequential(new BinarySearcher(needleBinary));
+    }
+
+    @Test
+    public void testText() {
+        checkSameAsSequential(new TextSearcher(needle, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testShutDownPool() {
+        // Searches still running when the setting changes carry on without the pool.
+        ForkJoinPool shutDownPool = new ForkJoinPool(2);
+        shutDownPool.shutdown();
+        Binary needleBinary = BinaryFactory.wrap(needle.getBytes(StandardCharsets.US_ASCII));
+        checkSameAsSequential(new BinarySearcher(needleBinary), shutDownPool);
+    }
+
+    @Test(timeout = 10000)
+    public void testSegmentsAfterMatchStop() throws Exception {
+        // The first segment finds a match once the others are running. The others only stop when told to.
+        CountDownLatch othersStarted = new CountDownLatch(2);
+        CountDownLatch othersStopped = new CountDownLatch(2);
+        AbstractSearcher delegate = new AbstractSearcher() {
+            @Override
+            Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                               SearchMonitor monitor) {
+                if (fromPosition == 0) {
+                    awaitQuietly(othersStarted);
+                    return new Match(0, 1);
+                }
+                othersStarted.countDown();
+                while (!monitor.isCancelled()) {
+                    Thread.yield();
+                }
+                othersStopped.countDown();
+                throw new CancellationException();
+            }
+
+            @Override
+            Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                                SearchMonitor monitor) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        Binary haystackBinary = BinaryFactory.wrap(new byte[30]);
+        Match found = new ParallelSearcher(delegate, 10, pool).find(haystackBinary, 0, new SearchParams(false, false));
+        assertThat(found, is(equalTo(new Match(0, 1))));
+        othersStopped.await();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testBinaryFindAll() {
+        Binary needleBinary = BinaryFactory.wrap(needle.getBytes(StandardCharsets.US_ASCII));
+        checkFindAll(new BinarySearcher(needleBinary));
+        checkFindAll(new BinarySearcher(needleBinary, 1));
+    }
+
+    @Test
+    public void testTextFindAll() {
+        checkFindAll(new TextSearcher(needle, StandardCharsets.US_ASCII));
+    }
+
+    private void checkFindAll(AbstractSearcher sequential) {
+        Binary haystackBinary = BinaryFactory.wrap(haystack.getBytes(StandardCharsets.US_ASCII));
+
+        // Expected result is what you get by repeatedly finding the next match.
+        List<Match> expected = new ArrayList<>();
+        SearchParams params = new SearchParams(false, false);
+        Match match = sequential.find(haystackBinary, 0, params);
+        while (match != null) {
+            expected.add(match);
+            match = sequential.find(haystackBinary, match.offset + 1, params);
+        }
+
+        List<Match> sequentialResult = new ArrayList<>();
+        sequential.findAll(haystackBinary, SearchMonitor.NONE,
+                           (offset, length) -> sequentialResult.add(new Match(offset, length)));
+        assertThat("sequential", sequentialResult, is(equalTo(expected)));
+
+        List<Match> parallelResult = new ArrayList<>();
+        new ParallelSearcher(sequential, segmentSize, pool).findAll(
+            haystackBinary, SearchMonitor.NONE, (offset, length) -> parallelResult.add(new Match(offset, length)));
+        assertThat("parallel", parallelResult, is(equalTo(expected)));
+    }
+
+    private void checkSameAsSequential(AbstractSearcher sequential) {
+        checkSameAsSequential(sequential, pool);
+    }
+
+    private void checkSameAsSequential(AbstractSearcher sequential, ForkJoinPool pool) {
+        Searcher parallel = new ParallelSearcher(sequential, segmentSize, pool);
+        Binary haystackBinary = BinaryFactory.wrap(haystack.getBytes(StandardCharsets.US_ASCII));
+        for (long start = -1; start <= haystack.length(); start++) {
+            for (boolean wrapping : new boolean[] { false, true }) {
+                for (boolean backwards : new boolean[] { false, true }) {
+                    SearchParams params = new SearchParams(wrapping, backwards);
+                    assertThat("start " + start + ", wrapping " + wrapping + ", backwards " + backwards,
+                               parallel.find(haystackBinary, start, params),
+                               is(equalTo(sequential.find(haystackBinary, start, params))));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link PatternSearcher}.
+ *
+ * @author trejkaz
+ */
+@RunWith(Parameterized.class)
+@SuppressWarnings("HardCodedStringLiteral")
+public class PatternSearcherTest {
+    private static final ForkJoinPool pool = new ForkJoinPool(3);
+
+    private final String pattern;
+    private final String haystackString;
+    private final Binary haystack;
+    private final int windowSize;
+
+    public PatternSearcherTest(@NonNls String pattern, @NonNls String haystack, int windowSize) {
+        this.pattern = pattern;
+        this.haystackString = haystack;
+        this.haystack = BinaryFactory.wrap(haystack.getBytes(StandardCharsets.ISO_8859_1));
+        this.windowSize = windowSize;
+    }
+
+    @Parameterized.Parameters()
+    public static List<Object[]> parameters() {
+        String[][] data = {
+            // Exact bytes.
+            { "61", "abcabc" },
+            { "61 62 63", "xabcabx" },
+            { "7A", "no match" },
+
+            // Wildcards and nibble masks.
+            { "61 ?? 63", "abcaxcacc" },
+            { "6?", "a1b2c3" },
+            { "?1", "a1q1" },
+            { "FF D8 FF E? ?? ?? 4A 46 49 46",
+              "\u00FF\u00D8\u00FF\u00E0\u0000\u0010JFIF\u0000xx\u00FF\u00D8\u00FF\u00F1abJFIF\u00FF\u00D8\u00FF\u00E1abJFIF" },
+
+            // Alternation, including alternatives which overlap each other.
+            { "(61|62 63)", "abcbcab" },
+            { "61 62|62 63 64|63", "abcdbcd" },
+
+            // Bounded repetition.
+            { "61{2,3}", "aaaaab" },
+            { "61 (62|63){1,2} 64", "abdacbdabbdacd" },
+            { "61 ??{0,3} 62", "aab aaxxb ab" },
+            { "(61 62){2}", "abababa" },
+        };
+
+        List<Object[]> parameters = new ArrayList<>();
+        for (String[] row : data) {
+            for (int windowSize : new int[] { 1, 2, 3, 1024 }) {
+                parameters.add(new Object[] { row[0], row[1], windowSize });
+            }
+        }
+        return parameters;
+    }
+
+    @AfterClass
+    public static void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testFind() {
+        AbstractSearcher searcher = new PatternSearcher(BytePattern.compile(pattern), windowSize);
+        AbstractSearcher expectedSearcher = new RegexSearcher(toRegex(pattern), haystackString);
+        for (long start = -1; start <= haystack.length(); start++) {
+            for (boolean wrapping : new boolean[] { false, true }) {
+                for (boolean backwards : new boolean[] { false, true }) {
+                    SearchParams params = new SearchParams(wrapping, backwards);
+                    assertThat("start " + start + ", wrapping " + wrapping + ", backwards " + backwards,
+                               searcher.find(haystack, start, params),
+                               is(equalTo(expectedSearcher.find(haystack, start, params))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindAll() {
+        List<Match> expected = new ArrayList<>();
+        new RegexSearcher(toRegex(pattern), haystackString).findAll(
+            haystack, SearchMonitor.NONE, (offset, length) -> expected.add(new Match(offset, length)));
+
+        AbstractSearcher searcher = new PatternSearcher(BytePattern.compile(pattern), windowSize);
+        List<Match> result = new ArrayList<>();
+        searcher.findAll(haystack, SearchMonitor.NONE, (offset, length) -> result.add(new Match(offset, length)));
+        assertThat("sequential", result, is(equalTo(expected)));
+
+        for (long segmentSize : new long[] { 1, 2, 5 }) {
+            List<Match> parallelResult = new ArrayList<>();
+            new ParallelSearcher(searcher, segmentSize, pool).findAll(
+                haystack, SearchMonitor.NONE, (offset, length) -> parallelResult.add(new Match(offset, length)));
+            assertThat("parallel, segment size " + segmentSize, parallelResult, is(equalTo(expected)));
+        }
+    }
+
+    /**
+     * Converts a byte pattern to an equivalent regular expression over ISO-8859-1 text.
+     *
+     * @param pattern the byte pattern.
+     * @return the regular expression.
+     */
+    private static Pattern toRegex(String pattern) {
+        String compact = pattern.replaceAll("\\s+", "");
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < compact.length(); i++) {
+            char ch = compact.charAt(i);
+            if ("()|".indexOf(ch) >= 0) {
+                regex.append(ch);
+            } else if (ch == '{') {
+                int end = compact.indexOf('}', i);
+                regex.append(compact, i, end + 1);
+                i = end;
+            } else {
+                char low = compact.charAt(++i);
+                regex.append('[');
+                for (int b = 0; b < 256; b++) {
+                    if ((ch == '?' || Character.digit(ch, 16) == b >> 4) &&
+                        (low == '?' || Character.digit(low, 16) == (b & 0xF))) {
+                        regex.append(String.format("\\x%02X", b));
+                    }
+                }
+                regex.append(']');
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Searcher which tries every possible match with a regular expression, to compare against.
+     */
+    private static class RegexSearcher extends AbstractSearcher {
+        private final Pattern regex;
+        private final String haystack;
+
+        private RegexSearcher(Pattern regex, String haystack) {
+            this.regex = regex;
+            this.haystack = haystack;
+        }
+
+        @Nullable
+        @Override
+        Match findForwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                           SearchMonitor monitor) {
+            for (long position = Math.max(fromPosition, 0); position < toPosition; position++) {
+                Match match = longestMatchAt((int) position, limitPosition);
+                if (match != null) {
+                    return match;
+                }
+            }
+            return null;
+        }
+
+        @Nullable
+        @Override
+        Match findBackwards(Binary haystack, long fromPosition, long toPosition, long limitPosition,
+                            SearchMonitor monitor) {
+            for (long position = toPosition - 1; position >= Math.max(fromPosition, 0); position--) {
+                Match match = longestMatchAt((int) position, limitPosition);
+                if (match != null) {
+                    return match;
+                }
+            }
+            return null;
+        }
+
+        @Nullable
+        private Match longestMatchAt(int position, long limitPosition) {
+            for (int end = (int) Math.min(limitPosition, haystack.length()); end > position; end--) {
+                if (regex.matcher(haystack).region(position, end).matches()) {
+                    return new Match(position, end - position);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link RunScanner}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class RunScannerTest {
+
+    @Test
+    public void testFindEndOfRun() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2, 2, 3 });
+        RunScanner scanner = new RunScanner();
+        assertThat(scanner.findEndOfRun(binary, 0), is(1L));
+        assertThat(scanner.findEndOfRun(binary, 1), is(11L));
+        assertThat(scanner.findEndOfRun(binary, 5), is(11L));
+        assertThat(scanner.findEndOfRun(binary, 11), is(13L));
+        assertThat(scanner.findEndOfRun(binary, 13), is(14L));
+    }
+
+    @Test
+    public void testFindNextData() {
+        byte f = (byte) 0xFF;
+        Binary binary = BinaryFactory.wrap(new byte[] { 'a', 'b', 0, 0, f, f, 0, 0, 0, f, 'c', 'd', f, f, 0, 0, 0, 0, 0, 0 });
+        RunScanner scanner = new RunScanner();
+        assertThat(scanner.findNextData(binary, 0), is(10L));
+        assertThat(scanner.findNextData(binary, 3), is(10L));
+        assertThat(scanner.findNextData(binary, 9), is(10L));
+        assertThat(scanner.findNextData(binary, 10), is(20L));
+        assertThat(scanner.findNextData(binary, 19), is(20L));
+    }
+
+    @Test
+    public void testScatteredZeroesInData() {
+        byte[] bytes = new byte[100];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        // Stray zeroes and short runs of them, as in ordinary data, up to just under the minimum length.
+        bytes[3] = 0;
+        bytes[10] = (byte) 0xFF;
+        bytes[11] = 0;
+        for (int i = 20; i < 20 + RunScanner.MIN_PADDING_LENGTH - 1; i++) {
+            bytes[i] = 0;
+        }
+        // Then some real padding.
+        for (int i = 50; i < 50 + RunScanner.MIN_PADDING_LENGTH; i++) {
+            bytes[i] = 0;
+        }
+        Binary binary = BinaryFactory.wrap(bytes);
+        RunScanner scanner = new RunScanner();
+        assertThat(scanner.findNextData(binary, 0), is(58L));
+        assertThat(scanner.findNextData(binary, 3), is(58L));
+        assertThat(scanner.findNextData(binary, 21), is(58L));
+        assertThat(scanner.findNextData(binary, 57), is(58L));
+        assertThat(scanner.findNextData(binary, 58), is(100L));
+    }
+
+    @Test
+    public void testLongRunsOfPadding() {
+        byte[] bytes = new byte[10_000_000];
+        bytes[9_999_990] = 'x';
+        Binary binary = BinaryFactory.wrap(bytes);
+        RunScanner scanner = new RunScanner();
+        assertThat(scanner.findEndOfRun(binary, 3), is(9_999_990L));
+        assertThat(scanner.findNextData(binary, 0), is(9_999_990L));
+    }
+
+    @Test
+    public void testAgainstBruteForce() {
+        Random random = new Random(16);
+        byte[] values = { 0, 0, 0, (byte) 0xFF, (byte) 0xFF, 1, 0x7F, (byte) 0x80, (byte) 0xFE };
+        for (int round = 0; round < 500; round++) {
+            byte[] bytes = new byte[random.nextInt(100) + 1];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = random.nextInt(3) == 0 ? values[random.nextInt(values.length)] : i > 0 ? bytes[i - 1] : 0;
+            }
+            Binary binary = BinaryFactory.wrap(bytes);
+            RunScanner scanner = new RunScanner(random.nextInt(40) + 1);
+            int position = random.nextInt(bytes.length);
+
+            int endOfRun = position + 1;
+            while (endOfRun < bytes.length && bytes[endOfRun] == bytes[position]) {
+                endOfRun++;
+            }
+            // The end of the first run of padding long enough to count which ends after the position.
+            int nextData = bytes.length;
+            for (int start = 0; start < bytes.length; start++) {
+                if (!isPadding(bytes[start]) || (start > 0 && isPadding(bytes[start - 1]))) {
+                    continue;
+                }
+                int end = start;
+                while (end < bytes.length && isPadding(bytes[end])) {
+                    end++;
+                }
+                if (end - start >= RunScanner.MIN_PADDING_LENGTH && end > position) {
+                    nextData = end;
+                    break;
+                }
+            }
+
+            String message = "round " + round;
+            assertThat(message, scanner.findEndOfRun(binary, position), is((long) endOfRun));
+            assertThat(message, scanner.findNextData(binary, position), is((long) nextData));
+        }
+    }
+
+    private static boolean isPadding(byte value) {
+        return value == 0 || value == (byte) 0xFF;
+    }
+}
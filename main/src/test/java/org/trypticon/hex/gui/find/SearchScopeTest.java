@@ -0,0 +1,192 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import org.trypticon.hex.anno.SimpleAnnotation;
+import org.trypticon.hex.anno.SimpleGroupAnnotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.gui.anno.ExtendedAnnotationCollection;
+import org.trypticon.hex.interpreters.nulls.NullInterpreter;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link SearchScope} and searching within one.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class SearchScopeTest {
+    private static final ForkJoinPool pool = new ForkJoinPool(3);
+
+    @AfterClass
+    public static void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testGaps() {
+        ExtendedAnnotationCollection annotations = new ExtendedAnnotationCollection(100);
+        annotations.add(new SimpleAnnotation(10, 5, new NullInterpreter()));
+        annotations.add(new SimpleAnnotation(15, 5, new NullInterpreter()));
+        annotations.add(new SimpleGroupAnnotation(30, 20));
+        annotations.add(new SimpleAnnotation(35, 5, new NullInterpreter()));
+        annotations.add(new SimpleAnnotation(90, 10, new NullInterpreter()));
+
+        // Gaps inside the group don't count, since the group covers them.
+        assertThat(SearchScope.gaps(annotations.getRootGroup()).toString(), is("[0-10, 20-30, 50-90]"));
+    }
+
+    @Test
+    public void testGapsNoAnnotations() {
+        ExtendedAnnotationCollection annotations = new ExtendedAnnotationCollection(100);
+        assertThat(SearchScope.gaps(annotations.getRootGroup()), is(SearchScope.range(0, 100)));
+    }
+
+    @Test
+    public void testGapsFullyAnnotated() {
+        ExtendedAnnotationCollection annotations = new ExtendedAnnotationCollection(100);
+        annotations.add(new SimpleAnnotation(0, 100, new NullInterpreter()));
+        assertThat(SearchScope.gaps(annotations.getRootGroup()).getRangeCount(), is(0));
+    }
+
+    @Test
+    public void testGapsManyAnnotations() {
+        ExtendedAnnotationCollection annotations = new ExtendedAnnotationCollection(400_000);
+        for (int i = 0; i < 100_000; i++) {
+            annotations.add(new SimpleAnnotation(i * 4L, 3, new NullInterpreter()));
+        }
+        SearchScope gaps = SearchScope.gaps(annotations.getRootGroup());
+        assertThat(gaps.getRangeCount(), is(100_000));
+        assertThat(gaps.getSize(400_000), is(100_000L));
+    }
+
+    @Test
+    public void testIndexes() {
+        ExtendedAnnotationCollection annotations = new ExtendedAnnotationCollection(100);
+        annotations.add(new SimpleAnnotation(10, 10, new NullInterpreter()));
+        annotations.add(new SimpleAnnotation(30, 10, new NullInterpreter()));
+        SearchScope scope = SearchScope.gaps(annotations.getRootGroup()); // [0-10, 20-30, 40-100]
+
+        assertThat(scope.indexEndingAfter(0), is(0));
+        assertThat(scope.indexEndingAfter(9), is(0));
+        assertThat(scope.indexEndingAfter(10), is(1));
+        assertThat(scope.indexEndingAfter(15), is(1));
+        assertThat(scope.indexEndingAfter(100), is(3));
+
+        assertThat(scope.indexStartingBefore(0), is(-1));
+        assertThat(scope.indexStartingBefore(1), is(0));
+        assertThat(scope.indexStartingBefore(20), is(0));
+        assertThat(scope.indexStartingBefore(21), is(1));
+        assertThat(scope.indexStartingBefore(1000), is(2));
+
+        assertThat(scope.getSize(100), is(80L));
+        assertThat(scope.getSize(45), is(25L));
+    }
+
+    @Test
+    public void testFindInScope() {
+        String haystack = "abcabcabc abcabc abc ab cabcabc";
+        ExtendedAnnotationCollection annotations = new ExtendedAnnotationCollection(haystack.length());
+        annotations.add(new SimpleAnnotation(2, 5, new NullInterpreter()));
+        annotations.add(new SimpleAnnotation(12, 2, new NullInterpreter()));
+        annotations.add(new SimpleAnnotation(17, 4, new NullInterpreter()));
+
+        List<SearchScope> scopes = new ArrayList<>();
+        scopes.add(SearchScope.EVERYWHERE);
+        scopes.add(SearchScope.range(0, 0));
+        scopes.add(SearchScope.range(3, 9));
+        scopes.add(SearchScope.range(4, 9));
+        scopes.add(SearchScope.range(25, 1000));
+        scopes.add(SearchScope.gaps(annotations.getRootGroup()));
+
+        for (SearchScope scope : scopes) {
+            for (String needle : new String[] { "abc", "c a", "ca", "x" }) {
+                checkFindInScope(needle, haystack, scope);
+            }
+        }
+    }
+
+    private void checkFindInScope(String needle, String haystack, SearchScope scope) {
+        Binary haystackBinary = BinaryFactory.wrap(haystack.getBytes(StandardCharsets.US_ASCII));
+        Binary needleBinary = BinaryFactory.wrap(needle.getBytes(StandardCharsets.US_ASCII));
+
+        // Expected result is every match lying entirely within one of the ranges.
+        List<Match> expected = new ArrayList<>();
+        for (int offset = haystack.indexOf(needle); offset >= 0; offset = haystack.indexOf(needle, offset + 1)) {
+            for (int i = 0; i < scope.getRangeCount(); i++) {
+                if (scope.getStart(i) <= offset && offset + needle.length() <= scope.getEnd(i)) {
+                    expected.add(new Match(offset, needle.length()));
+                }
+            }
+        }
+
+        for (AbstractSearcher searcher : new AbstractSearcher[] {
+            new BinarySearcher(needleBinary),
+            new ParallelSearcher(new BinarySearcher(needleBinary), 2, pool) }) {
+
+            String message = "needle '" + needle + "', scope " + scope;
+
+            List<Match> found = new ArrayList<>();
+            searcher.findAll(haystackBinary, scope, SearchMonitor.NONE,
+                             (offset, length) -> found.add(new Match(offset, length)));
+            assertThat(message, found, is(equalTo(expected)));
+
+            for (long start = -1; start <= haystack.length(); start++) {
+                for (boolean wrapping : new boolean[] { false, true }) {
+                    assertThat(message + ", start " + start + ", wrapping " + wrapping + ", forwards",
+                               searcher.find(haystackBinary, start, new SearchParams(wrapping, false, scope)),
+                               is(equalTo(expectedForwards(expected, start, wrapping))));
+                    assertThat(message + ", start " + start + ", wrapping " + wrapping + ", backwards",
+                               searcher.find(haystackBinary, start, new SearchParams(wrapping, true, scope)),
+                               is(equalTo(expectedBackwards(expected, start, wrapping))));
+                }
+            }
+        }
+    }
+
+    private Match expectedForwards(List<Match> matches, long start, boolean wrapping) {
+        for (Match match : matches) {
+            if (match.offset >= start) {
+                return match;
+            }
+        }
+        return wrapping && !matches.isEmpty() ? matches.get(0) : null;
+    }
+
+    private Match expectedBackwards(List<Match> matches, long start, boolean wrapping) {
+        for (int i = matches.size() - 1; i >= 0; i--) {
+            if (matches.get(i).endOffset() <= start) {
+                return matches.get(i);
+            }
+        }
+        return wrapping && !matches.isEmpty() ? matches.get(matches.size() - 1) : null;
+    }
+}
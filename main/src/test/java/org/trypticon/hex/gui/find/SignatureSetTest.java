@@ -0,0 +1,91 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SignatureSet}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class SignatureSetTest {
+
+    @Test
+    public void testRead() throws Exception {
+        SignatureSet signatures = SignatureSet.read(new StringReader(
+            "# Some signatures\n" +
+            "\n" +
+            "PNG: 89 50 4E 47\n" +
+            "  zip : 504b0304  # local file header\n" +
+            "CA FE BA BE\n" +
+            "Also PNG: 89 50 4E 47\n"));
+
+        assertThat(signatures.size(), is(3));
+        assertThat(signatures.getPatterns().get(1), is(equalTo(new byte[] { 0x50, 0x4B, 0x03, 0x04 })));
+
+        Binary binary = BinaryFactory.wrap(new byte[] {
+            (byte) 0x89, 0x50, 0x4E, 0x47, 0x50, 0x4B, 0x03, 0x04, (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE
+        });
+        assertThat(signatures.getLabel(binary, 0, 4), is("PNG, Also PNG"));
+        assertThat(signatures.getLabel(binary, 4, 4), is("zip"));
+        assertThat(signatures.getLabel(binary, 8, 4), is("CA FE BA BE"));
+        assertThat(signatures.getLabel(binary, 1, 4), is(""));
+    }
+
+    @Test
+    public void testReadInvalid() throws Exception {
+        for (String text : new String[] { "ok: 00\nbad: 0G\n", "ok: 00\nodd: 000\n", "ok: 00\nempty:\n" }) {
+            try {
+                SignatureSet.read(new StringReader(text));
+                fail("Expected ParseException for: " + text);
+            } catch (ParseException e) {
+                assertThat(e.getErrorOffset(), is(2));
+            }
+        }
+    }
+
+    @Test
+    public void testSearcherLabelsMatches() throws Exception {
+        SignatureSet signatures = SignatureSet.read(new StringReader("he: 68 65\nshe: 73 68 65\nhers: 68 65 72 73\n"));
+        Binary binary = BinaryFactory.wrap("ushers".getBytes(StandardCharsets.US_ASCII));
+
+        List<String> labels = new ArrayList<>();
+        signatures.createSearcher().findAll(binary, SearchMonitor.NONE,
+                                            (offset, length) -> labels.add(offset + " " +
+                                                signatures.getLabel(binary, offset, length)));
+        assertThat(labels, contains("1 she", "2 he", "2 hers"));
+    }
+}
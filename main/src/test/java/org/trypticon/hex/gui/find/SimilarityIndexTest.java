@@ -0,0 +1,147 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link SimilarityIndex}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class SimilarityIndexTest {
+
+    @Test
+    public void testAveragePieceSize() {
+        assertThat(SimilarityIndex.averagePieceSize(0), is(SimilarityIndex.MIN_AVERAGE_PIECE_SIZE));
+        assertThat(SimilarityIndex.averagePieceSize(100_000_000), is(SimilarityIndex.MIN_AVERAGE_PIECE_SIZE));
+        assertThat(SimilarityIndex.averagePieceSize(1L << 30), is(256));
+        assertThat(SimilarityIndex.averagePieceSize((1L << 30) + 1), is(512));
+    }
+
+    @Test
+    public void testFindsCopies() {
+        Random random = new Random(17);
+        byte[] bytes = randomBytes(random, 200_000);
+        byte[] block = randomBytes(random, 2000);
+        System.arraycopy(block, 0, bytes, 10_000, block.length);
+
+        // An exact copy, then one with a few bytes changed, then one with bytes inserted.
+        System.arraycopy(block, 0, bytes, 50_000, block.length);
+        System.arraycopy(block, 0, bytes, 100_000, block.length);
+        bytes[100_500] ^= 1;
+        bytes[101_500] ^= 1;
+        System.arraycopy(block, 0, bytes, 150_000, 1000);
+        System.arraycopy(block, 1000, bytes, 151_010, 1000);
+
+        SimilarityIndex index = SimilarityIndex.build(BinaryFactory.wrap(bytes), SearchMonitor.NONE);
+        List<SimilarityIndex.SimilarBlock> similar = index.findSimilar(10_000, 12_000, SearchMonitor.NONE);
+
+        assertThat(similar.size(), is(3));
+        // The copy's first piece or so can be cut differently, as the cuts depend a little on what came before.
+        assertBlock(similar.get(0), 50_000, 95, 100);
+        boolean patchedFirst = similar.get(1).offset < similar.get(2).offset;
+        assertBlock(similar.get(patchedFirst ? 1 : 2), 100_000, 70, 99);
+        assertBlock(similar.get(patchedFirst ? 2 : 1), 150_000, 70, 99);
+    }
+
+    @Test
+    public void testFindsRepeatedRecords() {
+        Random random = new Random(17);
+        byte[] record = randomBytes(random, 1000);
+        byte[] bytes = new byte[20_000];
+        for (int offset = 0; offset < bytes.length; offset += record.length) {
+            System.arraycopy(record, 0, bytes, offset, record.length);
+            // Each record has a different ID near the start.
+            bytes[offset + 10] = (byte) (offset / record.length);
+        }
+
+        SimilarityIndex index = SimilarityIndex.build(BinaryFactory.wrap(bytes), SearchMonitor.NONE);
+        List<SimilarityIndex.SimilarBlock> similar = index.findSimilar(5000, 6000, SearchMonitor.NONE);
+
+        assertThat(similar.size(), is(19));
+        for (SimilarityIndex.SimilarBlock block : similar) {
+            assertThat(block.toString(), block.score, is(greaterThanOrEqualTo(70)));
+            assertThat(block.toString(), block.offset / 1000 != 5, is(true));
+        }
+    }
+
+    @Test
+    public void testUnrelatedDataIsNotSimilar() {
+        Random random = new Random(17);
+        Binary binary = BinaryFactory.wrap(randomBytes(random, 500_000));
+        SimilarityIndex index = SimilarityIndex.build(binary, SearchMonitor.NONE);
+        assertThat(index.findSimilar(100_000, 104_000, SearchMonitor.NONE).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testCountPieces() {
+        Random random = new Random(17);
+        SimilarityIndex index = SimilarityIndex.build(BinaryFactory.wrap(randomBytes(random, 100_000)),
+                                                      SearchMonitor.NONE);
+        assertThat(index.countPieces(0, 10), is(0));
+        assertThat(index.countPieces(5000, 5000), is(0));
+        int pieces = index.countPieces(0, 100_000);
+        assertThat(pieces, is(both(greaterThanOrEqualTo(100_000 / 80)).and(lessThanOrEqualTo(100_000 / 24))));
+        assertThat(index.countPieces(1, 100_000), is(pieces - 1));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testBuildCanBeCancelled() {
+        SimilarityIndex.build(BinaryFactory.wrap(new byte[1000]), new SearchMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+
+            @Override
+            public void searched(long byteCount) {
+            }
+        });
+    }
+
+    private static void assertBlock(SimilarityIndex.SimilarBlock block, long offset, int minScore, int maxScore) {
+        // The block starts at the first piece in common, which can be a little after the start of the copy.
+        assertThat(block.toString(), block.offset,
+                   is(both(greaterThanOrEqualTo(offset)).and(lessThan(offset + 400))));
+        assertThat(block.toString(), block.score,
+                   is(both(greaterThanOrEqualTo(minScore)).and(lessThanOrEqualTo(maxScore))));
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
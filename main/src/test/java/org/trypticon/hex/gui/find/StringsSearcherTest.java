@@ -0,0 +1,238 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import org.trypticon.hex.anno.Annotation;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.interpreters.strings.StringInterpreter;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link StringsSearcher}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class StringsSearcherTest {
+
+    @Test
+    public void testFindsAsciiRuns() {
+        Binary haystack = BinaryFactory.wrap(bytes("\u0001\u0002hello\u0000ab\u0000world!\tok\u00FF"));
+        StringsSearcher searcher = new StringsSearcher(4, EnumSet.of(StringsSearcher.Encoding.ASCII));
+        assertThat(findAll(searcher, haystack, SearchScope.EVERYWHERE),
+                   contains(new Match(2, 5), new Match(11, 9)));
+    }
+
+    @Test
+    public void testFindsUtf16Runs() {
+        byte[] le = "name".getBytes(StandardCharsets.UTF_16LE);
+        byte[] be = "value".getBytes(StandardCharsets.UTF_16BE);
+        byte[] haystack = new byte[3 + le.length + 2 + be.length];
+        haystack[0] = (byte) 0xFF;
+        haystack[1] = (byte) 0xFE;
+        haystack[2] = 0x01;
+        System.arraycopy(le, 0, haystack, 3, le.length);
+        haystack[3 + le.length] = 0x01;
+        haystack[4 + le.length] = 0x01;
+        System.arraycopy(be, 0, haystack, 5 + le.length, be.length);
+
+        Binary binary = BinaryFactory.wrap(haystack);
+        StringsSearcher searcher = new StringsSearcher(4, StringsSearcher.Encoding.all());
+        // The end of the UTF-16BE run also reads as UTF-16LE, one byte along.
+        List<Match> found = findAll(searcher, binary, SearchScope.EVERYWHERE);
+        assertThat(found, contains(new Match(3, 8), new Match(13, 10), new Match(14, 8)));
+        assertThat(searcher.getLabel(binary, 3, 8), is("UTF-16LE"));
+        assertThat(searcher.getLabel(binary, 13, 10), is("UTF-16BE"));
+    }
+
+    @Test
+    public void testRunsCrossingTheScopeAreLeftOut() {
+        Binary haystack = BinaryFactory.wrap(bytes("\u0000abcdef\u0000ghijkl\u0000"));
+        StringsSearcher searcher = new StringsSearcher(3, EnumSet.of(StringsSearcher.Encoding.ASCII));
+        assertThat(findAll(searcher, haystack, SearchScope.range(3, 15)), contains(new Match(8, 6)));
+    }
+
+    @Test
+    public void testFind() {
+        Binary haystack = BinaryFactory.wrap(bytes("one\u0000two\u0000three"));
+        StringsSearcher searcher = new StringsSearcher(3, EnumSet.of(StringsSearcher.Encoding.ASCII));
+        assertThat(searcher.find(haystack, 1, new SearchParams(false, false)), is(equalTo(new Match(4, 3))));
+        assertThat(searcher.find(haystack, 9, new SearchParams(false, true)), is(equalTo(new Match(4, 3))));
+        assertThat(searcher.find(haystack, 9, new SearchParams(false, false)), is(nullValue()));
+        assertThat(searcher.find(haystack, 9, new SearchParams(true, false)), is(equalTo(new Match(0, 3))));
+    }
+
+    @Test
+    public void testCreateAnnotationsKeepsTheLongerOfOverlappingRuns() {
+        // Read as UTF-16BE, this is "ABCD" starting at 0. Read as UTF-16LE, it is "ABC" starting at 1.
+        Binary haystack = BinaryFactory.wrap(new byte[] { 0, 'A', 0, 'B', 0, 'C', 0, 'D', 1, 'x', 'y', 'z', 0 });
+        StringsSearcher searcher = new StringsSearcher(3, StringsSearcher.Encoding.all());
+        MatchList runs = new MatchList();
+        searcher.findAll(haystack, SearchMonitor.NONE, runs);
+        assertThat(runs.size(), is(3));
+
+        List<Annotation> annotations = StringsSearcher.createAnnotations(haystack, runs);
+        assertThat(annotations.size(), is(2));
+        assertThat(annotations.get(0).getPosition(), is(0L));
+        assertThat(annotations.get(0).getLength(), is(8L));
+        assertThat(((StringInterpreter) annotations.get(0).getInterpreter()).getCharset(),
+                   is(StandardCharsets.UTF_16BE));
+        assertThat(annotations.get(1).getPosition(), is(9L));
+        assertThat(annotations.get(1).getLength(), is(3L));
+        assertThat(((StringInterpreter) annotations.get(1).getInterpreter()).getCharset(),
+                   is(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Compares against finding the runs the slow way, in haystacks made mostly of printable characters
+     * and zeroes so that there are plenty of runs of every kind, some of them overlapping.
+     */
+    @Test
+    public void testAgainstBruteForce() {
+        Random random = new Random(15);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int round = 0; round < 300; round++) {
+                byte[] haystack = new byte[random.nextInt(300)];
+                for (int i = 0; i < haystack.length; i++) {
+                    int kind = random.nextInt(10);
+                    haystack[i] = (byte) (kind < 5 ? 'a' : kind < 9 ? 0 : 1);
+                }
+                int minLength = random.nextInt(4) + 1;
+                Set<StringsSearcher.Encoding> encodings = EnumSet.noneOf(StringsSearcher.Encoding.class);
+                for (StringsSearcher.Encoding encoding : StringsSearcher.Encoding.values()) {
+                    if (random.nextInt(3) > 0) {
+                        encodings.add(encoding);
+                    }
+                }
+                int windowSize = random.nextInt(50) + 1;
+                Binary binary = BinaryFactory.wrap(haystack);
+                long rangeStart = random.nextInt(haystack.length + 1);
+                long rangeEnd = rangeStart + random.nextInt(haystack.length + 1);
+                boolean everywhere = random.nextBoolean();
+                SearchScope scope = everywhere ? SearchScope.EVERYWHERE : SearchScope.range(rangeStart, rangeEnd);
+                long scopeStart = everywhere ? 0 : rangeStart;
+                long scopeEnd = everywhere ? Long.MAX_VALUE : rangeEnd;
+
+                List<Match> expected = new ArrayList<>();
+                for (Match run : bruteForce(haystack, minLength, encodings)) {
+                    if (run.offset >= scopeStart && run.offset + run.length <= scopeEnd) {
+                        expected.add(run);
+                    }
+                }
+
+                String message = "round " + round;
+                for (AbstractSearcher searcher : new AbstractSearcher[] {
+                    new StringsSearcher(minLength, encodings, windowSize),
+                    new ParallelSearcher(new StringsSearcher(minLength, encodings, windowSize), 7, pool) }) {
+
+                    assertThat(message, findAll(searcher, binary, scope), is(equalTo(expected)));
+
+                    long start = random.nextInt(haystack.length + 1);
+                    Match forwards = expected.stream().filter(m -> m.offset >= start).findFirst().orElse(null);
+                    assertThat(message + ", forwards from " + start,
+                               searcher.find(binary, start, new SearchParams(false, false, scope)),
+                               is(equalTo(forwards)));
+                    Match backwards = null;
+                    for (Match match : expected) {
+                        if (match.endOffset() <= start) {
+                            backwards = match;
+                        }
+                    }
+                    assertThat(message + ", backwards from " + start,
+                               searcher.find(binary, start, new SearchParams(false, true, scope)),
+                               is(equalTo(backwards)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Finds the maximal runs of each encoding separately, in order of offset.
+     */
+    private static List<Match> bruteForce(byte[] haystack, int minLength, Set<StringsSearcher.Encoding> encodings) {
+        List<Match> runs = new ArrayList<>();
+        for (int offset = 0; offset < haystack.length; offset++) {
+            if (encodings.contains(StringsSearcher.Encoding.ASCII) && (offset == 0 || !ascii(haystack[offset - 1]))) {
+                int end = offset;
+                while (end < haystack.length && ascii(haystack[end])) {
+                    end++;
+                }
+                if (end - offset >= minLength) {
+                    runs.add(new Match(offset, end - offset));
+                }
+            }
+            for (int order = 0; order < 2; order++) {
+                StringsSearcher.Encoding encoding = order == 0 ? StringsSearcher.Encoding.UTF_16LE
+                                                               : StringsSearcher.Encoding.UTF_16BE;
+                if (encodings.contains(encoding) && !utf16(haystack, offset - 2, order)) {
+                    int end = offset;
+                    while (utf16(haystack, end, order)) {
+                        end += 2;
+                    }
+                    if ((end - offset) / 2 >= minLength) {
+                        runs.add(new Match(offset, end - offset));
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    private static boolean ascii(byte value) {
+        return value == '\t' || (value >= 0x20 && value < 0x7F);
+    }
+
+    private static boolean utf16(byte[] haystack, int offset, int order) {
+        if (offset < 0 || offset + 2 > haystack.length) {
+            return false;
+        }
+        byte low = haystack[offset + order];
+        byte high = haystack[offset + 1 - order];
+        return high == 0 && ascii(low);
+    }
+
+    private static List<Match> findAll(AbstractSearcher searcher, Binary haystack, SearchScope scope) {
+        List<Match> found = new ArrayList<>();
+        searcher.findAll(haystack, scope, SearchMonitor.NONE, (offset, length) -> found.add(new Match(offset, length)));
+        return found;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
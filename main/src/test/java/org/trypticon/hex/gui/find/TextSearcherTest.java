@@ -121,12 +121,28 @@ public class TextSearcherTest {
             // Single match at the end, wrapping backwards to find it.
             { "ding", "US-ASCII", "reading", 2, true, true, new Match(3, 4) },
 
+            // Single match around the start position, wrapping backwards to find it.
+            { "ding", "US-ASCII", "reading", 4, true, true, new Match(3, 4) },
+
             // Normalisation forms
             { "caf\u00E9", "UTF-8", "cafe\u0301", 0, false, false, new Match(0, 6) },
             { "cafe\u0301", "UTF-8", "caf\u00E9", 0, false, false, new Match(0, 5) },
 
             // Binary junk before the match
             { "cake", "UTF-8", "\u0001\u0000\u0004cake", 0, false, false, new Match(3, 4) },
+
+            // Multi-byte encodings
+            { "ding", "UTF-16LE", "reading", 0, false, false, new Match(6, 8) },
+            { "ding", "UTF-16", "reading", 0, false, false, new Match(8, 8) },
+            { "ding", "UTF-16", "reading", 9, true, false, new Match(8, 8) },
+
+            // Precomposed character in the haystack starting with the needle
+            { "e", "UTF-8", "caf\u00E9", 0, false, false, new Match(3, 2) },
+
+            // Supplementary characters
+            { "\uD83D\uDE00", "UTF-8", "smile \uD83D\uDE00!", 0, false, false, new Match(6, 4) },
+            { "\uD83D\uDE00", "UTF-16BE", "a\uD83D\uDE00", 0, false, false, new Match(2, 4) },
+            { "\uD83D\uDE00", "UTF-16BE", "a\uD83D\uDE01", 0, false, false, null },
         };
 
         return Arrays.asList(data);
@@ -134,7 +150,16 @@ public class TextSearcherTest {
 
     @Test
     public void test() {
-        Searcher searcher = new TextSearcher(needle, charset);
+        check(new TextSearcher(needle, charset));
+    }
+
+    @Test
+    public void testSmallWindow() {
+        // Every match straddles a window boundary.
+        check(new TextSearcher(needle, charset, 1));
+    }
+
+    private void check(Searcher searcher) {
         Binary binary = BinaryFactory.wrap(haystack.getBytes(charset));
         Match result = searcher.find(binary, start, new SearchParams(wrapping, backwards));
         assertThat(result, is(equalTo(expectedResult)));
@@ -0,0 +1,218 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014  Trejkaz, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.gui.find;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link TrigramIndex} and {@link IndexedSearcher}.
+ *
+ * @author trejkaz
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public class TrigramIndexTest {
+    private static final int BLOCK_SIZE = 64;
+    private static final long MODIFIED = 1234567890L;
+    private static final ForkJoinPool pool = new ForkJoinPool(3);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private byte[] haystack;
+    private Binary haystackBinary;
+    private Path indexFile;
+    private TrigramIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        // A small alphabet so that short needles occur in some blocks but not others.
+        Random random = new Random(42);
+        haystack = new byte[BLOCK_SIZE * 60 + 17];
+        for (int i = 0; i < haystack.length; i++) {
+            haystack[i] = (byte) ('a' + random.nextInt(8));
+        }
+        haystackBinary = BinaryFactory.wrap(haystack);
+
+        indexFile = TrigramIndex.indexFileFor(temporaryFolder.newFile("test.hex").toPath());
+        index = TrigramIndex.build(haystackBinary, MODIFIED, indexFile, BLOCK_SIZE, SearchMonitor.NONE);
+    }
+
+    @AfterClass
+    public static void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testIndexFileFor() {
+        Path notebookFile = temporaryFolder.getRoot().toPath().resolve("notebook.hex");
+        assertThat(TrigramIndex.indexFileFor(notebookFile),
+                   is(temporaryFolder.getRoot().toPath().resolve("notebook.hex.index")));
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        TrigramIndex opened = TrigramIndex.open(indexFile, haystackBinary, MODIFIED);
+        assertThat(opened, is(notNullValue()));
+        assertThat(opened.getBlockSize(), is(BLOCK_SIZE));
+        assertThat(opened.getBlockCount(), is(61));
+    }
+
+    @Test
+    public void testOpenMissing() throws Exception {
+        Files.delete(indexFile);
+        assertThat(TrigramIndex.open(indexFile, haystackBinary, MODIFIED), is(nullValue()));
+    }
+
+    @Test
+    public void testOpenModifiedTimeChanged() throws Exception {
+        assertThat(TrigramIndex.open(indexFile, haystackBinary, MODIFIED + 1), is(nullValue()));
+    }
+
+    @Test
+    public void testOpenLengthChanged() throws Exception {
+        Binary longer = BinaryFactory.wrap(Arrays.copyOf(haystack, haystack.length + 1));
+        assertThat(TrigramIndex.open(indexFile, longer, MODIFIED), is(nullValue()));
+    }
+
+    @Test
+    public void testOpenContentChanged() throws Exception {
+        byte[] changed = haystack.clone();
+        changed[100]++;
+        assertThat(TrigramIndex.open(indexFile, BinaryFactory.wrap(changed), MODIFIED), is(nullValue()));
+    }
+
+    @Test
+    public void testOpenNotAnIndex() throws Exception {
+        Files.write(indexFile, new byte[100]);
+        assertThat(TrigramIndex.open(indexFile, haystackBinary, MODIFIED), is(nullValue()));
+    }
+
+    @Test
+    public void testFilterBitsForRepetitiveData() {
+        Binary zeros = BinaryFactory.wrap(new byte[BLOCK_SIZE * 10]);
+        assertThat(TrigramIndex.chooseFilterBits(zeros, BLOCK_SIZE), is(TrigramIndex.MIN_FILTER_BITS_LOG2));
+    }
+
+    @Test
+    public void testFilterBitsForRandomData() {
+        byte[] random = new byte[TrigramIndex.DEFAULT_BLOCK_SIZE * 2];
+        new Random(42).nextBytes(random);
+        assertThat(TrigramIndex.chooseFilterBits(BinaryFactory.wrap(random), TrigramIndex.DEFAULT_BLOCK_SIZE),
+                   is(TrigramIndex.MAX_FILTER_BITS_LOG2));
+    }
+
+    @Test
+    public void testFilterBitsScaleWithDistinctTrigrams() throws Exception {
+        // Up to 62 distinct trigrams per block, which need at least 124 bits.
+        assertThat(TrigramIndex.chooseFilterBits(haystackBinary, BLOCK_SIZE), is(7));
+        assertThat(TrigramIndex.estimateSize(haystackBinary, BLOCK_SIZE), is(Files.size(indexFile)));
+    }
+
+    @Test
+    public void testExplicitFilterBits() throws Exception {
+        index = TrigramIndex.build(haystackBinary, MODIFIED, indexFile, BLOCK_SIZE,
+                                   TrigramIndex.MAX_FILTER_BITS_LOG2, SearchMonitor.NONE);
+        assertThat(Files.size(indexFile), is(greaterThan(TrigramIndex.estimateSize(haystackBinary, BLOCK_SIZE))));
+        assertThat(TrigramIndex.open(indexFile, haystackBinary, MODIFIED), is(notNullValue()));
+        checkSameAsUnindexed("abcdefgh".getBytes("US-ASCII"));
+    }
+
+    @Test
+    public void testShortNeedle() throws Exception {
+        assertThat(index.findCandidateBlocks(new byte[] { 'a', 'b' }), is(nullValue()));
+    }
+
+    @Test
+    public void testNoFalseNegatives() throws Exception {
+        // Every substring of the haystack, including ones running over block boundaries, must be a candidate.
+        for (int length = 3; length <= 8; length++) {
+            for (int offset = 0; offset + length <= haystack.length; offset++) {
+                byte[] needle = Arrays.copyOfRange(haystack, offset, offset + length);
+                long[] candidates = index.findCandidateBlocks(needle);
+                int block = offset / BLOCK_SIZE;
+                assertThat("offset " + offset + ", length " + length,
+                           (candidates[block / 64] & (1L << (block % 64))) != 0, is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsUnindexed() throws Exception {
+        for (String needle : new String[] { "abc", "hhh", "abcdefgh", "zzz", "aaaa" }) {
+            checkSameAsUnindexed(needle.getBytes("US-ASCII"));
+        }
+
+        // Needles taken from across block boundaries.
+        checkSameAsUnindexed(Arrays.copyOfRange(haystack, BLOCK_SIZE - 2, BLOCK_SIZE + 3));
+        checkSameAsUnindexed(Arrays.copyOfRange(haystack, BLOCK_SIZE * 10 - 1, BLOCK_SIZE * 10 + 2));
+        checkSameAsUnindexed(Arrays.copyOfRange(haystack, haystack.length - 4, haystack.length));
+    }
+
+    private void checkSameAsUnindexed(byte[] needle) throws Exception {
+        AbstractSearcher plain = new BinarySearcher(BinaryFactory.wrap(needle));
+        AbstractSearcher indexed = new IndexedSearcher(plain, index, needle);
+        Searcher parallel = new ParallelSearcher(indexed, 100, pool);
+
+        for (long start = -1; start <= haystack.length; start += 7) {
+            for (boolean wrapping : new boolean[] { false, true }) {
+                for (boolean backwards : new boolean[] { false, true }) {
+                    SearchParams params = new SearchParams(wrapping, backwards);
+                    Match expected = plain.find(haystackBinary, start, params);
+                    String message = "needle " + Arrays.toString(needle) + ", start " + start +
+                                     ", wrapping " + wrapping + ", backwards " + backwards;
+                    assertThat(message, indexed.find(haystackBinary, start, params), is(equalTo(expected)));
+                    assertThat(message, parallel.find(haystackBinary, start, params), is(equalTo(expected)));
+                }
+            }
+        }
+
+        List<Match> expected = new ArrayList<>();
+        plain.findAll(haystackBinary, SearchMonitor.NONE, (offset, length) -> expected.add(new Match(offset, length)));
+        List<Match> indexedResult = new ArrayList<>();
+        indexed.findAll(haystackBinary, SearchMonitor.NONE,
+                        (offset, length) -> indexedResult.add(new Match(offset, length)));
+        assertThat(indexedResult, is(equalTo(expected)));
+        List<Match> parallelResult = new ArrayList<>();
+        parallel.findAll(haystackBinary, SearchMonitor.NONE,
+                         (offset, length) -> parallelResult.add(new Match(offset, length)));
+        assertThat(parallelResult, is(equalTo(expected)));
+    }
+}